@@ -18,9 +18,14 @@
 package ca.qc.ircm.genefinder.annotation;
 
 import ca.qc.ircm.genefinder.data.FindGenesParameters;
+import ca.qc.ircm.genefinder.rest.AdaptiveBatchSize;
+import ca.qc.ircm.genefinder.rest.AdaptiveBatchSizes;
 import ca.qc.ircm.genefinder.rest.RestClientFactory;
-import ca.qc.ircm.genefinder.util.ExceptionUtils;
-import ca.qc.ircm.genefinder.xml.StackSaxHandler;
+import ca.qc.ircm.genefinder.rest.RestConfiguration;
+import ca.qc.ircm.genefinder.rest.RetryPolicy;
+import ca.qc.ircm.genefinder.xml.ElementPath;
+import ca.qc.ircm.genefinder.xml.PathSaxHandler;
+import ca.qc.ircm.genefinder.xml.SaxParserPool;
 import ca.qc.ircm.progressbar.ProgressBar;
 import ca.qc.ircm.utils.MessageResources;
 import jakarta.ws.rs.client.Client;
@@ -33,18 +38,18 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-import org.glassfish.jersey.logging.LoggingFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -58,8 +63,16 @@ import org.xml.sax.SAXException;
 public abstract class AbstractDownloadProteinMappingService
     implements DownloadProteinMappingService {
   protected static final Charset UTF_8_CHARSET = Charset.forName("UTF-8");
-  protected static final int MAX_RETRIES = 5;
-  protected static final long RETRY_SLEEP_TIME = 2000;
+  /**
+   * EUtils should never receive more than 5,000 ids per request.
+   */
+  protected static final int NCBI_MAX_IDS_PER_REQUEST = 5000;
+  private static final ElementPath GENE_SUMMARY = ElementPath.compile("DocumentSummary");
+  private static final ElementPath GENE_NAME = ElementPath.compile("DocumentSummary/Name");
+  private static final ElementPath GENE_DESCRIPTION =
+      ElementPath.compile("DocumentSummary/Description");
+  private static final ElementPath GENE_ALIASES =
+      ElementPath.compile("DocumentSummary/OtherAliases");
   private static final Logger logger =
       LoggerFactory.getLogger(AbstractDownloadProteinMappingService.class);
 
@@ -67,44 +80,153 @@ public abstract class AbstractDownloadProteinMappingService
   private NcbiConfiguration ncbiConfiguration;
   @Inject
   private RestClientFactory restClientFactory;
+  @Inject
+  private AnnotationCache annotationCache;
+  @Inject
+  private NcbiRequestScheduler ncbiRequestScheduler;
+  @Inject
+  private GeneInfoIndex geneInfoIndex;
+  @Inject
+  private AdaptiveBatchSizes adaptiveBatchSizes;
+  @Inject
+  private RestConfiguration restConfiguration;
+  @Inject
+  private SaxParserPool saxParserPool;
+  private RetryPolicy retryPolicy;
 
   protected AbstractDownloadProteinMappingService() {
   }
 
   protected AbstractDownloadProteinMappingService(NcbiConfiguration ncbiConfiguration,
-      RestClientFactory restClientFactory) {
+      RestClientFactory restClientFactory, AnnotationCache annotationCache,
+      NcbiRequestScheduler ncbiRequestScheduler, GeneInfoIndex geneInfoIndex,
+      AdaptiveBatchSizes adaptiveBatchSizes, RestConfiguration restConfiguration,
+      SaxParserPool saxParserPool) {
     this.ncbiConfiguration = ncbiConfiguration;
     this.restClientFactory = restClientFactory;
+    this.annotationCache = annotationCache;
+    this.ncbiRequestScheduler = ncbiRequestScheduler;
+    this.geneInfoIndex = geneInfoIndex;
+    this.adaptiveBatchSizes = adaptiveBatchSizes;
+    this.restConfiguration = restConfiguration;
+    this.saxParserPool = saxParserPool;
+  }
+
+  /**
+   * Returns a new form for NCBI's EUtils containing API key, if configured.
+   *
+   * @return new form for NCBI's EUtils containing API key, if configured
+   */
+  protected Form ncbiForm() {
+    Form form = new Form();
+    String apiKey = ncbiConfiguration.apiKey();
+    if (apiKey != null) {
+      form.param("api_key", apiKey);
+    }
+    return form;
   }
 
   protected <R> R retry(Callable<R> callable) throws Exception {
-    return retry(callable, MAX_RETRIES, RETRY_SLEEP_TIME);
+    return retryPolicy().call(callable);
   }
 
-  protected <R> R retry(Callable<R> callable, int maxRetries, long retrySleepTime)
-      throws Exception {
-    int tries = 0;
-    Exception firstException = null;
-    while (true) {
-      try {
-        return callable.call();
-      } catch (Exception e) {
-        if (e instanceof InterruptedException) {
-          throw e;
-        }
-        logger.trace("Caught {} exception {}, retry in {} millis", e.getClass(), e.getMessage(),
-            retrySleepTime);
-        if (firstException == null) {
-          firstException = e;
-        }
-        if (tries++ == maxRetries) {
-          throw firstException;
-        }
-        Thread.sleep(retrySleepTime);
-      }
+  /**
+   * Sends request on ids with retries and records latency of each try in adaptive batch size.
+   * <p>
+   * When request still fails after all retries, or fails with an error that is not retryable,
+   * ids are split in two and each half is requested separately, so that an id rejected by service
+   * does not fail the other ids of the request. Halves are tried only once, so that splitting does
+   * not restart the retry budget at every level. An id that fails on its own is skipped, unless
+   * the batch contains a single id or another id already failed on its own before any request
+   * succeeded, meaning that service is down. Indexes of skipped ids are returned with results, so
+   * that callers do not cache skipped ids as having no data.
+   * </p>
+   *
+   * @param batchSize
+   *          adaptive batch size of service
+   * @param ids
+   *          number of ids to request
+   * @param request
+   *          request on a range of ids
+   * @param <K>
+   *          key type of results
+   * @param <V>
+   *          value type of results
+   * @return results of all successful requests and indexes of skipped ids
+   * @throws Exception
+   *           request failed and ids could not be split
+   */
+  protected <K, V> RangeResults<K, V> retry(AdaptiveBatchSize batchSize, int ids,
+      RangeRequest<K, V> request) throws Exception {
+    Bisection<K, V> bisection = new Bisection<>(batchSize, ids, request);
+    bisection.request(0, ids);
+    return bisection.results;
+  }
+
+  /**
+   * Reports proteins that were skipped because their requests failed.
+   * <p>
+   * Skipped proteins are not cached, so they are downloaded again on next search.
+   * </p>
+   *
+   * @param skipped
+   *          skipped protein ids
+   * @param progressBar
+   *          records progression
+   * @param resources
+   *          messages
+   */
+  protected void reportSkipped(Collection<String> skipped, ProgressBar progressBar,
+      MessageResources resources) {
+    if (!skipped.isEmpty()) {
+      logger.warn("Could not download {} proteins: {}", skipped.size(), skipped);
+      progressBar.setMessage(resources.message("skippedProteins", skipped.size()));
     }
   }
 
+  /**
+   * Returns adaptive batch size of a request type on NCBI's EUtils.
+   * <p>
+   * Batch size starts at {@link NcbiConfiguration#maxIdsPerRequest()} and never exceeds
+   * {@link #NCBI_MAX_IDS_PER_REQUEST}.
+   * </p>
+   *
+   * @param name
+   *          request type
+   * @return adaptive batch size of a request type on NCBI's EUtils
+   */
+  protected AdaptiveBatchSize ncbiBatchSize(String name) {
+    return batchSize("ncbi-" + name, ncbiConfiguration.maxIdsPerRequest(),
+        NCBI_MAX_IDS_PER_REQUEST);
+  }
+
+  /**
+   * Returns adaptive batch size of a REST service.
+   * <p>
+   * Batch size starts at maxIdsPerRequest and may grow up to max while latency per id improves.
+   * </p>
+   *
+   * @param name
+   *          name of service
+   * @param maxIdsPerRequest
+   *          configured maximum number of ids per request
+   * @param max
+   *          maximum batch size accepted by service
+   * @return adaptive batch size of a REST service
+   */
+  protected AdaptiveBatchSize batchSize(String name, int maxIdsPerRequest, int max) {
+    return adaptiveBatchSizes.get(name, Math.min(maxIdsPerRequest, max), max);
+  }
+
+  private synchronized RetryPolicy retryPolicy() {
+    if (retryPolicy == null) {
+      retryPolicy = new RetryPolicy(restConfiguration.connectRetries(),
+          restConfiguration.readRetries(), Duration.ofMillis(restConfiguration.retryDelay()),
+          Duration.ofMillis(restConfiguration.maxRetryDelay()));
+    }
+    return retryPolicy;
+  }
+
   protected boolean isDownloadGeneInfo(FindGenesParameters parameters) {
     return parameters.isGeneName() || parameters.isGeneSummary() || parameters.isGeneSynonyms();
   }
@@ -112,101 +234,270 @@ public abstract class AbstractDownloadProteinMappingService
   protected void downloadGeneInfo(List<ProteinMapping> mappings, FindGenesParameters parameters,
       ProgressBar progressBar, MessageResources resources)
       throws IOException, InterruptedException {
-    final Map<Long, List<GeneInfo>> genesById = new HashMap<>();
-    mappings.stream().map(mapping -> mapping.getGenes()).filter(genes -> genes != null)
-        .flatMap(genes -> genes.stream()).forEach(gene -> {
-          if (!genesById.containsKey(gene.getId())) {
-            genesById.put(gene.getId(), new ArrayList<>());
-          }
-          genesById.get(gene.getId()).add(gene);
-        });
-    Client client = restClientFactory.createClient();
-    client.register(LoggingFeature.class);
-    client.property(LoggingFeature.LOGGING_FEATURE_VERBOSITY_CLIENT,
-        LoggingFeature.Verbosity.HEADERS_ONLY);
+    final Map<Long, GeneInfo> genes = new ConcurrentHashMap<>();
+    List<Long> allGeneIds = mappings.stream().map(mapping -> mapping.getGenes())
+        .filter(mappingGenes -> mappingGenes != null)
+        .flatMap(mappingGenes -> mappingGenes.stream()).map(gene -> gene.getId()).distinct()
+        .collect(Collectors.toList());
+    List<Long> geneIds = new ArrayList<>();
+    if (geneInfoIndex.enabled()) {
+      progressBar.setMessage(resources.message("localGenes", allGeneIds.size()));
+      localGeneInfo(allGeneIds, genes);
+    } else {
+      allGeneIds.forEach(geneId -> {
+        GeneInfo cached = annotationCache.gene(geneId);
+        if (cached != null) {
+          genes.put(geneId, cached);
+        } else {
+          geneIds.add(geneId);
+        }
+      });
+    }
+    if (!geneIds.isEmpty()) {
+      WebTarget target = ncbiTarget("esummary.fcgi");
+      AdaptiveBatchSize batchSize = ncbiBatchSize("gene");
+      List<Callable<Void>> batches = new ArrayList<>();
+      List<String> messages = new ArrayList<>();
+      int[] boundaries = batchSize.boundaries(geneIds.size());
+      for (int i = 0; i < boundaries.length - 1; i++) {
+        int start = boundaries[i];
+        int end = boundaries[i + 1];
+        batches.add(geneInfoBatch(target, new ArrayList<>(geneIds.subList(start, end)), genes));
+        messages.add(resources.message("downloadGenes", start + 1, end, geneIds.size()));
+      }
+      ncbiRequestScheduler.execute(batches, messages::get, progressBar);
+    }
+    setGeneInfo(mappings, genes, parameters);
+    progressBar.setProgress(1.0);
+  }
+
+  /**
+   * Finds information of genes in local gene_info file, if configured.
+   *
+   * @param geneIds
+   *          gene ids
+   * @param genes
+   *          genes found in local gene_info file, by gene id
+   * @return true if a local gene_info file is configured, false if gene information must be
+   *         downloaded
+   * @throws IOException
+   *           could not read local gene_info file
+   */
+  protected boolean localGeneInfo(Collection<Long> geneIds, Map<Long, GeneInfo> genes)
+      throws IOException {
+    if (!geneInfoIndex.enabled()) {
+      return false;
+    }
+    for (Long geneId : geneIds) {
+      GeneInfo gene = geneInfoIndex.gene(geneId);
+      if (gene != null) {
+        genes.put(geneId, gene);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns target of a service on NCBI's EUtils.
+   *
+   * @param path
+   *          service path, like esummary.fcgi
+   * @return target of a service on NCBI's EUtils
+   */
+  protected WebTarget ncbiTarget(String path) {
+    Client client = restClientFactory.client();
     WebTarget target = client.target(ncbiConfiguration.eutils());
-    target = target.path("esummary.fcgi");
-    List<Long> geneIds = new ArrayList<>(genesById.keySet());
-    int maxIdsPerRequest = ncbiConfiguration.maxIdsPerRequest();
-    double step = 1.0 / Math.max(geneIds.size() / maxIdsPerRequest, 1.0);
-    for (int i = 0; i < geneIds.size(); i += maxIdsPerRequest) {
-      ExceptionUtils.throwIfInterrupted(resources.message("interrupted"));
-      progressBar.setMessage(resources.message("downloadGenes", i + 1,
-          Math.min(i + maxIdsPerRequest, geneIds.size()), geneIds.size()));
-      Form form = new Form();
-      form.param("db", "gene");
-      form.param("id", geneIds.stream().skip(i).limit(maxIdsPerRequest)
-          .map(id -> String.valueOf(id)).collect(Collectors.joining(",")));
-      final Invocation.Builder request = target.request();
-      try {
-        retry(() -> {
-          try (InputStream input = new BufferedInputStream(
-              request.post(Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED_TYPE),
-                  InputStream.class))) {
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            SAXParser parser = factory.newSAXParser();
-            parser.parse(input, new StackSaxHandler() {
-              private Long id;
-              private boolean saveCharacter;
-              private StringBuilder builder = new StringBuilder();
-
-              @Override
-              protected void startElement(String elementName, Attributes attributes)
-                  throws SAXException {
-                if (current("DocumentSummary") && hasAttribute("uid")) {
-                  id = Long.valueOf(attribute("uid"));
-                } else if (current("Name")) {
-                  builder.delete(0, builder.length());
-                  saveCharacter = true;
-                } else if (current("Description")) {
-                  builder.delete(0, builder.length());
-                  saveCharacter = true;
-                } else if (current("OtherAliases")) {
-                  builder.delete(0, builder.length());
-                  saveCharacter = true;
-                }
-              }
+    return target.path(path);
+  }
 
-              @Override
-              protected void endElement(String elementName) {
-                if (genesById.containsKey(id)) {
-                  if (parameters.isGeneName() && current("Name")) {
-                    genesById.get(id).stream().forEach(gene -> gene.setSymbol(builder.toString()));
-                    saveCharacter = false;
-                  } else if (parameters.isGeneSummary() && current("Description")) {
-                    genesById.get(id).stream()
-                        .forEach(gene -> gene.setDescription(builder.toString()));
-                    saveCharacter = false;
-                  } else if (parameters.isGeneSynonyms() && current("OtherAliases")) {
-                    if (!builder.toString().isEmpty()) {
-                      genesById.get(id).stream().forEach(
-                          gene -> gene.setSynonyms(Arrays.asList(builder.toString().split(", "))));
-                    }
-                    saveCharacter = false;
-                  }
-                }
+  /**
+   * Returns a batch that downloads information of genes and saves it in genes map and in
+   * annotation cache.
+   *
+   * @param target
+   *          target of NCBI's esummary service
+   * @param geneIds
+   *          gene ids
+   * @param genes
+   *          downloaded genes, by gene id
+   * @return batch that downloads information of genes
+   */
+  protected Callable<Void> geneInfoBatch(WebTarget target, List<Long> geneIds,
+      Map<Long, GeneInfo> genes) {
+    final Invocation.Builder request = target.request();
+    final AdaptiveBatchSize batchSize = ncbiBatchSize("gene");
+    return () -> {
+      Map<Long, GeneInfo> downloadedGenes = retry(batchSize, geneIds.size(), (from, to) -> {
+        Form form = ncbiForm();
+        form.param("db", "gene");
+        form.param("id", geneIds.subList(from, to).stream().map(id -> String.valueOf(id))
+            .collect(Collectors.joining(",")));
+        ncbiRequestScheduler.acquire();
+        Map<Long, GeneInfo> parsedGenes = new HashMap<>();
+        try (InputStream input = new BufferedInputStream(
+            request.post(Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED_TYPE),
+                InputStream.class))) {
+          saxParserPool.parse(input, new PathSaxHandler() {
+            private GeneInfo downloaded;
+
+            @Override
+            protected void startElement(String elementName, Attributes attributes) {
+              if (current(GENE_SUMMARY) && attributes.getValue("uid") != null) {
+                Long id = Long.valueOf(attributes.getValue("uid"));
+                downloaded = parsedGenes.computeIfAbsent(id, key -> new GeneInfo(key));
+              } else if (current(GENE_NAME) || current(GENE_DESCRIPTION)
+                  || current(GENE_ALIASES)) {
+                collectText();
               }
+            }
 
-              @Override
-              public void characters(char[] ch, int start, int length) throws SAXException {
-                if (saveCharacter) {
-                  builder.append(ch, start, length);
+            @Override
+            protected void endElement(String elementName) {
+              if (downloaded == null) {
+                return;
+              }
+              if (current(GENE_NAME)) {
+                downloaded.setSymbol(text());
+              } else if (current(GENE_DESCRIPTION)) {
+                downloaded.setDescription(text());
+              } else if (current(GENE_ALIASES)) {
+                String aliases = text();
+                if (!aliases.isEmpty()) {
+                  downloaded.setSynonyms(Arrays.asList(aliases.split(", ")));
                 }
               }
-            });
-          } catch (ParserConfigurationException | SAXException e) {
-            throw new IOException("Could not parse esummary response", e);
-          }
-          return null;
-        });
+            }
+          });
+        } catch (SAXException e) {
+          throw new IOException("Could not parse esummary response", e);
+        }
+        return parsedGenes;
+      }).getResults();
+      downloadedGenes.values().forEach(gene -> annotationCache.putGene(gene));
+      genes.putAll(downloadedGenes);
+      return null;
+    };
+  }
+
+  /**
+   * Copies gene information to genes of protein mappings.
+   *
+   * @param mappings
+   *          protein mappings
+   * @param genes
+   *          gene information, by gene id
+   * @param parameters
+   *          parameters
+   */
+  protected void setGeneInfo(List<ProteinMapping> mappings, Map<Long, GeneInfo> genes,
+      FindGenesParameters parameters) {
+    mappings.stream().map(mapping -> mapping.getGenes())
+        .filter(mappingGenes -> mappingGenes != null)
+        .flatMap(mappingGenes -> mappingGenes.stream())
+        .filter(gene -> genes.containsKey(gene.getId()))
+        .forEach(gene -> setGeneInfo(gene, genes.get(gene.getId()), parameters));
+  }
+
+  private void setGeneInfo(GeneInfo gene, GeneInfo source, FindGenesParameters parameters) {
+    if (parameters.isGeneName()) {
+      gene.setSymbol(source.getSymbol());
+    }
+    if (parameters.isGeneSummary()) {
+      gene.setDescription(source.getDescription());
+    }
+    if (parameters.isGeneSynonyms()) {
+      gene.setSynonyms(source.getSynonyms());
+    }
+  }
+
+  /**
+   * Request on a range of ids.
+   */
+  @FunctionalInterface
+  protected interface RangeRequest<K, V> {
+    /**
+     * Sends request on ids from start, inclusive, to end, exclusive.
+     *
+     * @param start
+     *          index of first id
+     * @param end
+     *          index after last id
+     * @return results
+     * @throws Exception
+     *           request failed
+     */
+    public Map<K, V> call(int start, int end) throws Exception;
+  }
+
+  /**
+   * Results of requests on ranges of ids.
+   */
+  protected static class RangeResults<K, V> {
+    private final Map<K, V> results = new LinkedHashMap<>();
+    private final List<Integer> skipped = new ArrayList<>();
+
+    /**
+     * Returns results of all successful requests.
+     *
+     * @return results of all successful requests
+     */
+    public Map<K, V> getResults() {
+      return results;
+    }
+
+    /**
+     * Returns indexes of ids that were skipped because their request failed, in increasing order.
+     *
+     * @return indexes of ids that were skipped because their request failed
+     */
+    public List<Integer> getSkipped() {
+      return skipped;
+    }
+  }
+
+  /**
+   * Splits ids of a failing request in two until failing ids are isolated.
+   */
+  private class Bisection<K, V> {
+    private final AdaptiveBatchSize batchSize;
+    private final int ids;
+    private final RangeRequest<K, V> request;
+    private final RangeResults<K, V> results = new RangeResults<>();
+    private boolean succeeded;
+
+    private Bisection(AdaptiveBatchSize batchSize, int ids, RangeRequest<K, V> request) {
+      this.batchSize = batchSize;
+      this.ids = ids;
+      this.request = request;
+    }
+
+    private void request(int start, int end) throws Exception {
+      Map<K, V> result;
+      try {
+        Callable<Map<K, V>> call =
+            () -> batchSize.measure(end - start, () -> request.call(start, end));
+        result = start == 0 && end == ids ? retryPolicy().call(call) : call.call();
       } catch (Exception e) {
-        ExceptionUtils.throwExceptionIfMatch(e, IOException.class);
-        ExceptionUtils.throwExceptionIfMatch(e, InterruptedException.class);
-        ExceptionUtils.throwExceptionIfMatch(e, RuntimeException.class);
-        throw new IOException(e);
+        if (e instanceof InterruptedException || RetryPolicy.connectFailure(e)) {
+          throw e;
+        }
+        if (end - start > 1) {
+          logger.debug("{} request on {} ids failed, splitting ids in two", batchSize.name(),
+              end - start, e);
+          int middle = (start + end) >>> 1;
+          request(start, middle);
+          request(middle, end);
+          return;
+        } else if (ids > 1 && (succeeded || results.skipped.isEmpty())) {
+          logger.warn("{} request failed for id {} of {}, skipping id", batchSize.name(),
+              start + 1, ids, e);
+          results.skipped.add(start);
+          return;
+        }
+        throw e;
       }
-      progressBar.setProgress(i * step);
+      results.results.putAll(result);
+      succeeded = true;
     }
-    progressBar.setProgress(1.0);
   }
 }
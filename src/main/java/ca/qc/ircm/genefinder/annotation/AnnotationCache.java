@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Disk-backed cache of downloaded protein mappings.
+ * <p>
+ * Protein to gene mappings, sequences and molecular weights are keyed by {@link ProteinDatabase}
+ * and protein id.
+ * Gene information is keyed by gene id.
+ * </p>
+ */
+@Component
+public class AnnotationCache {
+  private static final String PROTEINS_FILENAME = "proteins-%s.json";
+  private static final String GENES_FILENAME = "genes.json";
+  private static final Type PROTEINS_TYPE = new TypeToken<Map<String, CachedProtein>>() {
+  }.getType();
+  private static final Type GENES_TYPE = new TypeToken<Map<Long, CachedGene>>() {
+  }.getType();
+  private static final Logger logger = LoggerFactory.getLogger(AnnotationCache.class);
+  @Inject
+  private AnnotationCacheConfiguration configuration;
+  private final Gson gson = new Gson();
+  private final Map<ProteinDatabase, Map<String, CachedProtein>> proteins =
+      new EnumMap<>(ProteinDatabase.class);
+  private final Map<ProteinDatabase, Boolean> proteinsModified =
+      new EnumMap<>(ProteinDatabase.class);
+  private Map<Long, CachedGene> genes;
+  private boolean genesModified;
+
+  protected AnnotationCache() {
+  }
+
+  protected AnnotationCache(AnnotationCacheConfiguration configuration) {
+    this.configuration = configuration;
+  }
+
+  /**
+   * Returns true if cache is enabled.
+   *
+   * @return true if cache is enabled
+   */
+  public boolean enabled() {
+    return configuration.enabled();
+  }
+
+  /**
+   * Returns cached gene ids of protein or null if protein's genes are not in cache.
+   *
+   * @param database
+   *          protein database
+   * @param proteinId
+   *          protein id
+   * @return cached gene ids of protein or null if protein's genes are not in cache
+   */
+  public List<Long> geneIds(ProteinDatabase database, String proteinId) {
+    if (!configuration.enabled()) {
+      return null;
+    }
+    CachedProtein protein = proteins(database).get(proteinId);
+    if (protein == null || protein.geneIds == null
+        || expired(protein.geneIdsTimestamp, configuration.mappingTtl())) {
+      return null;
+    }
+    return new ArrayList<>(protein.geneIds);
+  }
+
+  /**
+   * Saves gene ids of protein in cache.
+   *
+   * @param database
+   *          protein database
+   * @param proteinId
+   *          protein id
+   * @param geneIds
+   *          gene ids, can be empty if protein has no gene
+   */
+  public void putGeneIds(ProteinDatabase database, String proteinId, Collection<Long> geneIds) {
+    if (!configuration.enabled()) {
+      return;
+    }
+    CachedProtein protein =
+        proteins(database).computeIfAbsent(proteinId, id -> new CachedProtein());
+    synchronized (protein) {
+      protein.geneIds = new ArrayList<>(geneIds);
+      protein.geneIdsTimestamp = System.currentTimeMillis();
+    }
+    modified(database);
+  }
+
+  /**
+   * Returns cached sequence of protein or null if protein's sequence is not in cache.
+   *
+   * @param database
+   *          protein database
+   * @param proteinId
+   *          protein id
+   * @return cached sequence of protein or null if protein's sequence is not in cache
+   */
+  public String sequence(ProteinDatabase database, String proteinId) {
+    if (!configuration.enabled()) {
+      return null;
+    }
+    CachedProtein protein = proteins(database).get(proteinId);
+    if (protein == null || protein.sequence == null
+        || expired(protein.sequenceTimestamp, configuration.sequenceTtl())) {
+      return null;
+    }
+    return protein.sequence;
+  }
+
+  /**
+   * Saves sequence of protein in cache.
+   *
+   * @param database
+   *          protein database
+   * @param proteinId
+   *          protein id
+   * @param sequence
+   *          protein sequence
+   */
+  public void putSequence(ProteinDatabase database, String proteinId, String sequence) {
+    if (!configuration.enabled()) {
+      return;
+    }
+    CachedProtein protein =
+        proteins(database).computeIfAbsent(proteinId, id -> new CachedProtein());
+    synchronized (protein) {
+      protein.sequence = sequence;
+      protein.sequenceTimestamp = System.currentTimeMillis();
+    }
+    modified(database);
+  }
+
+  /**
+   * Returns cached molecular weight of protein or null if protein's weight is not in cache.
+   * <p>
+   * Weight is cached when it is computed without keeping protein's sequence.
+   * </p>
+   *
+   * @param database
+   *          protein database
+   * @param proteinId
+   *          protein id
+   * @return cached molecular weight of protein or null if protein's weight is not in cache
+   */
+  public Double weight(ProteinDatabase database, String proteinId) {
+    if (!configuration.enabled()) {
+      return null;
+    }
+    CachedProtein protein = proteins(database).get(proteinId);
+    if (protein == null || protein.weight == null
+        || expired(protein.weightTimestamp, configuration.sequenceTtl())) {
+      return null;
+    }
+    return protein.weight;
+  }
+
+  /**
+   * Saves molecular weight of protein in cache.
+   *
+   * @param database
+   *          protein database
+   * @param proteinId
+   *          protein id
+   * @param weight
+   *          protein molecular weight
+   */
+  public void putWeight(ProteinDatabase database, String proteinId, double weight) {
+    if (!configuration.enabled()) {
+      return;
+    }
+    CachedProtein protein =
+        proteins(database).computeIfAbsent(proteinId, id -> new CachedProtein());
+    synchronized (protein) {
+      protein.weight = weight;
+      protein.weightTimestamp = System.currentTimeMillis();
+    }
+    modified(database);
+  }
+
+  /**
+   * Returns a copy of cached gene information or null if gene is not in cache.
+   *
+   * @param geneId
+   *          gene id
+   * @return copy of cached gene information or null if gene is not in cache
+   */
+  public GeneInfo gene(long geneId) {
+    if (!configuration.enabled()) {
+      return null;
+    }
+    CachedGene gene = genes().get(geneId);
+    if (gene == null || expired(gene.timestamp, configuration.geneTtl())) {
+      return null;
+    }
+    GeneInfo geneInfo = new GeneInfo(geneId, gene.symbol);
+    geneInfo.setDescription(gene.description);
+    geneInfo.setSynonyms(gene.synonyms != null ? new ArrayList<>(gene.synonyms) : null);
+    return geneInfo;
+  }
+
+  /**
+   * Saves gene information in cache.
+   *
+   * @param geneInfo
+   *          gene information
+   */
+  public void putGene(GeneInfo geneInfo) {
+    if (!configuration.enabled()) {
+      return;
+    }
+    CachedGene gene = new CachedGene();
+    gene.symbol = geneInfo.getSymbol();
+    gene.description = geneInfo.getDescription();
+    gene.synonyms = geneInfo.getSynonyms() != null ? new ArrayList<>(geneInfo.getSynonyms()) : null;
+    gene.timestamp = System.currentTimeMillis();
+    genes().put(geneInfo.getId(), gene);
+    synchronized (this) {
+      genesModified = true;
+    }
+  }
+
+  /**
+   * Writes modified cache entries to disk.
+   */
+  public synchronized void flush() {
+    if (!configuration.enabled()) {
+      return;
+    }
+    try {
+      Files.createDirectories(configuration.directory());
+      for (Map.Entry<ProteinDatabase, Boolean> modified : proteinsModified.entrySet()) {
+        if (modified.getValue()) {
+          write(proteinsFile(modified.getKey()), proteins.get(modified.getKey()), PROTEINS_TYPE);
+          modified.setValue(false);
+        }
+      }
+      if (genesModified) {
+        write(genesFile(), genes, GENES_TYPE);
+        genesModified = false;
+      }
+    } catch (IOException e) {
+      logger.warn("Could not save annotation cache to {}", configuration.directory(), e);
+    }
+  }
+
+  private boolean expired(long timestamp, Duration ttl) {
+    return System.currentTimeMillis() - timestamp > ttl.toMillis();
+  }
+
+  private synchronized void modified(ProteinDatabase database) {
+    proteinsModified.put(database, true);
+  }
+
+  private synchronized Map<String, CachedProtein> proteins(ProteinDatabase database) {
+    Map<String, CachedProtein> databaseProteins = proteins.get(database);
+    if (databaseProteins == null) {
+      databaseProteins = new ConcurrentHashMap<>(read(proteinsFile(database), PROTEINS_TYPE));
+      proteins.put(database, databaseProteins);
+      proteinsModified.put(database, false);
+    }
+    return databaseProteins;
+  }
+
+  private synchronized Map<Long, CachedGene> genes() {
+    if (genes == null) {
+      genes = new ConcurrentHashMap<>(read(genesFile(), GENES_TYPE));
+    }
+    return genes;
+  }
+
+  private Path proteinsFile(ProteinDatabase database) {
+    return configuration.directory().resolve(String.format(PROTEINS_FILENAME, database.name()));
+  }
+
+  private Path genesFile() {
+    return configuration.directory().resolve(GENES_FILENAME);
+  }
+
+  private <K, V> Map<K, V> read(Path file, Type type) {
+    if (Files.exists(file)) {
+      try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        Map<K, V> values = gson.fromJson(reader, type);
+        if (values != null) {
+          return values;
+        }
+      } catch (IOException | RuntimeException e) {
+        logger.warn("Could not read annotation cache file {}, ignoring cache", file, e);
+      }
+    }
+    return new ConcurrentHashMap<>();
+  }
+
+  private void write(Path file, Object values, Type type) throws IOException {
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+      gson.toJson(values, type, writer);
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static class CachedProtein {
+    private List<Long> geneIds;
+    private long geneIdsTimestamp;
+    private String sequence;
+    private long sequenceTimestamp;
+    private Double weight;
+    private long weightTimestamp;
+  }
+
+  private static class CachedGene {
+    private String symbol;
+    private String description;
+    private List<String> synonyms;
+    private long timestamp;
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Annotation cache's configuration.
+ */
+public interface AnnotationCacheConfiguration {
+  /**
+   * Returns true if annotation cache is enabled, false otherwise.
+   *
+   * @return true if annotation cache is enabled, false otherwise
+   */
+  public boolean enabled();
+
+  /**
+   * Returns folder where annotation cache is saved.
+   *
+   * @return folder where annotation cache is saved
+   */
+  public Path directory();
+
+  /**
+   * Returns time to live of protein to gene mappings.
+   *
+   * @return time to live of protein to gene mappings
+   */
+  public Duration mappingTtl();
+
+  /**
+   * Returns time to live of gene information.
+   *
+   * @return time to live of gene information
+   */
+  public Duration geneTtl();
+
+  /**
+   * Returns time to live of protein sequences.
+   *
+   * @return time to live of protein sequences
+   */
+  public Duration sequenceTtl();
+}
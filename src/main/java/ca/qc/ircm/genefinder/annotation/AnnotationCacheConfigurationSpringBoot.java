@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties
+@ConfigurationProperties(prefix = AnnotationCacheConfigurationSpringBoot.PREFIX)
+public class AnnotationCacheConfigurationSpringBoot implements AnnotationCacheConfiguration {
+  public static final String PREFIX = "cache";
+  private boolean enabled;
+  private String directory;
+  private Duration mappingTtl;
+  private Duration geneTtl;
+  private Duration sequenceTtl;
+
+  @Override
+  public boolean enabled() {
+    return enabled;
+  }
+
+  @Override
+  public Path directory() {
+    return Paths.get(directory);
+  }
+
+  @Override
+  public Duration mappingTtl() {
+    return mappingTtl;
+  }
+
+  @Override
+  public Duration geneTtl() {
+    return geneTtl;
+  }
+
+  @Override
+  public Duration sequenceTtl() {
+    return sequenceTtl;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public String getDirectory() {
+    return directory;
+  }
+
+  public void setDirectory(String directory) {
+    this.directory = directory;
+  }
+
+  public Duration getMappingTtl() {
+    return mappingTtl;
+  }
+
+  public void setMappingTtl(Duration mappingTtl) {
+    this.mappingTtl = mappingTtl;
+  }
+
+  public Duration getGeneTtl() {
+    return geneTtl;
+  }
+
+  public void setGeneTtl(Duration geneTtl) {
+    this.geneTtl = geneTtl;
+  }
+
+  public Duration getSequenceTtl() {
+    return sequenceTtl;
+  }
+
+  public void setSequenceTtl(Duration sequenceTtl) {
+    this.sequenceTtl = sequenceTtl;
+  }
+}
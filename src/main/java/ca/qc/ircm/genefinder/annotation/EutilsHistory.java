@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import jakarta.ws.rs.core.Form;
+
+/**
+ * Reference to ids uploaded to NCBI's history server.
+ */
+class EutilsHistory {
+  private final String webEnv;
+  private final String queryKey;
+  private final int count;
+
+  EutilsHistory(String webEnv, String queryKey, int count) {
+    this.webEnv = webEnv;
+    this.queryKey = queryKey;
+    this.count = count;
+  }
+
+  /**
+   * Adds parameters to form to reference a range of uploaded ids.
+   *
+   * @param form
+   *          form
+   * @param retstart
+   *          index of first id
+   * @param retmax
+   *          maximum number of ids
+   */
+  void param(Form form, int retstart, int retmax) {
+    form.param("WebEnv", webEnv);
+    form.param("query_key", queryKey);
+    form.param("retstart", String.valueOf(retstart));
+    form.param("retmax", String.valueOf(retmax));
+  }
+
+  int getCount() {
+    return count;
+  }
+}
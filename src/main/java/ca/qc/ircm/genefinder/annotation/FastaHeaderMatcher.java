@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Finds which of the requested protein ids a FASTA header line belongs to.
+ * <p>
+ * A protein id matches a header when it follows either the '&gt;' or a '|' and is followed by a
+ * '|', a space or the end of the line. Headers like <code>&gt;NP_001317102.1 description</code>
+ * and <code>&gt;gi|829098688|ref|NP_001317102.1| description</code> both match
+ * <code>NP_001317102.1</code>.
+ * </p>
+ * <p>
+ * Each candidate token of the header is looked up in a hash set, so matching a header takes the
+ * same time regardless of the number of requested protein ids.
+ * </p>
+ */
+class FastaHeaderMatcher {
+  private final Set<String> proteinIds;
+
+  FastaHeaderMatcher(Collection<String> proteinIds) {
+    this.proteinIds = new HashSet<>(proteinIds);
+  }
+
+  /**
+   * Returns protein id found in FASTA header line, or null if header does not match any protein
+   * id.
+   *
+   * @param header
+   *          FASTA header line, starting with '&gt;'
+   * @return protein id found in FASTA header line, or null if header does not match any protein id
+   */
+  String match(String header) {
+    if (header.isEmpty() || header.charAt(0) != '>') {
+      return null;
+    }
+    int length = header.length();
+    int start = 1;
+    while (start <= length) {
+      int end = start;
+      while (end < length && header.charAt(end) != '|' && header.charAt(end) != ' ') {
+        end++;
+      }
+      if (end > start) {
+        String token = header.substring(start, end);
+        if (proteinIds.contains(token)) {
+          return token;
+        }
+      }
+      int pipe = header.indexOf('|', start);
+      if (pipe < 0) {
+        return null;
+      }
+      start = pipe + 1;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import ca.qc.ircm.genefinder.protein.WeightAccumulator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parses protein sequences from a FASTA stream.
+ * <p>
+ * Bytes are read into a buffer and decoded as ASCII, without building a string for each line. A
+ * sequence is only built when it must be kept, otherwise its weight is accumulated one residue at
+ * a time.
+ * </p>
+ */
+class FastaSequenceParser {
+  private static final int BUFFER_SIZE = 8192;
+  private final FastaHeaderMatcher headerMatcher;
+  private final boolean keepSequence;
+  private final WeightAccumulator weightAccumulator;
+
+  /**
+   * Creates FASTA parser.
+   *
+   * @param headerMatcher
+   *          finds protein id in FASTA headers, proteins without id are skipped
+   * @param keepSequence
+   *          true if sequences must be kept
+   * @param weightAccumulator
+   *          accumulator used to compute weight of proteins, or null if weight is not needed
+   */
+  FastaSequenceParser(FastaHeaderMatcher headerMatcher, boolean keepSequence,
+      WeightAccumulator weightAccumulator) {
+    this.headerMatcher = headerMatcher;
+    this.keepSequence = keepSequence;
+    this.weightAccumulator = weightAccumulator;
+  }
+
+  /**
+   * Parses protein sequences from FASTA stream.
+   *
+   * @param input
+   *          FASTA stream
+   * @return protein sequences, by protein id
+   * @throws IOException
+   *           could not read FASTA stream
+   */
+  Map<String, Sequence> parse(InputStream input) throws IOException {
+    Map<String, Sequence> sequences = new LinkedHashMap<>();
+    ReadableByteChannel channel = Channels.newChannel(input);
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    StringBuilder header = new StringBuilder();
+    StringBuilder sequence = keepSequence ? new StringBuilder() : null;
+    String proteinId = null;
+    boolean inHeader = false;
+    boolean lineStart = true;
+    while (channel.read(buffer) >= 0) {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        byte value = buffer.get();
+        if (inHeader) {
+          if (value == '\n') {
+            inHeader = false;
+            lineStart = true;
+            proteinId = headerMatcher.match(header.toString());
+          } else if (value != '\r') {
+            header.append((char) (value & 0xff));
+          }
+        } else if (lineStart && value == '>') {
+          complete(proteinId, sequence, sequences);
+          proteinId = null;
+          inHeader = true;
+          header.setLength(0);
+          header.append('>');
+        } else {
+          lineStart = value == '\n';
+          if (proteinId != null && value > ' ') {
+            if (sequence != null) {
+              sequence.append((char) value);
+            }
+            if (weightAccumulator != null) {
+              weightAccumulator.add(value);
+            }
+          }
+        }
+      }
+      buffer.clear();
+    }
+    if (inHeader) {
+      proteinId = headerMatcher.match(header.toString());
+    }
+    complete(proteinId, sequence, sequences);
+    return sequences;
+  }
+
+  private void complete(String proteinId, StringBuilder sequence, Map<String, Sequence> sequences) {
+    if (proteinId != null) {
+      sequences.put(proteinId, new Sequence(sequence != null ? sequence.toString() : null,
+          weightAccumulator != null ? weightAccumulator.weight() : null));
+    }
+    if (sequence != null) {
+      sequence.setLength(0);
+    }
+    if (weightAccumulator != null) {
+      weightAccumulator.reset();
+    }
+  }
+
+  /**
+   * Protein sequence parsed from FASTA stream.
+   */
+  static class Sequence {
+    private final String sequence;
+    private final Double weight;
+
+    private Sequence(String sequence, Double weight) {
+      this.sequence = sequence;
+      this.weight = weight;
+    }
+
+    /**
+     * Returns protein sequence, or null if sequence was not kept.
+     *
+     * @return protein sequence, or null if sequence was not kept
+     */
+    String getSequence() {
+      return sequence;
+    }
+
+    /**
+     * Returns protein weight in kilo Dalton, or null if weight was not computed.
+     *
+     * @return protein weight in kilo Dalton, or null if weight was not computed
+     */
+    Double getWeight() {
+      return weight;
+    }
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.REFSEQ_GI;
+
+import ca.qc.ircm.genefinder.util.RecordIndex;
+import ca.qc.ircm.genefinder.util.RecordIndexWriter;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Protein to gene mappings found in a local copy of NCBI's gene2refseq.gz file.
+ * <p>
+ * Two indexes of gene2refseq.gz file are created in {@link NcbiConfiguration#indexDirectory()} the
+ * first time a protein is requested, one keyed by protein accession.version and one keyed by
+ * protein GI. Indexes are created again when gene2refseq.gz file or
+ * {@link NcbiConfiguration#taxonomyIds()} changes.
+ * </p>
+ */
+@Component
+public class Gene2RefseqIndex {
+  private static final String ACCESSION_INDEX_FILENAME = "gene2refseq-accession.index";
+  private static final String GI_INDEX_FILENAME = "gene2refseq-gi.index";
+  private static final String NULL_VALUE = "-";
+  private static final int GENE_ID_COLUMN = 1;
+  private static final int PROTEIN_ACCESSION_COLUMN = 5;
+  private static final int PROTEIN_GI_COLUMN = 6;
+  private static final Logger logger = LoggerFactory.getLogger(Gene2RefseqIndex.class);
+  @Inject
+  private NcbiConfiguration ncbiConfiguration;
+  private RecordIndex accessionIndex;
+  private RecordIndex giIndex;
+  private String metadata;
+
+  protected Gene2RefseqIndex() {
+  }
+
+  protected Gene2RefseqIndex(NcbiConfiguration ncbiConfiguration) {
+    this.ncbiConfiguration = ncbiConfiguration;
+  }
+
+  /**
+   * Returns true if a local copy of NCBI's gene2refseq.gz file is configured, false otherwise.
+   *
+   * @return true if a local copy of NCBI's gene2refseq.gz file is configured, false otherwise
+   */
+  public boolean enabled() {
+    return ncbiConfiguration.gene2refseq() != null;
+  }
+
+  /**
+   * Returns ids of genes associated with protein in local gene2refseq.gz file.
+   *
+   * @param database
+   *          protein database, either {@link ProteinDatabase#REFSEQ} or
+   *          {@link ProteinDatabase#REFSEQ_GI}
+   * @param proteinId
+   *          protein accession.version or GI, depending on database
+   * @return ids of genes associated with protein in local gene2refseq.gz file, empty if protein is
+   *         not in local gene2refseq.gz file
+   * @throws IOException
+   *           could not read or index local gene2refseq.gz file
+   */
+  public List<Long> geneIds(ProteinDatabase database, String proteinId) throws IOException {
+    List<Long> geneIds = new ArrayList<>();
+    if (database == REFSEQ_GI) {
+      long gi;
+      try {
+        gi = Long.parseLong(proteinId);
+      } catch (NumberFormatException e) {
+        return geneIds;
+      }
+      for (byte[] record : index(true).records(gi)) {
+        geneIds.add(Long.parseLong(new String(record, StandardCharsets.UTF_8)));
+      }
+    } else {
+      // Records start with accession to discard key collisions.
+      for (byte[] record : index(false).records(RecordIndex.key(proteinId))) {
+        String value = new String(record, StandardCharsets.UTF_8);
+        int separator = value.indexOf('\t');
+        if (value.substring(0, separator).equals(proteinId)) {
+          geneIds.add(Long.parseLong(value.substring(separator + 1)));
+        }
+      }
+    }
+    return geneIds;
+  }
+
+  @PreDestroy
+  protected synchronized void close() throws IOException {
+    if (accessionIndex != null) {
+      accessionIndex.close();
+      accessionIndex = null;
+    }
+    if (giIndex != null) {
+      giIndex.close();
+      giIndex = null;
+    }
+    metadata = null;
+  }
+
+  private synchronized RecordIndex index(boolean gi) throws IOException {
+    Path gene2refseq = ncbiConfiguration.gene2refseq();
+    if (gene2refseq == null) {
+      throw new IllegalStateException("No local gene2refseq file configured");
+    }
+    Path accessionFile = ncbiConfiguration.indexDirectory().resolve(ACCESSION_INDEX_FILENAME);
+    Path giFile = ncbiConfiguration.indexDirectory().resolve(GI_INDEX_FILENAME);
+    String metadata = metadata(gene2refseq, ncbiConfiguration.taxonomyIds());
+    if (this.metadata != null && !this.metadata.equals(metadata)) {
+      close();
+    }
+    if (this.metadata == null) {
+      accessionIndex = open(accessionFile, metadata);
+      giIndex = accessionIndex != null ? open(giFile, metadata) : null;
+      if (accessionIndex == null || giIndex == null) {
+        close();
+        build(gene2refseq, accessionFile, giFile, metadata, ncbiConfiguration.taxonomyIds());
+        accessionIndex = RecordIndex.open(accessionFile);
+        giIndex = RecordIndex.open(giFile);
+      }
+      this.metadata = metadata;
+    }
+    return gi ? giIndex : accessionIndex;
+  }
+
+  private RecordIndex open(Path file, String metadata) {
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try {
+      RecordIndex existing = RecordIndex.open(file);
+      if (existing.metadata().equals(metadata)) {
+        return existing;
+      }
+      existing.close();
+    } catch (IOException e) {
+      logger.debug("Could not open gene2refseq index {}, index will be created again", file, e);
+    }
+    return null;
+  }
+
+  private String metadata(Path gene2refseq, Collection<Integer> taxonomyIds) throws IOException {
+    return "source=" + gene2refseq.toAbsolutePath() + ";size=" + Files.size(gene2refseq)
+        + ";modified=" + Files.getLastModifiedTime(gene2refseq).toMillis() + ";taxonomyIds="
+        + new TreeSet<>(taxonomyIds).stream().map(id -> String.valueOf(id))
+            .collect(Collectors.joining(","));
+  }
+
+  /**
+   * Creates indexes of gene2refseq.gz file.
+   * <p>
+   * gene2refseq.gz is read line by line, so memory usage does not depend on the size of the file.
+   * </p>
+   *
+   * @param gene2refseq
+   *          gene2refseq.gz file
+   * @param accessionFile
+   *          index file for protein accessions
+   * @param giFile
+   *          index file for protein GIs
+   * @param metadata
+   *          index metadata
+   * @param taxonomyIds
+   *          only index proteins of these organisms, all proteins are indexed if empty
+   * @throws IOException
+   *           could not read gene2refseq.gz file or write indexes
+   */
+  private void build(Path gene2refseq, Path accessionFile, Path giFile, String metadata,
+      Collection<Integer> taxonomyIds) throws IOException {
+    logger.info("Indexing {} to {} and {}", gene2refseq, accessionFile, giFile);
+    Set<String> taxonomies =
+        taxonomyIds.stream().map(id -> String.valueOf(id)).collect(Collectors.toSet());
+    long count = 0;
+    RecordIndexWriter accessionWriter = new RecordIndexWriter(accessionFile, metadata);
+    RecordIndexWriter giWriter = new RecordIndexWriter(giFile, metadata);
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new GZIPInputStream(Files.newInputStream(gene2refseq), 1 << 16), StandardCharsets.UTF_8))) {
+      // File is sorted by gene, a protein is repeated for every genomic location of its gene.
+      String currentGeneId = null;
+      Set<String> geneProteins = new HashSet<>();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("#") || line.isEmpty()) {
+          continue;
+        }
+        String[] columns = columns(line, PROTEIN_GI_COLUMN + 1);
+        if (columns == null) {
+          throw new IOException("Invalid line in " + gene2refseq + ": " + line);
+        }
+        if (!taxonomies.isEmpty() && !taxonomies.contains(columns[0])) {
+          continue;
+        }
+        String geneId = columns[GENE_ID_COLUMN];
+        if (!geneId.equals(currentGeneId)) {
+          currentGeneId = geneId;
+          geneProteins.clear();
+        }
+        String accession = columns[PROTEIN_ACCESSION_COLUMN];
+        String gi = columns[PROTEIN_GI_COLUMN];
+        if (accession.equals(NULL_VALUE) || !geneProteins.add(accession)) {
+          continue;
+        }
+        try {
+          String id = String.valueOf(Long.parseLong(geneId));
+          accessionWriter.add(RecordIndex.key(accession),
+              (accession + "\t" + id).getBytes(StandardCharsets.UTF_8));
+          if (!gi.equals(NULL_VALUE)) {
+            giWriter.add(Long.parseLong(gi), id.getBytes(StandardCharsets.UTF_8));
+          }
+        } catch (NumberFormatException e) {
+          throw new IOException("Invalid gene id or GI in " + gene2refseq + ": " + line, e);
+        }
+        count++;
+      }
+    } catch (IOException | RuntimeException e) {
+      accessionWriter.abort();
+      giWriter.abort();
+      throw e;
+    }
+    accessionWriter.close();
+    giWriter.close();
+    logger.info("Indexed {} proteins from {}", count, gene2refseq);
+  }
+
+  /**
+   * Returns first columns of line, or null if line has less columns.
+   */
+  private String[] columns(String line, int count) {
+    String[] columns = new String[count];
+    int start = 0;
+    for (int i = 0; i < count; i++) {
+      int end = line.indexOf('\t', start);
+      if (end < 0) {
+        if (i < count - 1) {
+          return null;
+        }
+        end = line.length();
+      }
+      columns[i] = line.substring(start, end);
+      start = end + 1;
+    }
+    return columns;
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import ca.qc.ircm.genefinder.util.RecordIndex;
+import ca.qc.ircm.genefinder.util.RecordIndexWriter;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gene information found in a local copy of NCBI's gene_info.gz file.
+ * <p>
+ * An index of gene_info.gz file is created in {@link NcbiConfiguration#indexDirectory()} the first
+ * time a gene is requested. Index is created again when gene_info.gz file or
+ * {@link NcbiConfiguration#taxonomyIds()} changes.
+ * </p>
+ */
+@Component
+public class GeneInfoIndex {
+  private static final String INDEX_FILENAME = "gene_info.index";
+  private static final String NULL_VALUE = "-";
+  private static final String LIST_SEPARATOR = "\\|";
+  private static final int COLUMNS = 15;
+  private static final Logger logger = LoggerFactory.getLogger(GeneInfoIndex.class);
+  @Inject
+  private NcbiConfiguration ncbiConfiguration;
+  private RecordIndex index;
+
+  protected GeneInfoIndex() {
+  }
+
+  protected GeneInfoIndex(NcbiConfiguration ncbiConfiguration) {
+    this.ncbiConfiguration = ncbiConfiguration;
+  }
+
+  /**
+   * Returns true if a local copy of NCBI's gene_info.gz file is configured, false otherwise.
+   *
+   * @return true if a local copy of NCBI's gene_info.gz file is configured, false otherwise
+   */
+  public boolean enabled() {
+    return ncbiConfiguration.geneInfo() != null;
+  }
+
+  /**
+   * Returns information of gene or null if gene is not in local gene_info.gz file.
+   *
+   * @param geneId
+   *          gene id
+   * @return information of gene or null if gene is not in local gene_info.gz file
+   * @throws IOException
+   *           could not read or index local gene_info.gz file
+   */
+  public GeneInfo gene(long geneId) throws IOException {
+    List<byte[]> records = index().records(geneId);
+    return records.isEmpty() ? null : parse(new String(records.get(0), StandardCharsets.UTF_8));
+  }
+
+  @PreDestroy
+  protected synchronized void close() throws IOException {
+    if (index != null) {
+      index.close();
+      index = null;
+    }
+  }
+
+  private synchronized RecordIndex index() throws IOException {
+    Path geneInfo = ncbiConfiguration.geneInfo();
+    if (geneInfo == null) {
+      throw new IllegalStateException("No local gene_info file configured");
+    }
+    Path file = ncbiConfiguration.indexDirectory().resolve(INDEX_FILENAME);
+    String metadata = metadata(geneInfo, ncbiConfiguration.taxonomyIds());
+    if (index != null && !index.metadata().equals(metadata)) {
+      close();
+    }
+    if (index == null && Files.exists(file)) {
+      try {
+        RecordIndex existing = RecordIndex.open(file);
+        if (existing.metadata().equals(metadata)) {
+          index = existing;
+        } else {
+          existing.close();
+        }
+      } catch (IOException e) {
+        logger.debug("Could not open gene_info index {}, index will be created again", file, e);
+      }
+    }
+    if (index == null) {
+      build(geneInfo, file, metadata, ncbiConfiguration.taxonomyIds());
+      index = RecordIndex.open(file);
+    }
+    return index;
+  }
+
+  private String metadata(Path geneInfo, Collection<Integer> taxonomyIds) throws IOException {
+    return "source=" + geneInfo.toAbsolutePath() + ";size=" + Files.size(geneInfo) + ";modified="
+        + Files.getLastModifiedTime(geneInfo).toMillis() + ";taxonomyIds=" + new TreeSet<>(
+            taxonomyIds).stream().map(id -> String.valueOf(id)).collect(Collectors.joining(","));
+  }
+
+  /**
+   * Creates index of gene_info.gz file.
+   *
+   * @param geneInfo
+   *          gene_info.gz file
+   * @param file
+   *          index file
+   * @param metadata
+   *          index metadata
+   * @param taxonomyIds
+   *          only index genes of these organisms, all genes are indexed if empty
+   * @throws IOException
+   *           could not read gene_info.gz file or write index
+   */
+  private void build(Path geneInfo, Path file, String metadata, Collection<Integer> taxonomyIds)
+      throws IOException {
+    logger.info("Indexing {} to {}", geneInfo, file);
+    Set<String> taxonomies =
+        taxonomyIds.stream().map(id -> String.valueOf(id)).collect(Collectors.toSet());
+    long count = 0;
+    RecordIndexWriter writer = new RecordIndexWriter(file, metadata);
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new GZIPInputStream(Files.newInputStream(geneInfo), 1 << 16), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("#") || line.isEmpty()) {
+          continue;
+        }
+        int taxonomyEnd = line.indexOf('\t');
+        int geneIdEnd = taxonomyEnd >= 0 ? line.indexOf('\t', taxonomyEnd + 1) : -1;
+        if (geneIdEnd < 0) {
+          throw new IOException("Invalid line in " + geneInfo + ": " + line);
+        }
+        if (!taxonomies.isEmpty() && !taxonomies.contains(line.substring(0, taxonomyEnd))) {
+          continue;
+        }
+        long geneId;
+        try {
+          geneId = Long.parseLong(line.substring(taxonomyEnd + 1, geneIdEnd));
+        } catch (NumberFormatException e) {
+          throw new IOException("Invalid gene id in " + geneInfo + ": " + line, e);
+        }
+        writer.add(geneId, line.getBytes(StandardCharsets.UTF_8));
+        count++;
+      }
+    } catch (IOException | RuntimeException e) {
+      writer.abort();
+      throw e;
+    }
+    writer.close();
+    logger.info("Indexed {} genes from {}", count, geneInfo);
+  }
+
+  private GeneInfo parse(String line) throws IOException {
+    String[] columns = line.split("\t", -1);
+    if (columns.length < COLUMNS) {
+      throw new IOException("Invalid gene_info line " + line);
+    }
+    GeneInfo gene = new GeneInfo(Long.parseLong(columns[1]), value(columns[2]));
+    gene.setOrganismId(Integer.parseInt(columns[0]));
+    gene.setLocusTag(value(columns[3]));
+    gene.setSynonyms(list(columns[4]));
+    gene.setDbXrefs(list(columns[5]));
+    gene.setChromosome(value(columns[6]));
+    gene.setMapLocation(value(columns[7]));
+    gene.setDescription(value(columns[8]));
+    gene.setTypeOfGene(value(columns[9]));
+    gene.setSymbolFromNomenclatureAuthority(value(columns[10]));
+    gene.setFullNameFromNomenclatureAuthority(value(columns[11]));
+    gene.setNomenclatureStatus(value(columns[12]));
+    gene.setOtherDesignations(list(columns[13]));
+    gene.setModificationDate(date(columns[14]));
+    return gene;
+  }
+
+  private String value(String value) {
+    return value.equals(NULL_VALUE) ? null : value;
+  }
+
+  private List<String> list(String value) {
+    return value.equals(NULL_VALUE) ? null : Arrays.asList(value.split(LIST_SEPARATOR));
+  }
+
+  private Date date(String value) {
+    if (value.equals(NULL_VALUE)) {
+      return null;
+    }
+    try {
+      return Date.from(LocalDate.parse(value, DateTimeFormatter.BASIC_ISO_DATE)
+          .atStartOfDay(ZoneId.systemDefault()).toInstant());
+    } catch (DateTimeParseException e) {
+      logger.debug("Could not parse gene_info modification date {}", value, e);
+      return null;
+    }
+  }
+}
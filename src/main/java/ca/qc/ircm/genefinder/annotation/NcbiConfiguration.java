@@ -17,6 +17,8 @@
 
 package ca.qc.ircm.genefinder.annotation;
 
+import java.nio.file.Path;
+import java.util.List;
 import java.util.regex.Pattern;
 
 /**
@@ -50,4 +52,59 @@ public interface NcbiConfiguration {
    * @return max ids per request on NCBI's EUtils service
    */
   public int maxIdsPerRequest();
+
+  /**
+   * Returns API key to use on NCBI's EUtils service, or null if no API key should be used.
+   *
+   * @return API key to use on NCBI's EUtils service, or null if no API key should be used
+   */
+  public String apiKey();
+
+  /**
+   * Returns max requests per second on NCBI's EUtils service.
+   *
+   * @return max requests per second on NCBI's EUtils service
+   */
+  public int requestsPerSecond();
+
+  /**
+   * Returns true if protein ids should be uploaded once to NCBI's history server using EPost and
+   * then referenced using WebEnv and query_key, false if protein ids are sent with every request.
+   *
+   * @return true if protein ids should be uploaded once to NCBI's history server using EPost
+   */
+  public boolean historyServer();
+
+  /**
+   * Returns local copy of NCBI's gene_info.gz file, or null if gene information should be
+   * downloaded from NCBI's EUtils service.
+   *
+   * @return local copy of NCBI's gene_info.gz file, or null if gene information should be
+   *         downloaded from NCBI's EUtils service
+   */
+  public Path geneInfo();
+
+  /**
+   * Returns local copy of NCBI's gene2refseq.gz file, or null if protein to gene mappings should be
+   * downloaded from NCBI's EUtils service.
+   *
+   * @return local copy of NCBI's gene2refseq.gz file, or null if protein to gene mappings should be
+   *         downloaded from NCBI's EUtils service
+   */
+  public Path gene2refseq();
+
+  /**
+   * Returns taxonomy ids of organisms to keep when indexing local NCBI files, or an empty list to
+   * keep all organisms.
+   *
+   * @return taxonomy ids of organisms to keep when indexing local NCBI files
+   */
+  public List<Integer> taxonomyIds();
+
+  /**
+   * Returns folder where indexes of local NCBI files are saved.
+   *
+   * @return folder where indexes of local NCBI files are saved
+   */
+  public Path indexDirectory();
 }
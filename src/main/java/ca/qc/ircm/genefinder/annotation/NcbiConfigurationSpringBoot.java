@@ -17,6 +17,10 @@
 
 package ca.qc.ircm.genefinder.annotation;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
@@ -27,10 +31,19 @@ import org.springframework.context.annotation.Configuration;
 @ConfigurationProperties(prefix = NcbiConfigurationSpringBoot.PREFIX)
 public class NcbiConfigurationSpringBoot implements NcbiConfiguration {
   public static final String PREFIX = "ncbi";
+  public static final int REQUESTS_PER_SECOND = 3;
+  public static final int REQUESTS_PER_SECOND_WITH_API_KEY = 10;
   private String refseqProteinAccessionPattern;
   private String refseqProteinGiPattern;
   private String eutils;
   private int maxIdsPerRequest;
+  private String apiKey;
+  private Integer requestsPerSecond;
+  private boolean historyServer;
+  private String geneInfo;
+  private String gene2refseq;
+  private List<Integer> taxonomyIds = new ArrayList<>();
+  private String indexDirectory;
 
   @Override
   public Pattern refseqProteinAccessionPattern() {
@@ -52,6 +65,44 @@ public class NcbiConfigurationSpringBoot implements NcbiConfiguration {
     return maxIdsPerRequest;
   }
 
+  @Override
+  public String apiKey() {
+    return apiKey != null && !apiKey.isEmpty() ? apiKey : null;
+  }
+
+  @Override
+  public int requestsPerSecond() {
+    if (requestsPerSecond != null) {
+      return requestsPerSecond;
+    }
+    return apiKey() != null ? REQUESTS_PER_SECOND_WITH_API_KEY : REQUESTS_PER_SECOND;
+  }
+
+  @Override
+  public boolean historyServer() {
+    return historyServer;
+  }
+
+  @Override
+  public Path geneInfo() {
+    return geneInfo != null && !geneInfo.isEmpty() ? Paths.get(geneInfo) : null;
+  }
+
+  @Override
+  public Path gene2refseq() {
+    return gene2refseq != null && !gene2refseq.isEmpty() ? Paths.get(gene2refseq) : null;
+  }
+
+  @Override
+  public List<Integer> taxonomyIds() {
+    return taxonomyIds;
+  }
+
+  @Override
+  public Path indexDirectory() {
+    return Paths.get(indexDirectory);
+  }
+
   public String getEutils() {
     return eutils;
   }
@@ -83,4 +134,60 @@ public class NcbiConfigurationSpringBoot implements NcbiConfiguration {
   public void setRefseqProteinGiPattern(String refseqProteinGiPattern) {
     this.refseqProteinGiPattern = refseqProteinGiPattern;
   }
+
+  public String getApiKey() {
+    return apiKey;
+  }
+
+  public void setApiKey(String apiKey) {
+    this.apiKey = apiKey;
+  }
+
+  public Integer getRequestsPerSecond() {
+    return requestsPerSecond;
+  }
+
+  public void setRequestsPerSecond(Integer requestsPerSecond) {
+    this.requestsPerSecond = requestsPerSecond;
+  }
+
+  public boolean isHistoryServer() {
+    return historyServer;
+  }
+
+  public void setHistoryServer(boolean historyServer) {
+    this.historyServer = historyServer;
+  }
+
+  public String getGeneInfo() {
+    return geneInfo;
+  }
+
+  public void setGeneInfo(String geneInfo) {
+    this.geneInfo = geneInfo;
+  }
+
+  public String getGene2refseq() {
+    return gene2refseq;
+  }
+
+  public void setGene2refseq(String gene2refseq) {
+    this.gene2refseq = gene2refseq;
+  }
+
+  public List<Integer> getTaxonomyIds() {
+    return taxonomyIds;
+  }
+
+  public void setTaxonomyIds(List<Integer> taxonomyIds) {
+    this.taxonomyIds = taxonomyIds;
+  }
+
+  public String getIndexDirectory() {
+    return indexDirectory;
+  }
+
+  public void setIndexDirectory(String indexDirectory) {
+    this.indexDirectory = indexDirectory;
+  }
 }
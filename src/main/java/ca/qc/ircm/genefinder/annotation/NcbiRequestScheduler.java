@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import ca.qc.ircm.genefinder.util.ExceptionUtils;
+import ca.qc.ircm.genefinder.util.TokenBucket;
+import ca.qc.ircm.progressbar.ProgressBar;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs requests on NCBI's EUtils service concurrently while respecting NCBI's request rate limit.
+ */
+@Component
+public class NcbiRequestScheduler {
+  @Inject
+  private NcbiConfiguration ncbiConfiguration;
+  private TokenBucket tokenBucket;
+  private ExecutorService executor;
+
+  protected NcbiRequestScheduler() {
+  }
+
+  protected NcbiRequestScheduler(NcbiConfiguration ncbiConfiguration) {
+    this.ncbiConfiguration = ncbiConfiguration;
+  }
+
+  /**
+   * Waits until a request can be sent to NCBI without exceeding request rate limit.
+   *
+   * @throws InterruptedException
+   *           thread was interrupted while waiting
+   */
+  public void acquire() throws InterruptedException {
+    tokenBucket().acquire();
+  }
+
+  /**
+   * Runs batches concurrently and waits for all batches to complete.
+   * <p>
+   * Batches should call {@link #acquire()} before each request sent to NCBI.
+   * </p>
+   *
+   * @param batches
+   *          batches to run
+   * @param message
+   *          message to show in progress bar when batch at specified index completes
+   * @param progressBar
+   *          records progression
+   * @throws IOException
+   *           a batch failed
+   * @throws InterruptedException
+   *           thread was interrupted while waiting for batches to complete
+   */
+  public void execute(List<? extends Callable<?>> batches, IntFunction<String> message,
+      ProgressBar progressBar) throws IOException, InterruptedException {
+    Pipeline pipeline = pipeline(progressBar);
+    for (int i = 0; i < batches.size(); i++) {
+      pipeline.submit(batches.get(i), message.apply(i));
+    }
+    pipeline.await();
+  }
+
+  /**
+   * Creates a pipeline where running batches can submit more batches.
+   * <p>
+   * Batches should call {@link #acquire()} before each request sent to NCBI.
+   * </p>
+   *
+   * @param progressBar
+   *          records progression
+   * @return pipeline
+   */
+  public Pipeline pipeline(ProgressBar progressBar) {
+    return new Pipeline(executor(), progressBar);
+  }
+
+  @PreDestroy
+  protected synchronized void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  private synchronized TokenBucket tokenBucket() {
+    if (tokenBucket == null) {
+      // Capacity of 1 prevents bursts that would exceed limit within a one second window.
+      tokenBucket = new TokenBucket(1, Math.max(ncbiConfiguration.requestsPerSecond(), 1));
+    }
+    return tokenBucket;
+  }
+
+  private synchronized ExecutorService executor() {
+    if (executor == null) {
+      AtomicInteger threadCount = new AtomicInteger();
+      executor = Executors.newFixedThreadPool(Math.max(ncbiConfiguration.requestsPerSecond(), 1),
+          runnable -> {
+            Thread thread = new Thread(runnable, "ncbi-request-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
+    }
+    return executor;
+  }
+
+  /**
+   * Batches running concurrently where running batches can submit more batches.
+   */
+  public static class Pipeline {
+    private final CompletionService<String> completionService;
+    private final ProgressBar progressBar;
+    private final List<Future<String>> futures = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger submitted = new AtomicInteger();
+    private volatile boolean cancelled;
+
+    protected Pipeline(Executor executor, ProgressBar progressBar) {
+      this.completionService = new ExecutorCompletionService<>(executor);
+      this.progressBar = progressBar;
+    }
+
+    /**
+     * Submits batch to pipeline.
+     * <p>
+     * Batch can be submitted from another batch of this pipeline. Submitted batches are ignored
+     * once the pipeline failed.
+     * </p>
+     *
+     * @param batch
+     *          batch to run
+     * @param message
+     *          message to show in progress bar when batch completes
+     */
+    public void submit(Callable<?> batch, String message) {
+      if (cancelled) {
+        return;
+      }
+      submitted.incrementAndGet();
+      futures.add(completionService.submit(() -> {
+        batch.call();
+        return message;
+      }));
+    }
+
+    /**
+     * Waits for all batches to complete, including batches submitted by other batches.
+     *
+     * @throws IOException
+     *           a batch failed
+     * @throws InterruptedException
+     *           thread was interrupted while waiting for batches to complete
+     */
+    public void await() throws IOException, InterruptedException {
+      int completed = 0;
+      try {
+        // Batches submit other batches before completing, so submitted count is final once all
+        // submitted batches are completed.
+        while (completed < submitted.get()) {
+          Future<String> future = completionService.take();
+          String message;
+          try {
+            message = future.get();
+          } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            ExceptionUtils.throwExceptionIfMatch(cause, IOException.class);
+            ExceptionUtils.throwExceptionIfMatch(cause, InterruptedException.class);
+            ExceptionUtils.throwExceptionIfMatch(cause, RuntimeException.class);
+            ExceptionUtils.throwExceptionIfMatch(cause, Error.class);
+            throw new IOException(cause);
+          }
+          completed++;
+          progressBar.setMessage(message);
+          progressBar.setProgress((double) completed / submitted.get());
+        }
+      } finally {
+        if (completed < submitted.get()) {
+          cancelled = true;
+          synchronized (futures) {
+            futures.forEach(future -> future.cancel(true));
+          }
+        }
+      }
+      progressBar.setProgress(1.0);
+    }
+  }
+}
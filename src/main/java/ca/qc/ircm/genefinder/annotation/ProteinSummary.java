@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+/**
+ * Summary of a protein returned by NCBI's esummary.
+ */
+class ProteinSummary {
+  private final String gi;
+  private final String accession;
+  private final Integer taxonomyId;
+  private final Integer length;
+
+  ProteinSummary(String gi, String accession, Integer taxonomyId, Integer length) {
+    this.gi = gi;
+    this.accession = accession;
+    this.taxonomyId = taxonomyId;
+    this.length = length;
+  }
+
+  String getGi() {
+    return gi;
+  }
+
+  String getAccession() {
+    return accession;
+  }
+
+  Integer getTaxonomyId() {
+    return taxonomyId;
+  }
+
+  Integer getLength() {
+    return length;
+  }
+}
@@ -21,35 +21,40 @@ import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.REFSEQ_GI;
 
 import ca.qc.ircm.genefinder.data.FindGenesParameters;
 import ca.qc.ircm.genefinder.protein.ProteinService;
+import ca.qc.ircm.genefinder.rest.AdaptiveBatchSize;
+import ca.qc.ircm.genefinder.rest.AdaptiveBatchSizes;
 import ca.qc.ircm.genefinder.rest.RestClientFactory;
+import ca.qc.ircm.genefinder.rest.RestConfiguration;
 import ca.qc.ircm.genefinder.util.ExceptionUtils;
-import ca.qc.ircm.genefinder.xml.StackSaxHandler;
+import ca.qc.ircm.genefinder.xml.ElementPath;
+import ca.qc.ircm.genefinder.xml.PathSaxHandler;
+import ca.qc.ircm.genefinder.xml.SaxParserPool;
 import ca.qc.ircm.progressbar.ProgressBar;
 import ca.qc.ircm.utils.MessageResources;
-import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.client.Invocation;
 import jakarta.ws.rs.client.WebTarget;
 import jakarta.ws.rs.core.Form;
 import jakarta.ws.rs.core.MediaType;
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.function.Function;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-import org.glassfish.jersey.logging.LoggingFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -64,22 +69,42 @@ public class RefseqDownloadProteinMappingService extends AbstractDownloadProtein
   @SuppressWarnings("unused")
   private static final Logger logger =
       LoggerFactory.getLogger(RefseqDownloadProteinMappingService.class);
+  private static final ElementPath LINK_SET = ElementPath.compile("LinkSet");
+  private static final ElementPath LINK_SET_ID = ElementPath.compile("LinkSet/IdList/Id");
+  private static final ElementPath LINK_ID = ElementPath.compile("LinkSet/LinkSetDb/Link/Id");
   @Inject
   private NcbiConfiguration ncbiConfiguration;
   @Inject
   private RestClientFactory restClientFactory;
   @Inject
   private ProteinService proteinService;
+  @Inject
+  private AnnotationCache annotationCache;
+  @Inject
+  private NcbiRequestScheduler ncbiRequestScheduler;
+  @Inject
+  private Gene2RefseqIndex gene2refseqIndex;
+  @Inject
+  private SaxParserPool saxParserPool;
 
   protected RefseqDownloadProteinMappingService() {
   }
 
   protected RefseqDownloadProteinMappingService(NcbiConfiguration ncbiConfiguration,
-      RestClientFactory restClientFactory, ProteinService proteinService) {
-    super(ncbiConfiguration, restClientFactory);
+      RestClientFactory restClientFactory, ProteinService proteinService,
+      AnnotationCache annotationCache, NcbiRequestScheduler ncbiRequestScheduler,
+      GeneInfoIndex geneInfoIndex, Gene2RefseqIndex gene2refseqIndex,
+      AdaptiveBatchSizes adaptiveBatchSizes, RestConfiguration restConfiguration,
+      SaxParserPool saxParserPool) {
+    super(ncbiConfiguration, restClientFactory, annotationCache, ncbiRequestScheduler,
+        geneInfoIndex, adaptiveBatchSizes, restConfiguration, saxParserPool);
     this.ncbiConfiguration = ncbiConfiguration;
     this.restClientFactory = restClientFactory;
     this.proteinService = proteinService;
+    this.annotationCache = annotationCache;
+    this.ncbiRequestScheduler = ncbiRequestScheduler;
+    this.gene2refseqIndex = gene2refseqIndex;
+    this.saxParserPool = saxParserPool;
   }
 
   @Override
@@ -88,403 +113,768 @@ public class RefseqDownloadProteinMappingService extends AbstractDownloadProtein
       throws IOException, InterruptedException {
     MessageResources resources = new MessageResources(DownloadProteinMappingService.class, locale);
     ExceptionUtils.throwIfInterrupted(resources.message("interrupted"));
-    int steps = 0;
-    steps += isDownloadGeneMappings(parameters) ? 1 : 0;
-    steps += isDownloadGeneInfo(parameters) ? 1 : 0;
-    steps += isDownloaSequences(parameters) ? 1 : 0;
-    double step = 1.0 / steps;
     List<ProteinMapping> mappings = proteinIds.stream().distinct().map(id -> new ProteinMapping(id))
         .collect(Collectors.toList());
+    final Map<Set<String>, EutilsHistory> histories = new HashMap<>();
+    final Map<Long, GeneInfo> genes = new ConcurrentHashMap<>();
+    // Proteins skipped because their requests failed are not cached.
+    final Set<String> skipped = ConcurrentHashMap.newKeySet();
+    // Completed batches submit batches of the next stage, so stages run concurrently.
+    NcbiRequestScheduler.Pipeline pipeline = ncbiRequestScheduler.pipeline(progressBar);
+    // Protein summaries are downloaded once and shared by all stages that need them.
+    final ProteinSummaryRequests summaries = new ProteinSummaryRequests(mappings,
+        parameters.getProteinDatabase(), histories, skipped, pipeline, resources);
+    List<ProteinMapping> geneMappings = new ArrayList<>();
     ExceptionUtils.throwIfInterrupted(resources.message("interrupted"));
     if (isDownloadGeneMappings(parameters)) {
-      downloadGeneMappings(mappings, parameters, progressBar.step(step), resources);
+      geneMappings =
+          submitGeneMappings(mappings, parameters, genes, summaries, skipped, pipeline,
+              progressBar, resources);
     }
     ExceptionUtils.throwIfInterrupted(resources.message("interrupted"));
-    if (isDownloadGeneInfo(parameters)) {
-      downloadGeneInfo(mappings, parameters, progressBar.step(step), resources);
+    if (isDownloaSequences(parameters)) {
+      submitSequences(mappings, parameters, histories, summaries, skipped, pipeline, progressBar,
+          resources);
     }
     ExceptionUtils.throwIfInterrupted(resources.message("interrupted"));
-    if (isDownloaSequences(parameters)) {
-      downloadSequences(mappings, parameters, progressBar.step(step), resources);
+    summaries.submit(progressBar);
+    pipeline.await();
+    for (ProteinMapping mapping : geneMappings) {
+      if (skipped.contains(mapping.getProteinId())) {
+        continue;
+      }
+      annotationCache.putGeneIds(parameters.getProteinDatabase(), mapping.getProteinId(),
+          mapping.getGenes() != null
+              ? mapping.getGenes().stream().map(gene -> gene.getId()).collect(Collectors.toList())
+              : new ArrayList<>());
+    }
+    if (isDownloadGeneInfo(parameters)) {
+      setGeneInfo(mappings, genes, parameters);
     }
+    annotationCache.flush();
+    reportSkipped(skipped, progressBar, resources);
     progressBar.setProgress(1.0);
     return mappings;
   }
 
-  private void downloadGeneMappings(List<ProteinMapping> mappings, FindGenesParameters parameters,
-      ProgressBar progressBar, MessageResources resources)
-      throws IOException, InterruptedException {
+  /**
+   * Submits batches that download gene mappings to pipeline.
+   *
+   * @return mappings that are not in cache nor in local gene2refseq file and will be downloaded
+   */
+  private List<ProteinMapping> submitGeneMappings(List<ProteinMapping> allMappings,
+      FindGenesParameters parameters, Map<Long, GeneInfo> genes, ProteinSummaryRequests summaries,
+      Set<String> skipped, NcbiRequestScheduler.Pipeline pipeline, ProgressBar progressBar,
+      MessageResources resources) throws IOException, InterruptedException {
+    final ProteinDatabase database = parameters.getProteinDatabase();
+    final GeneInfoRequests geneInfoRequests =
+        isDownloadGeneInfo(parameters) ? new GeneInfoRequests(genes, pipeline, resources) : null;
+    List<ProteinMapping> mappings = new ArrayList<>();
+    for (ProteinMapping mapping : allMappings) {
+      List<Long> geneIds = annotationCache.geneIds(database, mapping.getProteinId());
+      if (geneIds != null) {
+        geneIds.forEach(geneId -> addGeneInfo(mapping, new GeneInfo(geneId)));
+        if (geneInfoRequests != null) {
+          geneInfoRequests.add(geneIds);
+        }
+      } else {
+        mappings.add(mapping);
+      }
+    }
+    if (!mappings.isEmpty() && gene2refseqIndex.enabled()) {
+      progressBar.setMessage(resources.message("localGeneMappings", mappings.size()));
+      for (ProteinMapping mapping : mappings) {
+        List<Long> geneIds = gene2refseqIndex.geneIds(database, mapping.getProteinId());
+        geneIds.forEach(geneId -> addGeneInfo(mapping, new GeneInfo(geneId)));
+        if (geneInfoRequests != null) {
+          geneInfoRequests.add(geneIds);
+        }
+      }
+      // Local mappings are not cached.
+      mappings.clear();
+    }
+    if (mappings.isEmpty()) {
+      if (geneInfoRequests != null) {
+        geneInfoRequests.flush();
+      }
+      return mappings;
+    }
+    final GeneMappingRequests geneMappingRequests =
+        new GeneMappingRequests(mappings, geneInfoRequests, skipped, pipeline, resources);
+    if (database == REFSEQ_GI) {
+      List<String> proteinIds =
+          mappings.stream().map(mapping -> mapping.getProteinId()).collect(Collectors.toList());
+      final int[] boundaries = ncbiBatchSize("elink").boundaries(proteinIds.size());
+      geneMappingRequests.batches(boundaries.length - 1);
+      for (int i = 0; i < boundaries.length - 1; i++) {
+        int start = boundaries[i];
+        int end = boundaries[i + 1];
+        geneMappingRequests.submit(proteinIds.subList(start, end).stream()
+            .collect(Collectors.toMap(gi -> gi, gi -> gi)), start, end);
+      }
+    } else {
+      // GIs of accessions are found in protein summaries.
+      summaries.add(mappings, geneMappingRequests);
+    }
+    return mappings;
+  }
+
+  /**
+   * Returns a batch that downloads protein summaries and passes summaries, by protein id, to
+   * consumer. Proteins whose request failed are added to skipped.
+   */
+  private Callable<Void> proteinSummaryBatch(WebTarget target, ProteinDatabase database,
+      List<String> proteinIds, EutilsHistory history, int start, int end, Set<String> skipped,
+      Consumer<Map<String, ProteinSummary>> consumer) {
+    final Invocation.Builder request = target.request();
+    final AdaptiveBatchSize batchSize = ncbiBatchSize("protein");
+    return () -> {
+      RangeResults<String, ProteinSummary> summaries = retry(batchSize, end - start, (from, to) -> {
+        Form form = ncbiForm();
+        form.param("db", "protein");
+        if (history != null) {
+          history.param(form, start + from, to - from);
+        } else {
+          form.param("id", String.join(",", proteinIds.subList(start + from, start + to)));
+        }
+        ncbiRequestScheduler.acquire();
+        try (InputStream input = new BufferedInputStream(
+            request.post(Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED_TYPE),
+                InputStream.class))) {
+          ProteinSummaryHandler handler = new ProteinSummaryHandler(database);
+          saxParserPool.parse(input, handler);
+          return handler.summaries;
+        } catch (SAXException e) {
+          throw new IOException("Could not parse esummary response", e);
+        }
+      });
+      summaries.getSkipped().forEach(index -> skipped.add(proteinIds.get(start + index)));
+      consumer.accept(summaries.getResults());
+      return null;
+    };
+  }
+
+  private boolean isDownloadGeneMappings(FindGenesParameters parameters) {
+    return parameters.isGeneId() || parameters.isGeneName() || parameters.isGeneSummary()
+        || parameters.isGeneSynonyms();
+  }
+
+  private void addGeneInfo(ProteinMapping mapping, GeneInfo geneInfo) {
+    synchronized (mapping) {
+      if (mapping.getGenes() == null) {
+        mapping.setGenes(new ArrayList<>());
+      }
+      mapping.getGenes().add(geneInfo);
+    }
+  }
+
+  private boolean isDownloaSequences(FindGenesParameters parameters) {
+    return parameters.isSequence() || parameters.isProteinMolecularWeight();
+  }
+
+  private void submitSequences(List<ProteinMapping> allMappings, FindGenesParameters parameters,
+      Map<Set<String>, EutilsHistory> histories, ProteinSummaryRequests summaries,
+      Set<String> skipped, NcbiRequestScheduler.Pipeline pipeline, ProgressBar progressBar,
+      MessageResources resources) throws IOException, InterruptedException {
+    final ProteinDatabase database = parameters.getProteinDatabase();
+    List<ProteinMapping> mappings = new ArrayList<>();
+    for (ProteinMapping mapping : allMappings) {
+      String sequence = annotationCache.sequence(database, mapping.getProteinId());
+      Double weight = parameters.isSequence() ? null
+          : annotationCache.weight(database, mapping.getProteinId());
+      if (sequence != null) {
+        setSequence(mapping, sequence, parameters);
+      } else if (weight != null) {
+        mapping.setMolecularWeight(weight);
+      } else {
+        mappings.add(mapping);
+      }
+    }
+    if (mappings.isEmpty()) {
+      return;
+    }
     final Map<String, ProteinMapping> mappingsById = mappings.stream()
         .collect(Collectors.toMap(mapping -> mapping.getProteinId(), mapping -> mapping));
-    final Map<String, String> gis = gis(mappings, parameters, progressBar.step(0.5), resources);
-    progressBar = progressBar.step(0.5);
-    Client client = restClientFactory.createClient();
-    client.register(LoggingFeature.class);
-    client.property(LoggingFeature.LOGGING_FEATURE_VERBOSITY_CLIENT,
-        LoggingFeature.Verbosity.HEADERS_ONLY);
-    WebTarget target = client.target(ncbiConfiguration.eutils());
-    target = target.path("elink.fcgi");
-    List<String> gisIds = new ArrayList<>(gis.keySet());
-    int maxIdsPerRequest = ncbiConfiguration.maxIdsPerRequest();
-    double step = 1.0 / Math.max(gisIds.size() / maxIdsPerRequest, 1.0);
-    for (int i = 0; i < gisIds.size(); i += maxIdsPerRequest) {
-      ExceptionUtils.throwIfInterrupted(resources.message("interrupted"));
-      progressBar.setMessage(resources.message("downloadGeneMappings", i + 1,
-          Math.min(i + maxIdsPerRequest, gisIds.size()), gisIds.size()));
-      Form form = new Form();
-      form.param("db", "gene");
-      form.param("dbfrom", "protein");
-      gisIds.stream().skip(i).limit(maxIdsPerRequest).forEach(gi -> form.param("id", gi));
-      final Invocation.Builder request = target.request();
-      try {
-        retry(() -> {
+    final WebTarget fetchTarget = ncbiTarget("efetch.fcgi");
+    if (database == REFSEQ_GI) {
+      // Accessions of GIs are found in protein summaries, sequences are fetched by accession.
+      summaries.add(mappings, (proteinSummaries, ids, history, start, end) -> {
+        Map<String, ProteinMapping> accessions = new LinkedHashMap<>();
+        proteinSummaries.forEach((gi, summary) -> {
+          if (summary.getAccession() != null) {
+            accessions.put(summary.getAccession(), mappingsById.get(gi));
+          }
+        });
+        List<String> requestIds = history != null ? ids.subList(start, end)
+            : accessions.values().stream().map(mapping -> mapping.getProteinId())
+                .collect(Collectors.toList());
+        submitSequenceFetch(fetchTarget, accessions, requestIds, history, start, end, parameters,
+            skipped, pipeline,
+            resources.message("downloadSequences", start + 1, end, summaries.size()));
+      });
+      return;
+    }
+    List<String> proteinIds =
+        mappings.stream().map(mapping -> mapping.getProteinId()).collect(Collectors.toList());
+    final EutilsHistory history = ncbiConfiguration.historyServer()
+        ? epost(proteinIds, histories, progressBar, resources)
+        : null;
+    final int[] boundaries = ncbiBatchSize("sequence").boundaries(proteinIds.size());
+    for (int i = 0; i < boundaries.length - 1; i++) {
+      final int start = boundaries[i];
+      final int end = boundaries[i + 1];
+      Map<String, ProteinMapping> accessions = new LinkedHashMap<>();
+      proteinIds.subList(start, end).forEach(id -> accessions.put(id, mappingsById.get(id)));
+      submitSequenceFetch(fetchTarget, accessions, proteinIds.subList(start, end), history, start,
+          end, parameters, skipped, pipeline,
+          resources.message("downloadSequences", start + 1, end, proteinIds.size()));
+    }
+  }
+
+  /**
+   * Submits a batch that fetches sequences of proteins, by accession. Request ids are the protein
+   * ids in the order in which they are requested. Proteins whose request failed are added to
+   * skipped.
+   */
+  private void submitSequenceFetch(WebTarget target, Map<String, ProteinMapping> accessions,
+      List<String> requestIds, EutilsHistory history, int start, int end,
+      FindGenesParameters parameters, Set<String> skipped, NcbiRequestScheduler.Pipeline pipeline,
+      String message) {
+    if (accessions.isEmpty()) {
+      return;
+    }
+    final List<String> accessionIds = new ArrayList<>(accessions.keySet());
+    final FastaHeaderMatcher headerMatcher = new FastaHeaderMatcher(accessionIds);
+    // Weight is computed while parsing when sequences are not needed, and cached without sequence.
+    final boolean keepSequence = parameters.isSequence();
+    final boolean parseWeight = parameters.isProteinMolecularWeight() && !keepSequence;
+    final Invocation.Builder request = target.request();
+    final AdaptiveBatchSize batchSize = ncbiBatchSize("sequence");
+    final int ids = history != null ? end - start : accessionIds.size();
+    pipeline.submit(() -> {
+      RangeResults<String, FastaSequenceParser.Sequence> sequences =
+          retry(batchSize, ids, (from, to) -> {
+            Form form = ncbiForm();
+            form.param("db", "protein");
+            form.param("rettype", "fasta");
+            if (history != null) {
+              history.param(form, start + from, to - from);
+            } else {
+              accessionIds.subList(from, to).forEach(id -> form.param("id", id));
+            }
+            ncbiRequestScheduler.acquire();
+            try (InputStream input =
+                request.post(Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED_TYPE),
+                    InputStream.class)) {
+              return new FastaSequenceParser(headerMatcher, keepSequence,
+                  parseWeight ? proteinService.weightAccumulator() : null).parse(input);
+            }
+          });
+      // History requests may include proteins of other stages, which are not skipped here.
+      final Set<String> accessionProteinIds = accessions.values().stream()
+          .map(mapping -> mapping.getProteinId()).collect(Collectors.toSet());
+      sequences.getSkipped().stream().map(index -> requestIds.get(index))
+          .filter(id -> accessionProteinIds.contains(id)).forEach(id -> skipped.add(id));
+      sequences.getResults().forEach((accession, sequence) -> setDownloadedSequence(
+          accessions.get(accession), sequence, parameters));
+      return null;
+    }, message);
+  }
+
+  /**
+   * Uploads protein ids to NCBI's history server, unless same protein ids were already uploaded.
+   *
+   * @param proteinIds
+   *          protein ids
+   * @param histories
+   *          protein ids already uploaded to NCBI's history server
+   * @param progressBar
+   *          records progression
+   * @param resources
+   *          messages
+   * @return reference to uploaded protein ids on NCBI's history server
+   * @throws IOException
+   *           could not upload protein ids
+   * @throws InterruptedException
+   *           thread was interrupted
+   */
+  private EutilsHistory epost(List<String> proteinIds, Map<Set<String>, EutilsHistory> histories,
+      ProgressBar progressBar, MessageResources resources)
+      throws IOException, InterruptedException {
+    Set<String> key = new HashSet<>(proteinIds);
+    EutilsHistory history = histories.get(key);
+    if (history != null) {
+      return history;
+    }
+    progressBar.setMessage(resources.message("uploadIds", proteinIds.size()));
+    WebTarget target = ncbiTarget("epost.fcgi");
+    Form form = ncbiForm();
+    form.param("db", "protein");
+    form.param("id", proteinIds.stream().collect(Collectors.joining(",")));
+    final Invocation.Builder request = target.request();
+    try {
+      history = retry(() -> {
+        ncbiRequestScheduler.acquire();
+        try (InputStream input = new BufferedInputStream(
+            request.post(Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED_TYPE),
+                InputStream.class))) {
+          EpostHandler handler = new EpostHandler();
+          saxParserPool.parse(input, handler);
+          if (handler.webEnv == null || handler.queryKey == null) {
+            throw new IOException("Could not find WebEnv and QueryKey in epost response");
+          }
+          return new EutilsHistory(handler.webEnv, handler.queryKey, proteinIds.size());
+        } catch (SAXException e) {
+          throw new IOException("Could not parse epost response", e);
+        }
+      });
+    } catch (Exception e) {
+      ExceptionUtils.throwExceptionIfMatch(e, IOException.class);
+      ExceptionUtils.throwExceptionIfMatch(e, InterruptedException.class);
+      ExceptionUtils.throwExceptionIfMatch(e, RuntimeException.class);
+      throw new IOException(e);
+    }
+    histories.put(key, history);
+    return history;
+  }
+
+  private void setDownloadedSequence(ProteinMapping mapping, FastaSequenceParser.Sequence sequence,
+      FindGenesParameters parameters) {
+    if (sequence.getSequence() != null) {
+      annotationCache.putSequence(parameters.getProteinDatabase(), mapping.getProteinId(),
+          sequence.getSequence());
+      setSequence(mapping, sequence.getSequence(), parameters);
+    } else if (parameters.isProteinMolecularWeight()) {
+      annotationCache.putWeight(parameters.getProteinDatabase(), mapping.getProteinId(),
+          sequence.getWeight());
+      mapping.setMolecularWeight(sequence.getWeight());
+    }
+  }
+
+  private void setSequence(ProteinMapping mapping, String sequence,
+      FindGenesParameters parameters) {
+    if (parameters.isSequence()) {
+      mapping.setSequence(sequence);
+    }
+    if (parameters.isProteinMolecularWeight()) {
+      mapping.setMolecularWeight(proteinService.weight(sequence));
+    }
+  }
+
+  /**
+   * Receives protein summaries downloaded by {@link ProteinSummaryRequests}.
+   */
+  private interface ProteinSummaryConsumer {
+    /**
+     * Called once before summaries are downloaded.
+     *
+     * @param batches
+     *          number of batches that will be passed to consumer
+     */
+    default void batches(int batches) {
+    }
+
+    /**
+     * Receives protein summaries of a batch.
+     *
+     * @param summaries
+     *          protein summaries, by protein id, limited to proteins added by consumer
+     * @param ids
+     *          all protein ids whose summaries are downloaded, in the order of history
+     * @param history
+     *          reference to all protein ids on NCBI's history server, or null
+     * @param start
+     *          index of first protein of batch
+     * @param end
+     *          index after last protein of batch
+     */
+    void accept(Map<String, ProteinSummary> summaries, List<String> ids, EutilsHistory history,
+        int start, int end);
+  }
+
+  /**
+   * Downloads protein summaries once for all stages that need them.
+   */
+  private class ProteinSummaryRequests {
+    private final ProteinDatabase database;
+    private final Map<String, ProteinMapping> mappingsById;
+    private final Map<Set<String>, EutilsHistory> histories;
+    private final Set<String> skipped;
+    private final NcbiRequestScheduler.Pipeline pipeline;
+    private final MessageResources resources;
+    private final Set<String> proteinIds = new LinkedHashSet<>();
+    private final Map<ProteinSummaryConsumer, Set<String>> consumers = new LinkedHashMap<>();
+
+    private ProteinSummaryRequests(List<ProteinMapping> mappings, ProteinDatabase database,
+        Map<Set<String>, EutilsHistory> histories, Set<String> skipped,
+        NcbiRequestScheduler.Pipeline pipeline, MessageResources resources) {
+      this.database = database;
+      this.mappingsById = mappings.stream()
+          .collect(Collectors.toMap(mapping -> mapping.getProteinId(), mapping -> mapping));
+      this.histories = histories;
+      this.skipped = skipped;
+      this.pipeline = pipeline;
+      this.resources = resources;
+    }
+
+    /**
+     * Adds proteins whose summaries must be passed to consumer.
+     *
+     * @param mappings
+     *          proteins
+     * @param consumer
+     *          receives protein summaries
+     */
+    private void add(Collection<ProteinMapping> mappings, ProteinSummaryConsumer consumer) {
+      Set<String> ids =
+          mappings.stream().map(mapping -> mapping.getProteinId()).collect(Collectors.toSet());
+      proteinIds.addAll(ids);
+      consumers.put(consumer, ids);
+    }
+
+    /**
+     * Returns number of proteins whose summaries will be downloaded.
+     *
+     * @return number of proteins whose summaries will be downloaded
+     */
+    private int size() {
+      return proteinIds.size();
+    }
+
+    /**
+     * Submits batches that download protein summaries to pipeline.
+     *
+     * @param progressBar
+     *          records progression
+     * @throws IOException
+     *           could not upload protein ids to NCBI's history server
+     * @throws InterruptedException
+     *           thread was interrupted
+     */
+    private void submit(ProgressBar progressBar) throws IOException, InterruptedException {
+      if (proteinIds.isEmpty()) {
+        return;
+      }
+      final List<String> ids = new ArrayList<>(proteinIds);
+      final EutilsHistory history = ncbiConfiguration.historyServer()
+          ? epost(ids, histories, progressBar, resources)
+          : null;
+      final WebTarget target = ncbiTarget("esummary.fcgi");
+      final int[] boundaries = ncbiBatchSize("protein").boundaries(ids.size());
+      consumers.keySet().forEach(consumer -> consumer.batches(boundaries.length - 1));
+      for (int i = 0; i < boundaries.length - 1; i++) {
+        final int start = boundaries[i];
+        final int end = boundaries[i + 1];
+        pipeline.submit(proteinSummaryBatch(target, database, ids, history, start, end, skipped,
+            summaries -> {
+              summaries.forEach((id, summary) -> {
+                ProteinMapping mapping = mappingsById.get(id);
+                if (mapping != null && summary.getTaxonomyId() != null) {
+                  mapping.setTaxonomyId(summary.getTaxonomyId());
+                }
+              });
+              consumers.forEach((consumer, consumerIds) -> {
+                Map<String, ProteinSummary> consumerSummaries = new LinkedHashMap<>();
+                summaries.forEach((id, summary) -> {
+                  if (consumerIds.contains(id)) {
+                    consumerSummaries.put(id, summary);
+                  }
+                });
+                consumer.accept(consumerSummaries, ids, history, start, end);
+              });
+            }), resources.message("downloadProteinSummaries", start + 1, end, ids.size()));
+      }
+    }
+  }
+
+  /**
+   * Links GIs to genes and passes gene ids to {@link GeneInfoRequests}.
+   */
+  private class GeneMappingRequests implements ProteinSummaryConsumer {
+    private final Map<String, ProteinMapping> mappingsById;
+    private final int total;
+    private final AtomicInteger remaining;
+    private final GeneInfoRequests geneInfoRequests;
+    private final Set<String> skipped;
+    private final NcbiRequestScheduler.Pipeline pipeline;
+    private final MessageResources resources;
+    private WebTarget target;
+
+    private GeneMappingRequests(List<ProteinMapping> mappings, GeneInfoRequests geneInfoRequests,
+        Set<String> skipped, NcbiRequestScheduler.Pipeline pipeline,
+        MessageResources resources) {
+      this.mappingsById = mappings.stream()
+          .collect(Collectors.toMap(mapping -> mapping.getProteinId(), mapping -> mapping));
+      this.total = mappingsById.size();
+      this.remaining = new AtomicInteger();
+      this.geneInfoRequests = geneInfoRequests;
+      this.skipped = skipped;
+      this.pipeline = pipeline;
+      this.resources = resources;
+    }
+
+    @Override
+    public void batches(int batches) {
+      remaining.addAndGet(batches);
+    }
+
+    @Override
+    public void accept(Map<String, ProteinSummary> summaries, List<String> ids,
+        EutilsHistory history, int start, int end) {
+      Map<String, String> gis = new LinkedHashMap<>();
+      summaries.forEach((id, summary) -> {
+        if (summary.getGi() != null) {
+          gis.put(summary.getGi(), id);
+        }
+      });
+      submit(gis, start, end);
+    }
+
+    /**
+     * Submits a batch that links GIs to genes.
+     *
+     * @param gis
+     *          protein ids, by GI
+     * @param start
+     *          index of first protein
+     * @param end
+     *          index after last protein
+     */
+    private void submit(Map<String, String> gis, int start, int end) {
+      if (gis.isEmpty()) {
+        completed();
+        return;
+      }
+      final List<String> giIds = new ArrayList<>(gis.keySet());
+      final Invocation.Builder request = target().request();
+      final AdaptiveBatchSize batchSize = ncbiBatchSize("elink");
+      pipeline.submit(() -> {
+        RangeResults<String, List<Long>> links = retry(batchSize, giIds.size(), (from, to) -> {
+          Form form = ncbiForm();
+          form.param("db", "gene");
+          form.param("dbfrom", "protein");
+          giIds.subList(from, to).forEach(gi -> form.param("id", gi));
+          ncbiRequestScheduler.acquire();
+          Map<String, List<Long>> parsedLinks = new HashMap<>();
           try (InputStream input = new BufferedInputStream(
               request.post(Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED_TYPE),
                   InputStream.class))) {
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            SAXParser parser = factory.newSAXParser();
-            parser.parse(input, new StackSaxHandler() {
+            saxParserPool.parse(input, new PathSaxHandler() {
               private String id;
-              private List<String> geneIds = new ArrayList<>();
-              private boolean saveCharacter;
-              private StringBuilder builder = new StringBuilder();
+              private List<Long> geneIds = new ArrayList<>();
 
               @Override
-              protected void startElement(String elementName, Attributes attributes)
-                  throws SAXException {
-                if (current("LinkSet")) {
+              protected void startElement(String elementName, Attributes attributes) {
+                if (current(LINK_SET)) {
                   geneIds.clear();
-                } else if (current("Id") && parent("IdList")) {
-                  builder.delete(0, builder.length());
-                  saveCharacter = true;
-                } else if (current("Id") && parent("Link")) {
-                  builder.delete(0, builder.length());
-                  saveCharacter = true;
+                } else if (current(LINK_SET_ID) || current(LINK_ID)) {
+                  collectText();
                 }
               }
 
               @Override
               protected void endElement(String elementName) {
-                if (current("LinkSet")) {
-                  ProteinMapping mapping = mappingsById.get(gis.get(id));
-                  if (mapping != null) {
-                    geneIds.stream().forEach(
-                        geneId -> addGeneInfo(mapping, new GeneInfo(Long.parseLong(geneId))));
-                  }
-                } else if (current("Id") && parent("IdList")) {
-                  id = builder.toString();
-                  saveCharacter = false;
-                } else if (current("Id") && parent("Link")) {
-                  geneIds.add(builder.toString());
-                  saveCharacter = false;
-                }
-              }
-
-              @Override
-              public void characters(char[] ch, int start, int length) throws SAXException {
-                if (saveCharacter) {
-                  builder.append(ch, start, length);
+                if (current(LINK_SET) && id != null) {
+                  parsedLinks.put(id, new ArrayList<>(geneIds));
+                } else if (current(LINK_SET_ID)) {
+                  id = text();
+                } else if (current(LINK_ID)) {
+                  geneIds.add(Long.parseLong(text()));
                 }
               }
             });
-          } catch (ParserConfigurationException | SAXException e) {
+          } catch (SAXException e) {
             throw new IOException("Could not parse elink response", e);
           }
-          return null;
+          return parsedLinks;
+        });
+        links.getSkipped().forEach(index -> skipped.add(gis.get(giIds.get(index))));
+        List<Long> linkedGeneIds = new ArrayList<>();
+        links.getResults().forEach((gi, geneIds) -> {
+          ProteinMapping mapping = mappingsById.get(gis.get(gi));
+          if (mapping != null) {
+            geneIds.forEach(geneId -> addGeneInfo(mapping, new GeneInfo(geneId)));
+            linkedGeneIds.addAll(geneIds);
+          }
         });
-      } catch (Exception e) {
-        ExceptionUtils.throwExceptionIfMatch(e, IOException.class);
-        ExceptionUtils.throwExceptionIfMatch(e, InterruptedException.class);
-        ExceptionUtils.throwExceptionIfMatch(e, RuntimeException.class);
-        throw new IOException(e);
+        if (geneInfoRequests != null) {
+          geneInfoRequests.add(linkedGeneIds);
+        }
+        completed();
+        return null;
+      }, resources.message("downloadGeneMappings", start + 1, end, total));
+    }
+
+    private synchronized WebTarget target() {
+      if (target == null) {
+        target = ncbiTarget("elink.fcgi");
+      }
+      return target;
+    }
+
+    private void completed() {
+      if (remaining.decrementAndGet() == 0 && geneInfoRequests != null) {
+        geneInfoRequests.flush();
       }
-      progressBar.setProgress(i * step);
     }
-    progressBar.setProgress(1.0);
   }
 
-  private Map<String, String> gis(List<ProteinMapping> mappings, FindGenesParameters parameters,
-      ProgressBar progressBar, MessageResources resources)
-      throws IOException, InterruptedException {
-    if (parameters.getProteinDatabase() == REFSEQ_GI) {
-      return mappings.stream().collect(
-          Collectors.toMap(mapping -> mapping.getProteinId(), mapping -> mapping.getProteinId()));
-    } else {
-      Map<String, String> gis = new HashMap<>();
-      Client client = restClientFactory.createClient();
-      client.register(LoggingFeature.class);
-      client.property(LoggingFeature.LOGGING_FEATURE_VERBOSITY_CLIENT,
-          LoggingFeature.Verbosity.HEADERS_ONLY);
-      WebTarget target = client.target(ncbiConfiguration.eutils());
-      target = target.path("esummary.fcgi");
-      List<String> proteinIds = mappings.stream().map(mapping -> mapping.getProteinId()).distinct()
-          .collect(Collectors.toList());
-      int maxIdsPerRequest = ncbiConfiguration.maxIdsPerRequest();
-      double step = 1.0 / Math.max(proteinIds.size() / maxIdsPerRequest, 1.0);
-      for (int i = 0; i < proteinIds.size(); i += maxIdsPerRequest) {
-        ExceptionUtils.throwIfInterrupted(resources.message("interrupted"));
-        progressBar.setMessage(resources.message("downloadGis", i + 1,
-            Math.min(i + maxIdsPerRequest, proteinIds.size()), proteinIds.size()));
-        Form form = new Form();
-        form.param("db", "protein");
-        form.param("id",
-            proteinIds.stream().skip(i).limit(maxIdsPerRequest).collect(Collectors.joining(",")));
-        final Invocation.Builder request = target.request();
-        try {
-          retry(() -> {
-            try (InputStream input = new BufferedInputStream(
-                request.post(Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED_TYPE),
-                    InputStream.class))) {
-              SAXParserFactory factory = SAXParserFactory.newInstance();
-              SAXParser parser = factory.newSAXParser();
-              parser.parse(input, new StackSaxHandler() {
-                private String id;
-                private String accession;
-                private boolean saveCharacter;
-                private StringBuilder builder = new StringBuilder();
-
-                @Override
-                protected void startElement(String elementName, Attributes attributes)
-                    throws SAXException {
-                  if (current("DocSum")) {
-                    // Do nothing.
-                  } else if (current("Id")) {
-                    builder.delete(0, builder.length());
-                    saveCharacter = true;
-                  } else if (current("Item") && attribute("Name", "AccessionVersion")) {
-                    builder.delete(0, builder.length());
-                    saveCharacter = true;
-                  }
-                }
+  /**
+   * Groups gene ids into batches that download gene information.
+   */
+  private class GeneInfoRequests {
+    private final Map<Long, GeneInfo> genes;
+    private final NcbiRequestScheduler.Pipeline pipeline;
+    private final MessageResources resources;
+    private final AdaptiveBatchSize batchSize = ncbiBatchSize("gene");
+    private final Set<Long> requested = new HashSet<>();
+    private final List<Long> pending = new ArrayList<>();
+    private int submitted;
+    private WebTarget target;
 
-                @Override
-                protected void endElement(String elementName) {
-                  if (current("DocSum")) {
-                    gis.put(id, accession);
-                  } else if (current("Id")) {
-                    id = builder.toString();
-                    saveCharacter = false;
-                  } else if (current("Item") && attribute("Name", "AccessionVersion")) {
-                    accession = builder.toString();
-                    saveCharacter = false;
-                  }
-                }
+    private GeneInfoRequests(Map<Long, GeneInfo> genes, NcbiRequestScheduler.Pipeline pipeline,
+        MessageResources resources) {
+      this.genes = genes;
+      this.pipeline = pipeline;
+      this.resources = resources;
+    }
 
-                @Override
-                public void characters(char[] ch, int start, int length) throws SAXException {
-                  if (saveCharacter) {
-                    builder.append(ch, start, length);
-                  }
-                }
-              });
-            } catch (ParserConfigurationException | SAXException e) {
-              throw new IOException("Could not parse esummary response", e);
-            }
-            return null;
-          });
-        } catch (Exception e) {
-          ExceptionUtils.throwExceptionIfMatch(e, IOException.class);
-          ExceptionUtils.throwExceptionIfMatch(e, InterruptedException.class);
-          ExceptionUtils.throwExceptionIfMatch(e, RuntimeException.class);
-          throw new IOException(e);
+    /**
+     * Adds gene ids to download, full batches are submitted immediately.
+     *
+     * @param geneIds
+     *          gene ids
+     * @throws IOException
+     *           could not read local gene_info file
+     */
+    private synchronized void add(Collection<Long> geneIds) throws IOException {
+      if (localGeneInfo(geneIds, genes)) {
+        return;
+      }
+      for (Long geneId : geneIds) {
+        if (requested.add(geneId)) {
+          GeneInfo cached = annotationCache.gene(geneId);
+          if (cached != null) {
+            genes.put(geneId, cached);
+          } else {
+            pending.add(geneId);
+          }
         }
-        progressBar.setProgress(i * step);
       }
-      progressBar.setProgress(1.0);
-      return gis;
+      while (pending.size() >= batchSize.size()) {
+        submit(batchSize.size());
+      }
     }
-  }
 
-  private boolean isDownloadGeneMappings(FindGenesParameters parameters) {
-    return parameters.isGeneId() || parameters.isGeneName() || parameters.isGeneSummary()
-        || parameters.isGeneSynonyms();
-  }
+    /**
+     * Submits remaining gene ids, once no more gene ids will be added.
+     */
+    private synchronized void flush() {
+      if (!pending.isEmpty()) {
+        submit(pending.size());
+      }
+    }
 
-  private void addGeneInfo(ProteinMapping mapping, GeneInfo geneInfo) {
-    if (mapping.getGenes() == null) {
-      mapping.setGenes(new ArrayList<>());
+    private void submit(int count) {
+      List<Long> geneIds = new ArrayList<>(pending.subList(0, count));
+      pending.subList(0, count).clear();
+      if (target == null) {
+        target = ncbiTarget("esummary.fcgi");
+      }
+      pipeline.submit(geneInfoBatch(target, geneIds, genes), resources.message("downloadGenes",
+          submitted + 1, submitted + geneIds.size(), requested.size()));
+      submitted += geneIds.size();
     }
-    mapping.getGenes().add(geneInfo);
   }
 
-  private boolean isDownloaSequences(FindGenesParameters parameters) {
-    return parameters.isSequence() || parameters.isProteinMolecularWeight();
-  }
+  /**
+   * Parses protein summaries from esummary response.
+   */
+  private static class ProteinSummaryHandler extends PathSaxHandler {
+    private static final ElementPath DOC_SUM = ElementPath.compile("DocSum");
+    private static final ElementPath DOC_SUM_ID = ElementPath.compile("DocSum/Id");
+    private static final ElementPath DOC_SUM_ITEM = ElementPath.compile("DocSum/Item");
+    private final ProteinDatabase database;
+    private final Map<String, ProteinSummary> summaries = new LinkedHashMap<>();
+    private String id;
+    private String accession;
+    private Integer taxonomyId;
+    private Integer sequenceLength;
+    private String item;
 
-  private void downloadSequences(List<ProteinMapping> mappings, FindGenesParameters parameters,
-      ProgressBar progressBar, MessageResources resources)
-      throws IOException, InterruptedException {
-    Map<String, ProteinMapping> mappingsById = mappings.stream()
-        .collect(Collectors.toMap(mapping -> mapping.getProteinId(), mapping -> mapping));
-    Map<String, String> accessions =
-        accessions(mappings, parameters, progressBar.step(0.5), resources);
-    Function<String, Pattern> sequencePatternProvider =
-        accession -> Pattern.compile("^>(.*\\|)?" + Pattern.quote(accession) + "([\\| ].*)?$");
-    Map<Pattern, ProteinMapping> sequenceNamePatterns =
-        accessions.keySet().stream().collect(Collectors.toMap(sequencePatternProvider,
-            accession -> mappingsById.get(accessions.get(accession))));
-    progressBar = progressBar.step(0.5);
-    Client client = restClientFactory.createClient();
-    client.register(LoggingFeature.class);
-    client.property(LoggingFeature.LOGGING_FEATURE_VERBOSITY_CLIENT,
-        LoggingFeature.Verbosity.HEADERS_ONLY);
-    WebTarget target = client.target(ncbiConfiguration.eutils());
-    target = target.path("efetch.fcgi");
-    List<String> proteinIds = accessions.keySet().stream().collect(Collectors.toList());
-    int maxIdsPerRequest = ncbiConfiguration.maxIdsPerRequest();
-    double step = 1.0 / Math.max(proteinIds.size() / maxIdsPerRequest, 1.0);
-    for (int i = 0; i < proteinIds.size(); i += maxIdsPerRequest) {
-      ExceptionUtils.throwIfInterrupted(resources.message("interrupted"));
-      progressBar.setMessage(resources.message("downloadSequences", i + 1,
-          Math.min(i + maxIdsPerRequest, proteinIds.size()), proteinIds.size()));
-      Form form = new Form();
-      form.param("db", "protein");
-      form.param("rettype", "fasta");
-      List<String> currentProteinIds =
-          proteinIds.stream().skip(i).limit(maxIdsPerRequest).collect(Collectors.toList());
-      currentProteinIds.forEach(id -> form.param("id", id));
-      final Invocation.Builder request = target.request();
-      try {
-        retry(() -> {
-          try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-              request.post(Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED_TYPE),
-                  InputStream.class),
-              UTF_8_CHARSET))) {
-            String line;
-            ProteinMapping mapping = null;
-            StringBuilder builder = new StringBuilder();
-            while ((line = reader.readLine()) != null) {
-              if (line.startsWith(">")) {
-                if (mapping != null) {
-                  setSequence(mapping, builder.toString(), parameters);
-                }
-                mapping = null;
-                builder.delete(0, builder.length());
-                for (Pattern pattern : sequenceNamePatterns.keySet()) {
-                  if (pattern.matcher(line).matches()) {
-                    mapping = sequenceNamePatterns.get(pattern);
-                  }
-                }
-              } else if (mapping != null) {
-                builder.append(line);
-              }
-            }
-            if (mapping != null) {
-              setSequence(mapping, builder.toString(), parameters);
-            }
-          }
-          return null;
-        });
-      } catch (Exception e) {
-        ExceptionUtils.throwExceptionIfMatch(e, IOException.class);
-        ExceptionUtils.throwExceptionIfMatch(e, InterruptedException.class);
-        ExceptionUtils.throwExceptionIfMatch(e, RuntimeException.class);
-        throw new IOException(e);
+    private ProteinSummaryHandler(ProteinDatabase database) {
+      this.database = database;
+    }
+
+    @Override
+    protected void startElement(String elementName, Attributes attributes) {
+      if (current(DOC_SUM)) {
+        id = null;
+        accession = null;
+        taxonomyId = null;
+        sequenceLength = null;
+      } else if (current(DOC_SUM_ID)) {
+        collectText();
+      } else if (current(DOC_SUM_ITEM)) {
+        item = attributes.getValue("Name");
+        if (isSummaryItem()) {
+          collectText();
+        }
       }
-      progressBar.setProgress(i * step);
     }
-    progressBar.setProgress(1.0);
-  }
 
-  private Map<String, String> accessions(List<ProteinMapping> mappings,
-      FindGenesParameters parameters, ProgressBar progressBar, MessageResources resources)
-      throws IOException, InterruptedException {
-    if (parameters.getProteinDatabase() == REFSEQ_GI) {
-      Map<String, String> accessions = new HashMap<>();
-      Client client = restClientFactory.createClient();
-      client.register(LoggingFeature.class);
-      client.property(LoggingFeature.LOGGING_FEATURE_VERBOSITY_CLIENT,
-          LoggingFeature.Verbosity.HEADERS_ONLY);
-      WebTarget target = client.target(ncbiConfiguration.eutils());
-      target = target.path("esummary.fcgi");
-      List<String> proteinIds = mappings.stream().map(mapping -> mapping.getProteinId()).distinct()
-          .collect(Collectors.toList());
-      int maxIdsPerRequest = ncbiConfiguration.maxIdsPerRequest();
-      double step = 1.0 / Math.max(proteinIds.size() / maxIdsPerRequest, 1.0);
-      for (int i = 0; i < proteinIds.size(); i += maxIdsPerRequest) {
-        ExceptionUtils.throwIfInterrupted(resources.message("interrupted"));
-        progressBar.setMessage(resources.message("downloadAccessions", i + 1,
-            Math.min(i + maxIdsPerRequest, proteinIds.size()), proteinIds.size()));
-        Form form = new Form();
-        form.param("db", "protein");
-        form.param("id",
-            proteinIds.stream().skip(i).limit(maxIdsPerRequest).collect(Collectors.joining(",")));
-        final Invocation.Builder request = target.request();
-        try {
-          retry(() -> {
-            try (InputStream input = new BufferedInputStream(
-                request.post(Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED_TYPE),
-                    InputStream.class))) {
-              SAXParserFactory factory = SAXParserFactory.newInstance();
-              SAXParser parser = factory.newSAXParser();
-              parser.parse(input, new StackSaxHandler() {
-                private String id;
-                private String accession;
-                private boolean saveCharacter;
-                private StringBuilder builder = new StringBuilder();
-
-                @Override
-                protected void startElement(String elementName, Attributes attributes)
-                    throws SAXException {
-                  if (current("DocSum")) {
-                    // Do nothing.
-                  } else if (current("Id")) {
-                    builder.delete(0, builder.length());
-                    saveCharacter = true;
-                  } else if (current("Item") && attribute("Name", "AccessionVersion")) {
-                    builder.delete(0, builder.length());
-                    saveCharacter = true;
-                  }
-                }
+    @Override
+    protected void endElement(String elementName) {
+      if (current(DOC_SUM)) {
+        String key = database == REFSEQ_GI ? id : accession;
+        if (key != null) {
+          summaries.put(key, new ProteinSummary(id, accession, taxonomyId, sequenceLength));
+        }
+      } else if (current(DOC_SUM_ID)) {
+        id = text();
+      } else if (current(DOC_SUM_ITEM) && isSummaryItem()) {
+        if (item.equals("AccessionVersion")) {
+          accession = text();
+        } else if (item.equals("TaxId")) {
+          taxonomyId = parseInteger(text());
+        } else {
+          sequenceLength = parseInteger(text());
+        }
+        item = null;
+      }
+    }
 
-                @Override
-                protected void endElement(String elementName) {
-                  if (current("DocSum")) {
-                    accessions.put(accession, id);
-                  } else if (current("Id")) {
-                    id = builder.toString();
-                    saveCharacter = false;
-                  } else if (current("Item") && attribute("Name", "AccessionVersion")) {
-                    accession = builder.toString();
-                    saveCharacter = false;
-                  }
-                }
+    private boolean isSummaryItem() {
+      return "AccessionVersion".equals(item) || "TaxId".equals(item) || "Length".equals(item);
+    }
 
-                @Override
-                public void characters(char[] ch, int start, int length) throws SAXException {
-                  if (saveCharacter) {
-                    builder.append(ch, start, length);
-                  }
-                }
-              });
-            } catch (ParserConfigurationException | SAXException e) {
-              throw new IOException("Could not parse esummary response", e);
-            }
-            return null;
-          });
-        } catch (Exception e) {
-          ExceptionUtils.throwExceptionIfMatch(e, IOException.class);
-          ExceptionUtils.throwExceptionIfMatch(e, InterruptedException.class);
-          ExceptionUtils.throwExceptionIfMatch(e, RuntimeException.class);
-          throw new IOException(e);
-        }
-        progressBar.setProgress(i * step);
+    private Integer parseInteger(String value) {
+      try {
+        return Integer.valueOf(value.trim());
+      } catch (NumberFormatException e) {
+        return null;
       }
-      progressBar.setProgress(1.0);
-      return accessions;
-    } else {
-      return mappings.stream().collect(
-          Collectors.toMap(mapping -> mapping.getProteinId(), mapping -> mapping.getProteinId()));
     }
   }
 
-  private void setSequence(ProteinMapping mapping, String sequence,
-      FindGenesParameters parameters) {
-    if (parameters.isSequence()) {
-      mapping.setSequence(sequence);
+  private static class EpostHandler extends PathSaxHandler {
+    private String webEnv;
+    private String queryKey;
+
+    @Override
+    protected void startElement(String elementName, Attributes attributes) {
+      if (current("WebEnv") || current("QueryKey")) {
+        collectText();
+      }
     }
-    if (parameters.isProteinMolecularWeight()) {
-      mapping.setMolecularWeight(proteinService.weight(sequence));
+
+    @Override
+    protected void endElement(String elementName) {
+      if (current("WebEnv")) {
+        webEnv = text();
+      } else if (current("QueryKey")) {
+        queryKey = text();
+      }
     }
   }
 }
@@ -17,6 +17,7 @@
 
 package ca.qc.ircm.genefinder.annotation;
 
+import java.nio.file.Path;
 import java.util.regex.Pattern;
 
 /**
@@ -30,6 +31,33 @@ public interface UniprotConfiguration {
    */
   public String mapping();
 
+  /**
+   * Returns URL of UniProt's asynchronous id mapping service, or null if legacy
+   * {@link #mapping() id mapping URL} should be used.
+   * <p>
+   * All protein ids are submitted in a single job, whose results are streamed once job is
+   * finished.
+   * </p>
+   *
+   * @return URL of UniProt's asynchronous id mapping service, or null if legacy
+   *         {@link #mapping() id mapping URL} should be used
+   */
+  public String mappingJob();
+
+  /**
+   * Returns delay in milliseconds between requests for the status of an id mapping job.
+   *
+   * @return delay in milliseconds between requests for the status of an id mapping job
+   */
+  public int mappingJobPollInterval();
+
+  /**
+   * Returns maximum time in milliseconds to wait for an id mapping job to finish.
+   *
+   * @return maximum time in milliseconds to wait for an id mapping job to finish
+   */
+  public int mappingJobMaxWait();
+
   /**
    * Returns UniProt's protein id pattern.
    *
@@ -43,4 +71,35 @@ public interface UniprotConfiguration {
    * @return max ids per request on UniProt REST service
    */
   public int maxIdsPerRequest();
+
+  /**
+   * Returns local copy of UniProt's idmapping_selected.tab file, or null if protein to gene
+   * mappings should be downloaded from UniProt.
+   * <p>
+   * File can be compressed using gzip.
+   * </p>
+   *
+   * @return local copy of UniProt's idmapping_selected.tab file, or null if protein to gene
+   *         mappings should be downloaded from UniProt
+   */
+  public Path idmapping();
+
+  /**
+   * Returns local copy of UniProt's FASTA file, or null if sequences should be downloaded from
+   * UniProt.
+   * <p>
+   * File must not be compressed.
+   * </p>
+   *
+   * @return local copy of UniProt's FASTA file, or null if sequences should be downloaded from
+   *         UniProt
+   */
+  public Path fasta();
+
+  /**
+   * Returns folder where indexes of local UniProt files are saved.
+   *
+   * @return folder where indexes of local UniProt files are saved
+   */
+  public Path indexDirectory();
 }
@@ -17,6 +17,8 @@
 
 package ca.qc.ircm.genefinder.annotation;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.regex.Pattern;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
@@ -28,14 +30,35 @@ import org.springframework.context.annotation.Configuration;
 public class UniprotConfigurationSpringBoot implements UniprotConfiguration {
   public static final String PREFIX = "uniprot";
   private String mapping;
+  private String mappingJob;
+  private int mappingJobPollInterval;
+  private int mappingJobMaxWait;
   private String proteinIdPattern;
   private int maxIdsPerRequest;
+  private String idmapping;
+  private String fasta;
+  private String indexDirectory;
 
   @Override
   public String mapping() {
     return mapping;
   }
 
+  @Override
+  public String mappingJob() {
+    return mappingJob != null && !mappingJob.isEmpty() ? mappingJob : null;
+  }
+
+  @Override
+  public int mappingJobPollInterval() {
+    return mappingJobPollInterval;
+  }
+
+  @Override
+  public int mappingJobMaxWait() {
+    return mappingJobMaxWait;
+  }
+
   @Override
   public Pattern proteinIdPattern() {
     return Pattern.compile(proteinIdPattern);
@@ -46,6 +69,21 @@ public class UniprotConfigurationSpringBoot implements UniprotConfiguration {
     return maxIdsPerRequest;
   }
 
+  @Override
+  public Path idmapping() {
+    return idmapping != null && !idmapping.isEmpty() ? Paths.get(idmapping) : null;
+  }
+
+  @Override
+  public Path fasta() {
+    return fasta != null && !fasta.isEmpty() ? Paths.get(fasta) : null;
+  }
+
+  @Override
+  public Path indexDirectory() {
+    return Paths.get(indexDirectory);
+  }
+
   public String getProteinIdPattern() {
     return proteinIdPattern;
   }
@@ -69,4 +107,52 @@ public class UniprotConfigurationSpringBoot implements UniprotConfiguration {
   public void setMapping(String mapping) {
     this.mapping = mapping;
   }
+
+  public String getMappingJob() {
+    return mappingJob;
+  }
+
+  public void setMappingJob(String mappingJob) {
+    this.mappingJob = mappingJob;
+  }
+
+  public int getMappingJobPollInterval() {
+    return mappingJobPollInterval;
+  }
+
+  public void setMappingJobPollInterval(int mappingJobPollInterval) {
+    this.mappingJobPollInterval = mappingJobPollInterval;
+  }
+
+  public int getMappingJobMaxWait() {
+    return mappingJobMaxWait;
+  }
+
+  public void setMappingJobMaxWait(int mappingJobMaxWait) {
+    this.mappingJobMaxWait = mappingJobMaxWait;
+  }
+
+  public String getIdmapping() {
+    return idmapping;
+  }
+
+  public void setIdmapping(String idmapping) {
+    this.idmapping = idmapping;
+  }
+
+  public String getFasta() {
+    return fasta;
+  }
+
+  public void setFasta(String fasta) {
+    this.fasta = fasta;
+  }
+
+  public String getIndexDirectory() {
+    return indexDirectory;
+  }
+
+  public void setIndexDirectory(String indexDirectory) {
+    this.indexDirectory = indexDirectory;
+  }
 }
@@ -19,26 +19,44 @@ package ca.qc.ircm.genefinder.annotation;
 
 import ca.qc.ircm.genefinder.data.FindGenesParameters;
 import ca.qc.ircm.genefinder.protein.ProteinService;
+import ca.qc.ircm.genefinder.protein.WeightAccumulator;
+import ca.qc.ircm.genefinder.rest.AdaptiveBatchSize;
+import ca.qc.ircm.genefinder.rest.AdaptiveBatchSizes;
 import ca.qc.ircm.genefinder.rest.RestClientFactory;
+import ca.qc.ircm.genefinder.rest.RestConfiguration;
 import ca.qc.ircm.genefinder.util.ExceptionUtils;
+import ca.qc.ircm.genefinder.xml.SaxParserPool;
 import ca.qc.ircm.progressbar.ProgressBar;
 import ca.qc.ircm.utils.MessageResources;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.client.Invocation;
 import jakarta.ws.rs.client.WebTarget;
+import jakarta.ws.rs.core.Form;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
-import org.glassfish.jersey.logging.LoggingFeature;
+import org.glassfish.jersey.client.ClientProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -51,23 +69,42 @@ public class UniprotDownloadProteinMappingService extends AbstractDownloadProtei
   @SuppressWarnings("unused")
   private static final Logger logger =
       LoggerFactory.getLogger(UniprotDownloadProteinMappingService.class);
+  /**
+   * UniProt's mapping service accepts at most 500 ids per request.
+   */
+  private static final int UNIPROT_MAX_IDS_PER_REQUEST = 500;
+  /**
+   * UniProt's asynchronous mapping service accepts at most 100,000 ids per job.
+   */
+  private static final int UNIPROT_MAX_IDS_PER_JOB = 100000;
+  private final Gson gson = new Gson();
   @Inject
   private UniprotConfiguration uniprotConfiguration;
   @Inject
   private RestClientFactory restClientFactory;
   @Inject
   private ProteinService proteinService;
+  @Inject
+  private AnnotationCache annotationCache;
+  @Inject
+  private UniprotIndex uniprotIndex;
 
   protected UniprotDownloadProteinMappingService() {
   }
 
   protected UniprotDownloadProteinMappingService(UniprotConfiguration uniprotConfiguration,
       NcbiConfiguration ncbiConfiguration, RestClientFactory restClientFactory,
-      ProteinService proteinService) {
-    super(ncbiConfiguration, restClientFactory);
+      ProteinService proteinService, AnnotationCache annotationCache,
+      NcbiRequestScheduler ncbiRequestScheduler, GeneInfoIndex geneInfoIndex,
+      UniprotIndex uniprotIndex, AdaptiveBatchSizes adaptiveBatchSizes,
+      RestConfiguration restConfiguration, SaxParserPool saxParserPool) {
+    super(ncbiConfiguration, restClientFactory, annotationCache, ncbiRequestScheduler,
+        geneInfoIndex, adaptiveBatchSizes, restConfiguration, saxParserPool);
     this.uniprotConfiguration = uniprotConfiguration;
     this.restClientFactory = restClientFactory;
     this.proteinService = proteinService;
+    this.annotationCache = annotationCache;
+    this.uniprotIndex = uniprotIndex;
   }
 
   @Override
@@ -90,6 +127,7 @@ public class UniprotDownloadProteinMappingService extends AbstractDownloadProtei
     if (isDownloadGeneInfo(parameters)) {
       downloadGeneInfo(mappings, parameters, progressBar.step(step), resources);
     }
+    annotationCache.flush();
     progressBar.setProgress(1.0);
     return mappings;
   }
@@ -100,16 +138,63 @@ public class UniprotDownloadProteinMappingService extends AbstractDownloadProtei
         || parameters.isProteinMolecularWeight();
   }
 
-  private void downloadMappings(List<ProteinMapping> mappings, FindGenesParameters parameters,
+  private void downloadMappings(List<ProteinMapping> allMappings, FindGenesParameters parameters,
       ProgressBar progressBar, MessageResources resources)
       throws IOException, InterruptedException {
+    final ProteinDatabase database = parameters.getProteinDatabase();
+    final boolean genes = parameters.isGeneId() || parameters.isGeneName()
+        || parameters.isGeneSummary() || parameters.isGeneSynonyms();
+    final boolean sequences = parameters.isSequence() || parameters.isProteinMolecularWeight();
+    List<ProteinMapping> mappings = new ArrayList<>();
+    for (ProteinMapping mapping : allMappings) {
+      List<Long> geneIds = genes ? annotationCache.geneIds(database, mapping.getProteinId()) : null;
+      String sequence =
+          sequences ? annotationCache.sequence(database, mapping.getProteinId()) : null;
+      if ((!genes || geneIds != null) && (!sequences || sequence != null)) {
+        if (geneIds != null) {
+          geneIds.forEach(geneId -> addGeneInfo(mapping, new GeneInfo(geneId)));
+        }
+        if (sequence != null) {
+          setSequence(mapping, sequence, parameters);
+        }
+      } else {
+        mappings.add(mapping);
+      }
+    }
+    final boolean downloadGenes = genes && !uniprotIndex.enabled();
+    final boolean downloadSequences = sequences && !uniprotIndex.sequencesEnabled();
+    if (!mappings.isEmpty() && (downloadGenes != genes || downloadSequences != sequences)) {
+      progressBar.setMessage(resources.message("localMappings", mappings.size()));
+      for (ProteinMapping mapping : mappings) {
+        if (genes && !downloadGenes) {
+          uniprotIndex.geneIds(mapping.getProteinId())
+              .forEach(geneId -> addGeneInfo(mapping, new GeneInfo(geneId)));
+        }
+        if (sequences && !downloadSequences && parameters.isSequence()) {
+          String sequence = uniprotIndex.sequence(mapping.getProteinId());
+          if (sequence != null) {
+            setSequence(mapping, sequence, parameters);
+          }
+        } else if (sequences && !downloadSequences) {
+          // Local sequences are not cached, so weight is computed without building sequence.
+          WeightAccumulator weight = proteinService.weightAccumulator();
+          if (uniprotIndex.residues(mapping.getProteinId(), weight::add)) {
+            mapping.setMolecularWeight(weight.weight());
+          }
+        }
+      }
+    }
+    if (mappings.isEmpty() || (!downloadGenes && !downloadSequences)) {
+      progressBar.setProgress(1.0);
+      return;
+    }
     final Map<String, ProteinMapping> mappingsById = mappings.stream()
         .collect(Collectors.toMap(mapping -> mapping.getProteinId(), mapping -> mapping));
     Map<Integer, BiConsumer<ProteinMapping, String>> columnConsumers = new HashMap<>();
     StringBuilder columnsBuilder = new StringBuilder("id");
+    StringBuilder jobColumnsBuilder = new StringBuilder("accession");
     int index = 1;
-    if (parameters.isGeneId() || parameters.isGeneName() || parameters.isGeneSummary()
-        || parameters.isGeneSynonyms()) {
+    if (downloadGenes) {
       columnConsumers.put(index++, (mapping, value) -> {
         String[] geneIds = value.split(";");
         for (String geneId : geneIds) {
@@ -119,61 +204,250 @@ public class UniprotDownloadProteinMappingService extends AbstractDownloadProtei
         }
       });
       columnsBuilder.append(",database(GeneID)");
+      jobColumnsBuilder.append(",xref_geneid");
     }
-    if (parameters.isSequence() || parameters.isProteinMolecularWeight()) {
+    if (downloadSequences) {
       columnConsumers.put(index++, (mapping, value) -> {
+        annotationCache.putSequence(database, mapping.getProteinId(), value);
         setSequence(mapping, value, parameters);
       });
       columnsBuilder.append(",sequence");
+      jobColumnsBuilder.append(",sequence");
+    }
+    // Proteins skipped because their requests failed are not cached.
+    final Set<String> skipped = new HashSet<>();
+    if (uniprotConfiguration.mappingJob() != null) {
+      downloadMappingJobs(mappingsById, jobColumnsBuilder.toString(), columnConsumers,
+          progressBar, resources);
+    } else {
+      downloadLegacyMappings(mappingsById, columnsBuilder.toString(), columnConsumers, skipped,
+          progressBar, resources);
+    }
+    if (downloadGenes) {
+      for (ProteinMapping mapping : mappings) {
+        if (skipped.contains(mapping.getProteinId())) {
+          continue;
+        }
+        annotationCache.putGeneIds(database, mapping.getProteinId(),
+            mapping.getGenes() != null
+                ? mapping.getGenes().stream().map(gene -> gene.getId()).collect(Collectors.toList())
+                : new ArrayList<>());
+      }
     }
-    Client client = restClientFactory.createClient();
-    client.register(LoggingFeature.class);
-    client.property(LoggingFeature.LOGGING_FEATURE_VERBOSITY_CLIENT,
-        LoggingFeature.Verbosity.HEADERS_ONLY);
+    reportSkipped(skipped, progressBar, resources);
+    progressBar.setProgress(1.0);
+  }
+
+  /**
+   * Maps protein ids using UniProt's legacy id mapping service, one batch of ids per request.
+   * Proteins whose request failed are added to skipped.
+   */
+  private void downloadLegacyMappings(Map<String, ProteinMapping> mappingsById, String fields,
+      Map<Integer, BiConsumer<ProteinMapping, String>> columnConsumers, Set<String> skipped,
+      ProgressBar progressBar, MessageResources resources)
+      throws IOException, InterruptedException {
+    Client client = restClientFactory.client();
     WebTarget target = client.target(uniprotConfiguration.mapping());
     target = target.queryParam("from", "ACC,ID");
     target = target.queryParam("to", "ACC");
     target = target.queryParam("format", "tab");
-    target = target.queryParam("columns", columnsBuilder.toString());
+    target = target.queryParam("columns", fields);
+    final WebTarget mappingTarget = target;
     List<String> proteinIds = new ArrayList<>(mappingsById.keySet());
-    int maxIdsPerRequest = uniprotConfiguration.maxIdsPerRequest();
-    double step = 1.0 / Math.max(proteinIds.size() / maxIdsPerRequest, 1.0);
-    for (int i = 0; i < proteinIds.size(); i += maxIdsPerRequest) {
+    AdaptiveBatchSize batchSize = batchSize("uniprot-mapping",
+        uniprotConfiguration.maxIdsPerRequest(), UNIPROT_MAX_IDS_PER_REQUEST);
+    int start = 0;
+    while (start < proteinIds.size()) {
       ExceptionUtils.throwIfInterrupted(resources.message("interrupted"));
-      progressBar.setMessage(resources.message("downloadMappings", i + 1,
-          Math.min(i + maxIdsPerRequest, proteinIds.size()), proteinIds.size()));
-      String ids =
-          proteinIds.stream().skip(i).limit(maxIdsPerRequest).collect(Collectors.joining(" "));
-      final Invocation.Builder request = target.queryParam("query", ids).request();
+      // Batch size is updated after each request.
+      final int end = Math.min(start + batchSize.size(), proteinIds.size());
+      progressBar.setMessage(
+          resources.message("downloadMappings", start + 1, end, proteinIds.size()));
+      final List<String> ids = proteinIds.subList(start, end);
+      final Invocation.Builder request =
+          mappingTarget.queryParam("query", String.join(" ", ids)).request();
       try {
-        retry(() -> {
+        RangeResults<String, String[]> lines = retry(batchSize, ids.size(), (from, to) -> {
+          Invocation.Builder rangeRequest = to - from == ids.size() ? request
+              : mappingTarget.queryParam("query", String.join(" ", ids.subList(from, to)))
+                  .request();
+          Map<String, String[]> parsedLines = new LinkedHashMap<>();
           try (BufferedReader reader = new BufferedReader(
-              new InputStreamReader(request.get(InputStream.class), UTF_8_CHARSET))) {
+              new InputStreamReader(rangeRequest.get(InputStream.class), UTF_8_CHARSET))) {
             String line;
             reader.readLine();
             while ((line = reader.readLine()) != null) {
               String[] columns = line.split("\t");
-              String id = columns[0];
-              ProteinMapping mapping = mappingsById.get(id);
-              if (mapping != null) {
-                for (int j = 1; j < columns.length; j++) {
-                  if (columnConsumers.containsKey(j)) {
-                    columnConsumers.get(j).accept(mapping, columns[j]);
-                  }
-                }
+              parsedLines.put(columns[0], columns);
+            }
+          }
+          return parsedLines;
+        });
+        lines.getSkipped().forEach(index -> skipped.add(ids.get(index)));
+        lines.getResults().forEach((id, columns) -> {
+          ProteinMapping mapping = mappingsById.get(id);
+          if (mapping != null) {
+            for (int j = 1; j < columns.length; j++) {
+              if (columnConsumers.containsKey(j)) {
+                columnConsumers.get(j).accept(mapping, columns[j]);
               }
             }
           }
-          return null;
         });
       } catch (Exception e) {
         ExceptionUtils.throwExceptionIfMatch(e, IOException.class);
         ExceptionUtils.throwExceptionIfMatch(e, InterruptedException.class);
         throw new IOException(e);
       }
-      progressBar.setProgress(i * step);
+      start = end;
+      progressBar.setProgress((double) start / proteinIds.size());
     }
-    progressBar.setProgress(1.0);
+  }
+
+  /**
+   * Maps protein ids using UniProt's asynchronous id mapping service.
+   * <p>
+   * All protein ids are submitted in a single job, unless there are more ids than UniProt accepts
+   * per job. Results are parsed while they are streamed.
+   * </p>
+   */
+  private void downloadMappingJobs(Map<String, ProteinMapping> mappingsById, String fields,
+      Map<Integer, BiConsumer<ProteinMapping, String>> columnConsumers, ProgressBar progressBar,
+      MessageResources resources) throws IOException, InterruptedException {
+    WebTarget target = restClientFactory.client().target(uniprotConfiguration.mappingJob());
+    List<String> proteinIds = new ArrayList<>(mappingsById.keySet());
+    int start = 0;
+    while (start < proteinIds.size()) {
+      ExceptionUtils.throwIfInterrupted(resources.message("interrupted"));
+      final int end = Math.min(start + UNIPROT_MAX_IDS_PER_JOB, proteinIds.size());
+      final List<String> ids = proteinIds.subList(start, end);
+      try {
+        progressBar.setMessage(resources.message("submitMappingJob", ids.size()));
+        String jobId = submitMappingJob(target, ids);
+        progressBar.setMessage(resources.message("waitMappingJob", ids.size()));
+        waitForMappingJob(target, jobId);
+        progressBar.setMessage(
+            resources.message("downloadMappings", start + 1, end, proteinIds.size()));
+        streamMappingJobResults(target, jobId, fields, mappingsById, columnConsumers);
+      } catch (Exception e) {
+        ExceptionUtils.throwExceptionIfMatch(e, IOException.class);
+        ExceptionUtils.throwExceptionIfMatch(e, InterruptedException.class);
+        throw new IOException(e);
+      }
+      start = end;
+      progressBar.setProgress((double) start / proteinIds.size());
+    }
+  }
+
+  private String submitMappingJob(WebTarget target, List<String> ids) throws Exception {
+    Form form = new Form();
+    form.param("from", "UniProtKB_AC-ID");
+    form.param("to", "UniProtKB");
+    form.param("ids", String.join(",", ids));
+    final Invocation.Builder request = target.path("run").request(MediaType.APPLICATION_JSON);
+    return retry(() -> {
+      try (Reader reader = new InputStreamReader(
+          request.post(Entity.entity(form, MediaType.APPLICATION_FORM_URLENCODED_TYPE),
+              InputStream.class),
+          UTF_8_CHARSET)) {
+        MappingJob job = parseMappingJob(reader);
+        if (job.jobId == null) {
+          throw new IOException("Could not find jobId in UniProt's response");
+        }
+        return job.jobId;
+      }
+    });
+  }
+
+  /**
+   * Waits until mapping job is finished, for at most
+   * {@link UniprotConfiguration#mappingJobMaxWait()}.
+   */
+  private void waitForMappingJob(WebTarget target, String jobId) throws Exception {
+    // Finished jobs redirect to results, which must not be downloaded as JSON.
+    final Invocation.Builder request = target.path("status").path(jobId)
+        .property(ClientProperties.FOLLOW_REDIRECTS, false).request(MediaType.APPLICATION_JSON);
+    final int maxWait = uniprotConfiguration.mappingJobMaxWait();
+    final long start = System.nanoTime();
+    while (true) {
+      boolean finished = retry(() -> {
+        Response response = request.get();
+        try {
+          if (response.getStatusInfo().getFamily() == Response.Status.Family.REDIRECTION) {
+            return true;
+          } else if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+            throw new WebApplicationException(response);
+          }
+          try (Reader reader =
+              new InputStreamReader(response.readEntity(InputStream.class), UTF_8_CHARSET)) {
+            MappingJob job = parseMappingJob(reader);
+            if (job.messages != null && !job.messages.isEmpty()) {
+              throw new IOException(
+                  "UniProt mapping job " + jobId + " failed: " + String.join(", ", job.messages));
+            } else if ("ERROR".equals(job.jobStatus)) {
+              throw new IOException("UniProt mapping job " + jobId + " failed");
+            }
+            return job.jobStatus == null || "FINISHED".equals(job.jobStatus);
+          }
+        } finally {
+          response.close();
+        }
+      });
+      if (finished) {
+        return;
+      }
+      if (System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(maxWait)) {
+        throw new IOException(
+            "UniProt mapping job " + jobId + " did not finish within " + maxWait + " milliseconds");
+      }
+      Thread.sleep(uniprotConfiguration.mappingJobPollInterval());
+    }
+  }
+
+  private MappingJob parseMappingJob(Reader reader) throws IOException {
+    try {
+      MappingJob job = gson.fromJson(reader, MappingJob.class);
+      return job != null ? job : new MappingJob();
+    } catch (JsonParseException e) {
+      throw new IOException("Could not parse UniProt's mapping job response", e);
+    }
+  }
+
+  /**
+   * Streams results of mapping job, lines are passed to column consumers as they are read.
+   */
+  private void streamMappingJobResults(WebTarget target, String jobId, String fields,
+      Map<String, ProteinMapping> mappingsById,
+      Map<Integer, BiConsumer<ProteinMapping, String>> columnConsumers) throws Exception {
+    final Invocation.Builder request = target.path("uniprotkb/results/stream").path(jobId)
+        .queryParam("format", "tsv").queryParam("fields", fields).request();
+    // Lines parsed before a failure are skipped when request is retried.
+    final AtomicInteger parsedLines = new AtomicInteger();
+    retry(() -> {
+      try (BufferedReader reader = new BufferedReader(
+          new InputStreamReader(request.get(InputStream.class), UTF_8_CHARSET))) {
+        reader.readLine();
+        int lineIndex = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (lineIndex++ < parsedLines.get()) {
+            continue;
+          }
+          // First columns are the submitted id and UniProt's accession.
+          String[] values = line.split("\t");
+          ProteinMapping mapping = mappingsById.get(values[0]);
+          if (mapping != null) {
+            for (int j = 2; j < values.length; j++) {
+              if (columnConsumers.containsKey(j - 1)) {
+                columnConsumers.get(j - 1).accept(mapping, values[j]);
+              }
+            }
+          }
+          parsedLines.incrementAndGet();
+        }
+      }
+      return null;
+    });
   }
 
   private void addGeneInfo(ProteinMapping mapping, GeneInfo geneInfo) {
@@ -193,4 +467,13 @@ public class UniprotDownloadProteinMappingService extends AbstractDownloadProtei
       mapping.setMolecularWeight(weight);
     }
   }
+
+  /**
+   * Id mapping job, as returned by UniProt's asynchronous id mapping service.
+   */
+  private static class MappingJob {
+    private String jobId;
+    private String jobStatus;
+    private List<String> messages;
+  }
 }
@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import ca.qc.ircm.genefinder.util.ExceptionUtils;
+import ca.qc.ircm.genefinder.util.RecordIndex;
+import ca.qc.ircm.genefinder.util.RecordIndexWriter;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.zip.GZIPInputStream;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Protein to gene mappings and sequences found in local copies of UniProt's
+ * idmapping_selected.tab and FASTA files.
+ * <p>
+ * Indexes are created in {@link UniprotConfiguration#indexDirectory()} the first time a protein
+ * is requested. An index is created again when its source file changes.
+ * </p>
+ */
+@Component
+public class UniprotIndex {
+  private static final String IDMAPPING_INDEX_FILENAME = "uniprot-idmapping.index";
+  private static final String FASTA_INDEX_FILENAME = "uniprot-fasta.index";
+  private static final int ACCESSION_COLUMN = 0;
+  private static final int GENE_ID_COLUMN = 2;
+  private static final int LINES_PER_BATCH = 10000;
+  private static final Logger logger = LoggerFactory.getLogger(UniprotIndex.class);
+  @Inject
+  private UniprotConfiguration uniprotConfiguration;
+  private RecordIndex idmappingIndex;
+  private RecordIndex fastaIndex;
+  private FileChannel fasta;
+
+  protected UniprotIndex() {
+  }
+
+  protected UniprotIndex(UniprotConfiguration uniprotConfiguration) {
+    this.uniprotConfiguration = uniprotConfiguration;
+  }
+
+  /**
+   * Returns true if a local copy of UniProt's idmapping_selected.tab file is configured, false
+   * otherwise.
+   *
+   * @return true if a local copy of UniProt's idmapping_selected.tab file is configured, false
+   *         otherwise
+   */
+  public boolean enabled() {
+    return uniprotConfiguration.idmapping() != null;
+  }
+
+  /**
+   * Returns true if a local copy of UniProt's FASTA file is configured, false otherwise.
+   *
+   * @return true if a local copy of UniProt's FASTA file is configured, false otherwise
+   */
+  public boolean sequencesEnabled() {
+    return uniprotConfiguration.fasta() != null;
+  }
+
+  /**
+   * Returns ids of genes associated with protein in local idmapping_selected.tab file.
+   *
+   * @param accession
+   *          protein accession
+   * @return ids of genes associated with protein in local idmapping_selected.tab file, empty if
+   *         protein is not in local idmapping_selected.tab file
+   * @throws IOException
+   *           could not read or index local idmapping_selected.tab file
+   */
+  public List<Long> geneIds(String accession) throws IOException {
+    List<Long> geneIds = new ArrayList<>();
+    for (byte[] record : idmappingIndex().records(RecordIndex.key(accession))) {
+      String value = new String(record, StandardCharsets.UTF_8);
+      int separator = value.indexOf('\t');
+      // Records start with accession to discard key collisions.
+      if (value.substring(0, separator).equals(accession)) {
+        for (String geneId : value.substring(separator + 1).split(";")) {
+          if (!geneId.trim().isEmpty()) {
+            geneIds.add(Long.parseLong(geneId.trim()));
+          }
+        }
+      }
+    }
+    return geneIds;
+  }
+
+  /**
+   * Returns sequence of protein or null if protein is not in local FASTA file.
+   *
+   * @param accession
+   *          protein accession
+   * @return sequence of protein or null if protein is not in local FASTA file
+   * @throws IOException
+   *           could not read or index local FASTA file
+   */
+  public String sequence(String accession) throws IOException {
+    StringBuilder sequence = new StringBuilder();
+    return residues(accession, residue -> sequence.append((char) residue)) ? sequence.toString()
+        : null;
+  }
+
+  /**
+   * Passes residues of protein's sequence to consumer, without building the sequence.
+   *
+   * @param accession
+   *          protein accession
+   * @param residues
+   *          receives residues of protein's sequence, as ASCII characters
+   * @return true if protein is in local FASTA file, false otherwise
+   * @throws IOException
+   *           could not read or index local FASTA file
+   */
+  public boolean residues(String accession, IntConsumer residues) throws IOException {
+    for (byte[] record : fastaIndex().records(RecordIndex.key(accession))) {
+      String value = new String(record, StandardCharsets.UTF_8);
+      int separator = value.indexOf('\t');
+      if (value.substring(0, separator).equals(accession)) {
+        readSequence(Long.parseLong(value.substring(separator + 1)), residues);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @PreDestroy
+  protected synchronized void close() throws IOException {
+    if (idmappingIndex != null) {
+      idmappingIndex.close();
+      idmappingIndex = null;
+    }
+    closeFasta();
+  }
+
+  private void closeFasta() throws IOException {
+    if (fastaIndex != null) {
+      fastaIndex.close();
+      fastaIndex = null;
+    }
+    if (fasta != null) {
+      fasta.close();
+      fasta = null;
+    }
+  }
+
+  private synchronized RecordIndex idmappingIndex() throws IOException {
+    Path idmapping = uniprotConfiguration.idmapping();
+    if (idmapping == null) {
+      throw new IllegalStateException("No local idmapping_selected.tab file configured");
+    }
+    Path file = uniprotConfiguration.indexDirectory().resolve(IDMAPPING_INDEX_FILENAME);
+    String metadata = metadata(idmapping);
+    if (idmappingIndex != null && !idmappingIndex.metadata().equals(metadata)) {
+      idmappingIndex.close();
+      idmappingIndex = null;
+    }
+    if (idmappingIndex == null) {
+      idmappingIndex = open(file, metadata);
+    }
+    if (idmappingIndex == null) {
+      buildIdmapping(idmapping, file, metadata);
+      idmappingIndex = RecordIndex.open(file);
+    }
+    return idmappingIndex;
+  }
+
+  private synchronized RecordIndex fastaIndex() throws IOException {
+    Path fastaFile = uniprotConfiguration.fasta();
+    if (fastaFile == null) {
+      throw new IllegalStateException("No local UniProt FASTA file configured");
+    }
+    Path file = uniprotConfiguration.indexDirectory().resolve(FASTA_INDEX_FILENAME);
+    String metadata = metadata(fastaFile);
+    if (fastaIndex != null && !fastaIndex.metadata().equals(metadata)) {
+      closeFasta();
+    }
+    if (fastaIndex == null) {
+      fastaIndex = open(file, metadata);
+    }
+    if (fastaIndex == null) {
+      buildFasta(fastaFile, file, metadata);
+      fastaIndex = RecordIndex.open(file);
+    }
+    if (fasta == null) {
+      fasta = FileChannel.open(fastaFile, StandardOpenOption.READ);
+    }
+    return fastaIndex;
+  }
+
+  private RecordIndex open(Path file, String metadata) {
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try {
+      RecordIndex existing = RecordIndex.open(file);
+      if (existing.metadata().equals(metadata)) {
+        return existing;
+      }
+      existing.close();
+    } catch (IOException e) {
+      logger.debug("Could not open UniProt index {}, index will be created again", file, e);
+    }
+    return null;
+  }
+
+  private String metadata(Path source) throws IOException {
+    return "source=" + source.toAbsolutePath() + ";size=" + Files.size(source) + ";modified="
+        + Files.getLastModifiedTime(source).toMillis();
+  }
+
+  /**
+   * Creates index of idmapping_selected.tab file.
+   * <p>
+   * Lines are read by batches and parsed by multiple threads. The number of batches waiting to be
+   * written is limited, so memory usage does not depend on the size of the file.
+   * </p>
+   *
+   * @param idmapping
+   *          idmapping_selected.tab file, can be compressed using gzip
+   * @param file
+   *          index file
+   * @param metadata
+   *          index metadata
+   * @throws IOException
+   *           could not read idmapping_selected.tab file or write index
+   */
+  private void buildIdmapping(Path idmapping, Path file, String metadata) throws IOException {
+    logger.info("Indexing {} to {}", idmapping, file);
+    int threads = Runtime.getRuntime().availableProcessors();
+    AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "uniprot-index-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    Deque<Future<List<IndexRecord>>> batches = new ArrayDeque<>();
+    long count = 0;
+    RecordIndexWriter writer = new RecordIndexWriter(file, metadata);
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(input(idmapping), StandardCharsets.UTF_8), 1 << 16)) {
+      List<String> lines = new ArrayList<>(LINES_PER_BATCH);
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+        if (lines.size() == LINES_PER_BATCH) {
+          final List<String> batch = lines;
+          batches.add(executor.submit(() -> parseIdmapping(batch)));
+          lines = new ArrayList<>(LINES_PER_BATCH);
+          if (batches.size() > threads * 2) {
+            count += write(writer, batches.poll());
+          }
+        }
+      }
+      if (!lines.isEmpty()) {
+        final List<String> batch = lines;
+        batches.add(executor.submit(() -> parseIdmapping(batch)));
+      }
+      while (!batches.isEmpty()) {
+        count += write(writer, batches.poll());
+      }
+    } catch (IOException | RuntimeException e) {
+      writer.abort();
+      throw e;
+    } finally {
+      executor.shutdownNow();
+    }
+    writer.close();
+    logger.info("Indexed {} proteins from {}", count, idmapping);
+  }
+
+  private InputStream input(Path file) throws IOException {
+    InputStream input = Files.newInputStream(file);
+    return file.getFileName().toString().endsWith(".gz") ? new GZIPInputStream(input, 1 << 16)
+        : input;
+  }
+
+  private List<IndexRecord> parseIdmapping(List<String> lines) {
+    List<IndexRecord> records = new ArrayList<>(lines.size());
+    for (String line : lines) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      String[] columns = line.split("\t", GENE_ID_COLUMN + 2);
+      if (columns.length <= GENE_ID_COLUMN) {
+        throw new IllegalArgumentException("Invalid idmapping_selected.tab line " + line);
+      }
+      String accession = columns[ACCESSION_COLUMN];
+      records.add(new IndexRecord(RecordIndex.key(accession),
+          (accession + "\t" + columns[GENE_ID_COLUMN]).getBytes(StandardCharsets.UTF_8)));
+    }
+    return records;
+  }
+
+  private int write(RecordIndexWriter writer, Future<List<IndexRecord>> batch)
+      throws IOException {
+    List<IndexRecord> records;
+    try {
+      records = batch.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while indexing");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      ExceptionUtils.throwExceptionIfMatch(cause, IOException.class);
+      ExceptionUtils.throwExceptionIfMatch(cause, RuntimeException.class);
+      throw new IOException(cause);
+    }
+    for (IndexRecord record : records) {
+      writer.add(record.key, record.record);
+    }
+    return records.size();
+  }
+
+  /**
+   * Creates index of positions of sequences in FASTA file.
+   *
+   * @param fasta
+   *          FASTA file
+   * @param file
+   *          index file
+   * @param metadata
+   *          index metadata
+   * @throws IOException
+   *           could not read FASTA file or write index
+   */
+  private void buildFasta(Path fasta, Path file, String metadata) throws IOException {
+    logger.info("Indexing {} to {}", fasta, file);
+    long count = 0;
+    RecordIndexWriter writer = new RecordIndexWriter(file, metadata);
+    try (InputStream input = Files.newInputStream(fasta)) {
+      byte[] buffer = new byte[1 << 16];
+      StringBuilder header = null;
+      long headerPosition = 0;
+      long position = 0;
+      boolean lineStart = true;
+      int read;
+      while ((read = input.read(buffer)) >= 0) {
+        for (int i = 0; i < read; i++, position++) {
+          byte value = buffer[i];
+          if (header != null) {
+            if (value == '\n' || value == '\r') {
+              count += addFastaHeader(writer, header, headerPosition);
+              header = null;
+            } else {
+              header.append((char) value);
+            }
+          } else if (lineStart && value == '>') {
+            header = new StringBuilder();
+            headerPosition = position;
+          }
+          lineStart = value == '\n';
+        }
+      }
+      if (header != null) {
+        count += addFastaHeader(writer, header, headerPosition);
+      }
+    } catch (IOException | RuntimeException e) {
+      writer.abort();
+      throw e;
+    }
+    writer.close();
+    logger.info("Indexed {} sequences from {}", count, fasta);
+  }
+
+  /**
+   * Adds position of sequence to index using accession found in header, like
+   * <code>sp|P31946|1433B_HUMAN ...</code>.
+   */
+  private int addFastaHeader(RecordIndexWriter writer, CharSequence header, long position)
+      throws IOException {
+    String value = header.toString();
+    int end = value.indexOf(' ');
+    String id = end >= 0 ? value.substring(0, end) : value;
+    String[] parts = id.split("\\|");
+    String accession = parts.length > 1 ? parts[1] : parts[0];
+    if (accession.isEmpty()) {
+      return 0;
+    }
+    writer.add(RecordIndex.key(accession),
+        (accession + "\t" + position).getBytes(StandardCharsets.UTF_8));
+    return 1;
+  }
+
+  private void readSequence(long position, IntConsumer residues) throws IOException {
+    FileChannel channel;
+    synchronized (this) {
+      channel = fasta;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(8192);
+    boolean header = true;
+    boolean lineStart = false;
+    int read;
+    while ((read = channel.read(buffer, position)) > 0) {
+      position += read;
+      for (int i = 0; i < read; i++) {
+        byte value = buffer.get(i);
+        if (header) {
+          header = value != '\n';
+          lineStart = !header;
+        } else if (lineStart && value == '>') {
+          return;
+        } else {
+          lineStart = value == '\n';
+          if (!Character.isWhitespace(value)) {
+            residues.accept(value);
+          }
+        }
+      }
+      buffer.clear();
+    }
+  }
+
+  private static class IndexRecord {
+    private final long key;
+    private final byte[] record;
+
+    private IndexRecord(long key, byte[] record) {
+      this.key = key;
+      this.record = record;
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * Cell styles created while writing a workbook.
+ * <p>
+ * Styles are created once and reused for every cell needing the same style, so the number of
+ * styles in the workbook does not grow with the number of rows. Not thread safe, use one registry
+ * per workbook.
+ * </p>
+ */
+class CellStyleRegistry {
+  private final Workbook workbook;
+  private final Map<String, CellStyle> formattedStyles = new HashMap<>();
+  private final Map<Integer, CellStyle> copiedStyles = new HashMap<>();
+  private DataFormat dataFormat;
+
+  /**
+   * Creates registry for workbook.
+   *
+   * @param workbook
+   *          workbook in which styles are created
+   */
+  CellStyleRegistry(Workbook workbook) {
+    this.workbook = workbook;
+  }
+
+  /**
+   * Returns style identical to source, except for its number format.
+   *
+   * @param source
+   *          style of the registry's workbook
+   * @param format
+   *          number format, like <code>0.00</code>
+   * @return style identical to source, except for its number format
+   */
+  CellStyle withFormat(CellStyle source, String format) {
+    if (format.equals(source.getDataFormatString())) {
+      return source;
+    }
+    return formattedStyles.computeIfAbsent(source.getIndex() + ":" + format, key -> {
+      if (dataFormat == null) {
+        dataFormat = workbook.createDataFormat();
+      }
+      CellStyle style = workbook.createCellStyle();
+      style.cloneStyleFrom(source);
+      style.setDataFormat(dataFormat.getFormat(format));
+      return style;
+    });
+  }
+
+  /**
+   * Returns copy of a style from another workbook.
+   * <p>
+   * Copies are identified by the source's index, so all sources must come from the same workbook.
+   * </p>
+   *
+   * @param source
+   *          style of another workbook
+   * @return copy of style in the registry's workbook
+   */
+  CellStyle copy(CellStyle source) {
+    return copiedStyles.computeIfAbsent((int) source.getIndex(), index -> {
+      CellStyle style = workbook.createCellStyle();
+      style.cloneStyleFrom(source);
+      return style;
+    });
+  }
+}
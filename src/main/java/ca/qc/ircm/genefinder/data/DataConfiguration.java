@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+/**
+ * Data files' configuration.
+ */
+public interface DataConfiguration {
+  /**
+   * Returns number of threads used to parse and write data files concurrently.
+   *
+   * @return number of threads used to parse and write data files concurrently
+   */
+  public int threads();
+
+  /**
+   * Returns true if Excel 2007 files (xlsx) are written using a streaming workbook.
+   *
+   * @return true if Excel 2007 files (xlsx) are written using a streaming workbook
+   */
+  public boolean excelStreaming();
+
+  /**
+   * Returns number of rows kept in memory when writing Excel files using a streaming workbook.
+   *
+   * @return number of rows kept in memory when writing Excel files using a streaming workbook
+   */
+  public int excelWindow();
+
+  /**
+   * Returns true if Excel 2007 files (xlsx) are written by inserting annotations directly in the
+   * XML of the first worksheet, keeping the rest of the file unchanged.
+   *
+   * @return true if Excel 2007 files (xlsx) are written by inserting annotations directly in the
+   *         XML of the first worksheet
+   */
+  public boolean excelPatch();
+}
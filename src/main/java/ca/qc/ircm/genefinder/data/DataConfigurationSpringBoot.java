@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties
+@ConfigurationProperties(prefix = DataConfigurationSpringBoot.PREFIX)
+public class DataConfigurationSpringBoot implements DataConfiguration {
+  public static final String PREFIX = "data";
+  private int threads;
+  private boolean excelStreaming;
+  private int excelWindow;
+  private boolean excelPatch;
+
+  @Override
+  public int threads() {
+    return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+  }
+
+  @Override
+  public boolean excelStreaming() {
+    return excelStreaming;
+  }
+
+  @Override
+  public int excelWindow() {
+    return excelWindow;
+  }
+
+  @Override
+  public boolean excelPatch() {
+    return excelPatch;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  public boolean isExcelStreaming() {
+    return excelStreaming;
+  }
+
+  public void setExcelStreaming(boolean excelStreaming) {
+    this.excelStreaming = excelStreaming;
+  }
+
+  public int getExcelWindow() {
+    return excelWindow;
+  }
+
+  public void setExcelWindow(int excelWindow) {
+    this.excelWindow = excelWindow;
+  }
+
+  public boolean isExcelPatch() {
+    return excelPatch;
+  }
+
+  public void setExcelPatch(boolean excelPatch) {
+    this.excelPatch = excelPatch;
+  }
+}
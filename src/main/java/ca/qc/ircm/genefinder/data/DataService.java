@@ -19,20 +19,36 @@ package ca.qc.ircm.genefinder.data;
 
 import ca.qc.ircm.genefinder.annotation.DownloadProteinMappingService;
 import ca.qc.ircm.genefinder.annotation.ProteinMapping;
+import ca.qc.ircm.genefinder.rest.AdaptiveBatchSizes;
+import ca.qc.ircm.genefinder.rest.TransferStatistics;
 import ca.qc.ircm.genefinder.util.ExceptionUtils;
 import ca.qc.ircm.progressbar.ProgressBar;
 import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 /**
@@ -40,25 +56,50 @@ import org.springframework.stereotype.Service;
  */
 @Service
 public class DataService {
+  private static final Logger logger = LoggerFactory.getLogger(DataService.class);
+  private static final int PARSE = 0;
+  private static final int DOWNLOAD = 1;
+  private static final int WRITE = 2;
+  /**
+   * Part of each file's progress used by parse, download and write stages.
+   */
+  private static final double[] STAGE_STEPS = { 0.1, 0.7, 0.2 };
   @Inject
   private DownloadProteinMappingService downloadProteinMappingService;
   @Inject
   private ProteinParser proteinParser;
   @Inject
   private DataWriter dataWriter;
+  @Inject
+  private TransferStatistics transferStatistics;
+  @Inject
+  private AdaptiveBatchSizes adaptiveBatchSizes;
+  @Inject
+  private DataConfiguration dataConfiguration;
 
   protected DataService() {
   }
 
   protected DataService(DownloadProteinMappingService downloadProteinMappingService,
-      ProteinParser proteinParser, DataWriter dataWriter) {
+      ProteinParser proteinParser, DataWriter dataWriter, TransferStatistics transferStatistics,
+      AdaptiveBatchSizes adaptiveBatchSizes, DataConfiguration dataConfiguration) {
     this.downloadProteinMappingService = downloadProteinMappingService;
     this.proteinParser = proteinParser;
     this.dataWriter = dataWriter;
+    this.transferStatistics = transferStatistics;
+    this.adaptiveBatchSizes = adaptiveBatchSizes;
+    this.dataConfiguration = dataConfiguration;
   }
 
   /**
    * Find selected gene and protein information for proteins found in files.
+   * <p>
+   * Each file goes through a parse, a download and a write stage independently of other files.
+   * What the parser learned about a file is kept until the file is written, then released.
+   * Parse and write stages of different files run concurrently. Download stages run one at a
+   * time, in the order in which files are parsed, and only download proteins that were not
+   * downloaded for a previous file. A file is written as soon as its proteins are downloaded.
+   * </p>
    *
    * @param files
    *          files
@@ -76,26 +117,254 @@ public class DataService {
   public void findGeneNames(Collection<File> files, FindGenesParameters parameters,
       ProgressBar progressBar, Locale locale) throws IOException, InterruptedException {
     ResourceBundle bundle = ResourceBundle.getBundle(DataService.class.getName(), locale);
-    double step = 1.0 / Math.max(files.size(), 1);
-    int count = 0;
-    for (File file : files) {
-      progressBar.setMessage(MessageFormat.format(bundle.getString("mappings"), file.getName()));
-      ExceptionUtils.throwIfInterrupted("Interrupted gene finding");
-      List<String> proteinIds = proteinParser.parseProteinIds(file, parameters);
-      ExceptionUtils.throwIfInterrupted("Interrupted gene finding");
-      List<ProteinMapping> rawMappings = downloadProteinMappingService
-          .downloadProteinMappings(proteinIds, parameters, progressBar.step(0.8), locale);
-      Map<String, ProteinMapping> mappings = rawMappings.stream().collect(
-          Collectors.toMap(ProteinMapping::getProteinId, Function.<ProteinMapping>identity()));
-      ExceptionUtils.throwIfInterrupted("Interrupted gene finding");
-      progressBar.setMessage(MessageFormat.format(bundle.getString("writing"), file.getName()));
-      String extension = FilenameUtils.getExtension(file.getName());
-      String filename = MessageFormat.format(bundle.getString("output.filename"),
-          FilenameUtils.getBaseName(file.getName()), extension.isEmpty() ? 0 : 1, extension);
-      File output = new File(file.getParentFile(), filename);
-      dataWriter.writeGene(file, output, parameters, mappings);
-      progressBar.setProgress(step * count++);
+    final long receivedBytes = transferStatistics.receivedBytes();
+    final long savedBytes = transferStatistics.savedBytes();
+    List<File> fileList = new ArrayList<>(files);
+    FilesProgress progress = new FilesProgress(progressBar, fileList.size());
+    ExecutorService workers = executor("data-worker",
+        Math.max(Math.min(dataConfiguration.threads(), fileList.size()), 1));
+    ExecutorService downloader = executor("data-download", 1);
+    // Only used by downloader thread.
+    Set<String> downloadedIds = new HashSet<>();
+    Map<String, ProteinMapping> mappings = new ConcurrentHashMap<>();
+    // Releases parsed files whose write stage did not start.
+    List<Runnable> releases = new ArrayList<>();
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    try {
+      for (int i = 0; i < fileList.size(); i++) {
+        final int index = i;
+        final File file = fileList.get(i);
+        CompletableFuture<ParsedDataFile> parsedFuture =
+            CompletableFuture.completedFuture(file).thenApplyAsync(stage(input -> {
+              progress.setMessage(
+                  MessageFormat.format(bundle.getString("parsing"), file.getName()));
+              ExceptionUtils.throwIfInterrupted("Interrupted gene finding");
+              ParsedDataFile parsed = proteinParser.parse(file, parameters);
+              progress.setProgress(PARSE, index, 1.0);
+              return parsed;
+            }), workers);
+        // Parsed file is closed once, either by its write stage or by its release.
+        final AtomicBoolean writeStarted = new AtomicBoolean();
+        releases.add(() -> {
+          if (writeStarted.compareAndSet(false, true)) {
+            parsedFuture.thenAccept(parsed -> close(parsed));
+          }
+        });
+        futures.add(parsedFuture.thenApplyAsync(stage(parsed -> {
+          ExceptionUtils.throwIfInterrupted("Interrupted gene finding");
+          List<String> newIds = parsed.getProteinIds().stream()
+              .filter(id -> downloadedIds.add(id)).collect(Collectors.toList());
+          if (!newIds.isEmpty()) {
+            progress.setMessage(MessageFormat.format(bundle.getString("mappings"),
+                newIds.size(), file.getName()));
+            List<ProteinMapping> rawMappings = downloadProteinMappingService
+                .downloadProteinMappings(newIds, parameters, progress.step(DOWNLOAD, index),
+                    locale);
+            mappings.putAll(rawMappings.stream().collect(Collectors
+                .toMap(ProteinMapping::getProteinId, Function.<ProteinMapping>identity())));
+          }
+          progress.setProgress(DOWNLOAD, index, 1.0);
+          return parsed;
+        }), downloader).thenApplyAsync(stage(parsed -> {
+          ExceptionUtils.throwIfInterrupted("Interrupted gene finding");
+          progress.setMessage(MessageFormat.format(bundle.getString("writing"), file.getName()));
+          String extension = FilenameUtils.getExtension(file.getName());
+          String filename = MessageFormat.format(bundle.getString("output.filename"),
+              FilenameUtils.getBaseName(file.getName()), extension.isEmpty() ? 0 : 1, extension);
+          File output = new File(file.getParentFile(), filename);
+          if (!writeStarted.compareAndSet(false, true)) {
+            // Run failed and parsed file was already released.
+            return null;
+          }
+          try (parsed) {
+            dataWriter.writeGene(parsed, output, parameters, mappings);
+          }
+          progress.setProgress(WRITE, index, 1.0);
+          return null;
+        }), workers));
+      }
+      await(futures);
+    } finally {
+      workers.shutdownNow();
+      downloader.shutdownNow();
+      releases.forEach(Runnable::run);
     }
+    String summary = MessageFormat.format(bundle.getString("summary"), files.size(),
+        FileUtils.byteCountToDisplaySize(transferStatistics.receivedBytes() - receivedBytes),
+        FileUtils.byteCountToDisplaySize(transferStatistics.savedBytes() - savedBytes));
+    logger.info(summary);
+    adaptiveBatchSizes.all()
+        .forEach(batchSize -> logger.info("Batch size of {} is {} of {}, latency per id {}, "
+            + "{} requests, {} failed", batchSize.name(), batchSize.size(), batchSize.max(),
+            batchSize.latencyPerId(), batchSize.batches(), batchSize.failures()));
+    progressBar.setMessage(summary);
     progressBar.setProgress(1.0);
   }
+
+  private void close(ParsedDataFile parsed) {
+    try {
+      parsed.close();
+    } catch (IOException e) {
+      logger.warn("Could not close parsed file {}", parsed.getFile(), e);
+    }
+  }
+
+  private ExecutorService executor(String name, int threads) {
+    AtomicInteger threadCount = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Waits for all files to complete, failing as soon as a file fails.
+   */
+  private void await(List<CompletableFuture<Void>> futures)
+      throws IOException, InterruptedException {
+    CompletableFuture<Void> failure = new CompletableFuture<>();
+    futures.forEach(future -> future.whenComplete((result, exception) -> {
+      if (exception != null) {
+        failure.completeExceptionally(exception);
+      }
+    }));
+    CompletableFuture<Void> all =
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    try {
+      CompletableFuture.anyOf(all, failure).get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CompletionException && cause.getCause() != null) {
+        cause = cause.getCause();
+      }
+      ExceptionUtils.throwExceptionIfMatch(cause, IOException.class);
+      ExceptionUtils.throwExceptionIfMatch(cause, InterruptedException.class);
+      ExceptionUtils.throwExceptionIfMatch(cause, RuntimeException.class);
+      ExceptionUtils.throwExceptionIfMatch(cause, Error.class);
+      throw new IOException(cause);
+    }
+  }
+
+  private static <T, R> Function<T, R> stage(Stage<T, R> stage) {
+    return input -> {
+      try {
+        return stage.apply(input);
+      } catch (Exception e) {
+        throw new CompletionException(e);
+      }
+    };
+  }
+
+  /**
+   * Stage of a file that may throw checked exceptions.
+   */
+  @FunctionalInterface
+  private interface Stage<T, R> {
+    R apply(T input) throws Exception;
+  }
+
+  /**
+   * Combines progress of all stages of all files.
+   */
+  private static class FilesProgress {
+    private final ProgressBar progressBar;
+    private final double[][] progress;
+
+    private FilesProgress(ProgressBar progressBar, int files) {
+      this.progressBar = progressBar;
+      this.progress = new double[STAGE_STEPS.length][files];
+    }
+
+    private synchronized void setProgress(int stage, int file, double value) {
+      progress[stage][file] = value;
+      double total = 0;
+      for (int i = 0; i < progress.length; i++) {
+        for (double fileProgress : progress[i]) {
+          total += STAGE_STEPS[i] * fileProgress;
+        }
+      }
+      progressBar.setProgress(total / Math.max(progress[0].length, 1));
+    }
+
+    private synchronized String getMessage() {
+      return progressBar.getMessage();
+    }
+
+    private synchronized void setMessage(String message) {
+      progressBar.setMessage(message);
+    }
+
+    private synchronized String getTitle() {
+      return progressBar.getTitle();
+    }
+
+    private synchronized void setTitle(String title) {
+      progressBar.setTitle(title);
+    }
+
+    private ProgressBar step(int stage, int file) {
+      return new StageProgressBar(this, stage, file, 0.0, 1.0);
+    }
+  }
+
+  /**
+   * Progress of a single stage of a file.
+   */
+  private static class StageProgressBar implements ProgressBar {
+    private final FilesProgress filesProgress;
+    private final int stage;
+    private final int file;
+    private final double startProgress;
+    private final double step;
+    private double progress;
+
+    private StageProgressBar(FilesProgress filesProgress, int stage, int file,
+        double startProgress, double step) {
+      this.filesProgress = filesProgress;
+      this.stage = stage;
+      this.file = file;
+      this.startProgress = startProgress;
+      this.step = step;
+    }
+
+    @Override
+    public double getProgress() {
+      return progress;
+    }
+
+    @Override
+    public void setProgress(double progress) {
+      progress = Math.max(0.0, progress);
+      progress = Math.min(1.0, progress);
+      this.progress = progress;
+      filesProgress.setProgress(stage, file, startProgress + progress * step);
+    }
+
+    @Override
+    public String getMessage() {
+      return filesProgress.getMessage();
+    }
+
+    @Override
+    public void setMessage(String message) {
+      filesProgress.setMessage(message);
+    }
+
+    @Override
+    public String getTitle() {
+      return filesProgress.getTitle();
+    }
+
+    @Override
+    public void setTitle(String title) {
+      filesProgress.setTitle(title);
+    }
+
+    @Override
+    public ProgressBar step(double step) {
+      return new StageProgressBar(filesProgress, stage, file,
+          startProgress + progress * this.step, step * this.step);
+    }
+  }
 }
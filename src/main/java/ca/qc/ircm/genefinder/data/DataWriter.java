@@ -28,4 +28,29 @@ import java.util.Map;
 public interface DataWriter {
   public void writeGene(File input, File output, FindGenesParameters parameters,
       Map<String, ProteinMapping> mappings) throws IOException, InterruptedException;
+
+  /**
+   * Writes data file parsed by {@link ProteinParser#parse(File, FindGenesParameters)} with
+   * additional information.
+   * <p>
+   * Implementations may use what the parser kept about the file to avoid parsing it again.
+   * </p>
+   *
+   * @param input
+   *          parsed data file
+   * @param output
+   *          output file
+   * @param parameters
+   *          parameters
+   * @param mappings
+   *          protein mappings
+   * @throws IOException
+   *           could not read input or write output
+   * @throws InterruptedException
+   *           writing was interrupted
+   */
+  public default void writeGene(ParsedDataFile input, File output, FindGenesParameters parameters,
+      Map<String, ProteinMapping> mappings) throws IOException, InterruptedException {
+    writeGene(input.getFile(), output, parameters, mappings);
+  }
 }
@@ -20,6 +20,7 @@ package ca.qc.ircm.genefinder.data;
 import ca.qc.ircm.genefinder.annotation.NcbiConfiguration;
 import ca.qc.ircm.genefinder.annotation.ProteinMapping;
 import ca.qc.ircm.genefinder.annotation.UniprotConfiguration;
+import ca.qc.ircm.genefinder.xml.SaxParserPool;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -27,144 +28,357 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import javax.inject.Inject;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.FormulaError;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.springframework.stereotype.Component;
+import org.xml.sax.SAXException;
 
 @Component
 public class ExcelDataWriter extends AbstractDataWriter implements DataWriter {
-  private static final NumberFormat doubleFormat;
-
-  static {
-    doubleFormat = NumberFormat.getIntegerInstance(Locale.ENGLISH);
-    doubleFormat.setMinimumFractionDigits(1);
-    doubleFormat.setGroupingUsed(false);
+  /**
+   * Returns protein ids of a row.
+   */
+  @FunctionalInterface
+  private interface RowProteinIds {
+    List<String> proteinIds(int row, String value) throws IOException;
   }
 
-  private static final NumberFormat numberFormat;
-
-  static {
-    numberFormat = NumberFormat.getIntegerInstance(Locale.ENGLISH);
-    numberFormat.setGroupingUsed(false);
-  }
+  private static final String MOLECULAR_WEIGHT_FORMAT = "0.00";
+  /**
+   * NumberFormat is not thread safe and files can be written concurrently.
+   */
+  private static final ThreadLocal<NumberFormat> doubleFormat = ThreadLocal.withInitial(() -> {
+    NumberFormat format = NumberFormat.getIntegerInstance(Locale.ENGLISH);
+    format.setMinimumFractionDigits(1);
+    format.setGroupingUsed(false);
+    return format;
+  });
+  private static final ThreadLocal<NumberFormat> numberFormat = ThreadLocal.withInitial(() -> {
+    NumberFormat format = NumberFormat.getIntegerInstance(Locale.ENGLISH);
+    format.setGroupingUsed(false);
+    return format;
+  });
+  @Inject
+  private DataConfiguration dataConfiguration;
+  @Inject
+  private SaxParserPool saxParserPool;
 
   protected ExcelDataWriter() {
     super();
   }
 
   protected ExcelDataWriter(NcbiConfiguration ncbiConfiguration,
-      UniprotConfiguration uniprotConfiguration) {
+      UniprotConfiguration uniprotConfiguration, DataConfiguration dataConfiguration,
+      SaxParserPool saxParserPool) {
     super(ncbiConfiguration, uniprotConfiguration);
+    this.dataConfiguration = dataConfiguration;
+    this.saxParserPool = saxParserPool;
   }
 
   @Override
   public void writeGene(File input, File output, FindGenesParameters parameters,
       Map<String, ProteinMapping> mappings) throws IOException, InterruptedException {
     Pattern proteinIdPattern = proteinIdPattern(parameters);
+    writeGene(input, output, parameters, mappings,
+        (row, value) -> parseProteinIds(value, proteinIdPattern));
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * If input is an {@link ExcelSession}, protein ids of each row are taken from the session
+   * instead of being parsed again. If the session holds a workbook, the workbook is written
+   * without reading the file again.
+   * </p>
+   */
+  @Override
+  public void writeGene(ParsedDataFile input, File output, FindGenesParameters parameters,
+      Map<String, ProteinMapping> mappings) throws IOException, InterruptedException {
+    if (!(input instanceof ExcelSession)
+        || ((ExcelSession) input).getProteinColumn() != parameters.getProteinColumn()) {
+      writeGene(input.getFile(), output, parameters, mappings);
+      return;
+    }
+    ExcelSession session = (ExcelSession) input;
+    RowProteinIds proteinIds = (row, value) -> session.proteinIds(row);
+    Workbook workbook = session.takeWorkbook();
+    if (workbook != null) {
+      try {
+        writeWorkbook(workbook, output, parameters, mappings, proteinIds);
+      } finally {
+        workbook.close();
+      }
+      return;
+    }
+    writeGene(session.getFile(), output, parameters, mappings, proteinIds);
+  }
+
+  private void writeGene(File input, File output, FindGenesParameters parameters,
+      Map<String, ProteinMapping> mappings, RowProteinIds proteinIds) throws IOException {
+    if (dataConfiguration.excelPatch() && !isXls(input)) {
+      XlsxPatcher patcher = new XlsxPatcher(parameters.getProteinColumn(),
+          annotationCount(parameters),
+          (row, cell) -> annotationValues(
+              proteinIds.proteinIds(row, cell != null ? getStreamedValue(cell) : ""), parameters,
+              mappings));
+      if (patcher.patch(input, output)) {
+        return;
+      }
+    }
+    if (dataConfiguration.excelStreaming() && !isXls(input)) {
+      writeGeneStreaming(input, output, parameters, mappings, proteinIds);
+      return;
+    }
     try (InputStream inputStream = new FileInputStream(input)) {
       try (Workbook workbook =
-          input.getName().toLowerCase().endsWith(".xls") ? new HSSFWorkbook(inputStream)
+          isXls(input) ? new HSSFWorkbook(inputStream)
               : new XSSFWorkbook(inputStream)) {
-        Sheet sheet = workbook.getSheetAt(0);
-        for (int i = 0; i <= sheet.getLastRowNum(); i++) {
-          Row row = sheet.getRow(i);
-          if (row == null) {
-            continue;
-          }
-          Cell cell = row.getCell(parameters.getProteinColumn());
-          String value = getComputedValue(cell);
-          List<String> proteinIds = parseProteinIds(value, proteinIdPattern);
-          int addedCount = 0;
-          if (parameters.isGeneId()) {
-            addedCount++;
-          }
-          if (parameters.isGeneName()) {
-            addedCount++;
-          }
-          if (parameters.isGeneSynonyms()) {
-            addedCount++;
-          }
-          if (parameters.isGeneSummary()) {
-            addedCount++;
-          }
-          if (parameters.isProteinMolecularWeight()) {
-            addedCount++;
-          }
-          shitCells(row, parameters.getProteinColumn(), addedCount);
-          int index = parameters.getProteinColumn() + 1;
-          if (parameters.isGeneId()) {
-            cell = row.createCell(index++);
-            String newValue = proteinIds.stream()
-                .filter(proteinId -> mappings.get(proteinId) != null)
-                .map(proteinId -> mappings.get(proteinId).getGenes()).filter(genes -> genes != null)
-                .flatMap(genes -> genes.stream()).map(gene -> numberFormat.format(gene.getId()))
-                .distinct().collect(Collectors.joining(PROTEIN_DELIMITER));
-            cell.setCellValue(newValue);
-            if (!newValue.isEmpty() && !newValue.contains(PROTEIN_DELIMITER)) {
-              cell.setCellValue(Long.parseLong(newValue));
-            }
-          }
-          if (parameters.isGeneName()) {
-            String newValue = proteinIds.stream()
-                .filter(proteinId -> mappings.get(proteinId) != null)
-                .map(proteinId -> mappings.get(proteinId).getGenes()).filter(genes -> genes != null)
-                .flatMap(genes -> genes.stream()).map(gene -> gene.getSymbol())
-                .filter(s -> s != null).distinct().collect(Collectors.joining(PROTEIN_DELIMITER));
-            cell = row.createCell(index++);
-            cell.setCellValue(newValue);
-          }
-          if (parameters.isGeneSynonyms()) {
-            String newValue =
-                proteinIds.stream().filter(proteinId -> mappings.get(proteinId) != null)
-                    .map(proteinId -> mappings.get(proteinId).getGenes())
-                    .filter(genes -> genes != null).flatMap(genes -> genes.stream())
-                    .map(gene -> gene.getSynonyms()).filter(s -> s != null)
-                    .map(s -> s.stream().collect(Collectors.joining(LIST_DELIMITER))).distinct()
-                    .collect(Collectors.joining(PROTEIN_DELIMITER));
-            cell = row.createCell(index++);
-            cell.setCellValue(newValue);
-          }
-          if (parameters.isGeneSummary()) {
-            String newValue = proteinIds.stream()
-                .filter(proteinId -> mappings.get(proteinId) != null)
-                .map(proteinId -> mappings.get(proteinId).getGenes()).filter(genes -> genes != null)
-                .flatMap(genes -> genes.stream()).map(gene -> gene.getDescription())
-                .filter(s -> s != null).distinct().collect(Collectors.joining(PROTEIN_DELIMITER));
-            cell = row.createCell(index++);
-            cell.setCellValue(newValue);
-          }
-          if (parameters.isProteinMolecularWeight()) {
-            String newValue =
-                proteinIds.stream().filter(proteinId -> mappings.get(proteinId) != null)
-                    .map(proteinId -> mappings.get(proteinId).getMolecularWeight())
-                    .filter(mw -> mw != null).map(mw -> doubleFormat.format(mw))
-                    .collect(Collectors.joining(PROTEIN_DELIMITER));
-            cell = row.createCell(index++);
-            cell.setCellValue(newValue);
-            if (!newValue.isEmpty() && !newValue.contains(PROTEIN_DELIMITER)) {
-              cell.setCellValue(Double.parseDouble(newValue));
-              CellStyle style = workbook.createCellStyle();
-              DataFormat format = workbook.createDataFormat();
-              style.setDataFormat(format.getFormat("0.00"));
-              cell.setCellStyle(style);
-            }
-          }
-        }
-        try (OutputStream outputStream = new FileOutputStream(output)) {
-          workbook.write(outputStream);
-        }
+        writeWorkbook(workbook, output, parameters, mappings, proteinIds);
+      }
+    }
+  }
+
+  private boolean isXls(File file) {
+    return file.getName().toLowerCase(Locale.ENGLISH).endsWith(".xls");
+  }
+
+  private void writeWorkbook(Workbook workbook, File output, FindGenesParameters parameters,
+      Map<String, ProteinMapping> mappings, RowProteinIds rowProteinIds) throws IOException {
+    Sheet sheet = workbook.getSheetAt(0);
+    CellStyleRegistry styles = new CellStyleRegistry(workbook);
+    for (int i = 0; i <= sheet.getLastRowNum(); i++) {
+      Row row = sheet.getRow(i);
+      if (row == null) {
+        continue;
+      }
+      Cell cell = row.getCell(parameters.getProteinColumn());
+      String value = getComputedValue(cell);
+      List<String> proteinIds = rowProteinIds.proteinIds(i, value);
+      int addedCount = annotationCount(parameters);
+      shitCells(row, parameters.getProteinColumn(), addedCount);
+      writeAnnotations(row, parameters.getProteinColumn() + 1, proteinIds, parameters, mappings,
+          styles);
+    }
+    try (OutputStream outputStream = new FileOutputStream(output)) {
+      workbook.write(outputStream);
+    }
+  }
+
+  /**
+   * Writes genes of an Excel 2007 file (xlsx) row by row, keeping a bounded window of rows in
+   * memory.
+   * <p>
+   * Only the first sheet is written. Cell values and cell styles are kept, but formulas are
+   * replaced by their cached results and sheet layout, like column widths, is lost.
+   * </p>
+   */
+  private void writeGeneStreaming(File input, File output, FindGenesParameters parameters,
+      Map<String, ProteinMapping> mappings, RowProteinIds rowProteinIds) throws IOException {
+    int proteinColumn = parameters.getProteinColumn();
+    int addedCount = annotationCount(parameters);
+    SXSSFWorkbook workbook = new SXSSFWorkbook(Math.max(dataConfiguration.excelWindow(), 1));
+    workbook.setCompressTempFiles(true);
+    try (OPCPackage pkg = OPCPackage.open(input, PackageAccess.READ)) {
+      XSSFReader reader = new XSSFReader(pkg);
+      ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(pkg, false);
+      StylesTable inputStyles = reader.getStylesTable();
+      CellStyleRegistry styles = new CellStyleRegistry(workbook);
+      XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+      if (!sheets.hasNext()) {
+        throw new IOException("Excel file " + input + " has no sheet");
+      }
+      try (InputStream sheetInput = sheets.next()) {
+        Sheet sheet = workbook.createSheet(sheets.getSheetName());
+        XlsxRowHandler handler = new XlsxRowHandler(
+            index -> sharedStrings.getItemAt(index).getString(), (index, cells) -> {
+              Row row = sheet.createRow(index);
+              String value = "";
+              for (XlsxCell inputCell : cells) {
+                int column = inputCell.getColumn();
+                Cell cell = row.createCell(column > proteinColumn ? column + addedCount : column);
+                copyValue(inputCell, cell);
+                if (inputCell.getStyle() > 0 && inputStyles != null) {
+                  cell.setCellStyle(styles.copy(inputStyles.getStyleAt(inputCell.getStyle())));
+                }
+                if (column == proteinColumn) {
+                  value = getStreamedValue(inputCell);
+                }
+              }
+              try {
+                List<String> proteinIds = rowProteinIds.proteinIds(index, value);
+                writeAnnotations(row, proteinColumn + 1, proteinIds, parameters, mappings, styles);
+              } catch (IOException e) {
+                throw new SAXException(e);
+              }
+            });
+        saxParserPool.parse(sheetInput, handler);
+      }
+      try (OutputStream outputStream = new FileOutputStream(output)) {
+        workbook.write(outputStream);
       }
+    } catch (OpenXML4JException | SAXException e) {
+      throw new IOException("Could not write genes of Excel file " + input, e);
+    } finally {
+      workbook.dispose();
+      workbook.close();
+    }
+  }
+
+  private int annotationCount(FindGenesParameters parameters) {
+    int count = 0;
+    if (parameters.isGeneId()) {
+      count++;
+    }
+    if (parameters.isGeneName()) {
+      count++;
+    }
+    if (parameters.isGeneSynonyms()) {
+      count++;
+    }
+    if (parameters.isGeneSummary()) {
+      count++;
+    }
+    if (parameters.isProteinMolecularWeight()) {
+      count++;
+    }
+    return count;
+  }
+
+  private void writeAnnotations(Row row, int index, List<String> proteinIds,
+      FindGenesParameters parameters, Map<String, ProteinMapping> mappings,
+      CellStyleRegistry styles) {
+    for (Object value : annotationValues(proteinIds, parameters, mappings)) {
+      Cell cell = row.createCell(index++);
+      if (value instanceof Long) {
+        cell.setCellValue((Long) value);
+      } else if (value instanceof Double) {
+        cell.setCellValue((Double) value);
+        cell.setCellStyle(styles.withFormat(cell.getCellStyle(), MOLECULAR_WEIGHT_FORMAT));
+      } else {
+        cell.setCellValue((String) value);
+      }
+    }
+  }
+
+  /**
+   * Returns annotations to insert after protein column, in column order.
+   * <p>
+   * Gene id is a {@link Long} and molecular weight is a {@link Double} when there is only one
+   * value, other annotations are strings.
+   * </p>
+   */
+  private List<Object> annotationValues(List<String> proteinIds, FindGenesParameters parameters,
+      Map<String, ProteinMapping> mappings) {
+    List<Object> values = new ArrayList<>();
+    if (parameters.isGeneId()) {
+      String newValue = proteinIds.stream()
+          .filter(proteinId -> mappings.get(proteinId) != null)
+          .map(proteinId -> mappings.get(proteinId).getGenes()).filter(genes -> genes != null)
+          .flatMap(genes -> genes.stream())
+          .map(gene -> numberFormat.get().format(gene.getId()))
+          .distinct().collect(Collectors.joining(PROTEIN_DELIMITER));
+      if (!newValue.isEmpty() && !newValue.contains(PROTEIN_DELIMITER)) {
+        values.add(Long.parseLong(newValue));
+      } else {
+        values.add(newValue);
+      }
+    }
+    if (parameters.isGeneName()) {
+      String newValue = proteinIds.stream()
+          .filter(proteinId -> mappings.get(proteinId) != null)
+          .map(proteinId -> mappings.get(proteinId).getGenes()).filter(genes -> genes != null)
+          .flatMap(genes -> genes.stream()).map(gene -> gene.getSymbol())
+          .filter(s -> s != null).distinct().collect(Collectors.joining(PROTEIN_DELIMITER));
+      values.add(newValue);
+    }
+    if (parameters.isGeneSynonyms()) {
+      String newValue =
+          proteinIds.stream().filter(proteinId -> mappings.get(proteinId) != null)
+              .map(proteinId -> mappings.get(proteinId).getGenes())
+              .filter(genes -> genes != null).flatMap(genes -> genes.stream())
+              .map(gene -> gene.getSynonyms()).filter(s -> s != null)
+              .map(s -> s.stream().collect(Collectors.joining(LIST_DELIMITER))).distinct()
+              .collect(Collectors.joining(PROTEIN_DELIMITER));
+      values.add(newValue);
+    }
+    if (parameters.isGeneSummary()) {
+      String newValue = proteinIds.stream()
+          .filter(proteinId -> mappings.get(proteinId) != null)
+          .map(proteinId -> mappings.get(proteinId).getGenes()).filter(genes -> genes != null)
+          .flatMap(genes -> genes.stream()).map(gene -> gene.getDescription())
+          .filter(s -> s != null).distinct().collect(Collectors.joining(PROTEIN_DELIMITER));
+      values.add(newValue);
+    }
+    if (parameters.isProteinMolecularWeight()) {
+      String newValue =
+          proteinIds.stream().filter(proteinId -> mappings.get(proteinId) != null)
+              .map(proteinId -> mappings.get(proteinId).getMolecularWeight())
+              .filter(mw -> mw != null).map(mw -> doubleFormat.get().format(mw))
+              .collect(Collectors.joining(PROTEIN_DELIMITER));
+      if (!newValue.isEmpty() && !newValue.contains(PROTEIN_DELIMITER)) {
+        values.add(Double.parseDouble(newValue));
+      } else {
+        values.add(newValue);
+      }
+    }
+    return values;
+  }
+
+  private void copyValue(XlsxCell source, Cell destination) {
+    switch (source.getType()) {
+      case STRING:
+        destination.setCellValue(source.getValue());
+        break;
+      case NUMERIC:
+        destination.setCellValue(Double.parseDouble(source.getValue()));
+        break;
+      case BOOLEAN:
+        destination.setCellValue(source.getValue().equals("1"));
+        break;
+      case ERROR:
+        try {
+          destination.setCellErrorValue(FormulaError.forString(source.getValue()).getCode());
+        } catch (IllegalArgumentException e) {
+          destination.setBlank();
+        }
+        break;
+      case BLANK:
+      default:
+        break;
+    }
+  }
+
+  private String getStreamedValue(XlsxCell cell) {
+    switch (cell.getType()) {
+      case STRING:
+        return cell.getValue();
+      case NUMERIC:
+        return numberFormat.get().format(Double.parseDouble(cell.getValue()));
+      case BOOLEAN:
+        return String.valueOf(cell.getValue().equals("1"));
+      case ERROR:
+      case BLANK:
+      default:
+        return "";
     }
   }
 
@@ -206,7 +420,7 @@ public class ExcelDataWriter extends AbstractDataWriter implements DataWriter {
   }
 
   private String getComputedValue(Cell cell) {
-    return getComputedValue(cell, numberFormat);
+    return getComputedValue(cell, numberFormat.get());
   }
 
   private String getComputedValue(Cell cell, NumberFormat numberFormat) {
@@ -19,60 +19,169 @@ package ca.qc.ircm.genefinder.data;
 
 import ca.qc.ircm.genefinder.annotation.NcbiConfiguration;
 import ca.qc.ircm.genefinder.annotation.UniprotConfiguration;
+import ca.qc.ircm.genefinder.xml.SaxParserPool;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.NumberFormat;
-import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Pattern;
+import javax.inject.Inject;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
 import org.springframework.stereotype.Component;
+import org.xml.sax.SAXException;
 
 /**
  * Parses protein ids from Excel files.
+ * <p>
+ * Excel 2007 files (xlsx) are streamed with POI's event model, without loading the workbook in
+ * memory. Older Excel files (xls) are loaded in memory. When parsing for
+ * {@link #parse(File, FindGenesParameters)}, xls workbooks are kept until the file is written, but
+ * never more than {@link DataConfiguration#threads()} workbooks at once.
+ * </p>
  */
 @Component
 public class ExcelProteinParser extends AbstractProteinParser {
+  @Inject
+  private DataConfiguration dataConfiguration;
+  @Inject
+  private SaxParserPool saxParserPool;
+  private Semaphore workbookPermits;
+
   protected ExcelProteinParser() {
   }
 
   protected ExcelProteinParser(NcbiConfiguration ncbiConfiguration,
-      UniprotConfiguration uniprotConfiguration) {
+      UniprotConfiguration uniprotConfiguration, DataConfiguration dataConfiguration,
+      SaxParserPool saxParserPool) {
     super(ncbiConfiguration, uniprotConfiguration);
+    this.dataConfiguration = dataConfiguration;
+    this.saxParserPool = saxParserPool;
   }
 
   @Override
   public List<String> parseProteinIds(File input, FindGenesParameters parameters)
       throws IOException {
+    try (ExcelSession session = read(input, parameters, null)) {
+      return session.allProteinIds();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Returns an {@link ExcelSession} holding the protein ids of each row. For xls files, the
+   * session also holds the workbook, so the file is only read once, unless too many workbooks are
+   * already held by other sessions.
+   * </p>
+   */
+  @Override
+  public ParsedDataFile parse(File input, FindGenesParameters parameters) throws IOException {
+    Semaphore permits = workbookPermits();
+    if (!isXls(input) || !permits.tryAcquire()) {
+      return read(input, parameters, null);
+    }
+    try {
+      return read(input, parameters, permits);
+    } catch (IOException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  private synchronized Semaphore workbookPermits() {
+    if (workbookPermits == null) {
+      workbookPermits = new Semaphore(Math.max(dataConfiguration.threads(), 1));
+    }
+    return workbookPermits;
+  }
+
+  private boolean isXls(File input) {
+    return input.getName().toLowerCase(Locale.ENGLISH).endsWith(".xls");
+  }
+
+  /**
+   * Keeps xls workbook in session only if a permit was acquired from permits.
+   */
+  private ExcelSession read(File input, FindGenesParameters parameters, Semaphore permits)
+      throws IOException {
     Pattern proteinIdPattern = proteinIdPattern(parameters);
-    List<String> proteinIds = new ArrayList<>();
-    NumberFormat numberFormat = NumberFormat.getIntegerInstance(Locale.ENGLISH);
-    numberFormat.setGroupingUsed(false);
+    int column = parameters.getProteinColumn();
+    TreeMap<Integer, List<String>> rows = new TreeMap<>();
+    if (!isXls(input)) {
+      for (Map.Entry<Integer, String> value : xlsxValues(input, column).entrySet()) {
+        addRow(rows, value.getKey(), parseProteinIds(value.getValue(), proteinIdPattern));
+      }
+      return new ExcelSession(input, column, rows, null, null);
+    }
+    Workbook workbook;
     try (InputStream inputStream = new FileInputStream(input)) {
-      try (Workbook workbook =
-          input.getName().toLowerCase().endsWith(".xls") ? new HSSFWorkbook(inputStream)
-              : new XSSFWorkbook(inputStream)) {
-        Sheet sheet = workbook.getSheetAt(0);
-        for (int i = 0; i <= sheet.getLastRowNum(); i++) {
-          Row row = sheet.getRow(i);
-          if (row == null) {
-            continue;
-          }
-          Cell cell = row.getCell(parameters.getProteinColumn());
-          String value = getComputedValue(cell, numberFormat);
-          proteinIds.addAll(parseProteinIds(value, proteinIdPattern));
+      workbook = new HSSFWorkbook(inputStream);
+    }
+    try {
+      NumberFormat numberFormat = NumberFormat.getIntegerInstance(Locale.ENGLISH);
+      numberFormat.setGroupingUsed(false);
+      Sheet sheet = workbook.getSheetAt(0);
+      for (int i = 0; i <= sheet.getLastRowNum(); i++) {
+        Row row = sheet.getRow(i);
+        if (row == null) {
+          continue;
+        }
+        Cell cell = row.getCell(column);
+        String value = getComputedValue(cell, numberFormat);
+        addRow(rows, i, parseProteinIds(value, proteinIdPattern));
+      }
+    } catch (IOException | RuntimeException e) {
+      workbook.close();
+      throw e;
+    }
+    if (permits == null) {
+      workbook.close();
+      workbook = null;
+    }
+    return new ExcelSession(input, column, rows, workbook, permits);
+  }
+
+  private void addRow(TreeMap<Integer, List<String>> rows, int row, List<String> proteinIds) {
+    if (!proteinIds.isEmpty()) {
+      rows.put(row, proteinIds);
+    }
+  }
+
+  private Map<Integer, String> xlsxValues(File input, int column) throws IOException {
+    Map<Integer, String> values = new LinkedHashMap<>();
+    try (OPCPackage pkg = OPCPackage.open(input, PackageAccess.READ)) {
+      XSSFReader reader = new XSSFReader(pkg);
+      ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(pkg, false);
+      XlsxColumnHandler handler = new XlsxColumnHandler(column,
+          index -> sharedStrings.getItemAt(index).getString(),
+          (value, row) -> values.put(row, value));
+      Iterator<InputStream> sheets = reader.getSheetsData();
+      if (sheets.hasNext()) {
+        try (InputStream sheet = sheets.next()) {
+          saxParserPool.parse(sheet, handler);
         }
       }
+    } catch (OpenXML4JException | SAXException e) {
+      throw new IOException("Could not parse Excel file " + input, e);
     }
-    return proteinIds;
+    return values;
   }
 
   private String getComputedValue(Cell cell, NumberFormat numberFormat) {
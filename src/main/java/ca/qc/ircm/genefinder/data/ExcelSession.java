@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * Protein ids of an Excel file, with the protein ids of each row of the first sheet.
+ * <p>
+ * For xls files, the session may also hold the workbook loaded by the parser, so
+ * {@link ExcelDataWriter} writes it without reading the file again. A session holding a workbook
+ * also holds a permit limiting the number of workbooks kept in memory, released when the session
+ * is closed. Xlsx files are never loaded as workbooks by the parser, and are written by patching
+ * the first sheet's XML unless {@link DataConfiguration#excelPatch()} is disabled.
+ * </p>
+ */
+class ExcelSession extends ParsedDataFile {
+  private final int proteinColumn;
+  private final TreeMap<Integer, List<String>> rows;
+  private Workbook workbook;
+  private Semaphore permits;
+
+  /**
+   * Creates Excel session.
+   *
+   * @param file
+   *          Excel file
+   * @param proteinColumn
+   *          index of protein column, starting at 0
+   * @param rows
+   *          protein ids of each row, by row index starting at 0
+   * @param workbook
+   *          workbook loaded by parser, null if workbook was not loaded
+   * @param permits
+   *          semaphore from which a permit was acquired to hold workbook, released when session is
+   *          closed, null if no permit was acquired
+   */
+  ExcelSession(File file, int proteinColumn, TreeMap<Integer, List<String>> rows,
+      Workbook workbook, Semaphore permits) {
+    super(file, distinct(rows));
+    this.proteinColumn = proteinColumn;
+    this.rows = rows;
+    this.workbook = workbook;
+    this.permits = permits;
+  }
+
+  private static List<String> distinct(TreeMap<Integer, List<String>> rows) {
+    Set<String> proteinIds = new LinkedHashSet<>();
+    rows.values().forEach(proteinIds::addAll);
+    return new ArrayList<>(proteinIds);
+  }
+
+  /**
+   * Returns index of protein column, starting at 0.
+   *
+   * @return index of protein column, starting at 0
+   */
+  int getProteinColumn() {
+    return proteinColumn;
+  }
+
+  /**
+   * Returns protein ids of row, in the order they appear in protein column.
+   *
+   * @param row
+   *          row index, starting at 0
+   * @return protein ids of row, empty if row has no protein ids
+   */
+  List<String> proteinIds(int row) {
+    return rows.getOrDefault(row, Collections.emptyList());
+  }
+
+  /**
+   * Returns protein ids of all rows, in row order, including duplicates.
+   *
+   * @return protein ids of all rows, in row order, including duplicates
+   */
+  List<String> allProteinIds() {
+    List<String> proteinIds = new ArrayList<>();
+    rows.values().forEach(proteinIds::addAll);
+    return proteinIds;
+  }
+
+  /**
+   * Returns workbook loaded by parser and removes it from this session.
+   * <p>
+   * Writing changes the workbook, so it can only be taken once.
+   * </p>
+   *
+   * @return workbook loaded by parser, null if workbook was not loaded or was already taken
+   */
+  synchronized Workbook takeWorkbook() {
+    Workbook workbook = this.workbook;
+    this.workbook = null;
+    return workbook;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      if (workbook != null) {
+        workbook.close();
+        workbook = null;
+      }
+    } finally {
+      if (permits != null) {
+        permits.release();
+        permits = null;
+      }
+    }
+  }
+}
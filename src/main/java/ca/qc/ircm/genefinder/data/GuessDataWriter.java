@@ -54,4 +54,14 @@ public class GuessDataWriter implements DataWriter {
       textDataWriter.writeGene(input, output, parameters, mappings);
     }
   }
+
+  @Override
+  public void writeGene(ParsedDataFile input, File output, FindGenesParameters parameters,
+      Map<String, ProteinMapping> mappings) throws IOException, InterruptedException {
+    if (EXCEL_FILENAME_PATTERN.matcher(input.getFile().getName()).matches()) {
+      excelDataWriter.writeGene(input, output, parameters, mappings);
+    } else {
+      textDataWriter.writeGene(input, output, parameters, mappings);
+    }
+  }
 }
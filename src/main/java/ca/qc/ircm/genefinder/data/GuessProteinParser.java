@@ -56,4 +56,13 @@ public class GuessProteinParser implements ProteinParser {
       return textProteinParser.parseProteinIds(input, parameters);
     }
   }
+
+  @Override
+  public ParsedDataFile parse(File input, FindGenesParameters parameters) throws IOException {
+    if (EXCEL_FILENAME_PATTERN.matcher(input.getName()).matches()) {
+      return excelProteinParser.parse(input, parameters);
+    } else {
+      return textProteinParser.parse(input, parameters);
+    }
+  }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Protein ids parsed from a data file.
+ * <p>
+ * Parsers may return a subclass holding what they learned about the file, allowing writers to
+ * write the file without parsing it again. Close the parsed data file once it is written to
+ * release what it holds.
+ * </p>
+ */
+public class ParsedDataFile implements Closeable {
+  private final File file;
+  private final List<String> proteinIds;
+
+  /**
+   * Creates parsed data file.
+   *
+   * @param file
+   *          data file
+   * @param proteinIds
+   *          protein ids found in file
+   */
+  public ParsedDataFile(File file, List<String> proteinIds) {
+    this.file = file;
+    this.proteinIds = proteinIds;
+  }
+
+  @Override
+  public void close() throws IOException {
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public List<String> getProteinIds() {
+    return proteinIds;
+  }
+}
@@ -27,4 +27,24 @@ import java.util.List;
 public interface ProteinParser {
   public List<String> parseProteinIds(File input, FindGenesParameters parameters)
       throws IOException;
+
+  /**
+   * Parses protein ids from file.
+   * <p>
+   * Implementations may return a subclass of {@link ParsedDataFile} allowing {@link DataWriter} to
+   * write the file without parsing it again.
+   * </p>
+   *
+   * @param input
+   *          data file
+   * @param parameters
+   *          parameters
+   * @return protein ids parsed from file
+   * @throws IOException
+   *           could not parse file
+   */
+  public default ParsedDataFile parse(File input, FindGenesParameters parameters)
+      throws IOException {
+    return new ParsedDataFile(input, parseProteinIds(input, parameters));
+  }
 }
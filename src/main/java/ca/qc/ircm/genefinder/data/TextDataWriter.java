@@ -20,14 +20,15 @@ package ca.qc.ircm.genefinder.data;
 import ca.qc.ircm.genefinder.annotation.NcbiConfiguration;
 import ca.qc.ircm.genefinder.annotation.ProteinMapping;
 import ca.qc.ircm.genefinder.annotation.UniprotConfiguration;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.text.NumberFormat;
 import java.util.List;
 import java.util.Locale;
@@ -38,13 +39,15 @@ import org.springframework.stereotype.Component;
 
 @Component
 public class TextDataWriter extends AbstractDataWriter implements DataWriter {
-  private static final NumberFormat numberFormat;
-
-  static {
-    numberFormat = NumberFormat.getNumberInstance(Locale.ENGLISH);
-    numberFormat.setMinimumFractionDigits(1);
-    numberFormat.setGroupingUsed(false);
-  }
+  /**
+   * NumberFormat is not thread safe and files can be written concurrently.
+   */
+  private static final ThreadLocal<NumberFormat> numberFormat = ThreadLocal.withInitial(() -> {
+    NumberFormat format = NumberFormat.getNumberInstance(Locale.ENGLISH);
+    format.setMinimumFractionDigits(1);
+    format.setGroupingUsed(false);
+    return format;
+  });
 
   protected TextDataWriter() {
     super();
@@ -59,70 +62,105 @@ public class TextDataWriter extends AbstractDataWriter implements DataWriter {
   public void writeGene(File input, File output, FindGenesParameters parameters,
       Map<String, ProteinMapping> mappings) throws IOException, InterruptedException {
     Pattern proteinIdPattern = proteinIdPattern(parameters);
+    writeGene(TextRowIndex.read(input, parameters.getProteinColumn(), Charset.defaultCharset(),
+        cell -> parseProteinIds(cell, proteinIdPattern)), output, parameters, mappings);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * If input is a {@link TextRowIndex}, lines are copied as bytes and annotations are inserted at
+   * the end of the protein column found when parsing, without splitting lines or parsing protein
+   * ids again.
+   * </p>
+   */
+  @Override
+  public void writeGene(ParsedDataFile input, File output, FindGenesParameters parameters,
+      Map<String, ProteinMapping> mappings) throws IOException, InterruptedException {
+    if (!(input instanceof TextRowIndex)
+        || ((TextRowIndex) input).getProteinColumn() != parameters.getProteinColumn()) {
+      writeGene(input.getFile(), output, parameters, mappings);
+      return;
+    }
+    TextRowIndex index = (TextRowIndex) input;
+    byte[] lineSeparator = System.lineSeparator().getBytes(index.getCharset());
     try (
-        LineNumberReader reader =
-            new LineNumberReader(new InputStreamReader(new FileInputStream(input)));
-        BufferedWriter writer =
-            new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output)))) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        String[] columns = line.split("\t", -1);
-        List<String> proteinIds =
-            parseProteinIds(columns[parameters.getProteinColumn()], proteinIdPattern);
-        for (int i = 0; i <= parameters.getProteinColumn(); i++) {
-          if (i > 0) {
-            writer.write("\t");
-          }
-          writer.write(columns[i]);
-        }
-        if (parameters.isGeneId()) {
-          writer.write("\t");
-          String newValue = proteinIds.stream().filter(proteinId -> mappings.get(proteinId) != null)
-              .map(proteinId -> mappings.get(proteinId).getGenes()).filter(genes -> genes != null)
-              .flatMap(genes -> genes.stream()).map(gene -> String.valueOf(gene.getId())).distinct()
-              .collect(Collectors.joining(PROTEIN_DELIMITER));
-          writer.write(newValue);
-        }
-        if (parameters.isGeneName()) {
-          writer.write("\t");
-          String newValue = proteinIds.stream().filter(proteinId -> mappings.get(proteinId) != null)
-              .map(proteinId -> mappings.get(proteinId).getGenes()).filter(genes -> genes != null)
-              .flatMap(genes -> genes.stream()).map(gene -> gene.getSymbol()).filter(s -> s != null)
-              .distinct().collect(Collectors.joining(PROTEIN_DELIMITER));
-          writer.write(newValue);
+        InputStream reader = new BufferedInputStream(new FileInputStream(index.getFile()));
+        OutputStream writer = new BufferedOutputStream(new FileOutputStream(output))) {
+      byte[] line = new byte[1024];
+      for (int i = 0; i < index.rows(); i++) {
+        int length = index.length(i);
+        if (line.length < length) {
+          line = new byte[Math.max(length, line.length * 2)];
         }
-        if (parameters.isGeneSynonyms()) {
-          writer.write("\t");
-          String newValue = proteinIds.stream().filter(proteinId -> mappings.get(proteinId) != null)
-              .map(proteinId -> mappings.get(proteinId).getGenes()).filter(genes -> genes != null)
-              .flatMap(genes -> genes.stream()).map(gene -> gene.getSynonyms())
-              .filter(s -> s != null)
-              .map(s -> s.stream().collect(Collectors.joining(LIST_DELIMITER))).distinct()
-              .collect(Collectors.joining(PROTEIN_DELIMITER));
-          writer.write(newValue);
+        if (reader.readNBytes(line, 0, length) != length) {
+          throw new IOException("File " + index.getFile() + " changed after it was parsed");
         }
-        if (parameters.isGeneSummary()) {
-          writer.write("\t");
-          String newValue = proteinIds.stream().filter(proteinId -> mappings.get(proteinId) != null)
-              .map(proteinId -> mappings.get(proteinId).getGenes()).filter(genes -> genes != null)
-              .flatMap(genes -> genes.stream()).map(gene -> gene.getDescription())
-              .filter(s -> s != null).distinct().collect(Collectors.joining(PROTEIN_DELIMITER));
-          writer.write(newValue);
+        int end = length;
+        if (end > 0 && line[end - 1] == '\n') {
+          end--;
         }
-        if (parameters.isProteinMolecularWeight()) {
-          writer.write("\t");
-          String newValue = proteinIds.stream().filter(proteinId -> mappings.get(proteinId) != null)
-              .map(proteinId -> mappings.get(proteinId).getMolecularWeight())
-              .filter(mw -> mw != null).map(mw -> numberFormat.format(mw))
-              .collect(Collectors.joining(PROTEIN_DELIMITER));
-          writer.write(newValue);
+        if (end > 0 && line[end - 1] == '\r') {
+          end--;
         }
-        for (int i = parameters.getProteinColumn() + 1; i < columns.length; i++) {
-          writer.write("\t");
-          writer.write(columns[i]);
-        }
-        writer.write(System.lineSeparator());
+        int proteinCellEnd = index.proteinCellEnd(i);
+        writer.write(line, 0, proteinCellEnd);
+        writer.write(annotations(index.proteinIds(i), parameters, mappings)
+            .getBytes(index.getCharset()));
+        writer.write(line, proteinCellEnd, end - proteinCellEnd);
+        writer.write(lineSeparator);
       }
     }
   }
+
+  /**
+   * Returns annotations to insert after protein column, each preceded by a tab.
+   */
+  private String annotations(List<String> proteinIds, FindGenesParameters parameters,
+      Map<String, ProteinMapping> mappings) {
+    StringBuilder builder = new StringBuilder();
+    if (parameters.isGeneId()) {
+      builder.append("\t");
+      String newValue = proteinIds.stream().filter(proteinId -> mappings.get(proteinId) != null)
+          .map(proteinId -> mappings.get(proteinId).getGenes()).filter(genes -> genes != null)
+          .flatMap(genes -> genes.stream()).map(gene -> String.valueOf(gene.getId())).distinct()
+          .collect(Collectors.joining(PROTEIN_DELIMITER));
+      builder.append(newValue);
+    }
+    if (parameters.isGeneName()) {
+      builder.append("\t");
+      String newValue = proteinIds.stream().filter(proteinId -> mappings.get(proteinId) != null)
+          .map(proteinId -> mappings.get(proteinId).getGenes()).filter(genes -> genes != null)
+          .flatMap(genes -> genes.stream()).map(gene -> gene.getSymbol()).filter(s -> s != null)
+          .distinct().collect(Collectors.joining(PROTEIN_DELIMITER));
+      builder.append(newValue);
+    }
+    if (parameters.isGeneSynonyms()) {
+      builder.append("\t");
+      String newValue = proteinIds.stream().filter(proteinId -> mappings.get(proteinId) != null)
+          .map(proteinId -> mappings.get(proteinId).getGenes()).filter(genes -> genes != null)
+          .flatMap(genes -> genes.stream()).map(gene -> gene.getSynonyms())
+          .filter(s -> s != null)
+          .map(s -> s.stream().collect(Collectors.joining(LIST_DELIMITER))).distinct()
+          .collect(Collectors.joining(PROTEIN_DELIMITER));
+      builder.append(newValue);
+    }
+    if (parameters.isGeneSummary()) {
+      builder.append("\t");
+      String newValue = proteinIds.stream().filter(proteinId -> mappings.get(proteinId) != null)
+          .map(proteinId -> mappings.get(proteinId).getGenes()).filter(genes -> genes != null)
+          .flatMap(genes -> genes.stream()).map(gene -> gene.getDescription())
+          .filter(s -> s != null).distinct().collect(Collectors.joining(PROTEIN_DELIMITER));
+      builder.append(newValue);
+    }
+    if (parameters.isProteinMolecularWeight()) {
+      builder.append("\t");
+      String newValue = proteinIds.stream().filter(proteinId -> mappings.get(proteinId) != null)
+          .map(proteinId -> mappings.get(proteinId).getMolecularWeight())
+          .filter(mw -> mw != null).map(mw -> numberFormat.get().format(mw))
+          .collect(Collectors.joining(PROTEIN_DELIMITER));
+      builder.append(newValue);
+    }
+    return builder.toString();
+  }
 }
@@ -20,10 +20,8 @@ package ca.qc.ircm.genefinder.data;
 import ca.qc.ircm.genefinder.annotation.NcbiConfiguration;
 import ca.qc.ircm.genefinder.annotation.UniprotConfiguration;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -45,17 +43,26 @@ public class TextProteinParser extends AbstractProteinParser {
   @Override
   public List<String> parseProteinIds(File input, FindGenesParameters parameters)
       throws IOException {
-    Pattern proteinIdPattern = proteinIdPattern(parameters);
+    TextRowIndex index = index(input, parameters);
     List<String> proteinIds = new ArrayList<>();
-    try (LineNumberReader reader =
-        new LineNumberReader(new InputStreamReader(new FileInputStream(input)))) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        String[] columns = line.split("\t", -1);
-        proteinIds
-            .addAll(parseProteinIds(columns[parameters.getProteinColumn()], proteinIdPattern));
-      }
+    for (int i = 0; i < index.rows(); i++) {
+      proteinIds.addAll(index.proteinIds(i));
     }
     return proteinIds;
   }
+
+  /**
+   * Parses protein ids of text file and indexes its rows so that {@link TextDataWriter} can write
+   * the file without parsing it again.
+   */
+  @Override
+  public ParsedDataFile parse(File input, FindGenesParameters parameters) throws IOException {
+    return index(input, parameters);
+  }
+
+  private TextRowIndex index(File input, FindGenesParameters parameters) throws IOException {
+    Pattern proteinIdPattern = proteinIdPattern(parameters);
+    return TextRowIndex.read(input, parameters.getProteinColumn(), Charset.defaultCharset(),
+        cell -> parseProteinIds(cell, proteinIdPattern));
+  }
 }
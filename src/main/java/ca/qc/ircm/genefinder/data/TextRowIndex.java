@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Protein ids of a tab separated text file, with the position of the protein column of each row.
+ * <p>
+ * Each row is a line of the file. For each row, the index keeps the row's byte offset in the file,
+ * the byte offset of the end of the protein column in the row and the ordinals of the row's
+ * protein ids in {@link #getProteinIds()}. This allows {@link TextDataWriter} to insert columns
+ * after the protein column without splitting lines or parsing protein ids again.
+ * </p>
+ * <p>
+ * Columns are found by looking for tab bytes, so the file's charset must encode the tab
+ * character as a single byte that is not used by any other character, like UTF-8 or ISO-8859-1.
+ * </p>
+ */
+class TextRowIndex extends ParsedDataFile {
+  /**
+   * Parses protein ids of a cell.
+   */
+  interface ProteinIdParser {
+    /**
+     * Returns protein ids found in cell.
+     *
+     * @param cell
+     *          content of cell
+     * @return protein ids found in cell
+     * @throws IOException
+     *           could not parse protein ids
+     */
+    List<String> parse(String cell) throws IOException;
+  }
+
+  private static final int BUFFER_SIZE = 65536;
+  private static final byte TAB = '\t';
+  private static final byte LINE_FEED = '\n';
+  private static final byte CARRIAGE_RETURN = '\r';
+  private final int proteinColumn;
+  private final Charset charset;
+  private final long length;
+  private int rows;
+  private long[] offsets = new long[16];
+  private int[] proteinCellEnds = new int[16];
+  private int[] proteinIdStarts = new int[17];
+  private int[] proteinIdOrdinals = new int[16];
+  private Map<String, Integer> ordinals = new HashMap<>();
+
+  private TextRowIndex(File file, int proteinColumn, Charset charset) {
+    super(file, new ArrayList<>());
+    this.proteinColumn = proteinColumn;
+    this.charset = charset;
+    this.length = file.length();
+  }
+
+  /**
+   * Reads text file and indexes its rows.
+   *
+   * @param file
+   *          tab separated text file
+   * @param proteinColumn
+   *          index of protein column, starting at 0
+   * @param charset
+   *          file's charset
+   * @param parser
+   *          parses protein ids of protein column
+   * @return index of file's rows
+   * @throws IOException
+   *           could not read file or a row has no protein column
+   */
+  static TextRowIndex read(File file, int proteinColumn, Charset charset, ProteinIdParser parser)
+      throws IOException {
+    TextRowIndex index = new TextRowIndex(file, proteinColumn, charset);
+    try (InputStream input = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      byte[] line = new byte[1024];
+      int lineLength = 0;
+      long rowStart = 0;
+      long position = 0;
+      boolean afterCarriageReturn = false;
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        for (int i = 0; i < read; i++, position++) {
+          byte b = buffer[i];
+          if (afterCarriageReturn) {
+            afterCarriageReturn = false;
+            if (b == LINE_FEED) {
+              rowStart = position + 1;
+              continue;
+            }
+          }
+          if (b == LINE_FEED || b == CARRIAGE_RETURN) {
+            index.addRow(rowStart, line, lineLength, parser);
+            lineLength = 0;
+            rowStart = position + 1;
+            afterCarriageReturn = b == CARRIAGE_RETURN;
+          } else {
+            if (lineLength == line.length) {
+              line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[lineLength++] = b;
+          }
+        }
+      }
+      if (lineLength > 0) {
+        index.addRow(rowStart, line, lineLength, parser);
+      }
+    }
+    index.ordinals = null;
+    return index;
+  }
+
+  private void addRow(long offset, byte[] line, int lineLength, ProteinIdParser parser)
+      throws IOException {
+    int start = 0;
+    for (int column = 0; column < proteinColumn; column++) {
+      while (start < lineLength && line[start] != TAB) {
+        start++;
+      }
+      if (start == lineLength) {
+        throw new IOException("Line " + (rows + 1) + " of file " + getFile()
+            + " has no column " + (proteinColumn + 1));
+      }
+      start++;
+    }
+    int end = start;
+    while (end < lineLength && line[end] != TAB) {
+      end++;
+    }
+    List<String> rowProteinIds = parser.parse(new String(line, start, end - start, charset));
+    if (rows == offsets.length) {
+      offsets = Arrays.copyOf(offsets, rows * 2);
+      proteinCellEnds = Arrays.copyOf(proteinCellEnds, rows * 2);
+      proteinIdStarts = Arrays.copyOf(proteinIdStarts, rows * 2 + 1);
+    }
+    offsets[rows] = offset;
+    proteinCellEnds[rows] = end;
+    int idStart = proteinIdStarts[rows];
+    if (idStart + rowProteinIds.size() > proteinIdOrdinals.length) {
+      proteinIdOrdinals = Arrays.copyOf(proteinIdOrdinals,
+          Math.max(proteinIdOrdinals.length * 2, idStart + rowProteinIds.size()));
+    }
+    for (String proteinId : rowProteinIds) {
+      Integer ordinal = ordinals.get(proteinId);
+      if (ordinal == null) {
+        ordinal = getProteinIds().size();
+        ordinals.put(proteinId, ordinal);
+        getProteinIds().add(proteinId);
+      }
+      proteinIdOrdinals[idStart++] = ordinal;
+    }
+    proteinIdStarts[++rows] = idStart;
+  }
+
+  /**
+   * Returns index of protein column, starting at 0.
+   *
+   * @return index of protein column, starting at 0
+   */
+  int getProteinColumn() {
+    return proteinColumn;
+  }
+
+  /**
+   * Returns file's charset.
+   *
+   * @return file's charset
+   */
+  Charset getCharset() {
+    return charset;
+  }
+
+  /**
+   * Returns number of rows.
+   *
+   * @return number of rows
+   */
+  int rows() {
+    return rows;
+  }
+
+  /**
+   * Returns byte offset of row in file.
+   *
+   * @param row
+   *          row index, starting at 0
+   * @return byte offset of row in file
+   */
+  long offset(int row) {
+    return offsets[row];
+  }
+
+  /**
+   * Returns number of bytes of row in file, including line terminator.
+   *
+   * @param row
+   *          row index, starting at 0
+   * @return number of bytes of row in file, including line terminator
+   */
+  int length(int row) {
+    return (int) ((row + 1 < rows ? offsets[row + 1] : length) - offsets[row]);
+  }
+
+  /**
+   * Returns byte offset of the end of protein column, relative to the start of the row.
+   *
+   * @param row
+   *          row index, starting at 0
+   * @return byte offset of the end of protein column, relative to the start of the row
+   */
+  int proteinCellEnd(int row) {
+    return proteinCellEnds[row];
+  }
+
+  /**
+   * Returns protein ids of row, in the order they appear in protein column.
+   *
+   * @param row
+   *          row index, starting at 0
+   * @return protein ids of row
+   */
+  List<String> proteinIds(int row) {
+    List<String> proteinIds = getProteinIds();
+    List<String> rowProteinIds = new ArrayList<>(proteinIdStarts[row + 1] - proteinIdStarts[row]);
+    for (int i = proteinIdStarts[row]; i < proteinIdStarts[row + 1]; i++) {
+      rowProteinIds.add(proteinIds.get(proteinIdOrdinals[i]));
+    }
+    return rowProteinIds;
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+/**
+ * Cell read from the XML of an xlsx worksheet.
+ */
+class XlsxCell {
+  /**
+   * Type of cell's value. For formulas, type of cached result.
+   */
+  enum Type {
+    BLANK, STRING, NUMERIC, BOOLEAN, ERROR
+  }
+
+  private final int column;
+  private final Type type;
+  private final String value;
+  private final int style;
+
+  XlsxCell(int column, Type type, String value, int style) {
+    this.column = column;
+    this.type = type;
+    this.value = value;
+    this.style = style;
+  }
+
+  /**
+   * Returns index of cell's column, starting at 0.
+   *
+   * @return index of cell's column, starting at 0
+   */
+  int getColumn() {
+    return column;
+  }
+
+  Type getType() {
+    return type;
+  }
+
+  /**
+   * Returns cell's value, as written in worksheet, with shared strings resolved.
+   * <p>
+   * Numeric values are not parsed, boolean values are <code>1</code> or <code>0</code>.
+   * </p>
+   *
+   * @return cell's value, as written in worksheet, with shared strings resolved
+   */
+  String getValue() {
+    return value;
+  }
+
+  /**
+   * Returns index of cell's style in workbook's styles table, 0 for default style.
+   *
+   * @return index of cell's style in workbook's styles table, 0 for default style
+   */
+  int getStyle() {
+    return style;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.function.IntFunction;
+import java.util.function.ObjIntConsumer;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads values of a single column from the XML of an xlsx worksheet.
+ * <p>
+ * Only the content of cells in the requested column is kept, so memory usage does not depend on
+ * the size of the worksheet. Formulas are not evaluated, their cached result is used instead.
+ * Values are converted to text the same way {@link ExcelProteinParser} converts cells of a
+ * workbook.
+ * </p>
+ */
+class XlsxColumnHandler extends DefaultHandler {
+  private final int column;
+  private final IntFunction<String> sharedStrings;
+  private final ObjIntConsumer<String> values;
+  private final NumberFormat numberFormat;
+  private final StringBuilder text = new StringBuilder();
+  private int rowIndex = -1;
+  private int nextColumn;
+  private boolean inColumn;
+  private String type;
+  private String value;
+  private String inlineValue;
+  private boolean inInline;
+  private boolean inPhonetic;
+  private boolean collectText;
+
+  /**
+   * Creates handler for column.
+   *
+   * @param column
+   *          index of column, starting at 0
+   * @param sharedStrings
+   *          returns shared string at index
+   * @param values
+   *          receives value of column and index of row, starting at 0, for each row that has a
+   *          cell in column
+   */
+  XlsxColumnHandler(int column, IntFunction<String> sharedStrings,
+      ObjIntConsumer<String> values) {
+    this.column = column;
+    this.sharedStrings = sharedStrings;
+    this.values = values;
+    numberFormat = NumberFormat.getIntegerInstance(Locale.ENGLISH);
+    numberFormat.setGroupingUsed(false);
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qualifiedName,
+      Attributes attributes) throws SAXException {
+    String name = localName(qualifiedName);
+    if (name.equals("row")) {
+      String reference = attributes.getValue("r");
+      try {
+        rowIndex = reference != null ? Integer.parseInt(reference) - 1 : rowIndex + 1;
+      } catch (NumberFormatException e) {
+        throw new SAXException("Invalid row reference " + reference, e);
+      }
+      nextColumn = 0;
+    } else if (name.equals("c")) {
+      String reference = attributes.getValue("r");
+      int cellColumn = reference != null ? columnIndex(reference) : nextColumn;
+      nextColumn = cellColumn + 1;
+      inColumn = cellColumn == column;
+      if (inColumn) {
+        type = attributes.getValue("t");
+        value = null;
+        inlineValue = null;
+      }
+    } else if (inColumn && name.equals("v")) {
+      text.setLength(0);
+      collectText = true;
+    } else if (inColumn && name.equals("is")) {
+      text.setLength(0);
+      inInline = true;
+    } else if (inInline && name.equals("rPh")) {
+      inPhonetic = true;
+    } else if (inInline && !inPhonetic && name.equals("t")) {
+      collectText = true;
+    }
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qualifiedName)
+      throws SAXException {
+    if (!inColumn) {
+      return;
+    }
+    String name = localName(qualifiedName);
+    if (name.equals("v")) {
+      value = text.toString();
+      collectText = false;
+    } else if (name.equals("t")) {
+      collectText = false;
+    } else if (name.equals("rPh")) {
+      inPhonetic = false;
+    } else if (name.equals("is")) {
+      inlineValue = text.toString();
+      inInline = false;
+    } else if (name.equals("c")) {
+      values.accept(cellValue(), rowIndex);
+      inColumn = false;
+    }
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) throws SAXException {
+    if (collectText) {
+      text.append(ch, start, length);
+    }
+  }
+
+  private String cellValue() throws SAXException {
+    if (type == null || type.equals("n")) {
+      if (value == null || value.isEmpty()) {
+        return "";
+      }
+      try {
+        return numberFormat.format(Double.parseDouble(value));
+      } catch (NumberFormatException e) {
+        throw new SAXException("Invalid numeric value " + value, e);
+      }
+    }
+    switch (type) {
+      case "s":
+        try {
+          return value != null ? sharedStrings.apply(Integer.parseInt(value.trim())) : "";
+        } catch (NumberFormatException e) {
+          throw new SAXException("Invalid shared string index " + value, e);
+        }
+      case "inlineStr":
+        return inlineValue != null ? inlineValue : value != null ? value : "";
+      case "str":
+        return value != null ? value : "";
+      case "b":
+        return value != null ? String.valueOf(value.equals("1") || value.equals("true")) : "";
+      default:
+        return "";
+    }
+  }
+
+  private String localName(String qualifiedName) {
+    int colon = qualifiedName.indexOf(':');
+    return colon >= 0 ? qualifiedName.substring(colon + 1) : qualifiedName;
+  }
+
+  /**
+   * Returns index of column, starting at 0, referenced by cell reference like <code>AB12</code>.
+   *
+   * @param reference
+   *          cell reference
+   * @return index of column, starting at 0
+   */
+  static int columnIndex(String reference) {
+    int index = 0;
+    for (int i = 0; i < reference.length(); i++) {
+      char letter = reference.charAt(i);
+      if (letter >= 'A' && letter <= 'Z') {
+        index = index * 26 + letter - 'A' + 1;
+      } else if (letter >= 'a' && letter <= 'z') {
+        index = index * 26 + letter - 'a' + 1;
+      } else {
+        break;
+      }
+    }
+    return index - 1;
+  }
+}
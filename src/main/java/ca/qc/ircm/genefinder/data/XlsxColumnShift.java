@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Shifts columns of cell references to make room for columns inserted in a worksheet.
+ * <p>
+ * Columns after the insertion point are moved right by the number of inserted columns, other
+ * columns are unchanged. References qualified by the name of the shifted worksheet, like
+ * <code>Sheet1!A1</code>, are shifted. References qualified by another sheet name, like
+ * <code>Sheet2!A1</code>, are not changed.
+ * </p>
+ */
+class XlsxColumnShift {
+  /**
+   * Maximum column index, for column XFD.
+   */
+  static final int MAX_COLUMN = 16383;
+  private static final Pattern CELL_PATTERN =
+      Pattern.compile("(\\$?)([A-Za-z]{1,3})(\\$?)(\\d+)?");
+  private final int after;
+  private final int count;
+  private final String sheetName;
+
+  /**
+   * Creates column shift.
+   *
+   * @param after
+   *          index of column after which columns are inserted, starting at 0
+   * @param count
+   *          number of inserted columns
+   */
+  XlsxColumnShift(int after, int count) {
+    this(after, count, null);
+  }
+
+  /**
+   * Creates column shift.
+   *
+   * @param after
+   *          index of column after which columns are inserted, starting at 0
+   * @param count
+   *          number of inserted columns
+   * @param sheetName
+   *          name of shifted worksheet, null if unknown
+   */
+  XlsxColumnShift(int after, int count, String sheetName) {
+    this.after = after;
+    this.count = count;
+    this.sheetName = sheetName;
+  }
+
+  /**
+   * Returns shifted column index.
+   *
+   * @param column
+   *          column index, starting at 0
+   * @return shifted column index
+   */
+  int column(int column) {
+    return column > after ? column + count : column;
+  }
+
+  /**
+   * Returns shifted references, separated by spaces, like <code>A1 B2:C4</code>.
+   *
+   * @param references
+   *          references, separated by spaces
+   * @return shifted references
+   */
+  String references(String references) {
+    StringBuilder builder = new StringBuilder(references.length());
+    int start = 0;
+    for (int i = 0; i <= references.length(); i++) {
+      if (i == references.length() || references.charAt(i) == ' '
+          || references.charAt(i) == ':') {
+        builder.append(reference(references.substring(start, i)));
+        if (i < references.length()) {
+          builder.append(references.charAt(i));
+        }
+        start = i + 1;
+      }
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Returns shifted cell reference, like <code>B2</code>, or column reference, like <code>B</code>.
+   * Returns reference unchanged if it is not a cell or column reference.
+   *
+   * @param reference
+   *          cell or column reference
+   * @return shifted cell or column reference
+   */
+  String reference(String reference) {
+    Matcher matcher = CELL_PATTERN.matcher(reference);
+    if (!matcher.matches()) {
+      return reference;
+    }
+    int column = XlsxColumnHandler.columnIndex(matcher.group(2));
+    if (column > MAX_COLUMN) {
+      return reference;
+    }
+    return matcher.group(1) + columnName(column(column)) + matcher.group(3)
+        + (matcher.group(4) != null ? matcher.group(4) : "");
+  }
+
+  /**
+   * Returns formula with shifted cell references.
+   * <p>
+   * String literals, structured references, function names and references qualified by the name
+   * of another sheet are not changed.
+   * </p>
+   *
+   * @param formula
+   *          formula
+   * @return formula with shifted cell references
+   */
+  String formula(String formula) {
+    StringBuilder builder = new StringBuilder(formula.length() + 8);
+    int length = formula.length();
+    int i = 0;
+    while (i < length) {
+      char c = formula.charAt(i);
+      if (c == '"' || c == '\'') {
+        int end = quoteEnd(formula, i);
+        builder.append(formula, i, end);
+        if (c == '\'' && end < length && formula.charAt(end) == '!') {
+          String sheet = formula.substring(i + 1, end - 1).replace("''", "'");
+          i = qualifiedReferenceEnd(formula, end + 1);
+          builder.append('!').append(qualifiedReferences(sheet, formula.substring(end + 1, i)));
+        } else {
+          i = end;
+        }
+      } else if (c == '[') {
+        int end = bracketEnd(formula, i);
+        builder.append(formula, i, end);
+        i = end;
+      } else if (tokenCharacter(c)) {
+        int end = i;
+        while (end < length && tokenCharacter(formula.charAt(end))) {
+          end++;
+        }
+        String token = formula.substring(i, end);
+        char next = end < length ? formula.charAt(end) : 0;
+        char previous = i > 0 ? formula.charAt(i - 1) : 0;
+        if (next == '!') {
+          int referenceEnd = qualifiedReferenceEnd(formula, end + 1);
+          // Sheet ranges, like Sheet1:Sheet3!A1, may reference other worksheets.
+          String sheet = previous != ':' ? token : null;
+          builder.append(token).append('!')
+              .append(qualifiedReferences(sheet, formula.substring(end + 1, referenceEnd)));
+          i = referenceEnd;
+          continue;
+        } else if (next == '(' || next == '[' || Character.isDigit(c)) {
+          builder.append(token);
+        } else if (Character.isDigit(token.charAt(token.length() - 1)) || next == ':'
+            || previous == ':') {
+          builder.append(reference(token));
+        } else {
+          builder.append(token);
+        }
+        i = end;
+      } else {
+        builder.append(c);
+        i++;
+      }
+    }
+    return builder.toString();
+  }
+
+  private String qualifiedReferences(String sheet, String references) {
+    return sheetName != null && sheetName.equalsIgnoreCase(sheet) ? references(references)
+        : references;
+  }
+
+  private boolean tokenCharacter(char c) {
+    return Character.isLetterOrDigit(c) || c == '$' || c == '_' || c == '.' || c == '\\';
+  }
+
+  private int quoteEnd(String formula, int start) {
+    char quote = formula.charAt(start);
+    int i = start + 1;
+    while (i < formula.length()) {
+      if (formula.charAt(i) == quote) {
+        if (i + 1 < formula.length() && formula.charAt(i + 1) == quote) {
+          i += 2;
+          continue;
+        }
+        return i + 1;
+      }
+      i++;
+    }
+    return formula.length();
+  }
+
+  private int bracketEnd(String formula, int start) {
+    int depth = 0;
+    for (int i = start; i < formula.length(); i++) {
+      if (formula.charAt(i) == '[') {
+        depth++;
+      } else if (formula.charAt(i) == ']' && --depth == 0) {
+        return i + 1;
+      }
+    }
+    return formula.length();
+  }
+
+  private int qualifiedReferenceEnd(String formula, int start) {
+    int i = start;
+    while (i < formula.length()
+        && (tokenCharacter(formula.charAt(i)) || formula.charAt(i) == ':')) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Returns name of column, like <code>AB</code>.
+   *
+   * @param column
+   *          column index, starting at 0
+   * @return name of column
+   */
+  static String columnName(int column) {
+    StringBuilder builder = new StringBuilder(3);
+    int index = column + 1;
+    while (index > 0) {
+      int remainder = (index - 1) % 26;
+      builder.insert(0, (char) ('A' + remainder));
+      index = (index - 1) / 26;
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,644 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Inserts annotation columns in the first worksheet of an Excel 2007 file (xlsx) without loading
+ * the workbook in memory.
+ * <p>
+ * The file is handled as a zip of XML parts. Parts are copied unchanged, except for the first
+ * worksheet, the styles and the calculation chain, which are rewritten in a single streaming
+ * pass. Formatting, other sheets, charts and formulas are kept.
+ * </p>
+ * <p>
+ * Cells, formulas, merged cells, column definitions and other cell ranges of the first worksheet
+ * are shifted to make room for the annotation columns, including references qualified by the name
+ * of the first worksheet. References to the first worksheet from other parts, like other sheets,
+ * charts or defined names, are not shifted. Worksheets containing tables are not supported because
+ * table columns would also need to be inserted.
+ * </p>
+ */
+class XlsxPatcher {
+  /**
+   * Computes annotations of a row.
+   */
+  interface Annotations {
+    /**
+     * Returns annotations of row, one for each inserted column.
+     * <p>
+     * Annotations can be a {@link String}, a {@link Long} or a {@link Double}. Doubles are
+     * formatted with two decimals. Null or empty annotations leave the cell empty.
+     * </p>
+     *
+     * @param row
+     *          index of row, starting at 0
+     * @param proteinCell
+     *          cell of protein column, null if row has no cell in protein column
+     * @return annotations of row, one for each inserted column
+     * @throws IOException
+     *           could not compute annotations
+     */
+    List<Object> annotations(int row, XlsxCell proteinCell) throws IOException;
+  }
+
+  static final String MAIN_NAMESPACE = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+  static final String RELATIONSHIPS_NAMESPACE =
+      "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+  private static final String OFFICE_DOCUMENT_TYPE = RELATIONSHIPS_NAMESPACE + "/officeDocument";
+  private static final String SHARED_STRINGS_TYPE = RELATIONSHIPS_NAMESPACE + "/sharedStrings";
+  private static final String STYLES_TYPE = RELATIONSHIPS_NAMESPACE + "/styles";
+  private static final String CALC_CHAIN_TYPE = RELATIONSHIPS_NAMESPACE + "/calcChain";
+  private static final String TABLE_TYPE = RELATIONSHIPS_NAMESPACE + "/table";
+  /**
+   * Built-in number format <code>0.00</code>.
+   */
+  private static final String TWO_DECIMALS_FORMAT = "2";
+  private final int proteinColumn;
+  private final int count;
+  private final Annotations annotations;
+  private final XMLInputFactory inputFactory;
+  private final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+  private final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+
+  /**
+   * Creates patcher.
+   *
+   * @param proteinColumn
+   *          index of protein column, starting at 0, annotation columns are inserted after it
+   * @param count
+   *          number of annotation columns
+   * @param annotations
+   *          computes annotations of a row
+   */
+  XlsxPatcher(int proteinColumn, int count, Annotations annotations) {
+    this.proteinColumn = proteinColumn;
+    this.count = count;
+    this.annotations = annotations;
+    inputFactory = XMLInputFactory.newInstance();
+    inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+  }
+
+  /**
+   * Writes input with annotation columns inserted in first worksheet to output.
+   *
+   * @param input
+   *          Excel 2007 file (xlsx)
+   * @param output
+   *          output file
+   * @return true if output was written, false if input contains parts that cannot be patched, in
+   *         which case nothing is written
+   * @throws IOException
+   *           could not read input or write output
+   */
+  boolean patch(File input, File output) throws IOException {
+    try (ZipFile zip = new ZipFile(input)) {
+      String workbook = relationshipTarget(zip, "", OFFICE_DOCUMENT_TYPE);
+      if (workbook == null) {
+        throw new IOException("Excel file " + input + " has no workbook");
+      }
+      Map<String, String> workbookRelationships = relationships(zip, workbook);
+      String[] sheet = firstSheet(zip, workbook);
+      if (sheet == null || workbookRelationships.get(sheet[0]) == null) {
+        throw new IOException("Excel file " + input + " has no sheet");
+      }
+      String sheetPart = workbookRelationships.get(sheet[0]);
+      XlsxColumnShift shift = new XlsxColumnShift(proteinColumn, count, sheet[2]);
+      if (relationshipTarget(zip, sheetPart, TABLE_TYPE) != null) {
+        return false;
+      }
+      String sharedStringsPart = relationshipTarget(zip, workbook, SHARED_STRINGS_TYPE);
+      List<String> sharedStrings =
+          sharedStringsPart != null ? sharedStrings(zip, sharedStringsPart) : new ArrayList<>();
+      String stylesPart = relationshipTarget(zip, workbook, STYLES_TYPE);
+      String calcChainPart = relationshipTarget(zip, workbook, CALC_CHAIN_TYPE);
+      try (OutputStream outputStream = new FileOutputStream(output);
+          ZipOutputStream outputZip = new ZipOutputStream(outputStream)) {
+        int twoDecimalsStyle = stylesPart != null ? cellFormats(zip, stylesPart) : -1;
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+          ZipEntry entry = entries.nextElement();
+          outputZip.putNextEntry(new ZipEntry(entry.getName()));
+          if (entry.getName().equals(sheetPart)) {
+            writeSheet(zip, sheetPart, outputZip, shift, sharedStrings, twoDecimalsStyle);
+          } else if (entry.getName().equals(stylesPart)) {
+            writeStyles(zip, stylesPart, outputZip);
+          } else if (entry.getName().equals(calcChainPart)) {
+            writeCalcChain(zip, calcChainPart, outputZip, shift,
+                sheet[1] != null ? sheet[1] : "");
+          } else {
+            try (InputStream entryInput = zip.getInputStream(entry)) {
+              entryInput.transferTo(outputZip);
+            }
+          }
+          outputZip.closeEntry();
+        }
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException("Could not patch Excel file " + input, e);
+    }
+    return true;
+  }
+
+  private void writeSheet(ZipFile zip, String part, OutputStream output, XlsxColumnShift shift,
+      List<String> sharedStrings, int twoDecimalsStyle) throws IOException, XMLStreamException {
+    XMLEventReader reader = reader(zip, part);
+    XMLEventWriter writer = outputFactory.createXMLEventWriter(output, "UTF-8");
+    int rowIndex = -1;
+    int nextColumn = 0;
+    boolean inserted = true;
+    String prefix = "";
+    XlsxCell proteinCell = null;
+    boolean inProteinCell = false;
+    String proteinType = null;
+    String proteinValue = null;
+    StringBuilder proteinText = new StringBuilder();
+    boolean inInline = false;
+    boolean inPhonetic = false;
+    boolean inFormula = false;
+    while (reader.hasNext()) {
+      XMLEvent event = reader.nextEvent();
+      if (event.isStartElement()) {
+        StartElement start = event.asStartElement();
+        String name = start.getName().getLocalPart();
+        if (name.equals("row")) {
+          String reference = attribute(start, "r");
+          rowIndex = reference != null ? Integer.parseInt(reference) - 1 : rowIndex + 1;
+          nextColumn = 0;
+          inserted = false;
+          proteinCell = null;
+          prefix = start.getName().getPrefix();
+          event = replaceAttributes(start, "spans", null);
+        } else if (name.equals("c")) {
+          String reference = attribute(start, "r");
+          int column = reference != null ? XlsxColumnHandler.columnIndex(reference) : nextColumn;
+          nextColumn = column + 1;
+          if (column > proteinColumn && !inserted) {
+            writeAnnotations(writer, prefix, rowIndex, proteinCell, twoDecimalsStyle);
+            inserted = true;
+          }
+          if (column == proteinColumn) {
+            inProteinCell = true;
+            proteinType = attribute(start, "t");
+            proteinValue = null;
+            proteinText.setLength(0);
+          }
+          if (reference != null) {
+            event = replaceAttributes(start, "r", shift.reference(reference));
+          }
+        } else if (inProteinCell && name.equals("is")) {
+          inInline = true;
+        } else if (inProteinCell && name.equals("rPh")) {
+          inPhonetic = true;
+        } else if (name.equals("f") || name.equals("formula") || name.equals("formula1")
+            || name.equals("formula2")) {
+          inFormula = true;
+          if (attribute(start, "ref") != null) {
+            event = replaceAttributes(start, "ref", shift.references(attribute(start, "ref")));
+          }
+        } else if (name.equals("col")) {
+          event = shiftColumns(shift, start);
+        } else if (name.equals("dimension") && attribute(start, "ref") != null) {
+          event = replaceAttributes(start, "ref", dimension(shift, attribute(start, "ref")));
+        } else {
+          event = shiftReferenceAttributes(shift, start);
+        }
+      } else if (event.isCharacters()) {
+        String text = event.asCharacters().getData();
+        if (inFormula) {
+          event = eventFactory.createCharacters(shift.formula(text));
+        }
+        if (inProteinCell && !inPhonetic && !inFormula) {
+          proteinText.append(text);
+        }
+      } else if (event.isEndElement()) {
+        String name = event.asEndElement().getName().getLocalPart();
+        if (name.equals("row") && !inserted) {
+          writeAnnotations(writer, prefix, rowIndex, proteinCell, twoDecimalsStyle);
+          inserted = true;
+        } else if (name.equals("f") || name.equals("formula") || name.equals("formula1")
+            || name.equals("formula2")) {
+          inFormula = false;
+        } else if (inProteinCell && name.equals("v") && !inInline) {
+          proteinValue = proteinText.toString();
+          proteinText.setLength(0);
+        } else if (inProteinCell && name.equals("rPh")) {
+          inPhonetic = false;
+        } else if (inProteinCell && name.equals("is")) {
+          proteinValue = proteinText.toString();
+          inInline = false;
+        } else if (inProteinCell && name.equals("c")) {
+          proteinCell = cell(proteinType, proteinValue, sharedStrings);
+          inProteinCell = false;
+        }
+      }
+      writer.add(event);
+    }
+    writer.flush();
+    writer.close();
+    reader.close();
+  }
+
+  private XlsxCell cell(String type, String value, List<String> sharedStrings)
+      throws IOException {
+    if (type == null || type.equals("n")) {
+      return value == null || value.isEmpty()
+          ? new XlsxCell(proteinColumn, XlsxCell.Type.BLANK, "", 0)
+          : new XlsxCell(proteinColumn, XlsxCell.Type.NUMERIC, value, 0);
+    }
+    switch (type) {
+      case "s":
+        if (value == null) {
+          return new XlsxCell(proteinColumn, XlsxCell.Type.BLANK, "", 0);
+        }
+        try {
+          return new XlsxCell(proteinColumn, XlsxCell.Type.STRING,
+              sharedStrings.get(Integer.parseInt(value.trim())), 0);
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+          throw new IOException("Invalid shared string index " + value, e);
+        }
+      case "b":
+        return new XlsxCell(proteinColumn, XlsxCell.Type.BOOLEAN,
+            "1".equals(value) || "true".equals(value) ? "1" : "0", 0);
+      case "e":
+        return new XlsxCell(proteinColumn, XlsxCell.Type.ERROR, value != null ? value : "", 0);
+      default:
+        return new XlsxCell(proteinColumn, XlsxCell.Type.STRING, value != null ? value : "", 0);
+    }
+  }
+
+  private void writeAnnotations(XMLEventWriter writer, String prefix, int rowIndex,
+      XlsxCell proteinCell, int twoDecimalsStyle) throws IOException, XMLStreamException {
+    List<Object> values = annotations.annotations(rowIndex, proteinCell);
+    for (int i = 0; i < values.size() && i < count; i++) {
+      Object value = values.get(i);
+      if (value == null || "".equals(value)) {
+        continue;
+      }
+      List<Attribute> attributes = new ArrayList<>();
+      attributes.add(eventFactory.createAttribute("r",
+          XlsxColumnShift.columnName(proteinColumn + 1 + i) + (rowIndex + 1)));
+      String valueElement = "v";
+      if (value instanceof String) {
+        attributes.add(eventFactory.createAttribute("t", "inlineStr"));
+        valueElement = "is";
+      } else if (value instanceof Double && twoDecimalsStyle >= 0) {
+        attributes.add(eventFactory.createAttribute("s", String.valueOf(twoDecimalsStyle)));
+      }
+      writer.add(eventFactory.createStartElement(prefix, MAIN_NAMESPACE, "c",
+          attributes.iterator(), null));
+      writer.add(eventFactory.createStartElement(prefix, MAIN_NAMESPACE, valueElement));
+      if (value instanceof String) {
+        // Keeps leading and trailing spaces of annotation.
+        List<Attribute> textAttributes = new ArrayList<>();
+        textAttributes.add(
+            eventFactory.createAttribute("xml", XMLConstants.XML_NS_URI, "space", "preserve"));
+        writer.add(eventFactory.createStartElement(prefix, MAIN_NAMESPACE, "t",
+            textAttributes.iterator(), null));
+        writer.add(eventFactory.createCharacters((String) value));
+        writer.add(eventFactory.createEndElement(prefix, MAIN_NAMESPACE, "t"));
+      } else {
+        writer.add(eventFactory.createCharacters(String.valueOf(value)));
+      }
+      writer.add(eventFactory.createEndElement(prefix, MAIN_NAMESPACE, valueElement));
+      writer.add(eventFactory.createEndElement(prefix, MAIN_NAMESPACE, "c"));
+    }
+  }
+
+  private XMLEvent shiftColumns(XlsxColumnShift shift, StartElement start) {
+    String min = attribute(start, "min");
+    String max = attribute(start, "max");
+    if (min == null || max == null) {
+      return start;
+    }
+    int minColumn = Integer.parseInt(min) - 1;
+    int maxColumn = Integer.parseInt(max) - 1;
+    XMLEvent event = replaceAttributes(start, "min", String.valueOf(shift.column(minColumn) + 1));
+    return replaceAttributes(event.asStartElement(), "max",
+        String.valueOf(Math.min(shift.column(maxColumn), XlsxColumnShift.MAX_COLUMN) + 1));
+  }
+
+  /**
+   * Returns shifted dimension of worksheet, widened to include annotation columns.
+   */
+  private String dimension(XlsxColumnShift shift, String reference) {
+    String shifted = shift.references(reference);
+    int colon = shifted.indexOf(':');
+    String first = colon >= 0 ? shifted.substring(0, colon) : shifted;
+    String last = colon >= 0 ? shifted.substring(colon + 1) : shifted;
+    String firstRow = first.replaceFirst("^\\$?[A-Za-z]+\\$?", "");
+    String lastRow = last.replaceFirst("^\\$?[A-Za-z]+\\$?", "");
+    if (firstRow.isEmpty() || lastRow.isEmpty() || firstRow.length() == first.length()
+        || lastRow.length() == last.length()) {
+      return shifted;
+    }
+    int firstColumn =
+        Math.min(XlsxColumnHandler.columnIndex(first.replace("$", "")), proteinColumn + 1);
+    int lastColumn = Math.max(XlsxColumnHandler.columnIndex(last.replace("$", "")),
+        Math.min(proteinColumn + count, XlsxColumnShift.MAX_COLUMN));
+    return XlsxColumnShift.columnName(firstColumn) + firstRow + ":"
+        + XlsxColumnShift.columnName(lastColumn) + lastRow;
+  }
+
+  private XMLEvent shiftReferenceAttributes(XlsxColumnShift shift, StartElement start) {
+    XMLEvent event = start;
+    for (String name : new String[] { "ref", "sqref", "activeCell", "topLeftCell" }) {
+      String value = attribute(event.asStartElement(), name);
+      if (value != null) {
+        event = replaceAttributes(event.asStartElement(), name, shift.references(value));
+      }
+    }
+    return event;
+  }
+
+  /**
+   * Returns number of cell formats in styles, which is also the index of the cell format added by
+   * {@link #writeStyles(ZipFile, String, OutputStream)}.
+   */
+  private int cellFormats(ZipFile zip, String part) throws IOException, XMLStreamException {
+    XMLEventReader reader = reader(zip, part);
+    int depth = 0;
+    int cellFormatsDepth = -1;
+    int cellFormats = 0;
+    while (reader.hasNext()) {
+      XMLEvent event = reader.nextEvent();
+      if (event.isStartElement()) {
+        depth++;
+        String name = event.asStartElement().getName().getLocalPart();
+        if (name.equals("cellXfs")) {
+          cellFormatsDepth = depth;
+        } else if (name.equals("xf") && depth == cellFormatsDepth + 1) {
+          cellFormats++;
+        }
+      } else if (event.isEndElement()) {
+        if (depth == cellFormatsDepth) {
+          cellFormatsDepth = -1;
+        }
+        depth--;
+      }
+    }
+    reader.close();
+    return cellFormats;
+  }
+
+  /**
+   * Adds a cell format with two decimals at the end of cell formats.
+   */
+  private void writeStyles(ZipFile zip, String part, OutputStream output)
+      throws IOException, XMLStreamException {
+    XMLEventReader reader = reader(zip, part);
+    XMLEventWriter writer = outputFactory.createXMLEventWriter(output, "UTF-8");
+    int depth = 0;
+    int cellFormatsDepth = -1;
+    while (reader.hasNext()) {
+      XMLEvent event = reader.nextEvent();
+      if (event.isStartElement()) {
+        depth++;
+        StartElement start = event.asStartElement();
+        String name = start.getName().getLocalPart();
+        if (name.equals("cellXfs")) {
+          cellFormatsDepth = depth;
+          String countValue = attribute(start, "count");
+          if (countValue != null) {
+            event = replaceAttributes(start, "count",
+                String.valueOf(Integer.parseInt(countValue) + 1));
+          }
+        }
+      } else if (event.isEndElement()) {
+        if (depth == cellFormatsDepth) {
+          String prefix = event.asEndElement().getName().getPrefix();
+          List<Attribute> attributes = new ArrayList<>();
+          attributes.add(eventFactory.createAttribute("numFmtId", TWO_DECIMALS_FORMAT));
+          attributes.add(eventFactory.createAttribute("fontId", "0"));
+          attributes.add(eventFactory.createAttribute("fillId", "0"));
+          attributes.add(eventFactory.createAttribute("borderId", "0"));
+          attributes.add(eventFactory.createAttribute("xfId", "0"));
+          attributes.add(eventFactory.createAttribute("applyNumberFormat", "1"));
+          writer.add(eventFactory.createStartElement(prefix, MAIN_NAMESPACE, "xf",
+              attributes.iterator(), null));
+          writer.add(eventFactory.createEndElement(prefix, MAIN_NAMESPACE, "xf"));
+          cellFormatsDepth = -1;
+        }
+        depth--;
+      }
+      writer.add(event);
+    }
+    writer.flush();
+    writer.close();
+    reader.close();
+  }
+
+  private void writeCalcChain(ZipFile zip, String part, OutputStream output,
+      XlsxColumnShift shift, String sheetId) throws IOException, XMLStreamException {
+    XMLEventReader reader = reader(zip, part);
+    XMLEventWriter writer = outputFactory.createXMLEventWriter(output, "UTF-8");
+    String currentSheetId = null;
+    while (reader.hasNext()) {
+      XMLEvent event = reader.nextEvent();
+      if (event.isStartElement() && event.asStartElement().getName().getLocalPart().equals("c")) {
+        StartElement start = event.asStartElement();
+        String id = attribute(start, "i");
+        if (id != null) {
+          currentSheetId = id;
+        }
+        String reference = attribute(start, "r");
+        if (reference != null && sheetId.equals(currentSheetId)) {
+          event = replaceAttributes(start, "r", shift.reference(reference));
+        }
+      }
+      writer.add(event);
+    }
+    writer.flush();
+    writer.close();
+    reader.close();
+  }
+
+  private List<String> sharedStrings(ZipFile zip, String part)
+      throws IOException, XMLStreamException {
+    List<String> sharedStrings = new ArrayList<>();
+    XMLEventReader reader = reader(zip, part);
+    StringBuilder text = new StringBuilder();
+    boolean inText = false;
+    boolean inPhonetic = false;
+    while (reader.hasNext()) {
+      XMLEvent event = reader.nextEvent();
+      if (event.isStartElement()) {
+        String name = event.asStartElement().getName().getLocalPart();
+        if (name.equals("si")) {
+          text.setLength(0);
+        } else if (name.equals("rPh")) {
+          inPhonetic = true;
+        } else if (name.equals("t") && !inPhonetic) {
+          inText = true;
+        }
+      } else if (event.isCharacters() && inText) {
+        text.append(event.asCharacters().getData());
+      } else if (event.isEndElement()) {
+        String name = event.asEndElement().getName().getLocalPart();
+        if (name.equals("si")) {
+          sharedStrings.add(text.toString());
+        } else if (name.equals("rPh")) {
+          inPhonetic = false;
+        } else if (name.equals("t")) {
+          inText = false;
+        }
+      }
+    }
+    reader.close();
+    return sharedStrings;
+  }
+
+  /**
+   * Returns relationship id, sheet id and name of first sheet of workbook.
+   */
+  private String[] firstSheet(ZipFile zip, String workbook)
+      throws IOException, XMLStreamException {
+    XMLEventReader reader = reader(zip, workbook);
+    try {
+      while (reader.hasNext()) {
+        XMLEvent event = reader.nextEvent();
+        if (event.isStartElement()
+            && event.asStartElement().getName().getLocalPart().equals("sheet")) {
+          StartElement start = event.asStartElement();
+          Attribute id = start.getAttributeByName(new QName(RELATIONSHIPS_NAMESPACE, "id"));
+          return id != null ? new String[] { id.getValue(), attribute(start, "sheetId"),
+              attribute(start, "name") } : null;
+        }
+      }
+      return null;
+    } finally {
+      reader.close();
+    }
+  }
+
+  private String relationshipTarget(ZipFile zip, String part, String type)
+      throws IOException, XMLStreamException {
+    Map<String, String> relationships = relationships(zip, part, type);
+    return relationships.isEmpty() ? null : relationships.values().iterator().next();
+  }
+
+  private Map<String, String> relationships(ZipFile zip, String part)
+      throws IOException, XMLStreamException {
+    return relationships(zip, part, null);
+  }
+
+  /**
+   * Returns targets of part's relationships, by relationship id, resolved against the part's
+   * location.
+   */
+  private Map<String, String> relationships(ZipFile zip, String part, String type)
+      throws IOException, XMLStreamException {
+    int slash = part.lastIndexOf('/');
+    String directory = slash >= 0 ? part.substring(0, slash + 1) : "";
+    String name = slash >= 0 ? part.substring(slash + 1) : part;
+    Map<String, String> relationships = new HashMap<>();
+    if (zip.getEntry(directory + "_rels/" + name + ".rels") == null) {
+      return relationships;
+    }
+    XMLEventReader reader = reader(zip, directory + "_rels/" + name + ".rels");
+    while (reader.hasNext()) {
+      XMLEvent event = reader.nextEvent();
+      if (event.isStartElement()
+          && event.asStartElement().getName().getLocalPart().equals("Relationship")) {
+        StartElement start = event.asStartElement();
+        if ((type == null || type.equals(attribute(start, "Type")))
+            && !"External".equals(attribute(start, "TargetMode"))) {
+          relationships.put(attribute(start, "Id"), resolve(directory, attribute(start, "Target")));
+        }
+      }
+    }
+    reader.close();
+    return relationships;
+  }
+
+  private String resolve(String directory, String target) {
+    String path = target.startsWith("/") ? target.substring(1) : directory + target;
+    List<String> names = new ArrayList<>();
+    for (String name : path.split("/")) {
+      if (name.equals("..")) {
+        if (!names.isEmpty()) {
+          names.remove(names.size() - 1);
+        }
+      } else if (!name.isEmpty() && !name.equals(".")) {
+        names.add(name);
+      }
+    }
+    return String.join("/", names);
+  }
+
+  private XMLEventReader reader(ZipFile zip, String part) throws IOException, XMLStreamException {
+    ZipEntry entry = zip.getEntry(part);
+    if (entry == null) {
+      throw new IOException("Part " + part + " not found");
+    }
+    return inputFactory.createXMLEventReader(zip.getInputStream(entry));
+  }
+
+  private String attribute(StartElement start, String name) {
+    Attribute attribute = start.getAttributeByName(new QName(name));
+    return attribute != null ? attribute.getValue() : null;
+  }
+
+  /**
+   * Returns element with attribute replaced, or removed if value is null.
+   */
+  private XMLEvent replaceAttributes(StartElement start, String name, String value) {
+    List<Attribute> attributes = new ArrayList<>();
+    Iterator<Attribute> iterator = start.getAttributes();
+    while (iterator.hasNext()) {
+      Attribute attribute = iterator.next();
+      if (attribute.getName().getLocalPart().equals(name)
+          && attribute.getName().getNamespaceURI().isEmpty()) {
+        if (value != null) {
+          attributes.add(eventFactory.createAttribute(name, value));
+        }
+      } else {
+        attributes.add(attribute);
+      }
+    }
+    return eventFactory.createStartElement(start.getName(), attributes.iterator(),
+        start.getNamespaces());
+  }
+}
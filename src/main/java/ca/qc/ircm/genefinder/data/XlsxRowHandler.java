@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads rows from the XML of an xlsx worksheet, one row at a time.
+ * <p>
+ * Only the current row is kept in memory. Formulas are not kept, cells containing a formula hold
+ * the formula's cached result.
+ * </p>
+ */
+class XlsxRowHandler extends DefaultHandler {
+  /**
+   * Receives rows of worksheet.
+   */
+  interface RowConsumer {
+    /**
+     * Called for each row of worksheet.
+     *
+     * @param index
+     *          index of row, starting at 0
+     * @param cells
+     *          cells of row, only valid during this call
+     * @throws SAXException
+     *           could not process row
+     */
+    void row(int index, List<XlsxCell> cells) throws SAXException;
+  }
+
+  private final IntFunction<String> sharedStrings;
+  private final RowConsumer rows;
+  private final List<XlsxCell> cells = new ArrayList<>();
+  private final StringBuilder text = new StringBuilder();
+  private int rowIndex = -1;
+  private int nextColumn;
+  private int column;
+  private String type;
+  private int style;
+  private String value;
+  private String inlineValue;
+  private boolean inCell;
+  private boolean inInline;
+  private boolean inPhonetic;
+  private boolean collectText;
+
+  /**
+   * Creates handler.
+   *
+   * @param sharedStrings
+   *          returns shared string at index
+   * @param rows
+   *          receives rows of worksheet
+   */
+  XlsxRowHandler(IntFunction<String> sharedStrings, RowConsumer rows) {
+    this.sharedStrings = sharedStrings;
+    this.rows = rows;
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qualifiedName,
+      Attributes attributes) throws SAXException {
+    String name = localName(qualifiedName);
+    if (name.equals("row")) {
+      String reference = attributes.getValue("r");
+      rowIndex = reference != null ? parseInt(reference, "row") - 1 : rowIndex + 1;
+      nextColumn = 0;
+      cells.clear();
+    } else if (name.equals("c")) {
+      String reference = attributes.getValue("r");
+      column = reference != null ? XlsxColumnHandler.columnIndex(reference) : nextColumn;
+      nextColumn = column + 1;
+      type = attributes.getValue("t");
+      String styleIndex = attributes.getValue("s");
+      style = styleIndex != null ? parseInt(styleIndex, "style") : 0;
+      value = null;
+      inlineValue = null;
+      inCell = true;
+    } else if (inCell && name.equals("v")) {
+      text.setLength(0);
+      collectText = true;
+    } else if (inCell && name.equals("is")) {
+      text.setLength(0);
+      inInline = true;
+    } else if (inInline && name.equals("rPh")) {
+      inPhonetic = true;
+    } else if (inInline && !inPhonetic && name.equals("t")) {
+      collectText = true;
+    }
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qualifiedName)
+      throws SAXException {
+    String name = localName(qualifiedName);
+    if (name.equals("row")) {
+      rows.row(rowIndex, cells);
+    } else if (!inCell) {
+      return;
+    } else if (name.equals("v")) {
+      value = text.toString();
+      collectText = false;
+    } else if (name.equals("t")) {
+      collectText = false;
+    } else if (name.equals("rPh")) {
+      inPhonetic = false;
+    } else if (name.equals("is")) {
+      inlineValue = text.toString();
+      inInline = false;
+    } else if (name.equals("c")) {
+      cells.add(cell());
+      inCell = false;
+    }
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) throws SAXException {
+    if (collectText) {
+      text.append(ch, start, length);
+    }
+  }
+
+  private XlsxCell cell() throws SAXException {
+    if (type == null || type.equals("n")) {
+      return value == null || value.isEmpty() ? new XlsxCell(column, XlsxCell.Type.BLANK, "", style)
+          : new XlsxCell(column, XlsxCell.Type.NUMERIC, value, style);
+    }
+    switch (type) {
+      case "s":
+        return value != null
+            ? new XlsxCell(column, XlsxCell.Type.STRING,
+                sharedStrings.apply(parseInt(value.trim(), "shared string")), style)
+            : new XlsxCell(column, XlsxCell.Type.BLANK, "", style);
+      case "inlineStr":
+        String inline = inlineValue != null ? inlineValue : value != null ? value : "";
+        return new XlsxCell(column, XlsxCell.Type.STRING, inline, style);
+      case "str":
+        return new XlsxCell(column, XlsxCell.Type.STRING, value != null ? value : "", style);
+      case "b":
+        return value != null
+            ? new XlsxCell(column, XlsxCell.Type.BOOLEAN,
+                value.equals("1") || value.equals("true") ? "1" : "0", style)
+            : new XlsxCell(column, XlsxCell.Type.BLANK, "", style);
+      case "e":
+        return new XlsxCell(column, XlsxCell.Type.ERROR, value != null ? value : "", style);
+      default:
+        return new XlsxCell(column, XlsxCell.Type.STRING, value != null ? value : "", style);
+    }
+  }
+
+  private int parseInt(String value, String name) throws SAXException {
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new SAXException("Invalid " + name + " index " + value, e);
+    }
+  }
+
+  private String localName(String qualifiedName) {
+    int colon = qualifiedName.indexOf(':');
+    return colon >= 0 ? qualifiedName.substring(colon + 1) : qualifiedName;
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.protein;
+
+/**
+ * Computes theoretical weight of a protein one residue at a time, without keeping the sequence.
+ */
+public class WeightAccumulator {
+  private static final double WATER_WEIGHT = 18.015;
+  private static final double[] AMINO_ACID_WEIGHTS = new double[128];
+
+  static {
+    AMINO_ACID_WEIGHTS['A'] = 71.08;
+    AMINO_ACID_WEIGHTS['C'] = 103.14;
+    AMINO_ACID_WEIGHTS['D'] = 115.09;
+    AMINO_ACID_WEIGHTS['E'] = 129.12;
+    AMINO_ACID_WEIGHTS['F'] = 147.18;
+    AMINO_ACID_WEIGHTS['G'] = 57.06;
+    AMINO_ACID_WEIGHTS['H'] = 137.15;
+    AMINO_ACID_WEIGHTS['I'] = 113.17;
+    AMINO_ACID_WEIGHTS['K'] = 128.18;
+    AMINO_ACID_WEIGHTS['L'] = 113.17;
+    AMINO_ACID_WEIGHTS['M'] = 131.21;
+    AMINO_ACID_WEIGHTS['N'] = 114.11;
+    AMINO_ACID_WEIGHTS['P'] = 97.12;
+    AMINO_ACID_WEIGHTS['Q'] = 128.41;
+    AMINO_ACID_WEIGHTS['R'] = 156.20;
+    AMINO_ACID_WEIGHTS['S'] = 87.08;
+    AMINO_ACID_WEIGHTS['T'] = 101.11;
+    AMINO_ACID_WEIGHTS['V'] = 99.14;
+    AMINO_ACID_WEIGHTS['W'] = 186.21;
+    AMINO_ACID_WEIGHTS['Y'] = 163.18;
+    for (char aa = 'A'; aa <= 'Z'; aa++) {
+      AMINO_ACID_WEIGHTS[Character.toLowerCase(aa)] = AMINO_ACID_WEIGHTS[aa];
+    }
+  }
+
+  private double weight;
+
+  /**
+   * Adds residue to protein, characters that are not amino acids are ignored.
+   *
+   * @param residue
+   *          residue, as an ASCII character
+   */
+  public void add(int residue) {
+    if (residue >= 0 && residue < AMINO_ACID_WEIGHTS.length) {
+      weight += AMINO_ACID_WEIGHTS[residue];
+    }
+  }
+
+  /**
+   * Returns theoretical weight of protein in kilo Dalton.
+   *
+   * @return theoretical weight of protein in kilo Dalton
+   */
+  public double weight() {
+    return (weight > 0 ? weight + WATER_WEIGHT : weight) / 1000;
+  }
+
+  /**
+   * Removes all residues, so that accumulator can be used for another protein.
+   */
+  public void reset() {
+    weight = 0;
+  }
+}
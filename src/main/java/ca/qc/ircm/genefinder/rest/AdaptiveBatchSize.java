@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.rest;
+
+import jakarta.ws.rs.WebApplicationException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Number of ids to send per request to a REST service, adapted to service's latency.
+ * <p>
+ * Batch size grows while latency per id improves and goes back to the best batch size when a
+ * larger batch does not improve latency per id. Batch size is halved when a request times out or
+ * fails with a server error. Best batch size is probed again periodically, since service's
+ * latency changes over time.
+ * </p>
+ * <p>
+ * Latency includes time spent waiting for rate limits, so larger batches are favored when rate
+ * limits dominate.
+ * </p>
+ */
+public class AdaptiveBatchSize {
+  static final double GROWTH = 1.25;
+  static final double IMPROVEMENT = 0.95;
+  static final double SMOOTHING = 0.3;
+  static final int SAMPLES_PER_SIZE = 2;
+  static final int PROBE_INTERVAL = 50;
+  private static final Logger logger = LoggerFactory.getLogger(AdaptiveBatchSize.class);
+  private final String name;
+  private final int max;
+  private int size;
+  private int bestSize;
+  private double bestNanosPerId = Double.NaN;
+  private double nanosPerId = Double.NaN;
+  private int samples;
+  private int stableSamples;
+  private long batches;
+  private long failures;
+
+  /**
+   * Creates adaptive batch size.
+   *
+   * @param name
+   *          name of service, for metrics
+   * @param initial
+   *          initial batch size
+   * @param max
+   *          maximum batch size accepted by service
+   */
+  public AdaptiveBatchSize(String name, int initial, int max) {
+    if (max < 1) {
+      throw new IllegalArgumentException("max must be at least 1");
+    }
+    this.name = name;
+    this.max = max;
+    this.size = Math.max(1, Math.min(initial, max));
+    this.bestSize = size;
+  }
+
+  /**
+   * Sends request and records its latency.
+   *
+   * @param ids
+   *          number of ids sent in request
+   * @param request
+   *          request
+   * @param <R>
+   *          result type
+   * @return request's result
+   * @throws Exception
+   *           request failed
+   */
+  public <R> R measure(int ids, Callable<R> request) throws Exception {
+    long start = System.nanoTime();
+    R result;
+    try {
+      result = request.call();
+    } catch (Exception e) {
+      if (overloaded(e)) {
+        failure();
+      }
+      throw e;
+    }
+    success(ids, System.nanoTime() - start);
+    return result;
+  }
+
+  /**
+   * Splits ids into batches of current batch size.
+   *
+   * @param count
+   *          number of ids
+   * @return index of first id of each batch, followed by number of ids
+   */
+  public int[] boundaries(int count) {
+    int size = size();
+    int batches = (count + size - 1) / size;
+    int[] boundaries = new int[batches + 1];
+    for (int i = 0; i < batches; i++) {
+      boundaries[i] = i * size;
+    }
+    boundaries[batches] = count;
+    return boundaries;
+  }
+
+  /**
+   * Records a successful request.
+   *
+   * @param ids
+   *          number of ids sent in request
+   * @param nanos
+   *          latency of request, in nanoseconds
+   */
+  public synchronized void success(int ids, long nanos) {
+    batches++;
+    if (ids < Math.max(size / 2, 1)) {
+      // Small batches, like the last batch, do not represent current batch size.
+      return;
+    }
+    double latency = (double) nanos / ids;
+    nanosPerId = samples == 0 ? latency : nanosPerId + SMOOTHING * (latency - nanosPerId);
+    if (++samples < SAMPLES_PER_SIZE) {
+      return;
+    }
+    if (Double.isNaN(bestNanosPerId) || nanosPerId < bestNanosPerId * IMPROVEMENT) {
+      bestNanosPerId = nanosPerId;
+      bestSize = size;
+      resize(Math.max(size + 1, (int) (size * GROWTH)));
+    } else if (size != bestSize) {
+      resize(bestSize);
+    } else if (++stableSamples >= PROBE_INTERVAL) {
+      // Probe larger batch sizes again on next request.
+      bestNanosPerId = Double.NaN;
+      stableSamples = 0;
+    }
+  }
+
+  /**
+   * Records a request that timed out or failed with a server error.
+   */
+  public synchronized void failure() {
+    batches++;
+    failures++;
+    bestNanosPerId = Double.NaN;
+    bestSize = Math.max(size / 2, 1);
+    resize(bestSize);
+  }
+
+  private void resize(int newSize) {
+    newSize = Math.max(1, Math.min(newSize, max));
+    if (newSize != size) {
+      logger.debug("Batch size of {} changed from {} to {}", name, size, newSize);
+      size = newSize;
+    }
+    samples = 0;
+    stableSamples = 0;
+  }
+
+  private boolean overloaded(Throwable exception) {
+    for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SocketTimeoutException) {
+        return true;
+      }
+      if (cause instanceof WebApplicationException
+          && ((WebApplicationException) cause).getResponse() != null
+          && ((WebApplicationException) cause).getResponse().getStatus() >= 500) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns name of service.
+   *
+   * @return name of service
+   */
+  public String name() {
+    return name;
+  }
+
+  /**
+   * Returns number of ids to send in next request.
+   *
+   * @return number of ids to send in next request
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Returns maximum batch size accepted by service.
+   *
+   * @return maximum batch size accepted by service
+   */
+  public int max() {
+    return max;
+  }
+
+  /**
+   * Returns average latency per id of recent requests, or null if no request completed.
+   *
+   * @return average latency per id of recent requests, or null if no request completed
+   */
+  public synchronized Duration latencyPerId() {
+    return Double.isNaN(nanosPerId) ? null : Duration.ofNanos((long) nanosPerId);
+  }
+
+  /**
+   * Returns number of requests recorded.
+   *
+   * @return number of requests recorded
+   */
+  public synchronized long batches() {
+    return batches;
+  }
+
+  /**
+   * Returns number of requests that timed out or failed with a server error.
+   *
+   * @return number of requests that timed out or failed with a server error
+   */
+  public synchronized long failures() {
+    return failures;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "AdaptiveBatchSize [name=" + name + ", size=" + size + ", max=" + max
+        + ", latencyPerId=" + latencyPerId() + ", batches=" + batches + ", failures=" + failures
+        + "]";
+  }
+}
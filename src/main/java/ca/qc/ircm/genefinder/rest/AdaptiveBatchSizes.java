@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.stereotype.Component;
+
+/**
+ * Adaptive batch sizes of REST services, kept for the lifetime of the application.
+ */
+@Component
+public class AdaptiveBatchSizes {
+  private final Map<String, AdaptiveBatchSize> batchSizes = new ConcurrentHashMap<>();
+
+  /**
+   * Returns adaptive batch size of service, creating it if needed.
+   *
+   * @param name
+   *          name of service
+   * @param initial
+   *          initial batch size, used when batch size is created
+   * @param max
+   *          maximum batch size accepted by service, used when batch size is created
+   * @return adaptive batch size of service
+   */
+  public AdaptiveBatchSize get(String name, int initial, int max) {
+    return batchSizes.computeIfAbsent(name, key -> new AdaptiveBatchSize(key, initial, max));
+  }
+
+  /**
+   * Returns all adaptive batch sizes, for metrics.
+   *
+   * @return all adaptive batch sizes
+   */
+  public List<AdaptiveBatchSize> all() {
+    return new ArrayList<>(batchSizes.values());
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.rest;
+
+import jakarta.ws.rs.client.ClientRequestContext;
+import jakarta.ws.rs.client.ClientRequestFilter;
+import jakarta.ws.rs.client.ClientResponseContext;
+import jakarta.ws.rs.client.ClientResponseFilter;
+import jakarta.ws.rs.core.HttpHeaders;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Asks servers to compress responses and decompresses responses while they are read.
+ * <p>
+ * Sizes of response bodies are recorded in {@link TransferStatistics} when response bodies are
+ * closed.
+ * </p>
+ */
+public class ContentEncodingFilter implements ClientRequestFilter, ClientResponseFilter {
+  public static final String ACCEPT_ENCODING = "gzip, deflate";
+  private static final String GZIP = "gzip";
+  private static final String X_GZIP = "x-gzip";
+  private static final String DEFLATE = "deflate";
+  private static final String IDENTITY = "identity";
+  private final TransferStatistics transferStatistics;
+
+  public ContentEncodingFilter(TransferStatistics transferStatistics) {
+    this.transferStatistics = transferStatistics;
+  }
+
+  @Override
+  public void filter(ClientRequestContext request) throws IOException {
+    if (!request.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+      request.getHeaders().putSingle(HttpHeaders.ACCEPT_ENCODING, ACCEPT_ENCODING);
+    }
+  }
+
+  @Override
+  public void filter(ClientRequestContext request, ClientResponseContext response)
+      throws IOException {
+    if (!response.hasEntity()) {
+      return;
+    }
+    String encoding = response.getHeaderString(HttpHeaders.CONTENT_ENCODING);
+    encoding = encoding != null ? encoding.trim().toLowerCase(Locale.ENGLISH) : IDENTITY;
+    final CountingInputStream received = new CountingInputStream(response.getEntityStream());
+    InputStream decoded;
+    if (encoding.isEmpty() || encoding.equals(IDENTITY)) {
+      decoded = received;
+    } else if (encoding.equals(GZIP) || encoding.equals(X_GZIP)) {
+      decoded = new GZIPInputStream(received);
+    } else if (encoding.equals(DEFLATE)) {
+      decoded = new InflaterInputStream(received);
+    } else {
+      // Unknown encoding, let client handle it.
+      return;
+    }
+    response.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+    if (decoded != received) {
+      response.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+    }
+    response.setEntityStream(new CountingInputStream(decoded) {
+      private boolean recorded;
+
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          if (!recorded) {
+            recorded = true;
+            transferStatistics.record(received.count, count);
+          }
+        }
+      }
+    });
+  }
+
+  private static class CountingInputStream extends FilterInputStream {
+    protected long count;
+
+    private CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int read = super.read();
+      if (read != -1) {
+        count++;
+      }
+      return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        count += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+}
@@ -19,8 +19,19 @@ package ca.qc.ircm.genefinder.rest;
 
 import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.client.ClientBuilder;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.apache.connector.ApacheHttpClientBuilderConfigurator;
+import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+import org.glassfish.jersey.logging.LoggingFeature;
 import org.springframework.stereotype.Component;
 
 /**
@@ -30,23 +41,75 @@ import org.springframework.stereotype.Component;
 public class RestClientFactory {
   @Inject
   private RestConfiguration restConfiguration;
+  @Inject
+  private TransferStatistics transferStatistics;
+  private Client client;
 
   protected RestClientFactory() {
   }
 
-  protected RestClientFactory(RestConfiguration restConfiguration) {
+  protected RestClientFactory(RestConfiguration restConfiguration,
+      TransferStatistics transferStatistics) {
     this.restConfiguration = restConfiguration;
+    this.transferStatistics = transferStatistics;
   }
 
   /**
-   * Creates an instance of REST client.
-   * 
-   * @return REST client
+   * Returns REST client shared by all services.
+   * <p>
+   * Shared client keeps connections alive between requests, so callers must not close it.
+   * </p>
+   *
+   * @return REST client shared by all services
    */
-  public Client createClient() {
-    Client client = ClientBuilder.newClient();
-    client.property(ClientProperties.CONNECT_TIMEOUT, restConfiguration.timeout());
-    client.property(ClientProperties.READ_TIMEOUT, restConfiguration.timeout());
+  public synchronized Client client() {
+    if (client == null) {
+      client = createClient();
+    }
     return client;
   }
+
+  private Client createClient() {
+    PoolingHttpClientConnectionManager connectionManager =
+        new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(restConfiguration.maxConnections());
+    connectionManager.setDefaultMaxPerRoute(restConfiguration.maxConnectionsPerRoute());
+    final long keepAlive = restConfiguration.keepAlive();
+    ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+      long duration =
+          DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+      return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+    };
+    ClientConfig configuration = new ClientConfig();
+    configuration.connectorProvider(new ApacheConnectorProvider());
+    // ContentEncodingFilter decompresses responses so it can record compression savings.
+    configuration.register(new DisableContentCompression());
+    configuration.property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager);
+    configuration.property(ApacheClientProperties.KEEPALIVE_STRATEGY, keepAliveStrategy);
+    // Sends Content-Length instead of chunked request bodies.
+    configuration.property(ClientProperties.REQUEST_ENTITY_PROCESSING,
+        RequestEntityProcessing.BUFFERED);
+    configuration.property(ClientProperties.CONNECT_TIMEOUT, restConfiguration.timeout());
+    configuration.property(ClientProperties.READ_TIMEOUT, restConfiguration.timeout());
+    configuration.register(new ContentEncodingFilter(transferStatistics));
+    configuration.register(LoggingFeature.class);
+    configuration.property(LoggingFeature.LOGGING_FEATURE_VERBOSITY_CLIENT,
+        LoggingFeature.Verbosity.HEADERS_ONLY);
+    return ClientBuilder.newClient(configuration);
+  }
+
+  @PreDestroy
+  protected synchronized void close() {
+    if (client != null) {
+      client.close();
+      client = null;
+    }
+  }
+
+  private static class DisableContentCompression implements ApacheHttpClientBuilderConfigurator {
+    @Override
+    public HttpClientBuilder configure(HttpClientBuilder httpClientBuilder) {
+      return httpClientBuilder.disableContentCompression();
+    }
+  }
 }
@@ -27,4 +27,57 @@ public interface RestConfiguration {
    * @return timeout for REST requests
    */
   public int timeout();
+
+  /**
+   * Returns maximum number of connections kept in REST client's connection pool.
+   *
+   * @return maximum number of connections kept in REST client's connection pool
+   */
+  public int maxConnections();
+
+  /**
+   * Returns maximum number of connections kept in REST client's connection pool for a single
+   * host.
+   *
+   * @return maximum number of connections kept in REST client's connection pool for a single host
+   */
+  public int maxConnectionsPerRoute();
+
+  /**
+   * Returns how long, in milliseconds, idle connections are kept alive.
+   *
+   * @return how long, in milliseconds, idle connections are kept alive
+   */
+  public int keepAlive();
+
+  /**
+   * Returns number of retries after failures to connect to a REST service.
+   *
+   * @return number of retries after failures to connect to a REST service
+   */
+  public int connectRetries();
+
+  /**
+   * Returns number of retries after other failures of a REST request, like timeouts and error
+   * responses.
+   *
+   * @return number of retries after other failures of a REST request
+   */
+  public int readRetries();
+
+  /**
+   * Returns delay, in milliseconds, before first retry of a REST request. Delay doubles after each
+   * retry.
+   *
+   * @return delay, in milliseconds, before first retry of a REST request
+   */
+  public int retryDelay();
+
+  /**
+   * Returns maximum delay, in milliseconds, between retries of a REST request, unless service asks
+   * for a longer delay using Retry-After.
+   *
+   * @return maximum delay, in milliseconds, between retries of a REST request
+   */
+  public int maxRetryDelay();
 }
@@ -27,12 +27,54 @@ import org.springframework.context.annotation.Configuration;
 public class RestConfigurationSpringBoot implements RestConfiguration {
   public static final String PREFIX = "rest";
   private int timeout;
+  private int maxConnections;
+  private int maxConnectionsPerRoute;
+  private int keepAlive;
+  private int connectRetries;
+  private int readRetries;
+  private int retryDelay;
+  private int maxRetryDelay;
 
   @Override
   public int timeout() {
     return timeout;
   }
 
+  @Override
+  public int maxConnections() {
+    return maxConnections;
+  }
+
+  @Override
+  public int maxConnectionsPerRoute() {
+    return maxConnectionsPerRoute;
+  }
+
+  @Override
+  public int keepAlive() {
+    return keepAlive;
+  }
+
+  @Override
+  public int connectRetries() {
+    return connectRetries;
+  }
+
+  @Override
+  public int readRetries() {
+    return readRetries;
+  }
+
+  @Override
+  public int retryDelay() {
+    return retryDelay;
+  }
+
+  @Override
+  public int maxRetryDelay() {
+    return maxRetryDelay;
+  }
+
   public int getTimeout() {
     return timeout;
   }
@@ -40,4 +82,60 @@ public class RestConfigurationSpringBoot implements RestConfiguration {
   public void setTimeout(int timeout) {
     this.timeout = timeout;
   }
+
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
+  public int getMaxConnectionsPerRoute() {
+    return maxConnectionsPerRoute;
+  }
+
+  public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+    this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+  }
+
+  public int getKeepAlive() {
+    return keepAlive;
+  }
+
+  public void setKeepAlive(int keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
+  public int getConnectRetries() {
+    return connectRetries;
+  }
+
+  public void setConnectRetries(int connectRetries) {
+    this.connectRetries = connectRetries;
+  }
+
+  public int getReadRetries() {
+    return readRetries;
+  }
+
+  public void setReadRetries(int readRetries) {
+    this.readRetries = readRetries;
+  }
+
+  public int getRetryDelay() {
+    return retryDelay;
+  }
+
+  public void setRetryDelay(int retryDelay) {
+    this.retryDelay = retryDelay;
+  }
+
+  public int getMaxRetryDelay() {
+    return maxRetryDelay;
+  }
+
+  public void setMaxRetryDelay(int maxRetryDelay) {
+    this.maxRetryDelay = maxRetryDelay;
+  }
 }
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.rest;
+
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.client.ResponseProcessingException;
+import jakarta.ws.rs.core.Response;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retries failed requests to a REST service.
+ * <p>
+ * Delay between tries grows exponentially, with random jitter so that concurrent requests do not
+ * retry at the same time. When service answers 429 (Too Many Requests) or 503 (Service
+ * Unavailable) with a Retry-After header, the next try waits at least that long.
+ * </p>
+ * <p>
+ * Only transient failures are retried: I/O errors and responses 408 (Request Timeout), 429 (Too
+ * Many Requests) and 5xx. Other error responses, like 400 (Bad Request) or 404 (Not Found), fail
+ * immediately because sending the same request again would fail the same way.
+ * </p>
+ * <p>
+ * Failures to connect and failures after the connection is established have separate retry
+ * budgets. A service that cannot be reached fails fast, while a slow or throttling service gets
+ * its own budget.
+ * </p>
+ */
+public class RetryPolicy {
+  /**
+   * Longest Retry-After honored, longer values are probably a misconfigured server.
+   */
+  static final Duration MAX_RETRY_AFTER = Duration.ofMinutes(10);
+  private static final Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+  private final int connectRetries;
+  private final int readRetries;
+  private final Duration delay;
+  private final Duration maxDelay;
+  private final Random random;
+
+  /**
+   * Creates retry policy.
+   *
+   * @param connectRetries
+   *          number of retries after failures to connect to service
+   * @param readRetries
+   *          number of retries after other failures, including timeouts and error responses
+   * @param delay
+   *          delay before first retry, doubled after each retry
+   * @param maxDelay
+   *          maximum delay between tries, ignoring Retry-After
+   */
+  public RetryPolicy(int connectRetries, int readRetries, Duration delay, Duration maxDelay) {
+    this(connectRetries, readRetries, delay, maxDelay, null);
+  }
+
+  RetryPolicy(int connectRetries, int readRetries, Duration delay, Duration maxDelay,
+      Random random) {
+    this.connectRetries = Math.max(connectRetries, 0);
+    this.readRetries = Math.max(readRetries, 0);
+    this.delay = delay;
+    this.maxDelay = maxDelay;
+    this.random = random;
+  }
+
+  /**
+   * Sends request, retrying it until it succeeds, fails with an error that is not
+   * {@link #retryable(Throwable) retryable} or retry budget is exhausted.
+   *
+   * @param request
+   *          request
+   * @param <R>
+   *          result type
+   * @return request's result
+   * @throws Exception
+   *           first failure of request, if all tries failed, or failure that is not retryable
+   */
+  public <R> R call(Callable<R> request) throws Exception {
+    int connectFailures = 0;
+    int readFailures = 0;
+    Exception firstException = null;
+    while (true) {
+      try {
+        return request.call();
+      } catch (Exception e) {
+        if (e instanceof InterruptedException) {
+          throw e;
+        }
+        if (!retryable(e)) {
+          throw e;
+        }
+        if (firstException == null) {
+          firstException = e;
+        }
+        boolean exhausted = connectFailure(e) ? connectFailures++ >= connectRetries
+            : readFailures++ >= readRetries;
+        if (exhausted) {
+          throw firstException;
+        }
+        Duration wait = delay(connectFailures + readFailures - 1, e);
+        logger.trace("Caught {} exception {}, retry in {} millis", e.getClass(), e.getMessage(),
+            wait.toMillis());
+        Thread.sleep(wait.toMillis());
+      }
+    }
+  }
+
+  /**
+   * Returns delay before next try.
+   *
+   * @param retry
+   *          number of previous retries
+   * @param exception
+   *          failure of last try
+   * @return delay before next try
+   */
+  Duration delay(int retry, Exception exception) {
+    long cap = delay.toMillis() << Math.min(retry, 30);
+    if (cap < 0 || cap > maxDelay.toMillis()) {
+      cap = maxDelay.toMillis();
+    }
+    // Waits at least half of delay, so that throttled requests do not retry immediately.
+    long half = cap / 2;
+    Duration backoff = Duration.ofMillis(half + (long) (random().nextDouble() * (cap - half)));
+    Duration retryAfter = retryAfter(exception, Instant.now());
+    return retryAfter != null && retryAfter.compareTo(backoff) > 0 ? retryAfter : backoff;
+  }
+
+  private Random random() {
+    return random != null ? random : ThreadLocalRandom.current();
+  }
+
+  /**
+   * Returns true if request that failed with exception may succeed if it is sent again.
+   * <p>
+   * Error responses are retryable if their status is 408 (Request Timeout), 429 (Too Many
+   * Requests) or 5xx. Other exceptions are retryable if they were caused by an I/O error.
+   * </p>
+   *
+   * @param exception
+   *          exception
+   * @return true if request that failed with exception may succeed if it is sent again
+   */
+  public static boolean retryable(Throwable exception) {
+    Response response = response(exception);
+    if (response != null) {
+      int status = response.getStatus();
+      return status >= 500 || status == 408 || status == 429;
+    }
+    for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+      if (cause instanceof IOException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if exception was caused by a failure to connect to service.
+   *
+   * @param exception
+   *          exception
+   * @return true if exception was caused by a failure to connect to service
+   */
+  public static boolean connectFailure(Throwable exception) {
+    for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+      if (cause instanceof ConnectException || cause instanceof NoRouteToHostException
+          || cause instanceof UnknownHostException || cause instanceof ConnectTimeoutException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns delay requested by service in Retry-After header of a 429 or 503 response, or null if
+   * service did not request a delay.
+   *
+   * @param exception
+   *          exception
+   * @param now
+   *          current time, for Retry-After containing a date
+   * @return delay requested by service, or null if service did not request a delay
+   */
+  static Duration retryAfter(Throwable exception, Instant now) {
+    Response response = response(exception);
+    if (response == null || (response.getStatus() != 429 && response.getStatus() != 503)) {
+      return null;
+    }
+    String value = response.getHeaderString("Retry-After");
+    if (value == null || value.trim().isEmpty()) {
+      return null;
+    }
+    value = value.trim();
+    Duration retryAfter;
+    try {
+      if (value.chars().allMatch(Character::isDigit)) {
+        retryAfter = Duration.ofSeconds(Long.parseLong(value));
+      } else {
+        ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+        retryAfter = Duration.between(now, date.toInstant());
+      }
+    } catch (NumberFormatException | DateTimeParseException e) {
+      logger.debug("Could not parse Retry-After header {}", value);
+      return null;
+    }
+    if (retryAfter.isNegative()) {
+      return Duration.ZERO;
+    }
+    return retryAfter.compareTo(MAX_RETRY_AFTER) > 0 ? MAX_RETRY_AFTER : retryAfter;
+  }
+
+  private static Response response(Throwable exception) {
+    for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+      if (cause instanceof WebApplicationException
+          && ((WebApplicationException) cause).getResponse() != null) {
+        return ((WebApplicationException) cause).getResponse();
+      }
+      if (cause instanceof ResponseProcessingException
+          && ((ResponseProcessingException) cause).getResponse() != null) {
+        return ((ResponseProcessingException) cause).getResponse();
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.rest;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Statistics of response bodies received by REST client.
+ */
+@Component
+public class TransferStatistics {
+  private long receivedBytes;
+  private long decodedBytes;
+
+  /**
+   * Records a response body.
+   *
+   * @param received
+   *          number of bytes received, before decompression
+   * @param decoded
+   *          number of bytes read by client, after decompression
+   */
+  public synchronized void record(long received, long decoded) {
+    receivedBytes += received;
+    decodedBytes += decoded;
+  }
+
+  /**
+   * Returns number of bytes received, before decompression.
+   *
+   * @return number of bytes received, before decompression
+   */
+  public synchronized long receivedBytes() {
+    return receivedBytes;
+  }
+
+  /**
+   * Returns number of bytes read by client, after decompression.
+   *
+   * @return number of bytes read by client, after decompression
+   */
+  public synchronized long decodedBytes() {
+    return decodedBytes;
+  }
+
+  /**
+   * Returns number of bytes that compression saved.
+   *
+   * @return number of bytes that compression saved
+   */
+  public synchronized long savedBytes() {
+    return decodedBytes - receivedBytes;
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only index of records by key, backed by a memory-mapped file.
+ * <p>
+ * Index file contains records followed by keys sorted in ascending order. Each key references
+ * the position of a record. File is mapped in segments, so index files can be larger than 2 GB.
+ * </p>
+ * <p>
+ * Use {@link RecordIndexWriter} to create index files. Instances are safe for use by multiple
+ * concurrent threads.
+ * </p>
+ */
+public class RecordIndex implements Closeable {
+  static final int MAGIC = 0x47464958;
+  static final int VERSION = 1;
+  static final int SEGMENT_SIZE = 1 << 30;
+  static final int KEY_SIZE = Long.BYTES * 2;
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private final FileChannel channel;
+  private final String metadata;
+  private final long count;
+  private final long keysPosition;
+  private final MappedByteBuffer[] segments;
+
+  private RecordIndex(FileChannel channel) throws IOException {
+    this.channel = channel;
+    ByteBuffer header = ByteBuffer.allocate(Integer.BYTES * 3);
+    read(header, 0);
+    if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+      throw new IOException("File is not an index or was created by another version");
+    }
+    ByteBuffer metadataBytes = ByteBuffer.allocate(header.getInt());
+    read(metadataBytes, header.capacity());
+    metadata = new String(metadataBytes.array(), StandardCharsets.UTF_8);
+    ByteBuffer keysHeader = ByteBuffer.allocate(Long.BYTES * 2);
+    read(keysHeader, header.capacity() + metadataBytes.capacity());
+    count = keysHeader.getLong();
+    keysPosition = keysHeader.getLong();
+    if (keysPosition + count * KEY_SIZE > channel.size()) {
+      throw new IOException("Index file is truncated");
+    }
+    segments = new MappedByteBuffer[(int) ((channel.size() + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+  }
+
+  /**
+   * Opens index file.
+   *
+   * @param file
+   *          index file
+   * @return index
+   * @throws IOException
+   *           could not open index file or file is not an index
+   */
+  public static RecordIndex open(Path file) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      return new RecordIndex(channel);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns a 64-bit key for text values, like protein accessions.
+   * <p>
+   * Keys are FNV-1a hashes, so different values can have the same key. Records should contain the
+   * value to discard collisions.
+   * </p>
+   *
+   * @param value
+   *          value
+   * @return 64-bit key for value
+   */
+  public static long key(CharSequence value) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= FNV_PRIME;
+    }
+    return hash;
+  }
+
+  private void read(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Index file is truncated");
+      }
+    }
+    buffer.flip();
+  }
+
+  private synchronized MappedByteBuffer segment(int index) throws IOException {
+    if (segments[index] == null) {
+      long start = (long) index * SEGMENT_SIZE;
+      segments[index] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+          Math.min(SEGMENT_SIZE, channel.size() - start));
+    }
+    return segments[index];
+  }
+
+  private long key(long index) throws IOException {
+    long position = keysPosition + index * KEY_SIZE;
+    return segment((int) (position / SEGMENT_SIZE)).getLong((int) (position % SEGMENT_SIZE));
+  }
+
+  private byte[] record(long index) throws IOException {
+    long position = keysPosition + index * KEY_SIZE + Long.BYTES;
+    long offset =
+        segment((int) (position / SEGMENT_SIZE)).getLong((int) (position % SEGMENT_SIZE));
+    ByteBuffer segment = segment((int) (offset / SEGMENT_SIZE)).duplicate();
+    segment.position((int) (offset % SEGMENT_SIZE));
+    byte[] record = new byte[segment.getInt()];
+    segment.get(record);
+    return record;
+  }
+
+  /**
+   * Returns metadata saved in index when index was created.
+   *
+   * @return metadata saved in index when index was created
+   */
+  public String metadata() {
+    return metadata;
+  }
+
+  /**
+   * Returns number of records in index.
+   *
+   * @return number of records in index
+   */
+  public long size() {
+    return count;
+  }
+
+  /**
+   * Returns all records with specified key, in the order they were added to index.
+   *
+   * @param key
+   *          key
+   * @return all records with specified key, empty if no record has specified key
+   * @throws IOException
+   *           could not read index file
+   */
+  public List<byte[]> records(long key) throws IOException {
+    // Binary search for first key that is not less than searched key.
+    long low = 0;
+    long high = count;
+    while (low < high) {
+      long middle = (low + high) >>> 1;
+      if (key(middle) < key) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    List<byte[]> records = new ArrayList<>();
+    for (long i = low; i < count && key(i) == key; i++) {
+      records.add(record(i));
+    }
+    return records;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Writes a {@link RecordIndex} file.
+ * <p>
+ * Index is written to a temporary file that replaces index file when writer is closed. Memory
+ * usage is bounded: when too many keys were added, keys are sorted and saved in temporary run
+ * files that are merged when writer is closed.
+ * </p>
+ */
+public class RecordIndexWriter implements Closeable {
+  static final int MAX_KEYS_IN_MEMORY = 1 << 22;
+  private final Path file;
+  private final Path temporary;
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+  private final long countPosition;
+  private final int maxKeysInMemory;
+  private final List<Path> runs = new ArrayList<>();
+  private long position;
+  private long[] keys = new long[1024];
+  private long[] offsets = new long[1024];
+  private int count;
+  private long total;
+  private boolean closed;
+
+  /**
+   * Creates a writer for index file.
+   *
+   * @param file
+   *          index file
+   * @param metadata
+   *          metadata saved in index, see {@link RecordIndex#metadata()}
+   * @throws IOException
+   *           could not create index file
+   */
+  public RecordIndexWriter(Path file, String metadata) throws IOException {
+    this(file, metadata, MAX_KEYS_IN_MEMORY);
+  }
+
+  RecordIndexWriter(Path file, String metadata, int maxKeysInMemory) throws IOException {
+    this.file = file;
+    this.temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    this.maxKeysInMemory = maxKeysInMemory;
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+    channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    byte[] metadataBytes = metadata.getBytes(StandardCharsets.UTF_8);
+    buffer.putInt(RecordIndex.MAGIC);
+    buffer.putInt(RecordIndex.VERSION);
+    buffer.putInt(metadataBytes.length);
+    buffer.put(metadataBytes);
+    // Count and position of keys are written when writer is closed.
+    countPosition = buffer.position();
+    buffer.putLong(0);
+    buffer.putLong(0);
+    position = buffer.position();
+  }
+
+  /**
+   * Adds a record to index.
+   * <p>
+   * Many records can be added with the same key.
+   * </p>
+   *
+   * @param key
+   *          key
+   * @param record
+   *          record
+   * @throws IOException
+   *           could not write record
+   */
+  public void add(long key, byte[] record) throws IOException {
+    int length = Integer.BYTES + record.length;
+    if (length > RecordIndex.SEGMENT_SIZE) {
+      throw new IOException("Record of " + record.length + " bytes is too large");
+    }
+    // Records never cross segments.
+    long segmentEnd = (position / RecordIndex.SEGMENT_SIZE + 1) * RecordIndex.SEGMENT_SIZE;
+    if (position + length > segmentEnd) {
+      pad(segmentEnd - position);
+    }
+    if (count == maxKeysInMemory) {
+      writeRun();
+    }
+    if (count == keys.length) {
+      int size = Math.min(count * 2, maxKeysInMemory);
+      keys = Arrays.copyOf(keys, size);
+      offsets = Arrays.copyOf(offsets, size);
+    }
+    keys[count] = key;
+    offsets[count] = position;
+    count++;
+    total++;
+    if (buffer.remaining() < Integer.BYTES) {
+      flush();
+    }
+    buffer.putInt(record.length);
+    position += Integer.BYTES;
+    put(record);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      // Align keys so that key entries never cross segments.
+      pad((RecordIndex.KEY_SIZE - position % RecordIndex.KEY_SIZE) % RecordIndex.KEY_SIZE);
+      long keysPosition = position;
+      if (runs.isEmpty()) {
+        sort(0, count - 1);
+        for (int i = 0; i < count; i++) {
+          putKey(keys[i], offsets[i]);
+        }
+      } else {
+        if (count > 0) {
+          writeRun();
+        }
+        mergeRuns();
+      }
+      flush();
+      ByteBuffer header = ByteBuffer.allocate(Long.BYTES * 2);
+      header.putLong(total);
+      header.putLong(keysPosition);
+      header.flip();
+      while (header.hasRemaining()) {
+        channel.write(header, countPosition + header.position());
+      }
+      channel.force(true);
+      channel.close();
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      if (channel.isOpen()) {
+        channel.close();
+      }
+      Files.deleteIfExists(temporary);
+      deleteRuns();
+    }
+  }
+
+  /**
+   * Closes writer without replacing index file.
+   *
+   * @throws IOException
+   *           could not delete temporary files
+   */
+  public void abort() throws IOException {
+    closed = true;
+    channel.close();
+    Files.deleteIfExists(temporary);
+    deleteRuns();
+  }
+
+  private void deleteRuns() throws IOException {
+    for (Path run : runs) {
+      Files.deleteIfExists(run);
+    }
+  }
+
+  private void writeRun() throws IOException {
+    sort(0, count - 1);
+    Path run = file.resolveSibling(file.getFileName() + ".run" + runs.size());
+    runs.add(run);
+    try (DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+      for (int i = 0; i < count; i++) {
+        output.writeLong(keys[i]);
+        output.writeLong(offsets[i]);
+      }
+    }
+    count = 0;
+  }
+
+  private void mergeRuns() throws IOException {
+    List<RunReader> readers = new ArrayList<>();
+    try {
+      PriorityQueue<RunReader> queue = new PriorityQueue<>(
+          (r1, r2) -> compare(r1.key, r1.offset, r2.key, r2.offset));
+      for (Path run : runs) {
+        RunReader reader = new RunReader(run);
+        readers.add(reader);
+        if (reader.next()) {
+          queue.add(reader);
+        }
+      }
+      while (!queue.isEmpty()) {
+        RunReader reader = queue.poll();
+        putKey(reader.key, reader.offset);
+        if (reader.next()) {
+          queue.add(reader);
+        }
+      }
+    } finally {
+      for (RunReader reader : readers) {
+        reader.input.close();
+      }
+    }
+  }
+
+  private void putKey(long key, long offset) throws IOException {
+    if (buffer.remaining() < RecordIndex.KEY_SIZE) {
+      flush();
+    }
+    buffer.putLong(key);
+    buffer.putLong(offset);
+    position += RecordIndex.KEY_SIZE;
+  }
+
+  private void pad(long length) throws IOException {
+    for (long i = 0; i < length; i++) {
+      if (!buffer.hasRemaining()) {
+        flush();
+      }
+      buffer.put((byte) 0);
+      position++;
+    }
+  }
+
+  private void put(byte[] bytes) throws IOException {
+    int offset = 0;
+    while (offset < bytes.length) {
+      if (!buffer.hasRemaining()) {
+        flush();
+      }
+      int length = Math.min(buffer.remaining(), bytes.length - offset);
+      buffer.put(bytes, offset, length);
+      offset += length;
+      position += length;
+    }
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Sorts keys, and offsets with them, keeping insertion order of equal keys.
+   */
+  private void sort(int low, int high) {
+    // Offsets grow with insertion order, so ordering by key then offset keeps insertion order.
+    while (low < high) {
+      int middle = low + (high - low) / 2;
+      long pivotKey = keys[middle];
+      long pivotOffset = offsets[middle];
+      int i = low;
+      int j = high;
+      while (i <= j) {
+        while (compare(keys[i], offsets[i], pivotKey, pivotOffset) < 0) {
+          i++;
+        }
+        while (compare(keys[j], offsets[j], pivotKey, pivotOffset) > 0) {
+          j--;
+        }
+        if (i <= j) {
+          swap(i++, j--);
+        }
+      }
+      // Recurse on smaller part to limit stack depth.
+      if (j - low < high - i) {
+        sort(low, j);
+        low = i;
+      } else {
+        sort(i, high);
+        high = j;
+      }
+    }
+  }
+
+  private int compare(long key1, long offset1, long key2, long offset2) {
+    int compare = Long.compare(key1, key2);
+    return compare != 0 ? compare : Long.compare(offset1, offset2);
+  }
+
+  private void swap(int i, int j) {
+    long key = keys[i];
+    keys[i] = keys[j];
+    keys[j] = key;
+    long offset = offsets[i];
+    offsets[i] = offsets[j];
+    offsets[j] = offset;
+  }
+
+  private static class RunReader {
+    private final DataInputStream input;
+    private long key;
+    private long offset;
+
+    private RunReader(Path run) throws IOException {
+      input = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+    }
+
+    private boolean next() throws IOException {
+      try {
+        key = input.readLong();
+      } catch (EOFException e) {
+        return false;
+      }
+      offset = input.readLong();
+      return true;
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter.
+ */
+public class TokenBucket {
+  private final double capacity;
+  private final double nanosPerToken;
+  private double tokens;
+  private long lastRefill;
+
+  /**
+   * Creates a token bucket.
+   *
+   * @param capacity
+   *          maximum number of tokens that can be accumulated
+   * @param tokensPerSecond
+   *          number of tokens added to bucket every second
+   */
+  public TokenBucket(int capacity, double tokensPerSecond) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1");
+    }
+    if (tokensPerSecond <= 0) {
+      throw new IllegalArgumentException("tokensPerSecond must be positive");
+    }
+    this.capacity = capacity;
+    this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / tokensPerSecond;
+    this.tokens = capacity;
+    this.lastRefill = System.nanoTime();
+  }
+
+  /**
+   * Takes a token from bucket, waiting until one is available if necessary.
+   *
+   * @throws InterruptedException
+   *           thread was interrupted while waiting for a token
+   */
+  public void acquire() throws InterruptedException {
+    long waitNanos;
+    synchronized (this) {
+      refill();
+      tokens -= 1;
+      waitNanos = tokens >= 0 ? 0 : (long) Math.ceil(-tokens * nanosPerToken);
+    }
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    tokens = Math.min(capacity, tokens + (now - lastRefill) / nanosPerToken);
+    lastRefill = now;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.xml;
+
+import java.util.Arrays;
+
+/**
+ * Precompiled path of element names, matched by {@link PathSaxHandler}.
+ * <p>
+ * A path like <code>LinkSet/LinkSetDb/Link/Id</code> matches an <code>Id</code> element whose
+ * closest ancestors are <code>Link</code>, <code>LinkSetDb</code> and <code>LinkSet</code>, at any
+ * depth. A path starting with '/' only matches from the document's root element.
+ * </p>
+ */
+public final class ElementPath {
+  private final String path;
+  private final String[] names;
+  private final boolean absolute;
+
+  private ElementPath(String path, String[] names, boolean absolute) {
+    this.path = path;
+    this.names = names;
+    this.absolute = absolute;
+  }
+
+  /**
+   * Compiles path of element names separated by '/'.
+   *
+   * @param path
+   *          element names separated by '/', starting with '/' to match from root element
+   * @return compiled path
+   */
+  public static ElementPath compile(String path) {
+    boolean absolute = path.startsWith("/");
+    String relative = absolute ? path.substring(1) : path;
+    String[] names = relative.split("/", -1);
+    if (relative.isEmpty() || Arrays.stream(names).anyMatch(String::isEmpty)) {
+      throw new IllegalArgumentException("path " + path + " contains an empty element name");
+    }
+    for (int i = 0; i < names.length; i++) {
+      names[i] = names[i].intern();
+    }
+    return new ElementPath(path, names, absolute);
+  }
+
+  /**
+   * Returns true if path matches the last elements of current elements.
+   *
+   * @param elements
+   *          current elements, from root element
+   * @param depth
+   *          number of current elements
+   * @return true if path matches the last elements of current elements
+   */
+  boolean matches(String[] elements, int depth) {
+    if (depth < names.length || (absolute && depth != names.length)) {
+      return false;
+    }
+    for (int i = names.length - 1, j = depth - 1; i >= 0; i--, j--) {
+      String element = elements[j];
+      if (element != names[i] && !element.equals(names[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns name of last element of path.
+   *
+   * @return name of last element of path
+   */
+  public String name() {
+    return names[names.length - 1];
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+}
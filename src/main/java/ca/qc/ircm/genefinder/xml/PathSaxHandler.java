@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.xml;
+
+import java.util.Arrays;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Keeps names of current elements to match them against {@link ElementPath}s.
+ * <p>
+ * Unlike {@link StackSaxHandler}, no object is created for each element. Names of current
+ * elements are kept in a reusable array and attributes are only available while
+ * {@link #startElement(String, Attributes)} is called, use {@link #copy(Attributes)} to keep them.
+ * </p>
+ * <p>
+ * Text content of an element is collected after {@link #collectText()} is called and is returned
+ * by {@link #text()}.
+ * </p>
+ */
+public class PathSaxHandler extends DefaultHandler {
+  private String[] elements = new String[16];
+  private int depth;
+  private final StringBuilder text = new StringBuilder();
+  private boolean collectText;
+
+  @Override
+  public final void startElement(String uri, String localName, String qualifiedName,
+      Attributes attributes) throws SAXException {
+    if (depth == elements.length) {
+      elements = Arrays.copyOf(elements, depth * 2);
+    }
+    elements[depth++] = qualifiedName;
+    startElement(qualifiedName, attributes);
+  }
+
+  /**
+   * Called at the start of an element.
+   *
+   * @param elementName
+   *          element's name
+   * @param attributes
+   *          element's attributes, only valid during this call
+   * @throws SAXException
+   *           any SAX exception
+   */
+  protected void startElement(String elementName, Attributes attributes) throws SAXException {
+  }
+
+  @Override
+  public final void endElement(String uri, String localName, String qualifiedName)
+      throws SAXException {
+    endElement(elements[depth - 1]);
+    elements[--depth] = null;
+  }
+
+  /**
+   * Called at the end of an element, before element is removed from current elements.
+   *
+   * @param elementName
+   *          element's name
+   * @throws SAXException
+   *           any SAX exception
+   */
+  protected void endElement(String elementName) throws SAXException {
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) throws SAXException {
+    if (collectText) {
+      text.append(ch, start, length);
+    }
+  }
+
+  /**
+   * Returns true if current elements end with path.
+   *
+   * @param path
+   *          path
+   * @return true if current elements end with path
+   */
+  protected final boolean current(ElementPath path) {
+    return path.matches(elements, depth);
+  }
+
+  /**
+   * Returns true if current element's name is equal to expectedName.
+   *
+   * @param expectedName
+   *          expected element's name
+   * @return true if current element's name is equal to expectedName
+   */
+  protected final boolean current(String expectedName) {
+    return depth > 0 && elements[depth - 1].equals(expectedName);
+  }
+
+  /**
+   * Returns number of current elements, 1 for root element.
+   *
+   * @return number of current elements, 1 for root element
+   */
+  protected final int depth() {
+    return depth;
+  }
+
+  /**
+   * Starts collecting text content, discarding previously collected text.
+   */
+  protected final void collectText() {
+    text.setLength(0);
+    collectText = true;
+  }
+
+  /**
+   * Returns text collected since last call to {@link #collectText()} and stops collecting text.
+   *
+   * @return text collected since last call to {@link #collectText()}
+   */
+  protected final String text() {
+    collectText = false;
+    return text.toString();
+  }
+
+  /**
+   * Returns a copy of attributes that remains valid after
+   * {@link #startElement(String, Attributes)} returns.
+   *
+   * @param attributes
+   *          attributes
+   * @return copy of attributes
+   */
+  protected static Attributes copy(Attributes attributes) {
+    return new AttributesImpl(attributes);
+  }
+}
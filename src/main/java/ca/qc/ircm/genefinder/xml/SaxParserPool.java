@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Pool of {@link SAXParser}s shared by all threads.
+ * <p>
+ * Parsers are configured once, without namespaces, validation or loading of external DTDs, and
+ * are reset and returned to the pool after each parse. A parser that failed to parse its input is
+ * discarded instead of being returned to the pool.
+ * </p>
+ */
+@Component
+public class SaxParserPool {
+  /**
+   * Maximum number of idle parsers kept in pool.
+   */
+  static final int MAX_IDLE = 16;
+  static final String LOAD_EXTERNAL_DTD =
+      "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+  private static final Logger logger = LoggerFactory.getLogger(SaxParserPool.class);
+  private final SAXParserFactory factory;
+  private final BlockingQueue<SAXParser> idle = new ArrayBlockingQueue<>(MAX_IDLE);
+
+  /**
+   * Creates an empty pool of SAX parsers.
+   */
+  public SaxParserPool() {
+    factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(false);
+    factory.setValidating(false);
+    try {
+      factory.setFeature(LOAD_EXTERNAL_DTD, false);
+    } catch (ParserConfigurationException | SAXNotRecognizedException
+        | SAXNotSupportedException e) {
+      logger.debug("SAX parser factory {} does not support feature {}", factory.getClass(),
+          LOAD_EXTERNAL_DTD);
+    }
+  }
+
+  /**
+   * Parses input using a parser from pool.
+   *
+   * @param input
+   *          input
+   * @param handler
+   *          SAX handler
+   * @throws IOException
+   *           could not read input
+   * @throws SAXException
+   *           could not parse input or could not create parser
+   */
+  public void parse(InputStream input, DefaultHandler handler) throws IOException, SAXException {
+    SAXParser parser = borrow();
+    parser.parse(input, handler);
+    release(parser);
+  }
+
+  private SAXParser borrow() throws SAXException {
+    SAXParser parser = idle.poll();
+    if (parser == null) {
+      try {
+        synchronized (factory) {
+          parser = factory.newSAXParser();
+        }
+      } catch (ParserConfigurationException e) {
+        throw new SAXException("Could not create SAX parser", e);
+      }
+    }
+    return parser;
+  }
+
+  private void release(SAXParser parser) {
+    try {
+      parser.reset();
+    } catch (UnsupportedOperationException e) {
+      return;
+    }
+    idle.offer(parser);
+  }
+
+  /**
+   * Returns number of idle parsers in pool.
+   *
+   * @return number of idle parsers in pool
+   */
+  int idle() {
+    return idle.size();
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.REFSEQ;
+import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.UNIPROT;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+
+@ServiceTestAnnotations
+public class AnnotationCacheTest {
+  private AnnotationCache annotationCache;
+  @Mock
+  private AnnotationCacheConfiguration configuration;
+  @TempDir
+  Path temporaryFolder;
+
+  /**
+   * Before test.
+   */
+  @BeforeEach
+  public void beforeTest() {
+    annotationCache = new AnnotationCache(configuration);
+    when(configuration.enabled()).thenReturn(true);
+    when(configuration.directory()).thenReturn(temporaryFolder);
+    when(configuration.mappingTtl()).thenReturn(Duration.ofDays(1));
+    when(configuration.geneTtl()).thenReturn(Duration.ofDays(1));
+    when(configuration.sequenceTtl()).thenReturn(Duration.ofDays(1));
+  }
+
+  @Test
+  public void enabled() {
+    assertTrue(annotationCache.enabled());
+  }
+
+  @Test
+  public void enabled_False() {
+    when(configuration.enabled()).thenReturn(false);
+
+    assertFalse(annotationCache.enabled());
+  }
+
+  @Test
+  public void geneIds() {
+    annotationCache.putGeneIds(REFSEQ, "NP_001317102.1", Arrays.asList(1L, 4404L));
+    annotationCache.putGeneIds(REFSEQ, "NP_001317083.1", Collections.emptyList());
+
+    assertEquals(Arrays.asList(1L, 4404L), annotationCache.geneIds(REFSEQ, "NP_001317102.1"));
+    assertEquals(Collections.emptyList(), annotationCache.geneIds(REFSEQ, "NP_001317083.1"));
+    assertNull(annotationCache.geneIds(REFSEQ, "NP_001317082.1"));
+    assertNull(annotationCache.geneIds(UNIPROT, "NP_001317102.1"));
+  }
+
+  @Test
+  public void geneIds_Expired() {
+    when(configuration.mappingTtl()).thenReturn(Duration.ofMillis(-1));
+    annotationCache.putGeneIds(REFSEQ, "NP_001317102.1", Arrays.asList(1L, 4404L));
+
+    assertNull(annotationCache.geneIds(REFSEQ, "NP_001317102.1"));
+  }
+
+  @Test
+  public void geneIds_Disabled() {
+    when(configuration.enabled()).thenReturn(false);
+    annotationCache.putGeneIds(REFSEQ, "NP_001317102.1", Arrays.asList(1L, 4404L));
+
+    assertNull(annotationCache.geneIds(REFSEQ, "NP_001317102.1"));
+  }
+
+  @Test
+  public void sequence() {
+    annotationCache.putSequence(UNIPROT, "P04637", "MEEPQSDPSV");
+
+    assertEquals("MEEPQSDPSV", annotationCache.sequence(UNIPROT, "P04637"));
+    assertNull(annotationCache.sequence(UNIPROT, "P12345"));
+    assertNull(annotationCache.sequence(REFSEQ, "P04637"));
+  }
+
+  @Test
+  public void sequence_Expired() {
+    when(configuration.sequenceTtl()).thenReturn(Duration.ofMillis(-1));
+    annotationCache.putSequence(UNIPROT, "P04637", "MEEPQSDPSV");
+
+    assertNull(annotationCache.sequence(UNIPROT, "P04637"));
+  }
+
+  @Test
+  public void weight() {
+    annotationCache.putWeight(UNIPROT, "P04637", 43653.0);
+
+    assertEquals(43653.0, annotationCache.weight(UNIPROT, "P04637"), 0.000001);
+    assertNull(annotationCache.weight(UNIPROT, "P12345"));
+    assertNull(annotationCache.weight(REFSEQ, "P04637"));
+    assertNull(annotationCache.sequence(UNIPROT, "P04637"));
+  }
+
+  @Test
+  public void weight_Expired() {
+    when(configuration.sequenceTtl()).thenReturn(Duration.ofMillis(-1));
+    annotationCache.putWeight(UNIPROT, "P04637", 43653.0);
+
+    assertNull(annotationCache.weight(UNIPROT, "P04637"));
+  }
+
+  @Test
+  public void gene() {
+    GeneInfo gene = new GeneInfo(1L, "A1BG");
+    gene.setDescription("alpha-1-B glycoprotein");
+    gene.setSynonyms(Arrays.asList("A1B", "ABG"));
+    annotationCache.putGene(gene);
+
+    GeneInfo cached = annotationCache.gene(1L);
+    assertNotNull(cached);
+    assertEquals(1L, cached.getId());
+    assertEquals("A1BG", cached.getSymbol());
+    assertEquals("alpha-1-B glycoprotein", cached.getDescription());
+    assertArrayEquals(new String[] { "A1B", "ABG" }, cached.getSynonyms().toArray());
+    assertNull(annotationCache.gene(4404L));
+  }
+
+  @Test
+  public void gene_Expired() {
+    when(configuration.geneTtl()).thenReturn(Duration.ofMillis(-1));
+    annotationCache.putGene(new GeneInfo(1L, "A1BG"));
+
+    assertNull(annotationCache.gene(1L));
+  }
+
+  @Test
+  public void flush() {
+    annotationCache.putGeneIds(REFSEQ, "NP_001317102.1", Arrays.asList(1L));
+    annotationCache.putSequence(REFSEQ, "NP_001317102.1", "MSMLVVFLLL");
+    annotationCache.putWeight(REFSEQ, "NP_001317083.1", 43653.0);
+    annotationCache.putGene(new GeneInfo(1L, "A1BG"));
+
+    annotationCache.flush();
+
+    assertTrue(Files.exists(temporaryFolder.resolve("proteins-REFSEQ.json")));
+    assertTrue(Files.exists(temporaryFolder.resolve("genes.json")));
+    assertFalse(Files.exists(temporaryFolder.resolve("proteins-UNIPROT.json")));
+    AnnotationCache reloaded = new AnnotationCache(configuration);
+    assertEquals(Arrays.asList(1L), reloaded.geneIds(REFSEQ, "NP_001317102.1"));
+    assertEquals("MSMLVVFLLL", reloaded.sequence(REFSEQ, "NP_001317102.1"));
+    assertEquals(43653.0, reloaded.weight(REFSEQ, "NP_001317083.1"), 0.000001);
+    assertEquals("A1BG", reloaded.gene(1L).getSymbol());
+  }
+
+  @Test
+  public void flush_Disabled() {
+    when(configuration.enabled()).thenReturn(false);
+    annotationCache.putGeneIds(REFSEQ, "NP_001317102.1", Arrays.asList(1L));
+
+    annotationCache.flush();
+
+    assertFalse(Files.exists(temporaryFolder.resolve("proteins-REFSEQ.json")));
+  }
+}
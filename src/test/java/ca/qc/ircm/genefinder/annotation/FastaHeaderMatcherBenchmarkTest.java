@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares {@link FastaHeaderMatcher} with matching every header against one regular expression
+ * per protein id.
+ * <p>
+ * Run with <code>mvn test -Dtest=FastaHeaderMatcherBenchmarkTest -Dbenchmark=true</code>.
+ * </p>
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class FastaHeaderMatcherBenchmarkTest {
+  private static final Logger logger =
+      LoggerFactory.getLogger(FastaHeaderMatcherBenchmarkTest.class);
+  private static final int SEQUENCES = 5000;
+  private static final int ROUNDS = 3;
+
+  private List<String> accessions() {
+    List<String> accessions = new ArrayList<>();
+    for (int i = 0; i < SEQUENCES; i++) {
+      accessions.add(String.format("NP_%09d.1", 1317000 + i));
+    }
+    return accessions;
+  }
+
+  private List<String> headers(List<String> accessions) {
+    List<String> headers = new ArrayList<>();
+    for (int i = 0; i < accessions.size(); i++) {
+      if (i % 2 == 0) {
+        headers.add(">" + accessions.get(i) + " protein " + i + " [Homo sapiens]");
+      } else {
+        headers.add(">gi|" + (829098000 + i) + "|ref|" + accessions.get(i) + "| protein " + i
+            + " [Homo sapiens]");
+      }
+    }
+    return headers;
+  }
+
+  private Map<String, String> matchPatterns(List<String> accessions, List<String> headers) {
+    Map<Pattern, String> patterns = new LinkedHashMap<>();
+    accessions.forEach(accession -> patterns.put(
+        Pattern.compile("^>(.*\\|)?" + Pattern.quote(accession) + "([\\| ].*)?$"), accession));
+    Map<String, String> matches = new LinkedHashMap<>();
+    for (String header : headers) {
+      for (Pattern pattern : patterns.keySet()) {
+        if (pattern.matcher(header).matches()) {
+          matches.put(header, patterns.get(pattern));
+        }
+      }
+    }
+    return matches;
+  }
+
+  private Map<String, String> matchHeaders(List<String> accessions, List<String> headers) {
+    FastaHeaderMatcher matcher = new FastaHeaderMatcher(accessions);
+    Map<String, String> matches = new LinkedHashMap<>();
+    for (String header : headers) {
+      String accession = matcher.match(header);
+      if (accession != null) {
+        matches.put(header, accession);
+      }
+    }
+    return matches;
+  }
+
+  @Test
+  public void match() {
+    List<String> accessions = accessions();
+    List<String> headers = headers(accessions);
+    long patternNanos = Long.MAX_VALUE;
+    long matcherNanos = Long.MAX_VALUE;
+    Map<String, String> patternMatches = null;
+    Map<String, String> matcherMatches = null;
+    for (int i = 0; i < ROUNDS; i++) {
+      long start = System.nanoTime();
+      patternMatches = matchPatterns(accessions, headers);
+      patternNanos = Math.min(patternNanos, System.nanoTime() - start);
+      start = System.nanoTime();
+      matcherMatches = matchHeaders(accessions, headers);
+      matcherNanos = Math.min(matcherNanos, System.nanoTime() - start);
+    }
+
+    assertEquals(SEQUENCES, matcherMatches.size());
+    assertEquals(patternMatches, matcherMatches);
+    logger.info("{} headers: patterns {} ms, matcher {} ms, speedup {}x", SEQUENCES,
+        patternNanos / 1000000.0, matcherNanos / 1000000.0,
+        Math.round((double) patternNanos / matcherNanos));
+  }
+}
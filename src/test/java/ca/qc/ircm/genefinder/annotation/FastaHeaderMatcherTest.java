@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FastaHeaderMatcherTest {
+  private FastaHeaderMatcher matcher;
+
+  @BeforeEach
+  public void beforeTest() {
+    matcher = new FastaHeaderMatcher(Arrays.asList("NP_001317102.1", "NP_001317083.1", "P12345"));
+  }
+
+  @Test
+  public void match_Accession() {
+    assertEquals("NP_001317102.1", matcher.match(">NP_001317102.1"));
+  }
+
+  @Test
+  public void match_Description() {
+    assertEquals("NP_001317102.1",
+        matcher.match(">NP_001317102.1 TBC1 domain family member 31 [Pongo abelii]"));
+  }
+
+  @Test
+  public void match_Gi() {
+    assertEquals("NP_001317083.1",
+        matcher.match(">gi|829098686|ref|NP_001317083.1| ARF GTPase-activating protein GIT2"));
+  }
+
+  @Test
+  public void match_LastToken() {
+    assertEquals("NP_001317083.1", matcher.match(">gi|829098686|ref|NP_001317083.1"));
+  }
+
+  @Test
+  public void match_Uniprot() {
+    assertEquals("P12345", matcher.match(">sp|P12345|AATM_RABIT Aspartate aminotransferase"));
+  }
+
+  @Test
+  public void match_PipeInDescription() {
+    assertEquals("P12345", matcher.match(">other protein|P12345 description"));
+  }
+
+  @Test
+  public void match_Prefix() {
+    assertNull(matcher.match(">NP_001317102.12 description"));
+    assertNull(matcher.match(">XNP_001317102.1 description"));
+  }
+
+  @Test
+  public void match_InDescription() {
+    assertNull(matcher.match(">NP_000001.1 similar to NP_001317102.1"));
+  }
+
+  @Test
+  public void match_NotHeader() {
+    assertNull(matcher.match("NP_001317102.1"));
+    assertNull(matcher.match(""));
+  }
+
+  @Test
+  public void match_None() {
+    assertNull(matcher.match(">NP_000001.1 description"));
+    assertNull(matcher.match(">"));
+    assertNull(matcher.match(">|"));
+  }
+}
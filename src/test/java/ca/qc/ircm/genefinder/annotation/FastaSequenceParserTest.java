@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ca.qc.ircm.genefinder.protein.ProteinService;
+import ca.qc.ircm.genefinder.protein.WeightAccumulator;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FastaSequenceParserTest {
+  private static final String SEQUENCE1 = "MFLTCMETVTKELVSWMRGHESSVFSISVHASGKYAITTSSDTAQLWDLDTF";
+  private static final String SEQUENCE2 = "MSKRLRSSDVCADCSGPDPSWASVNRGTFLCDECCSVHRSLGRHISQVRHLK";
+  private ProteinService proteinService = new ProteinService();
+  private FastaHeaderMatcher headerMatcher;
+
+  @BeforeEach
+  public void beforeTest() {
+    headerMatcher = new FastaHeaderMatcher(Arrays.asList("NP_001317102.1", "NP_001317083.1"));
+  }
+
+  private InputStream fasta(String content) {
+    return new ByteArrayInputStream(content.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private String fastaContent(String lineSeparator) {
+    return ">NP_001317102.1 TBC1 domain family member 31" + lineSeparator
+        + SEQUENCE1.substring(0, 20) + lineSeparator + SEQUENCE1.substring(20) + lineSeparator
+        + ">NP_000001.1 other protein" + lineSeparator + "MEEPQSDPSV" + lineSeparator
+        + ">gi|829098686|ref|NP_001317083.1| ARF GTPase-activating protein GIT2"
+        + lineSeparator + SEQUENCE2 + lineSeparator;
+  }
+
+  @Test
+  public void parse_Sequence() throws Throwable {
+    FastaSequenceParser parser = new FastaSequenceParser(headerMatcher, true, null);
+
+    Map<String, FastaSequenceParser.Sequence> sequences = parser.parse(fasta(fastaContent("\n")));
+
+    assertEquals(2, sequences.size());
+    assertEquals(SEQUENCE1, sequences.get("NP_001317102.1").getSequence());
+    assertNull(sequences.get("NP_001317102.1").getWeight());
+    assertEquals(SEQUENCE2, sequences.get("NP_001317083.1").getSequence());
+    assertNull(sequences.get("NP_001317083.1").getWeight());
+    assertFalse(sequences.containsKey("NP_000001.1"));
+  }
+
+  @Test
+  public void parse_Weight() throws Throwable {
+    FastaSequenceParser parser =
+        new FastaSequenceParser(headerMatcher, false, new WeightAccumulator());
+
+    Map<String, FastaSequenceParser.Sequence> sequences = parser.parse(fasta(fastaContent("\n")));
+
+    assertEquals(2, sequences.size());
+    assertNull(sequences.get("NP_001317102.1").getSequence());
+    assertEquals(proteinService.weight(SEQUENCE1), sequences.get("NP_001317102.1").getWeight(),
+        0.000001);
+    assertNull(sequences.get("NP_001317083.1").getSequence());
+    assertEquals(proteinService.weight(SEQUENCE2), sequences.get("NP_001317083.1").getWeight(),
+        0.000001);
+  }
+
+  @Test
+  public void parse_SequenceAndWeight() throws Throwable {
+    FastaSequenceParser parser =
+        new FastaSequenceParser(headerMatcher, true, new WeightAccumulator());
+
+    Map<String, FastaSequenceParser.Sequence> sequences = parser.parse(fasta(fastaContent("\n")));
+
+    assertEquals(SEQUENCE1, sequences.get("NP_001317102.1").getSequence());
+    assertEquals(proteinService.weight(SEQUENCE1), sequences.get("NP_001317102.1").getWeight(),
+        0.000001);
+  }
+
+  @Test
+  public void parse_WindowsLineSeparator() throws Throwable {
+    FastaSequenceParser parser = new FastaSequenceParser(headerMatcher, true, null);
+
+    Map<String, FastaSequenceParser.Sequence> sequences =
+        parser.parse(fasta(fastaContent("\r\n")));
+
+    assertEquals(SEQUENCE1, sequences.get("NP_001317102.1").getSequence());
+    assertEquals(SEQUENCE2, sequences.get("NP_001317083.1").getSequence());
+  }
+
+  @Test
+  public void parse_NoLastLineSeparator() throws Throwable {
+    FastaSequenceParser parser = new FastaSequenceParser(headerMatcher, true, null);
+
+    Map<String, FastaSequenceParser.Sequence> sequences =
+        parser.parse(fasta(">NP_001317083.1\n" + SEQUENCE2));
+
+    assertEquals(SEQUENCE2, sequences.get("NP_001317083.1").getSequence());
+  }
+
+  @Test
+  public void parse_LargerThanBuffer() throws Throwable {
+    StringBuilder sequence = new StringBuilder();
+    StringBuilder content = new StringBuilder(">NP_001317102.1 long protein\n");
+    for (int i = 0; i < 500; i++) {
+      sequence.append(SEQUENCE1);
+      content.append(SEQUENCE1).append("\n");
+    }
+    FastaSequenceParser parser =
+        new FastaSequenceParser(headerMatcher, true, new WeightAccumulator());
+
+    Map<String, FastaSequenceParser.Sequence> sequences = parser.parse(fasta(content.toString()));
+
+    assertEquals(sequence.toString(), sequences.get("NP_001317102.1").getSequence());
+    assertEquals(proteinService.weight(sequence.toString()),
+        sequences.get("NP_001317102.1").getWeight(), 0.000001);
+  }
+
+  @Test
+  public void parse_Empty() throws Throwable {
+    FastaSequenceParser parser = new FastaSequenceParser(headerMatcher, true, null);
+
+    assertTrue(parser.parse(fasta("")).isEmpty());
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.REFSEQ;
+import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.REFSEQ_GI;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+
+@ServiceTestAnnotations
+public class Gene2RefseqIndexTest {
+  private Gene2RefseqIndex gene2refseqIndex;
+  @Mock
+  private NcbiConfiguration ncbiConfiguration;
+  @TempDir
+  Path temporaryFolder;
+  private Path gene2refseq;
+  private Path indexDirectory;
+
+  /**
+   * Before test.
+   */
+  @BeforeEach
+  public void beforeTest() throws Throwable {
+    gene2refseqIndex = new Gene2RefseqIndex(ncbiConfiguration);
+    gene2refseq = temporaryFolder.resolve("gene2refseq.gz");
+    try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(gene2refseq))) {
+      Files.copy(Paths.get(getClass().getResource("/annotation/gene2refseq.txt").toURI()),
+          output);
+    }
+    indexDirectory = temporaryFolder.resolve("index");
+    when(ncbiConfiguration.gene2refseq()).thenReturn(gene2refseq);
+    when(ncbiConfiguration.taxonomyIds()).thenReturn(new ArrayList<>());
+    when(ncbiConfiguration.indexDirectory()).thenReturn(indexDirectory);
+  }
+
+  @AfterEach
+  public void afterTest() throws Throwable {
+    gene2refseqIndex.close();
+  }
+
+  @Test
+  public void enabled() {
+    assertTrue(gene2refseqIndex.enabled());
+  }
+
+  @Test
+  public void enabled_False() {
+    when(ncbiConfiguration.gene2refseq()).thenReturn(null);
+
+    assertFalse(gene2refseqIndex.enabled());
+  }
+
+  @Test
+  public void geneIds_Accession() throws Throwable {
+    assertEquals(Arrays.asList(1L), gene2refseqIndex.geneIds(REFSEQ, "NP_001317102.1"));
+    assertEquals(Arrays.asList(4404L), gene2refseqIndex.geneIds(REFSEQ, "NP_001317083.1"));
+    assertEquals(Arrays.asList(11287L), gene2refseqIndex.geneIds(REFSEQ, "NP_031402.3"));
+    assertTrue(Files.exists(indexDirectory.resolve("gene2refseq-accession.index")));
+    assertTrue(Files.exists(indexDirectory.resolve("gene2refseq-gi.index")));
+  }
+
+  @Test
+  public void geneIds_AccessionManyGenes() throws Throwable {
+    assertEquals(Arrays.asList(4404L, 4405L),
+        gene2refseqIndex.geneIds(REFSEQ, "NP_001317082.1"));
+  }
+
+  @Test
+  public void geneIds_AccessionMissing() throws Throwable {
+    assertTrue(gene2refseqIndex.geneIds(REFSEQ, "NP_001317102.2").isEmpty());
+    assertTrue(gene2refseqIndex.geneIds(REFSEQ, "NP_001317102").isEmpty());
+    assertTrue(gene2refseqIndex.geneIds(REFSEQ, "-").isEmpty());
+  }
+
+  @Test
+  public void geneIds_Gi() throws Throwable {
+    assertEquals(Arrays.asList(1L), gene2refseqIndex.geneIds(REFSEQ_GI, "829098688"));
+    assertEquals(Arrays.asList(4404L), gene2refseqIndex.geneIds(REFSEQ_GI, "829098686"));
+    assertEquals(Arrays.asList(4404L, 4405L),
+        gene2refseqIndex.geneIds(REFSEQ_GI, "829098684"));
+  }
+
+  @Test
+  public void geneIds_GiMissing() throws Throwable {
+    assertTrue(gene2refseqIndex.geneIds(REFSEQ_GI, "829098687").isEmpty());
+    assertTrue(gene2refseqIndex.geneIds(REFSEQ_GI, "NP_001317102.1").isEmpty());
+  }
+
+  @Test
+  public void geneIds_TaxonomyIds() throws Throwable {
+    when(ncbiConfiguration.taxonomyIds()).thenReturn(Arrays.asList(10090));
+
+    assertTrue(gene2refseqIndex.geneIds(REFSEQ, "NP_001317102.1").isEmpty());
+    assertTrue(gene2refseqIndex.geneIds(REFSEQ_GI, "829098688").isEmpty());
+    assertEquals(Arrays.asList(11287L), gene2refseqIndex.geneIds(REFSEQ, "NP_031402.3"));
+    assertEquals(Arrays.asList(11287L), gene2refseqIndex.geneIds(REFSEQ_GI, "161086932"));
+  }
+
+  @Test
+  public void geneIds_ReuseIndex() throws Throwable {
+    gene2refseqIndex.geneIds(REFSEQ, "NP_001317102.1");
+    gene2refseqIndex.close();
+    FileTime indexModified =
+        Files.getLastModifiedTime(indexDirectory.resolve("gene2refseq-accession.index"));
+    gene2refseqIndex = new Gene2RefseqIndex(ncbiConfiguration);
+
+    assertEquals(Arrays.asList(1L), gene2refseqIndex.geneIds(REFSEQ, "NP_001317102.1"));
+    assertEquals(indexModified,
+        Files.getLastModifiedTime(indexDirectory.resolve("gene2refseq-accession.index")));
+  }
+
+  @Test
+  public void geneIds_UpdateIndexWhenTaxonomyIdsChange() throws Throwable {
+    assertEquals(Arrays.asList(1L), gene2refseqIndex.geneIds(REFSEQ, "NP_001317102.1"));
+    when(ncbiConfiguration.taxonomyIds()).thenReturn(Arrays.asList(10090));
+
+    assertTrue(gene2refseqIndex.geneIds(REFSEQ, "NP_001317102.1").isEmpty());
+    assertEquals(Arrays.asList(11287L), gene2refseqIndex.geneIds(REFSEQ, "NP_031402.3"));
+  }
+}
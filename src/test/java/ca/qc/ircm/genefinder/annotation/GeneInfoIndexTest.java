@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+
+@ServiceTestAnnotations
+public class GeneInfoIndexTest {
+  private GeneInfoIndex geneInfoIndex;
+  @Mock
+  private NcbiConfiguration ncbiConfiguration;
+  @TempDir
+  Path temporaryFolder;
+  private Path geneInfo;
+  private Path indexDirectory;
+
+  /**
+   * Before test.
+   */
+  @BeforeEach
+  public void beforeTest() throws Throwable {
+    geneInfoIndex = new GeneInfoIndex(ncbiConfiguration);
+    geneInfo = temporaryFolder.resolve("gene_info.gz");
+    try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(geneInfo))) {
+      Files.copy(Paths.get(getClass().getResource("/annotation/gene_info.txt").toURI()), output);
+    }
+    indexDirectory = temporaryFolder.resolve("index");
+    when(ncbiConfiguration.geneInfo()).thenReturn(geneInfo);
+    when(ncbiConfiguration.taxonomyIds()).thenReturn(new ArrayList<>());
+    when(ncbiConfiguration.indexDirectory()).thenReturn(indexDirectory);
+  }
+
+  @AfterEach
+  public void afterTest() throws Throwable {
+    geneInfoIndex.close();
+  }
+
+  @Test
+  public void enabled() {
+    assertTrue(geneInfoIndex.enabled());
+  }
+
+  @Test
+  public void enabled_False() {
+    when(ncbiConfiguration.geneInfo()).thenReturn(null);
+
+    assertFalse(geneInfoIndex.enabled());
+  }
+
+  @Test
+  public void gene() throws Throwable {
+    GeneInfo gene = geneInfoIndex.gene(1);
+
+    assertNotNull(gene);
+    assertEquals(9606, gene.getOrganismId());
+    assertEquals(1L, gene.getId());
+    assertEquals("A1BG", gene.getSymbol());
+    assertNull(gene.getLocusTag());
+    assertArrayEquals("A1B|ABG|GAB|HYST2477".split("\\|"), gene.getSynonyms().toArray());
+    assertEquals(Arrays.asList("MIM:138670", "HGNC:HGNC:5", "Ensembl:ENSG00000121410"),
+        gene.getDbXrefs());
+    assertEquals("19", gene.getChromosome());
+    assertEquals("19q13.43", gene.getMapLocation());
+    assertEquals("alpha-1-B glycoprotein", gene.getDescription());
+    assertEquals("protein-coding", gene.getTypeOfGene());
+    assertEquals("A1BG", gene.getSymbolFromNomenclatureAuthority());
+    assertEquals("alpha-1-B glycoprotein", gene.getFullNameFromNomenclatureAuthority());
+    assertEquals("O", gene.getNomenclatureStatus());
+    assertEquals(Arrays.asList("alpha-1B-glycoprotein", "HEL-S-163pA"),
+        gene.getOtherDesignations());
+    assertEquals(Date.from(LocalDate.of(2024, 1, 7).atStartOfDay(ZoneId.systemDefault())
+        .toInstant()), gene.getModificationDate());
+    assertTrue(Files.exists(indexDirectory.resolve("gene_info.index")));
+  }
+
+  @Test
+  public void gene_NullValues() throws Throwable {
+    GeneInfo gene = geneInfoIndex.gene(4404);
+
+    assertNotNull(gene);
+    assertEquals(4404L, gene.getId());
+    assertEquals("MRX39", gene.getSymbol());
+    assertNull(gene.getSynonyms());
+    assertNull(gene.getMapLocation());
+    assertNull(gene.getSymbolFromNomenclatureAuthority());
+    assertNull(gene.getOtherDesignations());
+  }
+
+  @Test
+  public void gene_Missing() throws Throwable {
+    assertNull(geneInfoIndex.gene(2));
+  }
+
+  @Test
+  public void gene_TaxonomyIds() throws Throwable {
+    when(ncbiConfiguration.taxonomyIds()).thenReturn(Arrays.asList(10090));
+
+    assertNull(geneInfoIndex.gene(1));
+    GeneInfo gene = geneInfoIndex.gene(11287);
+    assertNotNull(gene);
+    assertEquals(10090, gene.getOrganismId());
+    assertEquals("Pzp", gene.getSymbol());
+  }
+
+  @Test
+  public void gene_ReuseIndex() throws Throwable {
+    geneInfoIndex.gene(1);
+    geneInfoIndex.close();
+    FileTime indexModified =
+        Files.getLastModifiedTime(indexDirectory.resolve("gene_info.index"));
+    geneInfoIndex = new GeneInfoIndex(ncbiConfiguration);
+
+    assertEquals("A1BG", geneInfoIndex.gene(1).getSymbol());
+    assertEquals(indexModified,
+        Files.getLastModifiedTime(indexDirectory.resolve("gene_info.index")));
+  }
+
+  @Test
+  public void gene_UpdateIndexWhenTaxonomyIdsChange() throws Throwable {
+    assertNotNull(geneInfoIndex.gene(1));
+    when(ncbiConfiguration.taxonomyIds()).thenReturn(Arrays.asList(10090));
+
+    assertNull(geneInfoIndex.gene(1));
+    assertNotNull(geneInfoIndex.gene(11287));
+  }
+}
@@ -18,8 +18,12 @@
 package ca.qc.ircm.genefinder.annotation;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
+import java.nio.file.Paths;
 import java.util.regex.Pattern;
 import javax.inject.Inject;
 import org.junit.jupiter.api.Test;
@@ -37,5 +41,13 @@ public class NcbiConfigurationTest {
         ncbiConfiguration.refseqProteinGiPattern().pattern());
     assertEquals("https://eutils.ncbi.nlm.nih.gov/entrez/eutils", ncbiConfiguration.eutils());
     assertEquals(1000, ncbiConfiguration.maxIdsPerRequest());
+    assertNull(ncbiConfiguration.apiKey());
+    assertEquals(3, ncbiConfiguration.requestsPerSecond());
+    assertFalse(ncbiConfiguration.historyServer());
+    assertNull(ncbiConfiguration.geneInfo());
+    assertNull(ncbiConfiguration.gene2refseq());
+    assertTrue(ncbiConfiguration.taxonomyIds().isEmpty());
+    assertEquals(Paths.get(System.getProperty("user.home"), ".genefinder", "index"),
+        ncbiConfiguration.indexDirectory());
   }
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
+import ca.qc.ircm.progressbar.ProgressBar;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+
+@ServiceTestAnnotations
+public class NcbiRequestSchedulerTest {
+  private NcbiRequestScheduler ncbiRequestScheduler;
+  @Mock
+  private NcbiConfiguration ncbiConfiguration;
+  @Mock
+  private ProgressBar progressBar;
+
+  @BeforeEach
+  public void beforeTest() {
+    ncbiRequestScheduler = new NcbiRequestScheduler(ncbiConfiguration);
+  }
+
+  @AfterEach
+  public void afterTest() {
+    ncbiRequestScheduler.shutdown();
+  }
+
+  @Test
+  public void acquire() throws Throwable {
+    when(ncbiConfiguration.requestsPerSecond()).thenReturn(10);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 6; i++) {
+      ncbiRequestScheduler.acquire();
+    }
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    // First request is immediate, the next 5 requests wait 100 milliseconds each.
+    assertTrue(elapsed >= 450, "elapsed " + elapsed);
+  }
+
+  @Test
+  public void execute() throws Throwable {
+    when(ncbiConfiguration.requestsPerSecond()).thenReturn(3);
+    CountDownLatch latch = new CountDownLatch(3);
+    List<Callable<Void>> batches = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      batches.add(() -> {
+        latch.countDown();
+        // Fails if batches are not executed concurrently.
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        return null;
+      });
+    }
+
+    ncbiRequestScheduler.execute(batches, index -> "batch " + index, progressBar);
+
+    assertEquals(0, latch.getCount());
+    verify(progressBar).setMessage("batch 0");
+    verify(progressBar).setMessage("batch 1");
+    verify(progressBar).setMessage("batch 2");
+    verify(progressBar, times(3)).setMessage(anyString());
+    verify(progressBar, times(4)).setProgress(anyDouble());
+    verify(progressBar, times(2)).setProgress(1.0);
+  }
+
+  @Test
+  public void execute_RateLimit() throws Throwable {
+    when(ncbiConfiguration.requestsPerSecond()).thenReturn(10);
+    AtomicInteger count = new AtomicInteger();
+    List<Callable<Void>> batches = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      batches.add(() -> {
+        ncbiRequestScheduler.acquire();
+        count.incrementAndGet();
+        return null;
+      });
+    }
+
+    long start = System.nanoTime();
+    ncbiRequestScheduler.execute(batches, index -> "batch " + index, progressBar);
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertEquals(6, count.get());
+    assertTrue(elapsed >= 450, "elapsed " + elapsed);
+  }
+
+  @Test
+  public void execute_IoException() throws Throwable {
+    when(ncbiConfiguration.requestsPerSecond()).thenReturn(3);
+    IOException exception = new IOException("test");
+    List<Callable<Void>> batches = new ArrayList<>();
+    batches.add(() -> {
+      throw exception;
+    });
+
+    IOException thrown = assertThrows(IOException.class,
+        () -> ncbiRequestScheduler.execute(batches, index -> "batch " + index, progressBar));
+
+    assertSame(exception, thrown);
+  }
+
+  @Test
+  public void execute_RuntimeException() throws Throwable {
+    when(ncbiConfiguration.requestsPerSecond()).thenReturn(3);
+    IllegalStateException exception = new IllegalStateException("test");
+    List<Callable<Void>> batches = new ArrayList<>();
+    batches.add(() -> {
+      throw exception;
+    });
+
+    IllegalStateException thrown = assertThrows(IllegalStateException.class,
+        () -> ncbiRequestScheduler.execute(batches, index -> "batch " + index, progressBar));
+
+    assertSame(exception, thrown);
+  }
+
+  @Test
+  public void pipeline() throws Throwable {
+    when(ncbiConfiguration.requestsPerSecond()).thenReturn(3);
+    AtomicInteger count = new AtomicInteger();
+    NcbiRequestScheduler.Pipeline pipeline = ncbiRequestScheduler.pipeline(progressBar);
+    for (int i = 0; i < 2; i++) {
+      pipeline.submit(() -> {
+        count.incrementAndGet();
+        pipeline.submit(() -> {
+          count.incrementAndGet();
+          return null;
+        }, "second stage");
+        return null;
+      }, "first stage");
+    }
+
+    pipeline.await();
+
+    assertEquals(4, count.get());
+    verify(progressBar, times(2)).setMessage("first stage");
+    verify(progressBar, times(2)).setMessage("second stage");
+    verify(progressBar, times(2)).setProgress(1.0);
+  }
+
+  @Test
+  public void pipeline_IoException() throws Throwable {
+    when(ncbiConfiguration.requestsPerSecond()).thenReturn(3);
+    IOException exception = new IOException("test");
+    NcbiRequestScheduler.Pipeline pipeline = ncbiRequestScheduler.pipeline(progressBar);
+    pipeline.submit(() -> {
+      throw exception;
+    }, "first stage");
+
+    IOException thrown = assertThrows(IOException.class, () -> pipeline.await());
+
+    assertSame(exception, thrown);
+  }
+
+  @Test
+  public void execute_Empty() throws Throwable {
+    ncbiRequestScheduler.execute(new ArrayList<Callable<Void>>(), index -> "batch " + index,
+        progressBar);
+
+    verify(progressBar).setProgress(1.0);
+  }
+}
@@ -19,6 +19,7 @@ package ca.qc.ircm.genefinder.annotation;
 
 import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.REFSEQ;
 import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.REFSEQ_GI;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -26,18 +27,28 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import ca.qc.ircm.genefinder.data.FindGenesParameters;
 import ca.qc.ircm.genefinder.protein.ProteinService;
+import ca.qc.ircm.genefinder.protein.WeightAccumulator;
+import ca.qc.ircm.genefinder.rest.AdaptiveBatchSize;
+import ca.qc.ircm.genefinder.rest.AdaptiveBatchSizes;
 import ca.qc.ircm.genefinder.rest.RestClientFactory;
+import ca.qc.ircm.genefinder.rest.RestConfiguration;
 import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
+import ca.qc.ircm.genefinder.xml.SaxParserPool;
 import ca.qc.ircm.progressbar.ProgressBar;
+import ca.qc.ircm.utils.MessageResources;
 import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.client.Invocation;
@@ -52,11 +63,17 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
@@ -82,6 +99,18 @@ public class RefseqDownloadProteinMappingServiceTest {
   @Mock
   private ProteinService proteinService;
   @Mock
+  private AnnotationCache annotationCache;
+  @Mock
+  private NcbiRequestScheduler ncbiRequestScheduler;
+  @Mock
+  private GeneInfoIndex geneInfoIndex;
+  @Mock
+  private Gene2RefseqIndex gene2refseqIndex;
+  @Mock
+  private AdaptiveBatchSizes adaptiveBatchSizes;
+  @Mock
+  private RestConfiguration restConfiguration;
+  @Mock
   private FindGenesParameters parameters;
   @Mock
   private ProgressBar progressBar;
@@ -92,6 +121,7 @@ public class RefseqDownloadProteinMappingServiceTest {
   private String esummary = "esummary.fcgi";
   private String elink = "elink.fcgi";
   private String efetch = "efetch.fcgi";
+  private ExecutorService executor = Executors.newSingleThreadExecutor();
 
   /**
    * Before test.
@@ -99,15 +129,36 @@ public class RefseqDownloadProteinMappingServiceTest {
   @BeforeEach
   public void beforeTest() throws Throwable {
     refseqDownloadProteinMappingService = new RefseqDownloadProteinMappingService(ncbiConfiguration,
-        restClientFactory, proteinService);
+        restClientFactory, proteinService, annotationCache, ncbiRequestScheduler, geneInfoIndex,
+        gene2refseqIndex, adaptiveBatchSizes, restConfiguration, new SaxParserPool());
     when(ncbiConfiguration.eutils()).thenReturn(eutils);
     when(ncbiConfiguration.maxIdsPerRequest()).thenReturn(MAX_IDS_PER_REQUEST);
-    when(restClientFactory.createClient()).thenReturn(client);
+    when(restClientFactory.client()).thenReturn(client);
     when(client.target(anyString())).thenReturn(target);
     when(target.path(anyString())).thenReturn(target);
     when(target.queryParam(anyString(), any())).thenReturn(target);
     when(target.request()).thenReturn(request);
     when(progressBar.step(anyDouble())).thenReturn(progressBar);
+    // Fixed batch sizes.
+    when(adaptiveBatchSizes.get(anyString(), anyInt(), anyInt())).thenAnswer(
+        i -> new AdaptiveBatchSize(i.getArgument(0), i.getArgument(1), i.getArgument(1)));
+    when(restConfiguration.connectRetries()).thenReturn(2);
+    when(restConfiguration.readRetries()).thenReturn(2);
+    when(annotationCache.geneIds(any(), any())).thenReturn(null);
+    doAnswer(i -> {
+      List<? extends Callable<?>> batches = i.getArgument(0);
+      for (Callable<?> batch : batches) {
+        batch.call();
+      }
+      return null;
+    }).when(ncbiRequestScheduler).execute(any(), any(), any());
+    when(ncbiRequestScheduler.pipeline(any()))
+        .thenAnswer(i -> new NcbiRequestScheduler.Pipeline(executor, i.getArgument(0)));
+  }
+
+  @AfterEach
+  public void afterTest() {
+    executor.shutdownNow();
   }
 
   private String parseSequence(Path fasta, int sequenceIndex) throws IOException {
@@ -126,6 +177,42 @@ public class RefseqDownloadProteinMappingServiceTest {
     return sequence.toString();
   }
 
+  private Form findForm(Predicate<Form> filter) {
+    return entityCaptor.getAllValues().stream().map(entity -> (Form) entity.getEntity())
+        .filter(filter).findFirst().orElse(null);
+  }
+
+  @Test
+  public void ncbiBatchSize_GrowsPastMaxIdsPerRequest() throws Throwable {
+    refseqDownloadProteinMappingService = new RefseqDownloadProteinMappingService(ncbiConfiguration,
+        restClientFactory, proteinService, annotationCache, ncbiRequestScheduler, geneInfoIndex,
+        gene2refseqIndex, new AdaptiveBatchSizes(), restConfiguration, new SaxParserPool());
+
+    AdaptiveBatchSize batchSize = refseqDownloadProteinMappingService.ncbiBatchSize("protein");
+    assertEquals(MAX_IDS_PER_REQUEST, batchSize.size());
+    // Latency per id improves after each request.
+    for (int i = 0; i < 100; i++) {
+      batchSize.success(batchSize.size(),
+          (long) (batchSize.size() * 1000000L * Math.pow(0.9, i)));
+    }
+
+    assertEquals(5000, batchSize.max());
+    assertEquals(5000, batchSize.size());
+  }
+
+  @Test
+  public void ncbiBatchSize_MaxIdsPerRequestOverEutilsMax() throws Throwable {
+    refseqDownloadProteinMappingService = new RefseqDownloadProteinMappingService(ncbiConfiguration,
+        restClientFactory, proteinService, annotationCache, ncbiRequestScheduler, geneInfoIndex,
+        gene2refseqIndex, new AdaptiveBatchSizes(), restConfiguration, new SaxParserPool());
+    when(ncbiConfiguration.maxIdsPerRequest()).thenReturn(10000);
+
+    AdaptiveBatchSize batchSize = refseqDownloadProteinMappingService.ncbiBatchSize("protein");
+
+    assertEquals(5000, batchSize.max());
+    assertEquals(5000, batchSize.size());
+  }
+
   @Test
   public void downloadProteinMappings() throws Throwable {
     when(parameters.getProteinDatabase()).thenReturn(REFSEQ);
@@ -235,12 +322,134 @@ public class RefseqDownloadProteinMappingServiceTest {
         assertEquals("mental retardation, X-linked 39", gene.getDescription());
         assertEquals(null, gene.getSynonyms());
       }
-      assertNull(mapping.getTaxonomyId());
+      assertEquals((Integer) 9606, mapping.getTaxonomyId());
       assertNull(mapping.getSequence());
       assertNull(mapping.getMolecularWeight());
     }
   }
 
+  @Test
+  public void downloadProteinMappings_ApiKey() throws Throwable {
+    when(ncbiConfiguration.apiKey()).thenReturn("abc123");
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ);
+    when(parameters.isGeneId()).thenReturn(true);
+    when(parameters.isGeneName()).thenReturn(true);
+    final List<String> proteinIds = Files
+        .readAllLines(Paths.get(getClass().getResource("/annotation/accessions3.txt").toURI()));
+    byte[] proteinSummary = Files.readAllBytes(
+        Paths.get(getClass().getResource("/annotation/refseq-esummary.fcgi.xml").toURI()));
+    byte[] geneMappings = Files
+        .readAllBytes(Paths.get(getClass().getResource("/annotation/gene-elink.fcgi.xml").toURI()));
+    byte[] geneInfos = Files.readAllBytes(
+        Paths.get(getClass().getResource("/annotation/gene-esummary.fcgi.xml").toURI()));
+    when(request.post(any(), eq(InputStream.class)))
+        .thenReturn(new ByteArrayInputStream(proteinSummary))
+        .thenReturn(new ByteArrayInputStream(geneMappings))
+        .thenReturn(new ByteArrayInputStream(geneInfos));
+
+    refseqDownloadProteinMappingService.downloadProteinMappings(proteinIds, parameters,
+        progressBar, locale);
+
+    verify(ncbiRequestScheduler).pipeline(progressBar);
+    verify(ncbiRequestScheduler, times(3)).acquire();
+    verify(request, times(3)).post(entityCaptor.capture(), eq(InputStream.class));
+    for (Entity<?> entity : entityCaptor.getAllValues()) {
+      Form form = (Form) entity.getEntity();
+      assertEquals(1, form.asMap().get("api_key").size());
+      assertEquals("abc123", form.asMap().getFirst("api_key"));
+    }
+  }
+
+  @Test
+  public void downloadProteinMappings_HistoryServer() throws Throwable {
+    when(ncbiConfiguration.historyServer()).thenReturn(true);
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ);
+    when(parameters.isGeneId()).thenReturn(true);
+    when(parameters.isGeneName()).thenReturn(true);
+    when(parameters.isSequence()).thenReturn(true);
+    final List<String> proteinIds = Files
+        .readAllLines(Paths.get(getClass().getResource("/annotation/accessions3.txt").toURI()));
+    byte[] epostResult =
+        Files.readAllBytes(Paths.get(getClass().getResource("/annotation/epost.fcgi.xml").toURI()));
+    byte[] proteinSummary = Files.readAllBytes(
+        Paths.get(getClass().getResource("/annotation/refseq-esummary.fcgi.xml").toURI()));
+    byte[] geneMappings = Files
+        .readAllBytes(Paths.get(getClass().getResource("/annotation/gene-elink.fcgi.xml").toURI()));
+    byte[] geneInfos = Files.readAllBytes(
+        Paths.get(getClass().getResource("/annotation/gene-esummary.fcgi.xml").toURI()));
+    Path sequencesResource =
+        Paths.get(getClass().getResource("/annotation/refseq-sequences.fasta").toURI());
+    byte[] sequences = Files.readAllBytes(sequencesResource);
+    when(request.post(any(), eq(InputStream.class))).thenAnswer(i -> {
+      Form form = (Form) i.getArgument(0, Entity.class).getEntity();
+      if (form.asMap().containsKey("rettype")) {
+        return new ByteArrayInputStream(sequences);
+      } else if (form.asMap().containsKey("dbfrom")) {
+        return new ByteArrayInputStream(geneMappings);
+      } else if ("gene".equals(form.asMap().getFirst("db"))) {
+        return new ByteArrayInputStream(geneInfos);
+      } else if (form.asMap().containsKey("WebEnv")) {
+        return new ByteArrayInputStream(proteinSummary);
+      } else {
+        return new ByteArrayInputStream(epostResult);
+      }
+    });
+
+    final List<ProteinMapping> mappings = refseqDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(target).path("epost.fcgi");
+    verify(target, times(2)).path(esummary);
+    verify(target).path(elink);
+    verify(target).path(efetch);
+    verify(request, times(5)).post(entityCaptor.capture(), eq(InputStream.class));
+    // Protein ids are uploaded once, before any other request.
+    Entity<?> entity = entityCaptor.getAllValues().get(0);
+    Form form = (Form) entity.getEntity();
+    assertEquals("protein", form.asMap().getFirst("db"));
+    assertEquals(1, form.asMap().get("id").size());
+    List<String> epostIds = Arrays.asList(form.asMap().getFirst("id").split(","));
+    assertEquals(3, epostIds.size());
+    assertTrue(epostIds.contains("NP_001317102.1"));
+    assertTrue(epostIds.contains("NP_001317083.1"));
+    assertTrue(epostIds.contains("NP_001317082.1"));
+    form = findForm(form0 -> "protein".equals(form0.asMap().getFirst("db"))
+        && form0.asMap().containsKey("WebEnv") && !form0.asMap().containsKey("rettype"));
+    assertNull(form.asMap().get("id"));
+    assertEquals("MCID_5f7a6b4c1a2b3c4d5e6f7a8b", form.asMap().getFirst("WebEnv"));
+    assertEquals("1", form.asMap().getFirst("query_key"));
+    assertEquals("0", form.asMap().getFirst("retstart"));
+    assertEquals("3", form.asMap().getFirst("retmax"));
+    form = findForm(form0 -> form0.asMap().containsKey("dbfrom"));
+    assertEquals("gene", form.asMap().getFirst("db"));
+    assertEquals(3, form.asMap().get("id").size());
+    assertNull(form.asMap().get("WebEnv"));
+    form = findForm(form0 -> form0.asMap().containsKey("rettype"));
+    assertEquals("protein", form.asMap().getFirst("db"));
+    assertEquals("fasta", form.asMap().getFirst("rettype"));
+    assertNull(form.asMap().get("id"));
+    assertEquals("MCID_5f7a6b4c1a2b3c4d5e6f7a8b", form.asMap().getFirst("WebEnv"));
+    assertEquals("1", form.asMap().getFirst("query_key"));
+    assertEquals("0", form.asMap().getFirst("retstart"));
+    assertEquals("3", form.asMap().getFirst("retmax"));
+    assertEquals(3, mappings.size());
+    for (ProteinMapping mapping : mappings) {
+      assertEquals((Integer) 9606, mapping.getTaxonomyId());
+      assertNotNull(mapping.getGenes());
+      assertEquals(1, mapping.getGenes().size());
+      if (mapping.getProteinId().equals("NP_001317102.1")) {
+        assertEquals(1L, mapping.getGenes().get(0).getId());
+        assertEquals(parseSequence(sequencesResource, 0), mapping.getSequence());
+      } else if (mapping.getProteinId().equals("NP_001317083.1")) {
+        assertEquals(4404L, mapping.getGenes().get(0).getId());
+        assertEquals(parseSequence(sequencesResource, 1), mapping.getSequence());
+      } else {
+        assertEquals(4404L, mapping.getGenes().get(0).getId());
+        assertEquals(parseSequence(sequencesResource, 2), mapping.getSequence());
+      }
+    }
+  }
+
   @Test
   public void downloadProteinMappings_Sequence() throws Throwable {
     when(parameters.getProteinDatabase()).thenReturn(REFSEQ);
@@ -297,6 +506,93 @@ public class RefseqDownloadProteinMappingServiceTest {
     }
   }
 
+  @Test
+  public void downloadProteinMappings_MolecularWeight() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ);
+    when(parameters.isProteinMolecularWeight()).thenReturn(true);
+    when(proteinService.weightAccumulator()).thenAnswer(i -> new WeightAccumulator());
+    final List<String> proteinIds = Files
+        .readAllLines(Paths.get(getClass().getResource("/annotation/accessions3.txt").toURI()));
+    Path sequencesResource =
+        Paths.get(getClass().getResource("/annotation/refseq-sequences.fasta").toURI());
+    byte[] sequences = Files.readAllBytes(sequencesResource);
+    when(request.post(any(), eq(InputStream.class)))
+        .thenReturn(new ByteArrayInputStream(sequences));
+    ProteinService realProteinService = new ProteinService();
+
+    final List<ProteinMapping> mappings = refseqDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(target).path(efetch);
+    verify(request).post(any(), eq(InputStream.class));
+    verify(proteinService, never()).weight(any());
+    verify(annotationCache, never()).putSequence(any(), any(), any());
+    assertEquals(3, mappings.size());
+    for (ProteinMapping mapping : mappings) {
+      int index = mapping.getProteinId().equals("NP_001317102.1") ? 0
+          : mapping.getProteinId().equals("NP_001317083.1") ? 1 : 2;
+      assertEquals(realProteinService.weight(parseSequence(sequencesResource, index)),
+          mapping.getMolecularWeight(), 0.000001);
+      assertNull(mapping.getSequence());
+      assertTrue(mapping.getGenes() == null || mapping.getGenes().isEmpty());
+    }
+  }
+
+  @Test
+  public void downloadProteinMappings_MolecularWeight_CacheEnabled() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ);
+    when(parameters.isProteinMolecularWeight()).thenReturn(true);
+    when(annotationCache.enabled()).thenReturn(true);
+    when(proteinService.weightAccumulator()).thenAnswer(i -> new WeightAccumulator());
+    final List<String> proteinIds = Files
+        .readAllLines(Paths.get(getClass().getResource("/annotation/accessions3.txt").toURI()));
+    Path sequencesResource =
+        Paths.get(getClass().getResource("/annotation/refseq-sequences.fasta").toURI());
+    byte[] sequences = Files.readAllBytes(sequencesResource);
+    when(request.post(any(), eq(InputStream.class)))
+        .thenReturn(new ByteArrayInputStream(sequences));
+    ProteinService realProteinService = new ProteinService();
+
+    final List<ProteinMapping> mappings = refseqDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(proteinService, never()).weight(any());
+    verify(annotationCache, never()).putSequence(any(), any(), any());
+    assertEquals(3, mappings.size());
+    for (ProteinMapping mapping : mappings) {
+      int index = mapping.getProteinId().equals("NP_001317102.1") ? 0
+          : mapping.getProteinId().equals("NP_001317083.1") ? 1 : 2;
+      double weight = realProteinService.weight(parseSequence(sequencesResource, index));
+      assertEquals(weight, mapping.getMolecularWeight(), 0.000001);
+      assertNull(mapping.getSequence());
+      verify(annotationCache).putWeight(REFSEQ, mapping.getProteinId(),
+          mapping.getMolecularWeight());
+    }
+  }
+
+  @Test
+  public void downloadProteinMappings_MolecularWeight_Cached() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ);
+    when(parameters.isProteinMolecularWeight()).thenReturn(true);
+    when(annotationCache.weight(REFSEQ, "NP_001317102.1")).thenReturn(127.3);
+    when(annotationCache.weight(REFSEQ, "NP_001317083.1")).thenReturn(58.9);
+    when(annotationCache.weight(REFSEQ, "NP_001317082.1")).thenReturn(41.4);
+    final List<String> proteinIds = Files
+        .readAllLines(Paths.get(getClass().getResource("/annotation/accessions3.txt").toURI()));
+
+    final List<ProteinMapping> mappings = refseqDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(request, never()).post(any(), eq(InputStream.class));
+    assertEquals(3, mappings.size());
+    for (ProteinMapping mapping : mappings) {
+      double weight = mapping.getProteinId().equals("NP_001317102.1") ? 127.3
+          : mapping.getProteinId().equals("NP_001317083.1") ? 58.9 : 41.4;
+      assertEquals(weight, mapping.getMolecularWeight(), 0.000001);
+      assertNull(mapping.getSequence());
+    }
+  }
+
   @Test
   public void downloadProteinMappings_Gi() throws Throwable {
     when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
@@ -463,7 +759,7 @@ public class RefseqDownloadProteinMappingServiceTest {
         assertEquals(parseSequence(sequencesResource, 2), mapping.getSequence());
         assertEquals(sequenceWeight3, mapping.getMolecularWeight(), 0.001);
       }
-      assertNull(mapping.getTaxonomyId());
+      assertEquals((Integer) 9606, mapping.getTaxonomyId());
       assertTrue(mapping.getGenes() == null || mapping.getGenes().isEmpty());
     }
   }
@@ -484,7 +780,7 @@ public class RefseqDownloadProteinMappingServiceTest {
     byte[] geneInfos = Files.readAllBytes(
         Paths.get(getClass().getResource("/annotation/gene-esummary.fcgi.xml").toURI()));
     when(request.post(any(), eq(InputStream.class)))
-        .thenThrow(new ResponseProcessingException(Response.status(404).build(), "Test"))
+        .thenThrow(new ResponseProcessingException(Response.status(503).build(), "Test"))
         .thenReturn(new ByteArrayInputStream(proteinSummary))
         .thenReturn(new ByteArrayInputStream(geneMappings))
         .thenReturn(new ByteArrayInputStream(geneInfos));
@@ -562,12 +858,43 @@ public class RefseqDownloadProteinMappingServiceTest {
         assertEquals("mental retardation, X-linked 39", gene.getDescription());
         assertEquals(null, gene.getSynonyms());
       }
-      assertNull(mapping.getTaxonomyId());
+      assertEquals((Integer) 9606, mapping.getTaxonomyId());
       assertNull(mapping.getSequence());
       assertNull(mapping.getMolecularWeight());
     }
   }
 
+  @Test
+  public void downloadProteinMappings_Gene_ProteinSummaryRestErrorSkipId() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ);
+    when(parameters.isGeneId()).thenReturn(true);
+    final List<String> proteinIds = Files
+        .readAllLines(Paths.get(getClass().getResource("/annotation/accessions3.txt").toURI()));
+    byte[] proteinSummary = Files.readAllBytes(
+        Paths.get(getClass().getResource("/annotation/refseq-esummary.fcgi.xml").toURI()));
+    byte[] geneMappings = Files
+        .readAllBytes(Paths.get(getClass().getResource("/annotation/gene-elink.fcgi.xml").toURI()));
+    ResponseProcessingException error =
+        new ResponseProcessingException(Response.status(400).build(), "Test");
+    when(request.post(any(), eq(InputStream.class))).thenThrow(error, error)
+        .thenReturn(new ByteArrayInputStream(proteinSummary))
+        .thenReturn(new ByteArrayInputStream(geneMappings));
+
+    final List<ProteinMapping> mappings = refseqDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(request, times(4)).post(entityCaptor.capture(), eq(InputStream.class));
+    Form form = (Form) entityCaptor.getAllValues().get(1).getEntity();
+    assertEquals("protein", form.asMap().getFirst("db"));
+    String skippedId = form.asMap().getFirst("id");
+    assertTrue(proteinIds.contains(skippedId));
+    assertEquals(3, mappings.size());
+    verify(annotationCache, never()).putGeneIds(any(), eq(skippedId), any());
+    verify(annotationCache, times(2)).putGeneIds(eq(REFSEQ), any(), any());
+    MessageResources resources = new MessageResources(DownloadProteinMappingService.class, locale);
+    verify(progressBar).setMessage(resources.message("skippedProteins", 1));
+  }
+
   @Test
   public void downloadProteinMappings_Gene_GeneLinkRestError() throws Throwable {
     when(parameters.getProteinDatabase()).thenReturn(REFSEQ);
@@ -585,7 +912,7 @@ public class RefseqDownloadProteinMappingServiceTest {
         Paths.get(getClass().getResource("/annotation/gene-esummary.fcgi.xml").toURI()));
     when(request.post(any(), eq(InputStream.class)))
         .thenReturn(new ByteArrayInputStream(proteinSummary))
-        .thenThrow(new ResponseProcessingException(Response.status(404).build(), "Test"))
+        .thenThrow(new ResponseProcessingException(Response.status(503).build(), "Test"))
         .thenReturn(new ByteArrayInputStream(geneMappings))
         .thenReturn(new ByteArrayInputStream(geneInfos));
 
@@ -662,7 +989,7 @@ public class RefseqDownloadProteinMappingServiceTest {
         assertEquals("mental retardation, X-linked 39", gene.getDescription());
         assertEquals(null, gene.getSynonyms());
       }
-      assertNull(mapping.getTaxonomyId());
+      assertEquals((Integer) 9606, mapping.getTaxonomyId());
       assertNull(mapping.getSequence());
       assertNull(mapping.getMolecularWeight());
     }
@@ -686,7 +1013,7 @@ public class RefseqDownloadProteinMappingServiceTest {
     when(request.post(any(), eq(InputStream.class)))
         .thenReturn(new ByteArrayInputStream(proteinSummary))
         .thenReturn(new ByteArrayInputStream(geneMappings))
-        .thenThrow(new ResponseProcessingException(Response.status(404).build(), "Test"))
+        .thenThrow(new ResponseProcessingException(Response.status(503).build(), "Test"))
         .thenReturn(new ByteArrayInputStream(geneInfos));
 
     final List<ProteinMapping> mappings = refseqDownloadProteinMappingService
@@ -761,7 +1088,7 @@ public class RefseqDownloadProteinMappingServiceTest {
         assertEquals("mental retardation, X-linked 39", gene.getDescription());
         assertEquals(null, gene.getSynonyms());
       }
-      assertNull(mapping.getTaxonomyId());
+      assertEquals((Integer) 9606, mapping.getTaxonomyId());
       assertNull(mapping.getSequence());
       assertNull(mapping.getMolecularWeight());
     }
@@ -780,7 +1107,7 @@ public class RefseqDownloadProteinMappingServiceTest {
         Paths.get(getClass().getResource("/annotation/refseq-sequences.fasta").toURI());
     byte[] sequences = Files.readAllBytes(sequencesResource);
     when(request.post(any(), eq(InputStream.class)))
-        .thenThrow(new ResponseProcessingException(Response.status(404).build(), "Test"))
+        .thenThrow(new ResponseProcessingException(Response.status(503).build(), "Test"))
         .thenReturn(new ByteArrayInputStream(proteinSummary))
         .thenReturn(new ByteArrayInputStream(sequences));
     double sequenceWeight1 = 127.3;
@@ -845,7 +1172,7 @@ public class RefseqDownloadProteinMappingServiceTest {
         assertEquals(parseSequence(sequencesResource, 2), mapping.getSequence());
         assertEquals(sequenceWeight3, mapping.getMolecularWeight(), 0.001);
       }
-      assertNull(mapping.getTaxonomyId());
+      assertEquals((Integer) 9606, mapping.getTaxonomyId());
       assertTrue(mapping.getGenes() == null || mapping.getGenes().isEmpty());
     }
   }
@@ -861,7 +1188,7 @@ public class RefseqDownloadProteinMappingServiceTest {
         Paths.get(getClass().getResource("/annotation/refseq-sequences.fasta").toURI());
     byte[] sequences = Files.readAllBytes(sequencesResource);
     when(request.post(any(), eq(InputStream.class)))
-        .thenThrow(new ResponseProcessingException(Response.status(404).build(), "Test"))
+        .thenThrow(new ResponseProcessingException(Response.status(503).build(), "Test"))
         .thenReturn(new ByteArrayInputStream(sequences));
     double sequenceWeight1 = 127.3;
     double sequenceWeight2 = 58.9;
@@ -916,4 +1243,242 @@ public class RefseqDownloadProteinMappingServiceTest {
       assertTrue(mapping.getGenes() == null || mapping.getGenes().isEmpty());
     }
   }
+
+  @Test
+  public void downloadProteinMappings_Sequence_SequenceRestErrorSkipId() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ);
+    when(parameters.isSequence()).thenReturn(true);
+    final List<String> proteinIds = Files
+        .readAllLines(Paths.get(getClass().getResource("/annotation/accessions3.txt").toURI()));
+    Path sequencesResource =
+        Paths.get(getClass().getResource("/annotation/refseq-sequences.fasta").toURI());
+    // Response to second half of ids.
+    byte[] sequences = (">NP_001317083.1\n" + parseSequence(sequencesResource, 1)
+        + "\n>NP_001317082.1\n" + parseSequence(sequencesResource, 2) + "\n").getBytes(UTF_8);
+    ResponseProcessingException error =
+        new ResponseProcessingException(Response.status(400).build(), "Test");
+    when(request.post(any(), eq(InputStream.class))).thenThrow(error, error)
+        .thenReturn(new ByteArrayInputStream(sequences));
+
+    final List<ProteinMapping> mappings = refseqDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(request, times(3)).post(entityCaptor.capture(), eq(InputStream.class));
+    Form form = (Form) entityCaptor.getAllValues().get(1).getEntity();
+    assertEquals("fasta", form.asMap().getFirst("rettype"));
+    String skippedId = form.asMap().getFirst("id");
+    assertEquals("NP_001317102.1", skippedId);
+    assertEquals(3, mappings.size());
+    for (ProteinMapping mapping : mappings) {
+      if (mapping.getProteinId().equals(skippedId)) {
+        assertNull(mapping.getSequence());
+      } else {
+        assertNotNull(mapping.getSequence());
+      }
+    }
+    verify(annotationCache, never()).putSequence(any(), eq(skippedId), any());
+    verify(annotationCache, times(2)).putSequence(eq(REFSEQ), any(), any());
+    MessageResources resources = new MessageResources(DownloadProteinMappingService.class, locale);
+    verify(progressBar).setMessage(resources.message("skippedProteins", 1));
+  }
+
+  @Test
+  public void downloadProteinMappings_Gene_Cached() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ);
+    when(parameters.isGeneId()).thenReturn(true);
+    when(parameters.isGeneName()).thenReturn(true);
+    when(parameters.isGeneSynonyms()).thenReturn(true);
+    when(parameters.isGeneSummary()).thenReturn(true);
+    final List<String> proteinIds = Files
+        .readAllLines(Paths.get(getClass().getResource("/annotation/accessions3.txt").toURI()));
+    when(annotationCache.geneIds(REFSEQ, "NP_001317102.1")).thenReturn(Arrays.asList(1L));
+    when(annotationCache.geneIds(REFSEQ, "NP_001317083.1")).thenReturn(Arrays.asList(4404L));
+    when(annotationCache.geneIds(REFSEQ, "NP_001317082.1")).thenReturn(Arrays.asList(4404L));
+    GeneInfo gene1 = new GeneInfo(1L, "A1BG");
+    gene1.setDescription("alpha-1-B glycoprotein");
+    gene1.setSynonyms(Arrays.asList("A1B", "ABG", "GAB", "HYST2477"));
+    when(annotationCache.gene(1L)).thenReturn(gene1);
+    GeneInfo gene4404 = new GeneInfo(4404L, "MRX39");
+    gene4404.setDescription("mental retardation, X-linked 39");
+    when(annotationCache.gene(4404L)).thenReturn(gene4404);
+
+    final List<ProteinMapping> mappings = refseqDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(restClientFactory, never()).client();
+    verify(annotationCache, never()).putGeneIds(any(), any(), any());
+    verify(annotationCache, never()).putGene(any());
+    verify(annotationCache).flush();
+    assertEquals(3, mappings.size());
+    for (ProteinMapping mapping : mappings) {
+      assertNotNull(mapping.getGenes());
+      assertEquals(1, mapping.getGenes().size());
+      GeneInfo gene = mapping.getGenes().get(0);
+      if (mapping.getProteinId().equals("NP_001317102.1")) {
+        assertEquals(1L, gene.getId());
+        assertEquals("A1BG", gene.getSymbol());
+        assertEquals("alpha-1-B glycoprotein", gene.getDescription());
+        assertArrayEquals("A1B|ABG|GAB|HYST2477".split("\\|"), gene.getSynonyms().toArray());
+      } else {
+        assertEquals(4404L, gene.getId());
+        assertEquals("MRX39", gene.getSymbol());
+        assertEquals("mental retardation, X-linked 39", gene.getDescription());
+        assertNull(gene.getSynonyms());
+      }
+    }
+  }
+  @Test
+  public void downloadProteinMappings_Gene_LocalGeneInfo() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ);
+    when(parameters.isGeneId()).thenReturn(true);
+    when(parameters.isGeneName()).thenReturn(true);
+    when(parameters.isGeneSynonyms()).thenReturn(true);
+    when(parameters.isGeneSummary()).thenReturn(true);
+    final List<String> proteinIds = Files
+        .readAllLines(Paths.get(getClass().getResource("/annotation/accessions3.txt").toURI()));
+    byte[] proteinSummary = Files.readAllBytes(
+        Paths.get(getClass().getResource("/annotation/refseq-esummary.fcgi.xml").toURI()));
+    byte[] geneMappings = Files
+        .readAllBytes(Paths.get(getClass().getResource("/annotation/gene-elink.fcgi.xml").toURI()));
+    when(request.post(any(), eq(InputStream.class)))
+        .thenReturn(new ByteArrayInputStream(proteinSummary))
+        .thenReturn(new ByteArrayInputStream(geneMappings));
+    when(geneInfoIndex.enabled()).thenReturn(true);
+    GeneInfo gene1 = new GeneInfo(1L, "A1BG");
+    gene1.setDescription("alpha-1-B glycoprotein");
+    gene1.setSynonyms(Arrays.asList("A1B", "ABG", "GAB", "HYST2477"));
+    when(geneInfoIndex.gene(1L)).thenReturn(gene1);
+
+    final List<ProteinMapping> mappings = refseqDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(target).path(esummary);
+    verify(target).path(elink);
+    verify(request, times(2)).post(any(), eq(InputStream.class));
+    verify(geneInfoIndex, atLeastOnce()).gene(1L);
+    verify(geneInfoIndex, atLeastOnce()).gene(4404L);
+    verify(annotationCache, never()).gene(anyLong());
+    verify(annotationCache, never()).putGene(any());
+    assertEquals(3, mappings.size());
+    for (ProteinMapping mapping : mappings) {
+      assertNotNull(mapping.getGenes());
+      assertEquals(1, mapping.getGenes().size());
+      GeneInfo gene = mapping.getGenes().get(0);
+      if (mapping.getProteinId().equals("NP_001317102.1")) {
+        assertEquals(1L, gene.getId());
+        assertEquals("A1BG", gene.getSymbol());
+        assertEquals("alpha-1-B glycoprotein", gene.getDescription());
+        assertArrayEquals("A1B|ABG|GAB|HYST2477".split("\\|"), gene.getSynonyms().toArray());
+      } else {
+        // Gene 4404 is not in local gene_info file.
+        assertEquals(4404L, gene.getId());
+        assertNull(gene.getSymbol());
+        assertNull(gene.getDescription());
+        assertNull(gene.getSynonyms());
+      }
+    }
+  }
+
+  @Test
+  public void downloadProteinMappings_Gene_LocalGene2refseq() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ);
+    when(parameters.isGeneId()).thenReturn(true);
+    final List<String> proteinIds = Files
+        .readAllLines(Paths.get(getClass().getResource("/annotation/accessions3.txt").toURI()));
+    when(gene2refseqIndex.enabled()).thenReturn(true);
+    when(gene2refseqIndex.geneIds(any(), anyString())).thenReturn(Arrays.asList(4404L));
+    when(gene2refseqIndex.geneIds(REFSEQ, "NP_001317102.1")).thenReturn(Arrays.asList(1L));
+
+    final List<ProteinMapping> mappings = refseqDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(gene2refseqIndex).geneIds(REFSEQ, "NP_001317102.1");
+    verify(gene2refseqIndex).geneIds(REFSEQ, "NP_001317083.1");
+    verify(gene2refseqIndex).geneIds(REFSEQ, "NP_001317082.1");
+    verify(target, never()).path(esummary);
+    verify(target, never()).path(elink);
+    verify(request, never()).post(any(), eq(InputStream.class));
+    verify(annotationCache, never()).putGeneIds(any(), any(), any());
+    assertEquals(3, mappings.size());
+    for (ProteinMapping mapping : mappings) {
+      assertNotNull(mapping.getGenes());
+      assertEquals(1, mapping.getGenes().size());
+      GeneInfo gene = mapping.getGenes().get(0);
+      if (mapping.getProteinId().equals("NP_001317102.1")) {
+        assertEquals(1L, gene.getId());
+      } else {
+        assertEquals(4404L, gene.getId());
+      }
+    }
+  }
+
+  @Test
+  public void downloadProteinMappings_Gene_LocalGene2refseqGi() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
+    when(parameters.isGeneId()).thenReturn(true);
+    final List<String> proteinIds = Files
+        .readAllLines(Paths.get(getClass().getResource("/annotation/gis3.txt").toURI()));
+    when(gene2refseqIndex.enabled()).thenReturn(true);
+    when(gene2refseqIndex.geneIds(any(), anyString())).thenReturn(new ArrayList<>());
+    when(gene2refseqIndex.geneIds(REFSEQ_GI, "829098688")).thenReturn(Arrays.asList(1L));
+
+    final List<ProteinMapping> mappings = refseqDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(gene2refseqIndex).geneIds(REFSEQ_GI, "829098688");
+    verify(gene2refseqIndex).geneIds(REFSEQ_GI, "829098686");
+    verify(gene2refseqIndex).geneIds(REFSEQ_GI, "829098684");
+    verify(target, never()).path(elink);
+    verify(request, never()).post(any(), eq(InputStream.class));
+    assertEquals(3, mappings.size());
+    for (ProteinMapping mapping : mappings) {
+      if (mapping.getProteinId().equals("829098688")) {
+        assertEquals(1, mapping.getGenes().size());
+        assertEquals(1L, mapping.getGenes().get(0).getId());
+      } else {
+        assertTrue(mapping.getGenes() == null || mapping.getGenes().isEmpty());
+      }
+    }
+  }
+
+  @Test
+  public void downloadProteinMappings_Gene_SaveInCache() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ);
+    when(parameters.isGeneId()).thenReturn(true);
+    when(parameters.isGeneName()).thenReturn(true);
+    final List<String> proteinIds = Files
+        .readAllLines(Paths.get(getClass().getResource("/annotation/accessions3.txt").toURI()));
+    byte[] proteinSummary = Files.readAllBytes(
+        Paths.get(getClass().getResource("/annotation/refseq-esummary.fcgi.xml").toURI()));
+    byte[] geneMappings = Files
+        .readAllBytes(Paths.get(getClass().getResource("/annotation/gene-elink.fcgi.xml").toURI()));
+    byte[] geneInfos = Files.readAllBytes(
+        Paths.get(getClass().getResource("/annotation/gene-esummary.fcgi.xml").toURI()));
+    when(request.post(any(), eq(InputStream.class)))
+        .thenReturn(new ByteArrayInputStream(proteinSummary))
+        .thenReturn(new ByteArrayInputStream(geneMappings))
+        .thenReturn(new ByteArrayInputStream(geneInfos));
+
+    refseqDownloadProteinMappingService.downloadProteinMappings(proteinIds, parameters,
+        progressBar, locale);
+
+    verify(annotationCache).putGeneIds(REFSEQ, "NP_001317102.1", Arrays.asList(1L));
+    verify(annotationCache).putGeneIds(REFSEQ, "NP_001317083.1", Arrays.asList(4404L));
+    verify(annotationCache).putGeneIds(REFSEQ, "NP_001317082.1", Arrays.asList(4404L));
+    ArgumentCaptor<GeneInfo> geneCaptor = ArgumentCaptor.forClass(GeneInfo.class);
+    verify(annotationCache, times(2)).putGene(geneCaptor.capture());
+    for (GeneInfo gene : geneCaptor.getAllValues()) {
+      if (gene.getId() == 1L) {
+        assertEquals("A1BG", gene.getSymbol());
+        assertEquals("alpha-1-B glycoprotein", gene.getDescription());
+        assertArrayEquals("A1B|ABG|GAB|HYST2477".split("\\|"), gene.getSynonyms().toArray());
+      } else {
+        assertEquals(4404L, gene.getId());
+        assertEquals("MRX39", gene.getSymbol());
+        assertEquals("mental retardation, X-linked 39", gene.getDescription());
+        assertNull(gene.getSynonyms());
+      }
+    }
+    verify(annotationCache).flush();
+  }
 }
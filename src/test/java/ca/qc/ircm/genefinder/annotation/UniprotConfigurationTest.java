@@ -18,8 +18,10 @@
 package ca.qc.ircm.genefinder.annotation;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
+import java.nio.file.Paths;
 import java.util.regex.Pattern;
 import javax.inject.Inject;
 import org.junit.jupiter.api.Test;
@@ -32,6 +34,9 @@ public class UniprotConfigurationTest {
   @Test
   public void defaultProperties() throws Throwable {
     assertEquals("http://www.uniprot.org/uploadlists", uniprotConfiguration.mapping());
+    assertEquals("https://rest.uniprot.org/idmapping", uniprotConfiguration.mappingJob());
+    assertEquals(3000, uniprotConfiguration.mappingJobPollInterval());
+    assertEquals(1800000, uniprotConfiguration.mappingJobMaxWait());
     assertEquals(
         Pattern.compile(
             "^(?:\\w{2}\\|)?([OPQ][0-9][A-Z0-9]{3}[0-9])(?:-\\d+)?(?:\\|.*)?( \\(\\+\\d+\\))?|"
@@ -40,5 +45,9 @@ public class UniprotConfigurationTest {
             .pattern(),
         uniprotConfiguration.proteinIdPattern().pattern());
     assertEquals(100, uniprotConfiguration.maxIdsPerRequest());
+    assertNull(uniprotConfiguration.idmapping());
+    assertNull(uniprotConfiguration.fasta());
+    assertEquals(Paths.get(System.getProperty("user.home"), ".genefinder", "index"),
+        uniprotConfiguration.indexDirectory());
   }
 }
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+import ca.qc.ircm.genefinder.data.FindGenesParameters;
+import ca.qc.ircm.genefinder.protein.ProteinService;
+import ca.qc.ircm.genefinder.rest.AdaptiveBatchSize;
+import ca.qc.ircm.genefinder.rest.AdaptiveBatchSizes;
+import ca.qc.ircm.genefinder.rest.RestClientFactory;
+import ca.qc.ircm.genefinder.rest.RestConfiguration;
+import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
+import ca.qc.ircm.genefinder.xml.SaxParserPool;
+import ca.qc.ircm.progressbar.ProgressBar;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+
+/**
+ * Tests for {@link UniprotDownloadProteinMappingService} using UniProt's asynchronous id mapping
+ * service.
+ */
+@ServiceTestAnnotations
+public class UniprotDownloadProteinMappingServiceJobTest {
+  private static final int RUNNING_POLLS = 2;
+  private UniprotDownloadProteinMappingService uniprotDownloadProteinMappingService;
+  @Mock
+  private UniprotConfiguration uniprotConfiguration;
+  @Mock
+  private NcbiConfiguration ncbiConfiguration;
+  @Mock
+  private RestClientFactory restClientFactory;
+  @Mock
+  private ProteinService proteinService;
+  @Mock
+  private AnnotationCache annotationCache;
+  @Mock
+  private NcbiRequestScheduler ncbiRequestScheduler;
+  @Mock
+  private GeneInfoIndex geneInfoIndex;
+  @Mock
+  private UniprotIndex uniprotIndex;
+  @Mock
+  private AdaptiveBatchSizes adaptiveBatchSizes;
+  @Mock
+  private RestConfiguration restConfiguration;
+  @Mock
+  private FindGenesParameters parameters;
+  @Mock
+  private ProgressBar progressBar;
+  private Locale locale = Locale.getDefault();
+  private UniprotMappingJobStubServer server;
+  private Client client;
+  private List<String> proteinIds;
+
+  /**
+   * Before test.
+   */
+  @BeforeEach
+  public void beforeTest() throws Throwable {
+    uniprotDownloadProteinMappingService = new UniprotDownloadProteinMappingService(
+        uniprotConfiguration, ncbiConfiguration, restClientFactory, proteinService,
+        annotationCache, ncbiRequestScheduler, geneInfoIndex, uniprotIndex, adaptiveBatchSizes,
+        restConfiguration, new SaxParserPool());
+    server = new UniprotMappingJobStubServer();
+    for (String line : Files.readAllLines(
+        Paths.get(getClass().getResource("/annotation/idmapping3-gene-sequence").toURI()))
+        .subList(1, 4)) {
+      String[] columns = line.split("\t", -1);
+      server.entry(columns[0], columns[1], columns[2]);
+    }
+    server.runningPolls(RUNNING_POLLS);
+    proteinIds = Files.readAllLines(
+        Paths.get(getClass().getResource("/annotation/uniprot-accessions3.txt").toURI()));
+    // Same connector as RestClientFactory, so that truncated responses fail like in production.
+    client = ClientBuilder
+        .newClient(new ClientConfig().connectorProvider(new ApacheConnectorProvider()));
+    when(uniprotConfiguration.mappingJob()).thenReturn(server.url());
+    when(uniprotConfiguration.mappingJobPollInterval()).thenReturn(10);
+    when(uniprotConfiguration.mappingJobMaxWait()).thenReturn(60000);
+    when(restClientFactory.client()).thenReturn(client);
+    when(progressBar.step(anyDouble())).thenReturn(progressBar);
+    when(adaptiveBatchSizes.get(anyString(), anyInt(), anyInt())).thenAnswer(
+        i -> new AdaptiveBatchSize(i.getArgument(0), i.getArgument(1), i.getArgument(1)));
+    when(restConfiguration.connectRetries()).thenReturn(2);
+    when(restConfiguration.readRetries()).thenReturn(2);
+    when(annotationCache.geneIds(any(), any())).thenReturn(null);
+    when(parameters.getProteinDatabase()).thenReturn(ProteinDatabase.UNIPROT);
+  }
+
+  @AfterEach
+  public void afterTest() {
+    client.close();
+    server.close();
+  }
+
+  private Map<String, ProteinMapping> mappingsById(List<ProteinMapping> mappings) {
+    return mappings.stream()
+        .collect(Collectors.toMap(mapping -> mapping.getProteinId(), mapping -> mapping));
+  }
+
+  private List<Long> geneIds(ProteinMapping mapping) {
+    return mapping.getGenes().stream().map(gene -> gene.getId()).collect(Collectors.toList());
+  }
+
+  @Test
+  public void downloadProteinMappings_GeneSequence() throws Throwable {
+    when(parameters.isGeneId()).thenReturn(true);
+    when(parameters.isSequence()).thenReturn(true);
+
+    List<ProteinMapping> mappings = uniprotDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    assertEquals(1, server.jobForms().size());
+    Map<String, String> form = server.jobForms().get(0);
+    assertEquals("UniProtKB_AC-ID", form.get("from"));
+    assertEquals("UniProtKB", form.get("to"));
+    assertEquals(String.join(",", proteinIds), form.get("ids"));
+    assertEquals(RUNNING_POLLS + 1, server.statusRequests());
+    assertEquals(1, server.resultQueries().size());
+    assertTrue(server.resultQueries().get(0).contains("format=tsv"));
+    assertTrue(
+        server.resultQueries().get(0).contains("fields=accession%2Cxref_geneid%2Csequence"));
+    assertEquals(3, mappings.size());
+    Map<String, ProteinMapping> mappingsById = mappingsById(mappings);
+    ProteinMapping mapping = mappingsById.get("A0A075B759");
+    assertEquals(Arrays.asList(1L, 2149L), geneIds(mapping));
+    assertTrue(mapping.getSequence().startsWith("MVNSVVFFEITRDGKPLGRISIKLFADK"));
+    mapping = mappingsById.get("A0AV96");
+    assertEquals(Arrays.asList(4404L), geneIds(mapping));
+    assertTrue(mapping.getSequence().startsWith("MTAEDSTAAMSSDSAAGSSAKVPEGVAG"));
+    mapping = mappingsById.get("A0A024RAP8");
+    assertEquals(Arrays.asList(4404L), geneIds(mapping));
+    assertTrue(mapping.getSequence().startsWith("MGWIRGRRSRHSWEMSEFHNYNLDLKKS"));
+  }
+
+  @Test
+  public void downloadProteinMappings_Gene() throws Throwable {
+    when(parameters.isGeneId()).thenReturn(true);
+
+    List<ProteinMapping> mappings = uniprotDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    assertEquals(1, server.resultQueries().size());
+    assertTrue(server.resultQueries().get(0).endsWith("fields=accession%2Cxref_geneid"));
+    Map<String, ProteinMapping> mappingsById = mappingsById(mappings);
+    assertEquals(Arrays.asList(1L, 2149L), geneIds(mappingsById.get("A0A075B759")));
+    assertEquals(Arrays.asList(4404L), geneIds(mappingsById.get("A0AV96")));
+    assertEquals(Arrays.asList(4404L), geneIds(mappingsById.get("A0A024RAP8")));
+    mappings.forEach(mapping -> assertNull(mapping.getSequence()));
+  }
+
+  @Test
+  public void downloadProteinMappings_JobError() throws Throwable {
+    when(parameters.isGeneId()).thenReturn(true);
+    server.error("Invalid ids");
+
+    IOException exception = assertThrows(IOException.class, () -> {
+      uniprotDownloadProteinMappingService.downloadProteinMappings(proteinIds, parameters,
+          progressBar, locale);
+    });
+
+    assertTrue(exception.getMessage().contains("Invalid ids"));
+    assertTrue(server.resultQueries().isEmpty());
+  }
+
+  @Test
+  public void downloadProteinMappings_JobTimeout() throws Throwable {
+    when(parameters.isGeneId()).thenReturn(true);
+    when(uniprotConfiguration.mappingJobMaxWait()).thenReturn(100);
+    server.runningPolls(Integer.MAX_VALUE);
+
+    IOException exception = assertThrows(IOException.class, () -> {
+      uniprotDownloadProteinMappingService.downloadProteinMappings(proteinIds, parameters,
+          progressBar, locale);
+    });
+
+    assertTrue(exception.getMessage().contains("did not finish within 100 milliseconds"));
+    assertTrue(server.statusRequests() > 1);
+    assertTrue(server.resultQueries().isEmpty());
+  }
+
+  @Test
+  public void downloadProteinMappings_TruncatedResults() throws Throwable {
+    when(parameters.isGeneId()).thenReturn(true);
+    server.truncatedResults(1);
+
+    List<ProteinMapping> mappings = uniprotDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    assertEquals(2, server.resultQueries().size());
+    Map<String, ProteinMapping> mappingsById = mappingsById(mappings);
+    // Genes parsed before connection was closed are not added twice.
+    assertEquals(Arrays.asList(1L, 2149L), geneIds(mappingsById.get("A0A075B759")));
+    assertEquals(Arrays.asList(4404L), geneIds(mappingsById.get("A0AV96")));
+    assertEquals(Arrays.asList(4404L), geneIds(mappingsById.get("A0A024RAP8")));
+  }
+}
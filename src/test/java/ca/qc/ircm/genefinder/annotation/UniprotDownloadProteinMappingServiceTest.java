@@ -17,25 +17,37 @@
 
 package ca.qc.ircm.genefinder.annotation;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import ca.qc.ircm.genefinder.data.FindGenesParameters;
 import ca.qc.ircm.genefinder.protein.ProteinService;
+import ca.qc.ircm.genefinder.protein.WeightAccumulator;
+import ca.qc.ircm.genefinder.rest.AdaptiveBatchSize;
+import ca.qc.ircm.genefinder.rest.AdaptiveBatchSizes;
 import ca.qc.ircm.genefinder.rest.RestClientFactory;
+import ca.qc.ircm.genefinder.rest.RestConfiguration;
 import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
+import ca.qc.ircm.genefinder.xml.SaxParserPool;
 import ca.qc.ircm.progressbar.ProgressBar;
+import ca.qc.ircm.utils.MessageResources;
+import jakarta.ws.rs.ProcessingException;
 import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.client.Invocation;
@@ -47,6 +59,7 @@ import jakarta.ws.rs.core.Response;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.ConnectException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -55,6 +68,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -82,6 +97,18 @@ public class UniprotDownloadProteinMappingServiceTest {
   @Mock
   private ProteinService proteinService;
   @Mock
+  private AnnotationCache annotationCache;
+  @Mock
+  private NcbiRequestScheduler ncbiRequestScheduler;
+  @Mock
+  private GeneInfoIndex geneInfoIndex;
+  @Mock
+  private UniprotIndex uniprotIndex;
+  @Mock
+  private AdaptiveBatchSizes adaptiveBatchSizes;
+  @Mock
+  private RestConfiguration restConfiguration;
+  @Mock
   private FindGenesParameters parameters;
   @Mock
   private ProgressBar progressBar;
@@ -100,17 +127,32 @@ public class UniprotDownloadProteinMappingServiceTest {
   @BeforeEach
   public void beforeTest() throws Throwable {
     uniprotDownloadProteinMappingService = new UniprotDownloadProteinMappingService(
-        uniprotConfiguration, ncbiConfiguration, restClientFactory, proteinService);
+        uniprotConfiguration, ncbiConfiguration, restClientFactory, proteinService,
+        annotationCache, ncbiRequestScheduler, geneInfoIndex, uniprotIndex, adaptiveBatchSizes,
+        restConfiguration, new SaxParserPool());
     when(uniprotConfiguration.mapping()).thenReturn(mapping);
     when(uniprotConfiguration.maxIdsPerRequest()).thenReturn(MAX_IDS_PER_REQUEST);
     when(ncbiConfiguration.eutils()).thenReturn(eutils);
     when(ncbiConfiguration.maxIdsPerRequest()).thenReturn(MAX_IDS_PER_REQUEST);
-    when(restClientFactory.createClient()).thenReturn(client);
+    when(restClientFactory.client()).thenReturn(client);
     when(client.target(anyString())).thenReturn(target);
     when(target.path(anyString())).thenReturn(target);
     when(target.queryParam(anyString(), any())).thenReturn(target);
     when(target.request()).thenReturn(request);
     when(progressBar.step(anyDouble())).thenReturn(progressBar);
+    // Fixed batch sizes.
+    when(adaptiveBatchSizes.get(anyString(), anyInt(), anyInt())).thenAnswer(
+        i -> new AdaptiveBatchSize(i.getArgument(0), i.getArgument(1), i.getArgument(1)));
+    when(restConfiguration.connectRetries()).thenReturn(2);
+    when(restConfiguration.readRetries()).thenReturn(2);
+    when(annotationCache.geneIds(any(), any())).thenReturn(null);
+    doAnswer(i -> {
+      List<? extends Callable<?>> batches = i.getArgument(0);
+      for (Callable<?> batch : batches) {
+        batch.call();
+      }
+      return null;
+    }).when(ncbiRequestScheduler).execute(any(), any(), any());
   }
 
   private String parseSequence(Path sequenceMapping, String proteinId) throws IOException {
@@ -172,7 +214,7 @@ public class UniprotDownloadProteinMappingServiceTest {
     final List<ProteinMapping> mappings = uniprotDownloadProteinMappingService
         .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
 
-    verify(restClientFactory, times(2)).createClient();
+    verify(restClientFactory, times(2)).client();
     verify(client).target(mapping);
     verify(target).queryParam("from", "ACC,ID");
     verify(target).queryParam("to", "ACC");
@@ -248,7 +290,7 @@ public class UniprotDownloadProteinMappingServiceTest {
     final List<ProteinMapping> mappings = uniprotDownloadProteinMappingService
         .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
 
-    verify(restClientFactory).createClient();
+    verify(restClientFactory).client();
     verify(client).target(mapping);
     verify(target).queryParam("from", "ACC,ID");
     verify(target).queryParam("to", "ACC");
@@ -353,6 +395,100 @@ public class UniprotDownloadProteinMappingServiceTest {
     }
   }
 
+  @Test
+  public void downloadProteinMappings_Gene_Sequence_LocalIndex() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(ProteinDatabase.UNIPROT);
+    when(parameters.isGeneId()).thenReturn(true);
+    when(parameters.isSequence()).thenReturn(true);
+    final List<String> proteinIds = Files.readAllLines(
+        Paths.get(getClass().getResource("/annotation/uniprot-accessions3.txt").toURI()));
+    when(uniprotIndex.enabled()).thenReturn(true);
+    when(uniprotIndex.sequencesEnabled()).thenReturn(true);
+    when(uniprotIndex.geneIds(anyString())).thenReturn(Arrays.asList(4404L));
+    when(uniprotIndex.geneIds("A0A075B759")).thenReturn(Arrays.asList(1L, 2149L));
+    when(uniprotIndex.sequence(anyString())).thenReturn("MTAEDSTAAMSSDSAAGSSAK");
+    when(uniprotIndex.sequence("A0A075B759")).thenReturn("MVNSVVFFEITRDGKPLGRISIK");
+
+    final List<ProteinMapping> mappings = uniprotDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(client, never()).target(anyString());
+    verify(request, never()).get(InputStream.class);
+    verify(annotationCache, never()).putGeneIds(any(), any(), any());
+    verify(annotationCache, never()).putSequence(any(), any(), any());
+    assertEquals(3, mappings.size());
+    for (ProteinMapping mapping : mappings) {
+      if (mapping.getProteinId().equals("A0A075B759")) {
+        assertEquals(2, mapping.getGenes().size());
+        assertEquals(1L, mapping.getGenes().get(0).getId());
+        assertEquals(2149L, mapping.getGenes().get(1).getId());
+        assertEquals("MVNSVVFFEITRDGKPLGRISIK", mapping.getSequence());
+      } else {
+        assertEquals(1, mapping.getGenes().size());
+        assertEquals(4404L, mapping.getGenes().get(0).getId());
+        assertEquals("MTAEDSTAAMSSDSAAGSSAK", mapping.getSequence());
+      }
+    }
+  }
+
+  @Test
+  public void downloadProteinMappings_MolecularWeight_LocalIndex() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(ProteinDatabase.UNIPROT);
+    when(parameters.isProteinMolecularWeight()).thenReturn(true);
+    final List<String> proteinIds = Files.readAllLines(
+        Paths.get(getClass().getResource("/annotation/uniprot-accessions3.txt").toURI()));
+    when(uniprotIndex.sequencesEnabled()).thenReturn(true);
+    when(uniprotIndex.residues(anyString(), any())).thenAnswer(i -> {
+      IntConsumer residues = i.getArgument(1);
+      "MTAEDSTAAMSSDSAAGSSAK".chars().forEach(residues);
+      return true;
+    });
+    when(proteinService.weightAccumulator()).thenAnswer(i -> new WeightAccumulator());
+
+    final List<ProteinMapping> mappings = uniprotDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(client, never()).target(anyString());
+    verify(uniprotIndex, never()).sequence(anyString());
+    verify(proteinService, never()).weight(any());
+    assertEquals(3, mappings.size());
+    for (ProteinMapping mapping : mappings) {
+      assertNull(mapping.getSequence());
+      assertEquals(new ProteinService().weight("MTAEDSTAAMSSDSAAGSSAK"),
+          mapping.getMolecularWeight(), 0.000001);
+    }
+  }
+
+  @Test
+  public void downloadProteinMappings_Gene_Sequence_LocalIdmapping() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(ProteinDatabase.UNIPROT);
+    when(parameters.isGeneId()).thenReturn(true);
+    when(parameters.isSequence()).thenReturn(true);
+    final List<String> proteinIds = Files.readAllLines(
+        Paths.get(getClass().getResource("/annotation/uniprot-accessions3.txt").toURI()));
+    Path remoteMappingsPath =
+        Paths.get(getClass().getResource("/annotation/idmapping3-sequence").toURI());
+    byte[] remoteMappings = Files.readAllBytes(remoteMappingsPath);
+    when(request.get(InputStream.class)).thenReturn(new ByteArrayInputStream(remoteMappings));
+    when(uniprotIndex.enabled()).thenReturn(true);
+    when(uniprotIndex.geneIds(anyString())).thenReturn(Arrays.asList(4404L));
+
+    final List<ProteinMapping> mappings = uniprotDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(target).queryParam("columns", "id,sequence");
+    verify(request).get(InputStream.class);
+    verify(uniprotIndex, never()).sequence(anyString());
+    verify(annotationCache, never()).putGeneIds(any(), any(), any());
+    assertEquals(3, mappings.size());
+    for (ProteinMapping mapping : mappings) {
+      assertEquals(1, mapping.getGenes().size());
+      assertEquals(4404L, mapping.getGenes().get(0).getId());
+      assertEquals(parseSequence(remoteMappingsPath, mapping.getProteinId()),
+          mapping.getSequence());
+    }
+  }
+
   @Test
   public void downloadProteinMappings_OverMaxIdsPerRequest() throws Throwable {
     when(uniprotConfiguration.maxIdsPerRequest()).thenReturn(2);
@@ -374,7 +510,7 @@ public class UniprotDownloadProteinMappingServiceTest {
     final List<ProteinMapping> mappings = uniprotDownloadProteinMappingService
         .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
 
-    verify(restClientFactory, times(2)).createClient();
+    verify(restClientFactory, times(2)).client();
     verify(client).target(mapping);
     verify(target).queryParam("from", "ACC,ID");
     verify(target).queryParam("to", "ACC");
@@ -443,7 +579,7 @@ public class UniprotDownloadProteinMappingServiceTest {
         Paths.get(getClass().getResource("/annotation/idmapping3-sequence").toURI());
     byte[] remoteMappings = Files.readAllBytes(remoteMappingsPath);
     when(request.get(InputStream.class))
-        .thenThrow(new ResponseProcessingException(Response.status(404).build(), "Test"))
+        .thenThrow(new ResponseProcessingException(Response.status(503).build(), "Test"))
         .thenReturn(new ByteArrayInputStream(remoteMappings));
     double sequenceWeight1 = 127.3;
     double sequenceWeight2 = 58.9;
@@ -454,7 +590,7 @@ public class UniprotDownloadProteinMappingServiceTest {
     final List<ProteinMapping> mappings = uniprotDownloadProteinMappingService
         .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
 
-    verify(restClientFactory).createClient();
+    verify(restClientFactory).client();
     verify(client).target(mapping);
     verify(target).queryParam("from", "ACC,ID");
     verify(target).queryParam("to", "ACC");
@@ -486,6 +622,175 @@ public class UniprotDownloadProteinMappingServiceTest {
     }
   }
 
+  @Test
+  public void downloadProteinMappings_Sequence_RestErrorSplit() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(ProteinDatabase.UNIPROT);
+    when(parameters.isSequence()).thenReturn(true);
+    final List<String> proteinIds = Files.readAllLines(
+        Paths.get(getClass().getResource("/annotation/uniprot-accessions3.txt").toURI()));
+    Path remoteMappingsPath =
+        Paths.get(getClass().getResource("/annotation/idmapping3-sequence").toURI());
+    List<String> remoteMappings = Files.readAllLines(remoteMappingsPath);
+    byte[] firstMapping = String.join("\n", remoteMappings.subList(0, 2)).getBytes(UTF_8);
+    byte[] otherMappings = String
+        .join("\n", remoteMappings.get(0), remoteMappings.get(2), remoteMappings.get(3))
+        .getBytes(UTF_8);
+    ResponseProcessingException error =
+        new ResponseProcessingException(Response.status(400).build(), "Test");
+    when(request.get(InputStream.class)).thenThrow(error)
+        .thenReturn(new ByteArrayInputStream(firstMapping))
+        .thenReturn(new ByteArrayInputStream(otherMappings));
+
+    final List<ProteinMapping> mappings = uniprotDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(target, times(3)).queryParam(eq("query"), stringCaptor.capture());
+    assertEquals(String.join(" ", proteinIds), stringCaptor.getAllValues().get(0));
+    assertEquals(proteinIds.get(0), stringCaptor.getAllValues().get(1));
+    assertEquals(proteinIds.get(1) + " " + proteinIds.get(2),
+        stringCaptor.getAllValues().get(2));
+    verify(request, times(3)).get(InputStream.class);
+    assertEquals(3, mappings.size());
+    for (ProteinMapping mapping : mappings) {
+      assertEquals(parseSequence(remoteMappingsPath, mapping.getProteinId()),
+          mapping.getSequence());
+    }
+  }
+
+  @Test
+  public void downloadProteinMappings_Sequence_RestErrorRetriedSplit() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(ProteinDatabase.UNIPROT);
+    when(parameters.isSequence()).thenReturn(true);
+    final List<String> proteinIds = Files.readAllLines(
+        Paths.get(getClass().getResource("/annotation/uniprot-accessions3.txt").toURI()));
+    Path remoteMappingsPath =
+        Paths.get(getClass().getResource("/annotation/idmapping3-sequence").toURI());
+    List<String> remoteMappings = Files.readAllLines(remoteMappingsPath);
+    byte[] firstMapping = String.join("\n", remoteMappings.subList(0, 2)).getBytes(UTF_8);
+    byte[] otherMappings = String
+        .join("\n", remoteMappings.get(0), remoteMappings.get(2), remoteMappings.get(3))
+        .getBytes(UTF_8);
+    ResponseProcessingException error =
+        new ResponseProcessingException(Response.status(503).build(), "Test");
+    when(request.get(InputStream.class)).thenThrow(error, error, error)
+        .thenReturn(new ByteArrayInputStream(firstMapping))
+        .thenReturn(new ByteArrayInputStream(otherMappings));
+
+    final List<ProteinMapping> mappings = uniprotDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(target, times(3)).queryParam(eq("query"), stringCaptor.capture());
+    assertEquals(String.join(" ", proteinIds), stringCaptor.getAllValues().get(0));
+    assertEquals(proteinIds.get(0), stringCaptor.getAllValues().get(1));
+    assertEquals(proteinIds.get(1) + " " + proteinIds.get(2),
+        stringCaptor.getAllValues().get(2));
+    verify(request, times(5)).get(InputStream.class);
+    assertEquals(3, mappings.size());
+    for (ProteinMapping mapping : mappings) {
+      assertEquals(parseSequence(remoteMappingsPath, mapping.getProteinId()),
+          mapping.getSequence());
+    }
+  }
+
+  @Test
+  public void downloadProteinMappings_Sequence_RestErrorSkipId() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(ProteinDatabase.UNIPROT);
+    when(parameters.isSequence()).thenReturn(true);
+    final List<String> proteinIds = Files.readAllLines(
+        Paths.get(getClass().getResource("/annotation/uniprot-accessions3.txt").toURI()));
+    Path remoteMappingsPath =
+        Paths.get(getClass().getResource("/annotation/idmapping3-sequence").toURI());
+    List<String> remoteMappings = Files.readAllLines(remoteMappingsPath);
+    byte[] otherMappings = String
+        .join("\n", remoteMappings.get(0), remoteMappings.get(2), remoteMappings.get(3))
+        .getBytes(UTF_8);
+    ResponseProcessingException error =
+        new ResponseProcessingException(Response.status(400).build(), "Test");
+    when(request.get(InputStream.class)).thenThrow(error, error)
+        .thenReturn(new ByteArrayInputStream(otherMappings));
+
+    final List<ProteinMapping> mappings = uniprotDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(target, times(3)).queryParam(eq("query"), stringCaptor.capture());
+    assertEquals(proteinIds.get(0), stringCaptor.getAllValues().get(1));
+    assertEquals(proteinIds.get(1) + " " + proteinIds.get(2),
+        stringCaptor.getAllValues().get(2));
+    verify(request, times(3)).get(InputStream.class);
+    assertEquals(3, mappings.size());
+    for (ProteinMapping mapping : mappings) {
+      if (mapping.getProteinId().equals(proteinIds.get(0))) {
+        assertNull(mapping.getSequence());
+      } else {
+        assertEquals(parseSequence(remoteMappingsPath, mapping.getProteinId()),
+            mapping.getSequence());
+      }
+    }
+  }
+
+  @Test
+  public void downloadProteinMappings_Gene_RestErrorSkipId() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(ProteinDatabase.UNIPROT);
+    when(parameters.isGeneId()).thenReturn(true);
+    final List<String> proteinIds = Files.readAllLines(
+        Paths.get(getClass().getResource("/annotation/uniprot-accessions3.txt").toURI()));
+    List<String> remoteMappings = Files
+        .readAllLines(Paths.get(getClass().getResource("/annotation/idmapping3-gene").toURI()));
+    byte[] otherMappings = String
+        .join("\n", remoteMappings.get(0), remoteMappings.get(2), remoteMappings.get(3))
+        .getBytes(UTF_8);
+    ResponseProcessingException error =
+        new ResponseProcessingException(Response.status(400).build(), "Test");
+    when(request.get(InputStream.class)).thenThrow(error, error)
+        .thenReturn(new ByteArrayInputStream(otherMappings));
+
+    final List<ProteinMapping> mappings = uniprotDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
+
+    verify(request, times(3)).get(InputStream.class);
+    assertEquals(3, mappings.size());
+    verify(annotationCache, never()).putGeneIds(any(), eq(proteinIds.get(0)), any());
+    verify(annotationCache).putGeneIds(ProteinDatabase.UNIPROT, proteinIds.get(1),
+        Arrays.asList(4404L));
+    verify(annotationCache).putGeneIds(ProteinDatabase.UNIPROT, proteinIds.get(2),
+        Arrays.asList(4404L));
+    MessageResources resources = new MessageResources(DownloadProteinMappingService.class, locale);
+    verify(progressBar).setMessage(resources.message("skippedProteins", 1));
+  }
+
+  @Test
+  public void downloadProteinMappings_Sequence_RestErrorAllIds() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(ProteinDatabase.UNIPROT);
+    when(parameters.isSequence()).thenReturn(true);
+    final List<String> proteinIds = Files.readAllLines(
+        Paths.get(getClass().getResource("/annotation/uniprot-accessions3.txt").toURI()));
+    when(request.get(InputStream.class))
+        .thenThrow(new ResponseProcessingException(Response.status(400).build(), "Test"));
+
+    assertThrows(IOException.class, () -> uniprotDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale));
+
+    // Full batch, first id, last two ids, then second id on its own.
+    verify(request, times(4)).get(InputStream.class);
+  }
+
+  @Test
+  public void downloadProteinMappings_Sequence_ConnectError() throws Throwable {
+    when(parameters.getProteinDatabase()).thenReturn(ProteinDatabase.UNIPROT);
+    when(parameters.isSequence()).thenReturn(true);
+    final List<String> proteinIds = Files.readAllLines(
+        Paths.get(getClass().getResource("/annotation/uniprot-accessions3.txt").toURI()));
+    when(request.get(InputStream.class))
+        .thenThrow(new ProcessingException(new ConnectException("Test")));
+
+    assertThrows(IOException.class, () -> uniprotDownloadProteinMappingService
+        .downloadProteinMappings(proteinIds, parameters, progressBar, locale));
+
+    // Ids are not split when service cannot be reached.
+    verify(target).queryParam(eq("query"), any());
+    verify(request, times(3)).get(InputStream.class);
+  }
+
   @Test
   public void downloadProteinMappings_Gene_RestError() throws Throwable {
     when(parameters.getProteinDatabase()).thenReturn(ProteinDatabase.UNIPROT);
@@ -501,13 +806,13 @@ public class UniprotDownloadProteinMappingServiceTest {
     byte[] geneInfos = Files.readAllBytes(
         Paths.get(getClass().getResource("/annotation/gene-esummary.fcgi.xml").toURI()));
     when(request.post(any(), eq(InputStream.class)))
-        .thenThrow(new ResponseProcessingException(Response.status(404).build(), "Test"))
+        .thenThrow(new ResponseProcessingException(Response.status(503).build(), "Test"))
         .thenReturn(new ByteArrayInputStream(geneInfos));
 
     final List<ProteinMapping> mappings = uniprotDownloadProteinMappingService
         .downloadProteinMappings(proteinIds, parameters, progressBar, locale);
 
-    verify(restClientFactory, times(2)).createClient();
+    verify(restClientFactory, times(2)).client();
     verify(client).target(mapping);
     verify(target).queryParam("from", "ACC,ID");
     verify(target).queryParam("to", "ACC");
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+
+@ServiceTestAnnotations
+public class UniprotIndexTest {
+  private UniprotIndex uniprotIndex;
+  @Mock
+  private UniprotConfiguration uniprotConfiguration;
+  @TempDir
+  Path temporaryFolder;
+  private Path idmapping;
+  private Path fasta;
+  private Path indexDirectory;
+
+  /**
+   * Before test.
+   */
+  @BeforeEach
+  public void beforeTest() throws Throwable {
+    uniprotIndex = new UniprotIndex(uniprotConfiguration);
+    idmapping = temporaryFolder.resolve("idmapping_selected.tab.gz");
+    try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(idmapping))) {
+      Files.copy(Paths.get(getClass().getResource("/annotation/uniprot-idmapping.txt").toURI()),
+          output);
+    }
+    fasta = temporaryFolder.resolve("uniprot.fasta");
+    Files.copy(Paths.get(getClass().getResource("/annotation/uniprot-sequences.fasta").toURI()),
+        fasta);
+    indexDirectory = temporaryFolder.resolve("index");
+    when(uniprotConfiguration.idmapping()).thenReturn(idmapping);
+    when(uniprotConfiguration.fasta()).thenReturn(fasta);
+    when(uniprotConfiguration.indexDirectory()).thenReturn(indexDirectory);
+  }
+
+  @AfterEach
+  public void afterTest() throws Throwable {
+    uniprotIndex.close();
+  }
+
+  @Test
+  public void enabled() {
+    assertTrue(uniprotIndex.enabled());
+    assertTrue(uniprotIndex.sequencesEnabled());
+  }
+
+  @Test
+  public void enabled_False() {
+    when(uniprotConfiguration.idmapping()).thenReturn(null);
+    when(uniprotConfiguration.fasta()).thenReturn(null);
+
+    assertFalse(uniprotIndex.enabled());
+    assertFalse(uniprotIndex.sequencesEnabled());
+  }
+
+  @Test
+  public void geneIds() throws Throwable {
+    assertEquals(Arrays.asList(1L, 2149L), uniprotIndex.geneIds("A0A075B759"));
+    assertEquals(Arrays.asList(4404L), uniprotIndex.geneIds("A0AV96"));
+    assertEquals(Arrays.asList(4404L), uniprotIndex.geneIds("A0A024RAP8"));
+    assertTrue(Files.exists(indexDirectory.resolve("uniprot-idmapping.index")));
+  }
+
+  @Test
+  public void geneIds_NoGene() throws Throwable {
+    assertTrue(uniprotIndex.geneIds("Q9XYZ1").isEmpty());
+  }
+
+  @Test
+  public void geneIds_Missing() throws Throwable {
+    assertTrue(uniprotIndex.geneIds("P12345").isEmpty());
+    assertTrue(uniprotIndex.geneIds("PAL4E_HUMAN").isEmpty());
+  }
+
+  @Test
+  public void geneIds_Uncompressed() throws Throwable {
+    idmapping = temporaryFolder.resolve("idmapping_selected.tab");
+    Files.copy(Paths.get(getClass().getResource("/annotation/uniprot-idmapping.txt").toURI()),
+        idmapping);
+    when(uniprotConfiguration.idmapping()).thenReturn(idmapping);
+
+    assertEquals(Arrays.asList(1L, 2149L), uniprotIndex.geneIds("A0A075B759"));
+  }
+
+  @Test
+  public void geneIds_ReuseIndex() throws Throwable {
+    uniprotIndex.geneIds("A0AV96");
+    uniprotIndex.close();
+    FileTime indexModified =
+        Files.getLastModifiedTime(indexDirectory.resolve("uniprot-idmapping.index"));
+    uniprotIndex = new UniprotIndex(uniprotConfiguration);
+
+    assertEquals(Arrays.asList(4404L), uniprotIndex.geneIds("A0AV96"));
+    assertEquals(indexModified,
+        Files.getLastModifiedTime(indexDirectory.resolve("uniprot-idmapping.index")));
+  }
+
+  @Test
+  public void sequence() throws Throwable {
+    assertEquals("MVNSVVFFEITRDGKPLGRISIKLFADKIPKTAENFRALSTGEKGFRYKGSCFHRIIPGF"
+        + "MCQGGDFTRPNGTGDKSIYGEK", uniprotIndex.sequence("A0A075B759"));
+    assertEquals("MTAEDSTAAMSSDSAAGSSAKVPEGVAGAPNEAALLALMERTGYSMVQENGQRKYGGPPP"
+        + "GWEGPHPQRG", uniprotIndex.sequence("A0AV96"));
+    assertEquals("MGWIRGRRSRHSWEMSEFHNYNLDLKKSDFSTRW", uniprotIndex.sequence("A0A024RAP8"));
+    assertTrue(Files.exists(indexDirectory.resolve("uniprot-fasta.index")));
+  }
+
+  @Test
+  public void sequence_Missing() throws Throwable {
+    assertNull(uniprotIndex.sequence("Q9XYZ1"));
+  }
+
+  @Test
+  public void residues() throws Throwable {
+    StringBuilder residues = new StringBuilder();
+
+    assertTrue(uniprotIndex.residues("A0A024RAP8", residue -> residues.append((char) residue)));
+
+    assertEquals("MGWIRGRRSRHSWEMSEFHNYNLDLKKSDFSTRW", residues.toString());
+  }
+
+  @Test
+  public void residues_Missing() throws Throwable {
+    StringBuilder residues = new StringBuilder();
+
+    assertFalse(uniprotIndex.residues("Q9XYZ1", residue -> residues.append((char) residue)));
+
+    assertEquals("", residues.toString());
+  }
+}
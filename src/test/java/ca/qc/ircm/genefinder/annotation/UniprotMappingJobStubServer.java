@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.annotation;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local server that mimics UniProt's asynchronous id mapping service.
+ */
+class UniprotMappingJobStubServer implements AutoCloseable {
+  static final String JOB_ID = "27a020f6334184c4eb382111fbcad0e848f40300";
+  private static final Map<String, String> FIELD_HEADERS = new LinkedHashMap<>();
+
+  static {
+    FIELD_HEADERS.put("accession", "Entry");
+    FIELD_HEADERS.put("xref_geneid", "GeneID");
+    FIELD_HEADERS.put("sequence", "Sequence");
+  }
+
+  private final HttpServer server;
+  private final Map<String, Map<String, String>> entries = new LinkedHashMap<>();
+  private final List<Map<String, String>> jobForms = new CopyOnWriteArrayList<>();
+  private final List<String> resultQueries = new CopyOnWriteArrayList<>();
+  private final AtomicInteger statusRequests = new AtomicInteger();
+  private volatile List<String> submittedIds = Collections.emptyList();
+  private volatile int runningPolls;
+  private volatile String error;
+  private final AtomicInteger truncatedResults = new AtomicInteger();
+
+  UniprotMappingJobStubServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/idmapping/run", this::run);
+    server.createContext("/idmapping/status/", this::status);
+    server.createContext("/idmapping/uniprotkb/results/stream/", this::results);
+    server.start();
+  }
+
+  /**
+   * Returns URL of id mapping service.
+   *
+   * @return URL of id mapping service
+   */
+  String url() {
+    return "http://localhost:" + server.getAddress().getPort() + "/idmapping";
+  }
+
+  /**
+   * Adds UniProt entry to mapping results.
+   *
+   * @param id
+   *          submitted id
+   * @param geneIds
+   *          GeneID cross-references, separated by ';'
+   * @param sequence
+   *          sequence
+   */
+  void entry(String id, String geneIds, String sequence) {
+    Map<String, String> fields = new LinkedHashMap<>();
+    fields.put("accession", id);
+    fields.put("xref_geneid", geneIds);
+    fields.put("sequence", sequence);
+    entries.put(id, fields);
+  }
+
+  /**
+   * Sets number of status requests that answer that job is still running.
+   *
+   * @param runningPolls
+   *          number of status requests that answer that job is still running
+   */
+  void runningPolls(int runningPolls) {
+    this.runningPolls = runningPolls;
+  }
+
+  /**
+   * Makes job fail with specified message.
+   *
+   * @param error
+   *          error message
+   */
+  void error(String error) {
+    this.error = error;
+  }
+
+  /**
+   * Sets number of result requests whose connection is closed after the first result line.
+   *
+   * @param truncatedResults
+   *          number of result requests whose connection is closed after the first result line
+   */
+  void truncatedResults(int truncatedResults) {
+    this.truncatedResults.set(truncatedResults);
+  }
+
+  List<Map<String, String>> jobForms() {
+    return jobForms;
+  }
+
+  List<String> resultQueries() {
+    return resultQueries;
+  }
+
+  int statusRequests() {
+    return statusRequests.get();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+
+  private void run(HttpExchange exchange) throws IOException {
+    if (!"POST".equals(exchange.getRequestMethod())) {
+      send(exchange, 405, "application/json", "{}");
+      return;
+    }
+    Map<String, String> form;
+    try (InputStream input = exchange.getRequestBody()) {
+      form = parseQuery(new String(readAll(input), UTF_8));
+    }
+    jobForms.add(form);
+    submittedIds = Arrays.asList(form.getOrDefault("ids", "").split(","));
+    send(exchange, 200, "application/json", "{\"jobId\":\"" + JOB_ID + "\"}");
+  }
+
+  private void status(HttpExchange exchange) throws IOException {
+    int request = statusRequests.incrementAndGet();
+    if (error != null) {
+      send(exchange, 200, "application/json",
+          "{\"jobStatus\":\"ERROR\",\"messages\":[\"" + error + "\"]}");
+    } else if (request <= runningPolls) {
+      send(exchange, 200, "application/json", "{\"jobStatus\":\"RUNNING\"}");
+    } else {
+      exchange.getResponseHeaders().add("Location", url() + "/uniprotkb/results/" + JOB_ID);
+      send(exchange, 303, "application/json", "{\"jobStatus\":\"FINISHED\"}");
+    }
+  }
+
+  private void results(HttpExchange exchange) throws IOException {
+    String query = exchange.getRequestURI().getRawQuery();
+    resultQueries.add(query);
+    List<String> fields =
+        Arrays.asList(parseQuery(query).getOrDefault("fields", "accession").split(","));
+    List<String> lines = new ArrayList<>();
+    StringBuilder header = new StringBuilder("From");
+    fields.forEach(field -> header.append("\t").append(FIELD_HEADERS.get(field)));
+    lines.add(header.toString());
+    for (String id : submittedIds) {
+      Map<String, String> entry = entries.get(id);
+      if (entry != null) {
+        StringBuilder line = new StringBuilder(id);
+        fields.forEach(field -> line.append("\t").append(entry.get(field)));
+        lines.add(line.toString());
+      }
+    }
+    byte[] content = (String.join("\n", lines) + "\n").getBytes(UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "text/plain;format=tsv");
+    if (truncatedResults.getAndDecrement() > 0) {
+      // Announces full content, but closes connection after first result line.
+      exchange.sendResponseHeaders(200, content.length);
+      OutputStream output = exchange.getResponseBody();
+      output.write((lines.get(0) + "\n" + lines.get(1) + "\n").getBytes(UTF_8));
+      output.flush();
+      exchange.close();
+      return;
+    }
+    // Streams results line by line.
+    exchange.sendResponseHeaders(200, 0);
+    try (OutputStream output = exchange.getResponseBody()) {
+      for (String line : lines) {
+        output.write((line + "\n").getBytes(UTF_8));
+        output.flush();
+      }
+    }
+  }
+
+  private void send(HttpExchange exchange, int status, String contentType, String body)
+      throws IOException {
+    byte[] content = body.getBytes(UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, content.length);
+    try (OutputStream output = exchange.getResponseBody()) {
+      output.write(content);
+    }
+  }
+
+  private byte[] readAll(InputStream input) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = input.read(buffer)) >= 0) {
+      output.write(buffer, 0, read);
+    }
+    return output.toByteArray();
+  }
+
+  private Map<String, String> parseQuery(String query) throws IOException {
+    Map<String, String> parameters = new LinkedHashMap<>();
+    if (query == null || query.isEmpty()) {
+      return parameters;
+    }
+    for (String parameter : query.split("&")) {
+      int separator = parameter.indexOf('=');
+      String name = separator >= 0 ? parameter.substring(0, separator) : parameter;
+      String value = separator >= 0 ? parameter.substring(separator + 1) : "";
+      parameters.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+    }
+    return parameters;
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class CellStyleRegistryTest {
+  private CellStyleRegistry registry;
+  private Workbook workbook;
+
+  /**
+   * Before test.
+   */
+  @BeforeEach
+  public void beforeTest() {
+    workbook = new XSSFWorkbook();
+    registry = new CellStyleRegistry(workbook);
+  }
+
+  @AfterEach
+  public void afterTest() throws Throwable {
+    workbook.close();
+  }
+
+  @Test
+  public void withFormat() {
+    CellStyle source = workbook.getCellStyleAt(0);
+
+    CellStyle style = registry.withFormat(source, "0.00");
+
+    assertNotEquals(source.getIndex(), style.getIndex());
+    assertEquals("0.00", style.getDataFormatString());
+    assertEquals(2, workbook.getNumCellStyles());
+  }
+
+  @Test
+  public void withFormat_Reuse() {
+    CellStyle source = workbook.getCellStyleAt(0);
+
+    CellStyle style = registry.withFormat(source, "0.00");
+    for (int i = 0; i < 1000; i++) {
+      assertSame(style, registry.withFormat(source, "0.00"));
+    }
+
+    assertEquals(2, workbook.getNumCellStyles());
+  }
+
+  @Test
+  public void withFormat_KeepSourceStyle() {
+    CellStyle source = workbook.createCellStyle();
+    source.setFillForegroundColor(IndexedColors.YELLOW.getIndex());
+    source.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+
+    CellStyle style = registry.withFormat(source, "0.00");
+
+    assertEquals("0.00", style.getDataFormatString());
+    assertEquals(IndexedColors.YELLOW.getIndex(), style.getFillForegroundColor());
+    assertEquals(FillPatternType.SOLID_FOREGROUND, style.getFillPattern());
+  }
+
+  @Test
+  public void withFormat_DifferentSources() {
+    CellStyle source1 = workbook.getCellStyleAt(0);
+    CellStyle source2 = workbook.createCellStyle();
+
+    CellStyle style1 = registry.withFormat(source1, "0.00");
+    CellStyle style2 = registry.withFormat(source2, "0.00");
+
+    assertNotEquals(style1.getIndex(), style2.getIndex());
+    assertEquals(4, workbook.getNumCellStyles());
+  }
+
+  @Test
+  public void withFormat_SameFormat() {
+    CellStyle source = registry.withFormat(workbook.getCellStyleAt(0), "0.00");
+
+    assertSame(source, registry.withFormat(source, "0.00"));
+  }
+
+  @Test
+  public void copy() throws Throwable {
+    try (Workbook other = new XSSFWorkbook()) {
+      CellStyle source = other.createCellStyle();
+      source.setFillForegroundColor(IndexedColors.YELLOW.getIndex());
+      source.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+
+      CellStyle style = registry.copy(source);
+
+      assertEquals(IndexedColors.YELLOW.getIndex(), style.getFillForegroundColor());
+      assertEquals(FillPatternType.SOLID_FOREGROUND, style.getFillPattern());
+      assertSame(style, registry.copy(other.getCellStyleAt(source.getIndex())));
+      assertEquals(2, workbook.getNumCellStyles());
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
+import javax.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+@ServiceTestAnnotations
+public class DataConfigurationTest {
+  @Inject
+  private DataConfiguration dataConfiguration;
+
+  @Test
+  public void defaultProperties() throws Throwable {
+    assertEquals(Runtime.getRuntime().availableProcessors(), dataConfiguration.threads());
+    assertFalse(dataConfiguration.excelStreaming());
+    assertEquals(100, dataConfiguration.excelWindow());
+    assertTrue(dataConfiguration.excelPatch());
+  }
+}
@@ -17,29 +17,50 @@
 
 package ca.qc.ircm.genefinder.data;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import ca.qc.ircm.genefinder.annotation.DownloadProteinMappingService;
 import ca.qc.ircm.genefinder.annotation.GeneInfo;
 import ca.qc.ircm.genefinder.annotation.ProteinMapping;
+import ca.qc.ircm.genefinder.rest.AdaptiveBatchSizes;
+import ca.qc.ircm.genefinder.rest.TransferStatistics;
 import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
 import ca.qc.ircm.progressbar.ProgressBar;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 
 @ServiceTestAnnotations
@@ -52,11 +73,22 @@ public class DataServiceTest {
   @Mock
   private DataWriter dataWriter;
   @Mock
+  private TransferStatistics transferStatistics;
+  @Mock
+  private AdaptiveBatchSizes adaptiveBatchSizes;
+  @Mock
+  private DataConfiguration dataConfiguration;
+  @Mock
   private ProgressBar progressBar;
   @Mock
-  private List<String> proteinIds;
+  private ParsedDataFile parsedDataFile;
+  private List<String> proteinIds = Arrays.asList("4262120", "58201131", "13560677");
   @Captor
   private ArgumentCaptor<Map<String, ProteinMapping>> mappingsCaptor;
+  @Captor
+  private ArgumentCaptor<List<String>> proteinIdsCaptor;
+  @Captor
+  private ArgumentCaptor<Double> progressCaptor;
   @TempDir
   File temporaryFolder;
   private Locale locale;
@@ -66,9 +98,11 @@ public class DataServiceTest {
    */
   @BeforeEach
   public void beforeTest() {
-    dataServiceBean = new DataService(proteinMappingService, proteinParser, dataWriter);
+    dataServiceBean = new DataService(proteinMappingService, proteinParser, dataWriter,
+        transferStatistics, adaptiveBatchSizes, dataConfiguration);
     locale = Locale.getDefault();
     when(progressBar.step(any(Double.class))).thenReturn(progressBar);
+    when(dataConfiguration.threads()).thenReturn(1);
   }
 
   @Test
@@ -87,7 +121,8 @@ public class DataServiceTest {
     mappings.add(getProteinMapping("63100331", "FAF"));
     mappings.add(getProteinMapping("30583211", "FAF"));
     mappings.add(getProteinMapping("17512236", "FAF"));
-    when(proteinParser.parseProteinIds(any(), any())).thenReturn(proteinIds);
+    ParsedDataFile parsed = new ParsedDataFile(input, proteinIds);
+    when(proteinParser.parse(any(), any())).thenReturn(parsed);
     when(proteinMappingService.downloadProteinMappings(any(), any(), any(), any()))
         .thenReturn(mappings);
     FindGenesParametersBean parameters = new FindGenesParametersBean();
@@ -96,10 +131,274 @@ public class DataServiceTest {
 
     verify(progressBar, atLeastOnce()).setProgress(any(Double.class));
     verify(progressBar, atLeastOnce()).setMessage(any(String.class));
-    verify(proteinParser).parseProteinIds(eq(input), eq(parameters));
+    verify(proteinParser).parse(eq(input), eq(parameters));
     verify(proteinMappingService).downloadProteinMappings(eq(proteinIds), eq(parameters),
-        eq(progressBar), eq(locale));
-    verify(dataWriter).writeGene(eq(input), eq(output), eq(parameters), mappingsCaptor.capture());
+        any(), eq(locale));
+    verify(dataWriter).writeGene(same(parsed), eq(output), eq(parameters),
+        mappingsCaptor.capture());
+    assertEquals(8, mappingsCaptor.getValue().size());
+    assertEquals("FFE", mappingsCaptor.getValue().get("13560677").getGenes().get(0).getSymbol());
+  }
+
+  @Test
+  public void findGeneNames_ManyFiles() throws Throwable {
+    File file = new File(getClass().getResource("/proteinGroups.txt").toURI());
+    File input1 = new File(temporaryFolder, "proteinGroups1.txt");
+    FileUtils.copyFile(file, input1);
+    File input2 = new File(temporaryFolder, "proteinGroups2.txt");
+    FileUtils.copyFile(file, input2);
+    final File output1 = new File(temporaryFolder, "proteinGroups1WithGene.txt");
+    final File output2 = new File(temporaryFolder, "proteinGroups2WithGene.txt");
+    final List<File> files = Arrays.asList(input1, input2);
+    List<ProteinMapping> mappings = new ArrayList<>();
+    mappings.add(getProteinMapping("4262120", "ABC"));
+    mappings.add(getProteinMapping("58201131", "ABC"));
+    mappings.add(getProteinMapping("13560677", "FFE"));
+    mappings.add(getProteinMapping("13492060", "RTS"));
+    ParsedDataFile parsed1 =
+        new ParsedDataFile(input1, Arrays.asList("4262120", "58201131", "13560677"));
+    when(proteinParser.parse(eq(input1), any())).thenReturn(parsed1);
+    ParsedDataFile parsed2 =
+        new ParsedDataFile(input2, Arrays.asList("58201131", "13492060", "4262120"));
+    when(proteinParser.parse(eq(input2), any())).thenReturn(parsed2);
+    when(proteinMappingService.downloadProteinMappings(any(), any(), any(), any()))
+        .thenReturn(mappings);
+    FindGenesParametersBean parameters = new FindGenesParametersBean();
+
+    dataServiceBean.findGeneNames(files, parameters, progressBar, locale);
+
+    verify(proteinParser).parse(eq(input1), eq(parameters));
+    verify(proteinParser).parse(eq(input2), eq(parameters));
+    verify(proteinMappingService).downloadProteinMappings(
+        eq(Arrays.asList("4262120", "58201131", "13560677")), eq(parameters), any(),
+        eq(locale));
+    verify(proteinMappingService).downloadProteinMappings(eq(Arrays.asList("13492060")),
+        eq(parameters), any(), eq(locale));
+    verify(dataWriter).writeGene(same(parsed1), eq(output1), eq(parameters),
+        mappingsCaptor.capture());
+    verify(dataWriter).writeGene(same(parsed2), eq(output2), eq(parameters),
+        mappingsCaptor.capture());
+    assertEquals(4, mappingsCaptor.getAllValues().get(0).size());
+    assertSame(mappingsCaptor.getAllValues().get(0), mappingsCaptor.getAllValues().get(1));
+    verify(progressBar).setMessage("Getting genes for 3 proteins of proteinGroups1.txt");
+    verify(progressBar).setMessage("Getting genes for 1 protein of proteinGroups2.txt");
+    verify(progressBar).setMessage("Writing genes for proteinGroups1.txt");
+    verify(progressBar).setMessage("Writing genes for proteinGroups2.txt");
+    verify(progressBar, atLeastOnce()).setProgress(progressCaptor.capture());
+    List<Double> progress = progressCaptor.getAllValues();
+    assertEquals(0.05, progress.get(0), 0.00001);
+    for (int i = 1; i < progress.size(); i++) {
+      assertTrue(progress.get(i) >= progress.get(i - 1));
+    }
+    assertEquals(1.0, progress.get(progress.size() - 2), 0.00001);
+    assertEquals(1.0, progress.get(progress.size() - 1), 0.00001);
+  }
+
+  @Test
+  public void findGeneNames_Concurrent() throws Throwable {
+    File file = new File(getClass().getResource("/proteinGroups.txt").toURI());
+    final List<File> files = new ArrayList<>();
+    final Map<File, ParsedDataFile> parsedFiles = new HashMap<>();
+    Set<String> allProteinIds = new HashSet<>();
+    for (int i = 0; i < 20; i++) {
+      File input = new File(temporaryFolder, "proteinGroups" + i + ".txt");
+      FileUtils.copyFile(file, input);
+      files.add(input);
+      List<String> fileProteinIds = new ArrayList<>();
+      for (int j = 0; j < 10; j++) {
+        fileProteinIds.add(String.valueOf(i + j));
+      }
+      ParsedDataFile parsed = new ParsedDataFile(input, fileProteinIds);
+      parsedFiles.put(input, parsed);
+      allProteinIds.addAll(fileProteinIds);
+      when(proteinParser.parse(eq(input), any())).thenReturn(parsed);
+    }
+    when(dataConfiguration.threads()).thenReturn(4);
+    when(proteinMappingService.downloadProteinMappings(any(), any(), any(), any()))
+        .thenAnswer(i -> {
+          List<String> ids = i.getArgument(0);
+          return ids.stream().map(id -> getProteinMapping(id, "G" + id))
+              .collect(Collectors.toList());
+        });
+    FindGenesParametersBean parameters = new FindGenesParametersBean();
+
+    dataServiceBean.findGeneNames(files, parameters, progressBar, locale);
+
+    verify(proteinMappingService, atLeastOnce()).downloadProteinMappings(
+        proteinIdsCaptor.capture(), eq(parameters), any(), eq(locale));
+    List<String> downloadedIds = proteinIdsCaptor.getAllValues().stream()
+        .flatMap(ids -> ids.stream()).collect(Collectors.toList());
+    assertEquals(allProteinIds.size(), downloadedIds.size());
+    assertEquals(allProteinIds, new HashSet<>(downloadedIds));
+    for (File input : files) {
+      ParsedDataFile parsed = parsedFiles.get(input);
+      verify(dataWriter).writeGene(same(parsed), any(), eq(parameters),
+          mappingsCaptor.capture());
+      Map<String, ProteinMapping> mappings = mappingsCaptor.getValue();
+      for (String proteinId : parsed.getProteinIds()) {
+        assertNotNull(mappings.get(proteinId));
+      }
+    }
+    verify(progressBar, atLeastOnce()).setProgress(1.0);
+  }
+
+  @Test
+  public void findGeneNames_CloseParsed() throws Throwable {
+    File file = new File(getClass().getResource("/proteinGroups.txt").toURI());
+    File input = new File(temporaryFolder, "proteinGroups.txt");
+    FileUtils.copyFile(file, input);
+    final File output = new File(temporaryFolder, "proteinGroupsWithGene.txt");
+    final List<File> files = Arrays.asList(input);
+    when(parsedDataFile.getFile()).thenReturn(input);
+    when(parsedDataFile.getProteinIds()).thenReturn(proteinIds);
+    when(proteinParser.parse(any(), any())).thenReturn(parsedDataFile);
+    when(proteinMappingService.downloadProteinMappings(any(), any(), any(), any()))
+        .thenReturn(new ArrayList<>());
+    FindGenesParametersBean parameters = new FindGenesParametersBean();
+
+    dataServiceBean.findGeneNames(files, parameters, progressBar, locale);
+
+    InOrder inOrder = inOrder(dataWriter, parsedDataFile);
+    inOrder.verify(dataWriter).writeGene(same(parsedDataFile), eq(output), eq(parameters), any());
+    inOrder.verify(parsedDataFile).close();
+    verify(parsedDataFile).close();
+  }
+
+  @Test
+  public void findGeneNames_CloseParsedWriteError() throws Throwable {
+    File file = new File(getClass().getResource("/proteinGroups.txt").toURI());
+    File input = new File(temporaryFolder, "proteinGroups.txt");
+    FileUtils.copyFile(file, input);
+    final List<File> files = Arrays.asList(input);
+    when(parsedDataFile.getFile()).thenReturn(input);
+    when(parsedDataFile.getProteinIds()).thenReturn(proteinIds);
+    when(proteinParser.parse(any(), any())).thenReturn(parsedDataFile);
+    when(proteinMappingService.downloadProteinMappings(any(), any(), any(), any()))
+        .thenReturn(new ArrayList<>());
+    IOException error = new IOException("test");
+    doThrow(error).when(dataWriter).writeGene(any(ParsedDataFile.class), any(), any(), any());
+    FindGenesParametersBean parameters = new FindGenesParametersBean();
+
+    IOException exception = assertThrows(IOException.class, () -> {
+      dataServiceBean.findGeneNames(files, parameters, progressBar, locale);
+    });
+
+    assertSame(error, exception);
+    verify(parsedDataFile).close();
+  }
+
+  @Test
+  public void findGeneNames_CloseParsedDownloadError() throws Throwable {
+    File file = new File(getClass().getResource("/proteinGroups.txt").toURI());
+    File input = new File(temporaryFolder, "proteinGroups.txt");
+    FileUtils.copyFile(file, input);
+    final List<File> files = Arrays.asList(input);
+    when(parsedDataFile.getFile()).thenReturn(input);
+    when(parsedDataFile.getProteinIds()).thenReturn(proteinIds);
+    when(proteinParser.parse(any(), any())).thenReturn(parsedDataFile);
+    IOException error = new IOException("test");
+    when(proteinMappingService.downloadProteinMappings(any(), any(), any(), any()))
+        .thenThrow(error);
+    FindGenesParametersBean parameters = new FindGenesParametersBean();
+
+    IOException exception = assertThrows(IOException.class, () -> {
+      dataServiceBean.findGeneNames(files, parameters, progressBar, locale);
+    });
+
+    assertSame(error, exception);
+    verify(dataWriter, never()).writeGene(any(ParsedDataFile.class), any(), any(), any());
+    verify(parsedDataFile).close();
+  }
+
+  @Test
+  public void findGeneNames_CloseParsedAfterWriteOnError() throws Throwable {
+    File file = new File(getClass().getResource("/proteinGroups.txt").toURI());
+    File input1 = new File(temporaryFolder, "proteinGroups1.txt");
+    FileUtils.copyFile(file, input1);
+    File input2 = new File(temporaryFolder, "proteinGroups2.txt");
+    FileUtils.copyFile(file, input2);
+    final List<File> files = Arrays.asList(input1, input2);
+    when(parsedDataFile.getFile()).thenReturn(input1);
+    when(parsedDataFile.getProteinIds()).thenReturn(proteinIds);
+    when(proteinParser.parse(eq(input1), any())).thenReturn(parsedDataFile);
+    ParsedDataFile parsed2 = mock(ParsedDataFile.class);
+    when(parsed2.getFile()).thenReturn(input2);
+    when(parsed2.getProteinIds()).thenReturn(Arrays.asList("13492060"));
+    when(proteinParser.parse(eq(input2), any())).thenReturn(parsed2);
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch failed = new CountDownLatch(1);
+    IOException error = new IOException("test");
+    when(proteinMappingService.downloadProteinMappings(eq(proteinIds), any(), any(), any()))
+        .thenReturn(new ArrayList<>());
+    when(proteinMappingService.downloadProteinMappings(eq(Arrays.asList("13492060")), any(),
+        any(), any())).thenAnswer(i -> {
+          // Fails while first file is written.
+          writing.await();
+          throw error;
+        });
+    doAnswer(i -> {
+      writing.countDown();
+      // Keeps writing after run fails, even if interrupted.
+      while (failed.getCount() > 0) {
+        try {
+          failed.await();
+        } catch (InterruptedException e) {
+          // Ignore.
+        }
+      }
+      return null;
+    }).when(dataWriter).writeGene(same(parsedDataFile), any(), any(), any());
+    when(dataConfiguration.threads()).thenReturn(2);
+    FindGenesParametersBean parameters = new FindGenesParametersBean();
+
+    IOException exception = assertThrows(IOException.class, () -> {
+      dataServiceBean.findGeneNames(files, parameters, progressBar, locale);
+    });
+
+    assertSame(error, exception);
+    verify(parsedDataFile, never()).close();
+    verify(parsed2).close();
+    failed.countDown();
+    verify(parsedDataFile, timeout(10000)).close();
+  }
+
+  @Test
+  public void findGeneNames_ParseError() throws Throwable {
+    File file = new File(getClass().getResource("/proteinGroups.txt").toURI());
+    File input = new File(temporaryFolder, "proteinGroups.txt");
+    FileUtils.copyFile(file, input);
+    final List<File> files = Arrays.asList(input);
+    IOException error = new IOException("test");
+    when(proteinParser.parse(any(), any())).thenThrow(error);
+    FindGenesParametersBean parameters = new FindGenesParametersBean();
+
+    IOException exception = assertThrows(IOException.class, () -> {
+      dataServiceBean.findGeneNames(files, parameters, progressBar, locale);
+    });
+
+    assertSame(error, exception);
+    verify(proteinMappingService, never()).downloadProteinMappings(any(), any(), any(), any());
+    verify(dataWriter, never()).writeGene(any(ParsedDataFile.class), any(), any(), any());
+    verify(dataWriter, never()).writeGene(any(File.class), any(), any(), any());
+  }
+
+  @Test
+  public void findGeneNames_Summary() throws Throwable {
+    File file = new File(getClass().getResource("/proteinGroups.txt").toURI());
+    File input = new File(temporaryFolder, "proteinGroups.txt");
+    FileUtils.copyFile(file, input);
+    final List<File> files = Arrays.asList(input);
+    when(proteinParser.parse(any(), any())).thenReturn(new ParsedDataFile(input, proteinIds));
+    when(proteinMappingService.downloadProteinMappings(any(), any(), any(), any()))
+        .thenReturn(new ArrayList<>());
+    when(transferStatistics.receivedBytes()).thenReturn(1000L, 1000L + 2048L);
+    when(transferStatistics.savedBytes()).thenReturn(500L, 500L + 10240L);
+    FindGenesParametersBean parameters = new FindGenesParametersBean();
+
+    dataServiceBean.findGeneNames(files, parameters, progressBar, locale);
+
+    verify(progressBar).setMessage("Completed 1 file, downloaded 2 KB, compression saved 10 KB");
+    verify(adaptiveBatchSizes).all();
   }
 
   private ProteinMapping getProteinMapping(String proteinId, String geneName) {
@@ -21,6 +21,10 @@ import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.REFSEQ;
 import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.REFSEQ_GI;
 import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.UNIPROT;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import ca.qc.ircm.genefinder.annotation.GeneInfo;
@@ -28,14 +32,17 @@ import ca.qc.ircm.genefinder.annotation.NcbiConfiguration;
 import ca.qc.ircm.genefinder.annotation.ProteinMapping;
 import ca.qc.ircm.genefinder.annotation.UniprotConfiguration;
 import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
+import ca.qc.ircm.genefinder.xml.SaxParserPool;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.text.NumberFormat;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
 import javax.inject.Inject;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
@@ -60,6 +67,8 @@ public class ExcelDataWriterTest {
   private UniprotConfiguration uniprotConfiguration;
   @Inject
   private UniprotConfiguration realUniprotConfiguration;
+  @Mock
+  private DataConfiguration dataConfiguration;
   @TempDir
   File temporaryFolder;
   private static final NumberFormat numberFormat;
@@ -82,7 +91,8 @@ public class ExcelDataWriterTest {
    */
   @BeforeEach
   public void beforeTest() throws Throwable {
-    excelDataWriter = new ExcelDataWriter(ncbiConfiguration, uniprotConfiguration);
+    excelDataWriter = new ExcelDataWriter(ncbiConfiguration, uniprotConfiguration,
+        dataConfiguration, new SaxParserPool());
     when(ncbiConfiguration.refseqProteinAccessionPattern())
         .thenReturn(realNcbiConfiguration.refseqProteinAccessionPattern());
     when(ncbiConfiguration.refseqProteinGiPattern())
@@ -849,4 +859,402 @@ public class ExcelDataWriterTest {
       }
     }
   }
+
+  @Test
+  public void writeGene_Streaming() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data.xlsx").toURI());
+    final File output = new File(temporaryFolder, "data.xlsx");
+    when(dataConfiguration.excelStreaming()).thenReturn(true);
+    when(dataConfiguration.excelWindow()).thenReturn(2);
+    when(parameters.getProteinColumn()).thenReturn(0);
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
+    when(parameters.isGeneId()).thenReturn(true);
+    when(parameters.isGeneName()).thenReturn(true);
+    when(parameters.isGeneSynonyms()).thenReturn(true);
+    when(parameters.isGeneSummary()).thenReturn(true);
+    when(parameters.isProteinMolecularWeight()).thenReturn(true);
+    final Map<String, ProteinMapping> mappings = new HashMap<>();
+    ProteinMapping mapping = new ProteinMapping();
+    GeneInfo gene = new GeneInfo(1234L, "POLR2A");
+    gene.setSynonyms(Arrays.asList("RPB1", "RPO2A"));
+    gene.setDescription("This gene encodes the largest subunit of RNA polymerase II");
+    mapping.setGenes(Arrays.asList(gene));
+    mapping.setMolecularWeight(20.0);
+    mappings.put("119627830", mapping);
+
+    excelDataWriter.writeGene(input, output, parameters, mappings);
+
+    try (InputStream inputStream = new FileInputStream(output)) {
+      try (Workbook workbook = new XSSFWorkbook(inputStream)) {
+        Sheet sheet = workbook.getSheetAt(0);
+        Row row = sheet.getRow(0);
+        assertEquals("human", getComputedValue(row.getCell(0)));
+        assertEquals("", getComputedValue(row.getCell(1)));
+        assertEquals("", getComputedValue(row.getCell(2)));
+        assertEquals("", getComputedValue(row.getCell(3)));
+        assertEquals("", getComputedValue(row.getCell(4)));
+        assertEquals("", getComputedValue(row.getCell(5)));
+        assertEquals("", getComputedValue(row.getCell(6)));
+        row = sheet.getRow(2);
+        assertEquals("gi|119627830", getComputedValue(row.getCell(0)));
+        assertEquals("1234", getComputedValue(row.getCell(1)));
+        assertEquals("POLR2A", getComputedValue(row.getCell(2)));
+        assertEquals("RPB1|RPO2A", getComputedValue(row.getCell(3)));
+        assertEquals("This gene encodes the largest subunit of RNA polymerase II",
+            getComputedValue(row.getCell(4), doubleFormat));
+        assertEquals("20.0", getComputedValue(row.getCell(5), doubleFormat));
+        assertEquals("0.00", row.getCell(5).getCellStyle().getDataFormatString());
+        assertEquals("", getComputedValue(row.getCell(6)));
+        row = sheet.getRow(3);
+        assertEquals("gi|119580583", getComputedValue(row.getCell(0)));
+        assertEquals("", getComputedValue(row.getCell(1)));
+        assertEquals("", getComputedValue(row.getCell(2)));
+        assertEquals("", getComputedValue(row.getCell(3)));
+        assertEquals("", getComputedValue(row.getCell(4)));
+        assertEquals("", getComputedValue(row.getCell(5)));
+        assertEquals("", getComputedValue(row.getCell(6)));
+      }
+    }
+  }
+
+  @Test
+  public void writeGene_StreamingSameAsWorkbook() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data_manycolumns.xlsx").toURI());
+    final File expectedOutput = new File(temporaryFolder, "expected.xlsx");
+    final File output = new File(temporaryFolder, "data.xlsx");
+    when(dataConfiguration.excelWindow()).thenReturn(2);
+    when(parameters.getProteinColumn()).thenReturn(0);
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
+    when(parameters.isGeneId()).thenReturn(true);
+    when(parameters.isGeneName()).thenReturn(true);
+    when(parameters.isGeneSynonyms()).thenReturn(false);
+    when(parameters.isGeneSummary()).thenReturn(true);
+    when(parameters.isProteinMolecularWeight()).thenReturn(true);
+    final Map<String, ProteinMapping> mappings = new HashMap<>();
+    ProteinMapping mapping = new ProteinMapping();
+    GeneInfo gene = new GeneInfo(1234L, "POLR2A");
+    gene.setSynonyms(Arrays.asList("RPB1", "RPO2A"));
+    gene.setDescription("This gene encodes the largest subunit of RNA polymerase II");
+    mapping.setGenes(Arrays.asList(gene));
+    mapping.setMolecularWeight(20.0);
+    mappings.put("119627830", mapping);
+    mapping = new ProteinMapping();
+    gene = new GeneInfo(4567L, "POLR2B");
+    gene.setSynonyms(Arrays.asList("RPB2", "RPO2B"));
+    gene.setDescription("This gene encodes the smallest subunit of RNA polymerase II");
+    mapping.setGenes(Arrays.asList(gene));
+    mapping.setMolecularWeight(3.4);
+    mappings.put("119580583", mapping);
+    when(dataConfiguration.excelStreaming()).thenReturn(false);
+    excelDataWriter.writeGene(input, expectedOutput, parameters, mappings);
+    when(dataConfiguration.excelStreaming()).thenReturn(true);
+
+    excelDataWriter.writeGene(input, output, parameters, mappings);
+
+    try (InputStream expectedInputStream = new FileInputStream(expectedOutput);
+        InputStream inputStream = new FileInputStream(output)) {
+      try (Workbook expectedWorkbook = new XSSFWorkbook(expectedInputStream);
+          Workbook workbook = new XSSFWorkbook(inputStream)) {
+        Sheet expectedSheet = expectedWorkbook.getSheetAt(0);
+        Sheet sheet = workbook.getSheetAt(0);
+        assertEquals(expectedSheet.getSheetName(), sheet.getSheetName());
+        assertEquals(expectedSheet.getLastRowNum(), sheet.getLastRowNum());
+        for (int i = 0; i <= expectedSheet.getLastRowNum(); i++) {
+          Row expectedRow = expectedSheet.getRow(i);
+          Row row = sheet.getRow(i);
+          if (expectedRow == null) {
+            continue;
+          }
+          assertNotNull(row);
+          for (int j = 0; j < expectedRow.getLastCellNum(); j++) {
+            assertEquals(getComputedValue(expectedRow.getCell(j), doubleFormat),
+                getComputedValue(row.getCell(j), doubleFormat));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void writeGene_Patch() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data_formatted.xlsx").toURI());
+    final File output = new File(temporaryFolder, "data.xlsx");
+    when(dataConfiguration.excelPatch()).thenReturn(true);
+    when(parameters.getProteinColumn()).thenReturn(0);
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
+    when(parameters.isGeneId()).thenReturn(true);
+    when(parameters.isGeneName()).thenReturn(true);
+    when(parameters.isGeneSynonyms()).thenReturn(true);
+    when(parameters.isGeneSummary()).thenReturn(true);
+    when(parameters.isProteinMolecularWeight()).thenReturn(true);
+    final Map<String, ProteinMapping> mappings = new HashMap<>();
+    ProteinMapping mapping = new ProteinMapping();
+    GeneInfo gene = new GeneInfo(1234L, "POLR2A");
+    gene.setSynonyms(Arrays.asList("RPB1", "RPO2A"));
+    gene.setDescription("This gene encodes the largest subunit of RNA polymerase II");
+    mapping.setGenes(Arrays.asList(gene));
+    mapping.setMolecularWeight(20.0);
+    mappings.put("119627830", mapping);
+
+    excelDataWriter.writeGene(input, output, parameters, mappings);
+
+    try (InputStream inputStream = new FileInputStream(output)) {
+      try (Workbook workbook = new XSSFWorkbook(inputStream)) {
+        assertEquals(2, workbook.getNumberOfSheets());
+        assertEquals("other", workbook.getSheetName(1));
+        Sheet sheet = workbook.getSheetAt(0);
+        assertEquals("data_formatted", sheet.getSheetName());
+        assertEquals(30 * 256, sheet.getColumnWidth(0));
+        assertEquals(20 * 256, sheet.getColumnWidth(6));
+        assertEquals(20 * 256, sheet.getColumnWidth(7));
+        assertEquals("G1:H1", sheet.getMergedRegion(0).formatAsString());
+        Row row = sheet.getRow(0);
+        assertEquals("human", getComputedValue(row.getCell(0)));
+        assertEquals("", getComputedValue(row.getCell(1)));
+        assertEquals("", getComputedValue(row.getCell(5)));
+        assertEquals("value", getComputedValue(row.getCell(6)));
+        row = sheet.getRow(2);
+        assertEquals("gi|119627830;gi|189054652", getComputedValue(row.getCell(0)));
+        assertEquals("1234", getComputedValue(row.getCell(1)));
+        assertEquals("POLR2A", getComputedValue(row.getCell(2)));
+        assertEquals("RPB1|RPO2A", getComputedValue(row.getCell(3)));
+        assertEquals("This gene encodes the largest subunit of RNA polymerase II",
+            getComputedValue(row.getCell(4), doubleFormat));
+        assertEquals("20.0", getComputedValue(row.getCell(5), doubleFormat));
+        assertEquals("0.00", row.getCell(5).getCellStyle().getDataFormatString());
+        assertEquals("5", getComputedValue(row.getCell(6)));
+        assertEquals(row.getCell(6).getCellStyle().getIndex(),
+            sheet.getRow(0).getCell(6).getCellStyle().getIndex());
+        assertEquals("G3*2", row.getCell(7).getCellFormula());
+        assertEquals("SUM($A$1:G3)+H$3+other!B1+LOG10(G3)+COUNTIF(G:H,\"B3\")",
+            row.getCell(8).getCellFormula());
+        row = sheet.getRow(3);
+        assertEquals("gi|119580583", getComputedValue(row.getCell(0)));
+        assertEquals("", getComputedValue(row.getCell(1)));
+        assertEquals("", getComputedValue(row.getCell(5)));
+        assertEquals("gi|119572880", getComputedValue(row.getCell(6)));
+      }
+    }
+  }
+
+  @Test
+  public void writeGene_PatchSameAsWorkbook() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data_manycolumns.xlsx").toURI());
+    final File expectedOutput = new File(temporaryFolder, "expected.xlsx");
+    final File output = new File(temporaryFolder, "data.xlsx");
+    when(parameters.getProteinColumn()).thenReturn(0);
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
+    when(parameters.isGeneId()).thenReturn(true);
+    when(parameters.isGeneName()).thenReturn(true);
+    when(parameters.isGeneSynonyms()).thenReturn(false);
+    when(parameters.isGeneSummary()).thenReturn(true);
+    when(parameters.isProteinMolecularWeight()).thenReturn(true);
+    final Map<String, ProteinMapping> mappings = new HashMap<>();
+    ProteinMapping mapping = new ProteinMapping();
+    GeneInfo gene = new GeneInfo(1234L, "POLR2A");
+    gene.setSynonyms(Arrays.asList("RPB1", "RPO2A"));
+    gene.setDescription("This gene encodes the largest subunit of RNA polymerase II");
+    mapping.setGenes(Arrays.asList(gene));
+    mapping.setMolecularWeight(20.0);
+    mappings.put("119627830", mapping);
+    mapping = new ProteinMapping();
+    gene = new GeneInfo(4567L, "POLR2B");
+    gene.setSynonyms(Arrays.asList("RPB2", "RPO2B"));
+    gene.setDescription("This gene encodes the smallest subunit of RNA polymerase II");
+    mapping.setGenes(Arrays.asList(gene));
+    mapping.setMolecularWeight(3.4);
+    mappings.put("119580583", mapping);
+    when(dataConfiguration.excelPatch()).thenReturn(false);
+    excelDataWriter.writeGene(input, expectedOutput, parameters, mappings);
+    when(dataConfiguration.excelPatch()).thenReturn(true);
+
+    excelDataWriter.writeGene(input, output, parameters, mappings);
+
+    try (InputStream expectedInputStream = new FileInputStream(expectedOutput);
+        InputStream inputStream = new FileInputStream(output)) {
+      try (Workbook expectedWorkbook = new XSSFWorkbook(expectedInputStream);
+          Workbook workbook = new XSSFWorkbook(inputStream)) {
+        Sheet expectedSheet = expectedWorkbook.getSheetAt(0);
+        Sheet sheet = workbook.getSheetAt(0);
+        assertEquals(expectedSheet.getSheetName(), sheet.getSheetName());
+        assertEquals(expectedSheet.getLastRowNum(), sheet.getLastRowNum());
+        for (int i = 0; i <= expectedSheet.getLastRowNum(); i++) {
+          Row expectedRow = expectedSheet.getRow(i);
+          Row row = sheet.getRow(i);
+          if (expectedRow == null) {
+            continue;
+          }
+          assertNotNull(row);
+          for (int j = 0; j < expectedRow.getLastCellNum(); j++) {
+            assertEquals(getComputedValue(expectedRow.getCell(j), doubleFormat),
+                getComputedValue(row.getCell(j), doubleFormat));
+          }
+        }
+      }
+    }
+  }
+
+  private Map<String, ProteinMapping> molecularWeightMappings() {
+    final Map<String, ProteinMapping> mappings = new HashMap<>();
+    ProteinMapping mapping = new ProteinMapping();
+    mapping.setMolecularWeight(20.0);
+    mappings.put("119627830", mapping);
+    mapping = new ProteinMapping();
+    mapping.setMolecularWeight(3.4);
+    mappings.put("119580583", mapping);
+    mapping = new ProteinMapping();
+    mapping.setMolecularWeight(154.2);
+    mappings.put("108250308", mapping);
+    return mappings;
+  }
+
+  @Test
+  public void writeGene_ReuseStyles() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data.xlsx").toURI());
+    final File output = new File(temporaryFolder, "data.xlsx");
+    when(parameters.getProteinColumn()).thenReturn(0);
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
+    when(parameters.isProteinMolecularWeight()).thenReturn(true);
+
+    excelDataWriter.writeGene(input, output, parameters, molecularWeightMappings());
+
+    try (InputStream inputStream = new FileInputStream(output)) {
+      try (Workbook workbook = new XSSFWorkbook(inputStream)) {
+        assertEquals(2, workbook.getNumCellStyles());
+        Sheet sheet = workbook.getSheetAt(0);
+        Cell cell = sheet.getRow(2).getCell(1);
+        assertEquals("20.0", getComputedValue(cell, doubleFormat));
+        assertEquals("0.00", cell.getCellStyle().getDataFormatString());
+        for (int i = 3; i <= 4; i++) {
+          assertEquals(cell.getCellStyle().getIndex(),
+              sheet.getRow(i).getCell(1).getCellStyle().getIndex());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void writeGene_StreamingReuseStyles() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data.xlsx").toURI());
+    final File output = new File(temporaryFolder, "data.xlsx");
+    when(dataConfiguration.excelStreaming()).thenReturn(true);
+    when(dataConfiguration.excelWindow()).thenReturn(2);
+    when(parameters.getProteinColumn()).thenReturn(0);
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
+    when(parameters.isProteinMolecularWeight()).thenReturn(true);
+
+    excelDataWriter.writeGene(input, output, parameters, molecularWeightMappings());
+
+    try (InputStream inputStream = new FileInputStream(output)) {
+      try (Workbook workbook = new XSSFWorkbook(inputStream)) {
+        assertEquals(2, workbook.getNumCellStyles());
+        Sheet sheet = workbook.getSheetAt(0);
+        Cell cell = sheet.getRow(2).getCell(1);
+        assertEquals("20.0", getComputedValue(cell, doubleFormat));
+        assertEquals("0.00", cell.getCellStyle().getDataFormatString());
+        for (int i = 3; i <= 4; i++) {
+          assertEquals(cell.getCellStyle().getIndex(),
+              sheet.getRow(i).getCell(1).getCellStyle().getIndex());
+        }
+      }
+    }
+  }
+
+  private ExcelSession session(File input, int proteinColumn, Workbook workbook) {
+    TreeMap<Integer, List<String>> rows = new TreeMap<>();
+    rows.put(3, Arrays.asList("119627830"));
+    return new ExcelSession(input, proteinColumn, rows, workbook, null);
+  }
+
+  private void writeGeneSession(ExcelSession session, File output) throws Throwable {
+    when(parameters.getProteinColumn()).thenReturn(0);
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
+    when(parameters.isGeneName()).thenReturn(true);
+    final Map<String, ProteinMapping> mappings = new HashMap<>();
+    ProteinMapping mapping = new ProteinMapping();
+    mapping.setGenes(Arrays.asList(new GeneInfo(1234L, "POLR2A")));
+    mappings.put("119627830", mapping);
+
+    excelDataWriter.writeGene(session, output, parameters, mappings);
+  }
+
+  private void assertSessionRows(File output, String row2, String row3) throws Throwable {
+    try (InputStream inputStream = new FileInputStream(output)) {
+      try (Workbook workbook = new XSSFWorkbook(inputStream)) {
+        Sheet sheet = workbook.getSheetAt(0);
+        Row row = sheet.getRow(0);
+        assertEquals("human", getComputedValue(row.getCell(0)));
+        assertEquals("", getComputedValue(row.getCell(1)));
+        row = sheet.getRow(2);
+        assertEquals("gi|119627830", getComputedValue(row.getCell(0)));
+        assertEquals(row2, getComputedValue(row.getCell(1)));
+        row = sheet.getRow(3);
+        assertEquals("gi|119580583", getComputedValue(row.getCell(0)));
+        assertEquals(row3, getComputedValue(row.getCell(1)));
+      }
+    }
+  }
+
+  @Test
+  public void writeGene_Session() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data.xlsx").toURI());
+    final File output = new File(temporaryFolder, "data.xlsx");
+    Workbook workbook;
+    try (InputStream inputStream = new FileInputStream(input)) {
+      workbook = new XSSFWorkbook(inputStream);
+    }
+    ExcelSession session = session(input, 0, workbook);
+
+    writeGeneSession(session, output);
+
+    assertNull(session.takeWorkbook());
+    verify(ncbiConfiguration, never()).refseqProteinGiPattern();
+    assertSessionRows(output, "", "POLR2A");
+  }
+
+  @Test
+  public void writeGene_SessionWithoutWorkbook() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data.xlsx").toURI());
+    final File output = new File(temporaryFolder, "data.xlsx");
+
+    writeGeneSession(session(input, 0, null), output);
+
+    verify(ncbiConfiguration, never()).refseqProteinGiPattern();
+    assertSessionRows(output, "", "POLR2A");
+  }
+
+  @Test
+  public void writeGene_SessionStreaming() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data.xlsx").toURI());
+    final File output = new File(temporaryFolder, "data.xlsx");
+    when(dataConfiguration.excelStreaming()).thenReturn(true);
+    when(dataConfiguration.excelWindow()).thenReturn(2);
+
+    writeGeneSession(session(input, 0, null), output);
+
+    verify(ncbiConfiguration, never()).refseqProteinGiPattern();
+    assertSessionRows(output, "", "POLR2A");
+  }
+
+  @Test
+  public void writeGene_SessionPatch() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data.xlsx").toURI());
+    final File output = new File(temporaryFolder, "data.xlsx");
+    when(dataConfiguration.excelPatch()).thenReturn(true);
+
+    writeGeneSession(session(input, 0, null), output);
+
+    verify(ncbiConfiguration, never()).refseqProteinGiPattern();
+    assertSessionRows(output, "", "POLR2A");
+  }
+
+  @Test
+  public void writeGene_SessionOtherProteinColumn() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data.xlsx").toURI());
+    final File output = new File(temporaryFolder, "data.xlsx");
+
+    writeGeneSession(session(input, 1, null), output);
+
+    assertSessionRows(output, "POLR2A", "");
+  }
 }
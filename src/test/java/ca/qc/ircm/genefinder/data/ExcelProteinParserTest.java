@@ -21,13 +21,16 @@ import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.REFSEQ;
 import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.REFSEQ_GI;
 import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.UNIPROT;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.when;
 
 import ca.qc.ircm.genefinder.annotation.NcbiConfiguration;
 import ca.qc.ircm.genefinder.annotation.UniprotConfiguration;
 import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
+import ca.qc.ircm.genefinder.xml.SaxParserPool;
 import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 import javax.inject.Inject;
 import org.junit.jupiter.api.BeforeEach;
@@ -47,6 +50,8 @@ public class ExcelProteinParserTest {
   private UniprotConfiguration uniprotConfiguration;
   @Inject
   private UniprotConfiguration realUniprotConfiguration;
+  @Mock
+  private DataConfiguration dataConfiguration;
 
   /**
    * Before test.
@@ -54,7 +59,9 @@ public class ExcelProteinParserTest {
   @BeforeEach
   @SuppressWarnings("checkstyle:linelength")
   public void beforeTest() {
-    excelProteinParser = new ExcelProteinParser(ncbiConfiguration, uniprotConfiguration);
+    excelProteinParser =
+        new ExcelProteinParser(ncbiConfiguration, uniprotConfiguration, dataConfiguration,
+            new SaxParserPool());
     when(ncbiConfiguration.refseqProteinAccessionPattern())
         .thenReturn(realNcbiConfiguration.refseqProteinAccessionPattern());
     when(ncbiConfiguration.refseqProteinGiPattern())
@@ -85,6 +92,25 @@ public class ExcelProteinParserTest {
     assertTrue(ids.contains("119580714"));
   }
 
+  @Test
+  public void parseProteinIds_CellTypes() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data_celltypes.xlsx").toURI());
+    when(parameters.getProteinColumn()).thenReturn(1);
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
+
+    List<String> ids = excelProteinParser.parseProteinIds(input, parameters);
+
+    assertEquals(8, ids.size());
+    assertEquals("119627830", ids.get(0));
+    assertEquals("189054652", ids.get(1));
+    assertEquals("119580583", ids.get(2));
+    assertEquals("108250308", ids.get(3));
+    assertEquals("119605998", ids.get(4));
+    assertEquals("100913206", ids.get(5));
+    assertEquals("269849686", ids.get(6));
+    assertEquals("119580714", ids.get(7));
+  }
+
   @Test
   public void parseProteinIds_MultipleLines() throws Throwable {
     final File input = new File(getClass().getResource("/data/data_many.xlsx").toURI());
@@ -305,4 +331,60 @@ public class ExcelProteinParserTest {
     assertTrue(ids.contains("269849686"));
     assertTrue(ids.contains("119580714"));
   }
+
+  @Test
+  public void parse() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data_many.xlsx").toURI());
+    when(parameters.getProteinColumn()).thenReturn(0);
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
+
+    ParsedDataFile parsed = excelProteinParser.parse(input, parameters);
+
+    assertTrue(parsed instanceof ExcelSession);
+    try (ExcelSession session = (ExcelSession) parsed) {
+      assertEquals(input, session.getFile());
+      assertEquals(0, session.getProteinColumn());
+      assertEquals(Arrays.asList("119627830", "189054652", "119580583", "108250308", "119605998",
+          "100913206", "119589484", "269849686", "119580714"), session.getProteinIds());
+      assertEquals(Arrays.asList(), session.proteinIds(0));
+      assertEquals(Arrays.asList("119627830", "189054652"), session.proteinIds(2));
+      assertEquals(Arrays.asList("119580583"), session.proteinIds(3));
+      assertEquals(Arrays.asList("119580714"), session.proteinIds(7));
+      assertNull(session.takeWorkbook());
+    }
+  }
+
+  @Test
+  public void parse_Streaming() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data_many.xlsx").toURI());
+    when(dataConfiguration.excelStreaming()).thenReturn(true);
+    when(parameters.getProteinColumn()).thenReturn(0);
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
+
+    ParsedDataFile parsed = excelProteinParser.parse(input, parameters);
+
+    assertTrue(parsed instanceof ExcelSession);
+    try (ExcelSession session = (ExcelSession) parsed) {
+      assertEquals(9, session.getProteinIds().size());
+      assertEquals(Arrays.asList("119627830", "189054652"), session.proteinIds(2));
+      assertEquals(Arrays.asList("108250308", "119605998"), session.proteinIds(4));
+      assertNull(session.takeWorkbook());
+    }
+  }
+
+  @Test
+  public void parse_Patch() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data_many.xlsx").toURI());
+    when(dataConfiguration.excelPatch()).thenReturn(true);
+    when(parameters.getProteinColumn()).thenReturn(0);
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
+
+    ParsedDataFile parsed = excelProteinParser.parse(input, parameters);
+
+    assertTrue(parsed instanceof ExcelSession);
+    try (ExcelSession session = (ExcelSession) parsed) {
+      assertEquals(Arrays.asList("100913206", "119589484"), session.proteinIds(5));
+      assertNull(session.takeWorkbook());
+    }
+  }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.junit.jupiter.api.Test;
+
+public class ExcelSessionTest {
+  private File file = new File("data.xls");
+
+  private TreeMap<Integer, List<String>> rows() {
+    TreeMap<Integer, List<String>> rows = new TreeMap<>();
+    rows.put(2, Arrays.asList("119627830", "189054652"));
+    rows.put(4, Arrays.asList("119580583", "119627830"));
+    return rows;
+  }
+
+  @Test
+  public void proteinIds() throws Throwable {
+    try (ExcelSession session = new ExcelSession(file, 1, rows(), null, null)) {
+      assertEquals(1, session.getProteinColumn());
+      assertEquals(Arrays.asList("119627830", "189054652", "119580583"),
+          session.getProteinIds());
+      assertEquals(Arrays.asList(), session.proteinIds(0));
+      assertEquals(Arrays.asList("119627830", "189054652"), session.proteinIds(2));
+      assertEquals(Arrays.asList("119627830", "189054652", "119580583", "119627830"),
+          session.allProteinIds());
+    }
+  }
+
+  @Test
+  public void takeWorkbook() throws Throwable {
+    Workbook workbook = new HSSFWorkbook();
+    try (ExcelSession session = new ExcelSession(file, 0, rows(), workbook, null)) {
+      assertSame(workbook, session.takeWorkbook());
+      assertNull(session.takeWorkbook());
+    }
+    workbook.close();
+  }
+
+  @Test
+  public void close_ReleasePermit() throws Throwable {
+    Semaphore permits = new Semaphore(2);
+    permits.acquire();
+    ExcelSession session = new ExcelSession(file, 0, rows(), new HSSFWorkbook(), permits);
+
+    session.close();
+    session.close();
+
+    assertEquals(2, permits.availablePermits());
+    assertNull(session.takeWorkbook());
+  }
+}
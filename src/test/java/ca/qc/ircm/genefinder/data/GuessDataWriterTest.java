@@ -22,6 +22,7 @@ import static org.mockito.Mockito.verify;
 import ca.qc.ircm.genefinder.annotation.ProteinMapping;
 import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Map;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -81,4 +82,22 @@ public class GuessDataWriterTest {
 
     verify(excelDataWriter).writeGene(input, output, parameters, mappings);
   }
+
+  @Test
+  public void writeGene_ParsedText() throws Throwable {
+    ParsedDataFile input = new ParsedDataFile(new File("data.txt"), new ArrayList<>());
+
+    guessDataWriter.writeGene(input, output, parameters, mappings);
+
+    verify(textDataWriter).writeGene(input, output, parameters, mappings);
+  }
+
+  @Test
+  public void writeGene_ParsedExcel() throws Throwable {
+    ParsedDataFile input = new ParsedDataFile(new File("data.xlsx"), new ArrayList<>());
+
+    guessDataWriter.writeGene(input, output, parameters, mappings);
+
+    verify(excelDataWriter).writeGene(input, output, parameters, mappings);
+  }
 }
@@ -17,10 +17,14 @@
 
 package ca.qc.ircm.genefinder.data;
 
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
 import java.io.File;
+import java.util.ArrayList;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
@@ -75,4 +79,26 @@ public class GuessProteinParserTest {
 
     verify(excelProteinParser).parseProteinIds(input, parameters);
   }
+
+  @Test
+  public void parse_Text() throws Throwable {
+    File input = new File("data.txt");
+    ParsedDataFile parsed = new ParsedDataFile(input, new ArrayList<>());
+    when(textProteinParser.parse(any(), any())).thenReturn(parsed);
+
+    assertSame(parsed, guessProteinParser.parse(input, parameters));
+
+    verify(textProteinParser).parse(input, parameters);
+  }
+
+  @Test
+  public void parse_Excel() throws Throwable {
+    File input = new File("data.xlsx");
+    ParsedDataFile parsed = new ParsedDataFile(input, new ArrayList<>());
+    when(excelProteinParser.parse(any(), any())).thenReturn(parsed);
+
+    assertSame(parsed, guessProteinParser.parse(input, parameters));
+
+    verify(excelProteinParser).parse(input, parameters);
+  }
 }
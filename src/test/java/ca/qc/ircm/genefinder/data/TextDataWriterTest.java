@@ -20,8 +20,12 @@ package ca.qc.ircm.genefinder.data;
 import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.REFSEQ;
 import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.REFSEQ_GI;
 import static ca.qc.ircm.genefinder.annotation.ProteinDatabase.UNIPROT;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import ca.qc.ircm.genefinder.annotation.GeneInfo;
@@ -33,8 +37,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.inject.Inject;
 import org.junit.jupiter.api.BeforeEach;
@@ -847,4 +855,85 @@ public class TextDataWriterTest {
       assertEquals("", columns[6]);
     }
   }
+
+  @Test
+  public void writeGene_Parsed() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data_manycolumns.txt").toURI());
+    final File output = new File(temporaryFolder, "data.txt");
+    when(parameters.getProteinColumn()).thenReturn(0);
+    when(parameters.isGeneId()).thenReturn(true);
+    when(parameters.isGeneName()).thenReturn(true);
+    final Map<String, ProteinMapping> mappings = new HashMap<>();
+    ProteinMapping mapping = new ProteinMapping();
+    mapping.setGenes(Arrays.asList(new GeneInfo(1234L, "POLR2A")));
+    mappings.put("119627830", mapping);
+    List<String> cells = new ArrayList<>();
+    TextRowIndex index = TextRowIndex.read(input, 0, Charset.defaultCharset(), cell -> {
+      cells.add(cell);
+      return cell.startsWith("gi|119627830") ? Arrays.asList("119627830") : Arrays.asList();
+    });
+    cells.clear();
+
+    textDataWriter.writeGene(index, output, parameters, mappings);
+
+    assertTrue(cells.isEmpty());
+    verify(ncbiConfiguration, never()).refseqProteinGiPattern();
+    List<String> lines = Files.readAllLines(output.toPath());
+    assertEquals(8, lines.size());
+    assertEquals("human\t\t\t", lines.get(0));
+    assertEquals("gi|119627830;gi|189054652\t1234\tPOLR2A\tgi|119621462", lines.get(2));
+    assertEquals("gi|119580583\t\t\tgi|119572880", lines.get(3));
+    assertEquals("gi|119580714\t\t\t", lines.get(7));
+  }
+
+  @Test
+  public void writeGene_ParsedOtherColumn() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data_manycolumns.txt").toURI());
+    final File output = new File(temporaryFolder, "data.txt");
+    when(parameters.getProteinColumn()).thenReturn(1);
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
+    when(parameters.isGeneName()).thenReturn(true);
+    final Map<String, ProteinMapping> mappings = new HashMap<>();
+    ProteinMapping mapping = new ProteinMapping();
+    mapping.setGenes(Arrays.asList(new GeneInfo(1234L, "POLR2A")));
+    mappings.put("119621462", mapping);
+    TextRowIndex index =
+        TextRowIndex.read(input, 0, Charset.defaultCharset(), cell -> Arrays.asList());
+
+    textDataWriter.writeGene(index, output, parameters, mappings);
+
+    List<String> lines = Files.readAllLines(output.toPath());
+    assertEquals(8, lines.size());
+    assertEquals("human\t\t", lines.get(0));
+    assertEquals("gi|119627830;gi|189054652\tgi|119621462\tPOLR2A", lines.get(2));
+    assertEquals("gi|119580583\tgi|119572880\t", lines.get(3));
+  }
+
+  @Test
+  public void writeGene_LineTerminators() throws Throwable {
+    final File input = new File(temporaryFolder, "input.txt");
+    final File output = new File(temporaryFolder, "data.txt");
+    Files.write(input.toPath(), ("head\tcolumn\n" + "gi|119627830\tcr\r" + "\r\n"
+        + "gi|119580583\tcrlf \u00e9\r\n" + "gi|119627830\tlast").getBytes(UTF_8));
+    when(parameters.getProteinColumn()).thenReturn(0);
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
+    when(parameters.isGeneName()).thenReturn(true);
+    final Map<String, ProteinMapping> mappings = new HashMap<>();
+    ProteinMapping mapping = new ProteinMapping();
+    mapping.setGenes(Arrays.asList(new GeneInfo(1234L, "POLR2A")));
+    mappings.put("119627830", mapping);
+    mapping = new ProteinMapping();
+    mapping.setGenes(Arrays.asList(new GeneInfo(4567L, "POLR2B \u00e9")));
+    mappings.put("119580583", mapping);
+    TextRowIndex index = TextRowIndex.read(input, 0, UTF_8,
+        cell -> Arrays.asList(cell.replace("gi|", "")));
+
+    textDataWriter.writeGene(index, output, parameters, mappings);
+
+    String separator = System.lineSeparator();
+    assertEquals("head\t\tcolumn" + separator + "gi|119627830\tPOLR2A\tcr" + separator + "\t"
+        + separator + "gi|119580583\tPOLR2B \u00e9\tcrlf \u00e9" + separator
+        + "gi|119627830\tPOLR2A\tlast" + separator,
+        new String(Files.readAllBytes(output.toPath()), UTF_8));
+  }
 }
@@ -28,6 +28,7 @@ import ca.qc.ircm.genefinder.annotation.NcbiConfiguration;
 import ca.qc.ircm.genefinder.annotation.UniprotConfiguration;
 import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
 import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 import javax.inject.Inject;
 import org.junit.jupiter.api.BeforeEach;
@@ -305,4 +306,48 @@ public class TextProteinParserTest {
     assertTrue(ids.contains("269849686"));
     assertTrue(ids.contains("119580714"));
   }
+
+  @Test
+  public void parse() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data_many.txt").toURI());
+    when(parameters.getProteinColumn()).thenReturn(0);
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
+
+    ParsedDataFile parsed = textProteinParser.parse(input, parameters);
+
+    assertTrue(parsed instanceof TextRowIndex);
+    assertEquals(input, parsed.getFile());
+    assertEquals(Arrays.asList("119627830", "189054652", "119580583", "108250308", "119605998",
+        "100913206", "119589484", "269849686", "119580714"), parsed.getProteinIds());
+    TextRowIndex index = (TextRowIndex) parsed;
+    assertEquals(0, index.getProteinColumn());
+    assertEquals(8, index.rows());
+    assertEquals(0, index.offset(0));
+    assertEquals(8, index.length(0));
+    assertEquals(5, index.proteinCellEnd(0));
+    assertEquals(Arrays.asList("119627830", "189054652"), index.proteinIds(2));
+    assertEquals(55, index.offset(3));
+    assertEquals(15, index.length(3));
+    assertEquals(12, index.proteinCellEnd(3));
+    assertEquals(Arrays.asList("119580583"), index.proteinIds(3));
+  }
+
+  @Test
+  public void parse_DifferentColumn() throws Throwable {
+    final File input = new File(getClass().getResource("/data/data_manycolumns.txt").toURI());
+    when(parameters.getProteinColumn()).thenReturn(1);
+    when(parameters.getProteinDatabase()).thenReturn(REFSEQ_GI);
+
+    ParsedDataFile parsed = textProteinParser.parse(input, parameters);
+
+    assertEquals(Arrays.asList("119621462", "119572880", "119587128", "119579045"),
+        parsed.getProteinIds());
+    TextRowIndex index = (TextRowIndex) parsed;
+    assertEquals(1, index.getProteinColumn());
+    assertEquals(8, index.rows());
+    assertEquals(6, index.proteinCellEnd(0));
+    assertEquals(Arrays.asList(), index.proteinIds(0));
+    assertEquals(38, index.proteinCellEnd(2));
+    assertEquals(Arrays.asList("119621462"), index.proteinIds(2));
+  }
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TextRowIndexTest {
+  @TempDir
+  File temporaryFolder;
+
+  private File file(String content) throws IOException {
+    File file = new File(temporaryFolder, "data.txt");
+    Files.write(file.toPath(), content.getBytes(UTF_8));
+    return file;
+  }
+
+  private TextRowIndex read(File file, int proteinColumn) throws IOException {
+    return TextRowIndex.read(file, proteinColumn, UTF_8,
+        cell -> cell.isEmpty() ? Collections.emptyList() : Arrays.asList(cell.split(";")));
+  }
+
+  @Test
+  public void read_LineTerminators() throws Throwable {
+    File file = file("a\tb\nc\r\rd\r\ne");
+
+    TextRowIndex index = read(file, 0);
+
+    assertEquals(5, index.rows());
+    assertEquals(0, index.offset(0));
+    assertEquals(4, index.length(0));
+    assertEquals(4, index.offset(1));
+    assertEquals(2, index.length(1));
+    assertEquals(6, index.offset(2));
+    assertEquals(1, index.length(2));
+    assertEquals(7, index.offset(3));
+    assertEquals(3, index.length(3));
+    assertEquals(10, index.offset(4));
+    assertEquals(1, index.length(4));
+    assertEquals(Arrays.asList("a"), index.proteinIds(0));
+    assertEquals(Arrays.asList(), index.proteinIds(2));
+    assertEquals(Arrays.asList("e"), index.proteinIds(4));
+    assertEquals(Arrays.asList("a", "c", "d", "e"), index.getProteinIds());
+  }
+
+  @Test
+  public void read_ProteinCellEnd() throws Throwable {
+    File file = file("x\tab;c\ty\n\u00e9\tde\n");
+
+    TextRowIndex index = read(file, 1);
+
+    assertEquals(2, index.rows());
+    assertEquals(1, index.getProteinColumn());
+    assertEquals(UTF_8, index.getCharset());
+    assertEquals(6, index.proteinCellEnd(0));
+    assertEquals(Arrays.asList("ab", "c"), index.proteinIds(0));
+    assertEquals(5, index.proteinCellEnd(1));
+    assertEquals(Arrays.asList("de"), index.proteinIds(1));
+  }
+
+  @Test
+  public void read_Duplicates() throws Throwable {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 40; i++) {
+      content.append("p" + (i % 3) + ";p" + (i % 5) + "\tv\n");
+    }
+    File file = file(content.toString());
+
+    TextRowIndex index = read(file, 0);
+
+    assertEquals(40, index.rows());
+    assertEquals(Arrays.asList("p0", "p1", "p2", "p3", "p4"), index.getProteinIds());
+    assertEquals(Arrays.asList("p2", "p2"), index.proteinIds(17));
+    assertEquals(Arrays.asList("p0", "p4"), index.proteinIds(39));
+  }
+
+  @Test
+  public void read_MissingColumn() throws Throwable {
+    File file = file("a\tb\nc\n");
+
+    IOException exception = assertThrows(IOException.class, () -> read(file, 1));
+
+    assertEquals("Line 2 of file " + file + " has no column 2", exception.getMessage());
+  }
+
+  @Test
+  public void read_Empty() throws Throwable {
+    File file = file("");
+
+    TextRowIndex index = read(file, 0);
+
+    assertEquals(0, index.rows());
+    assertEquals(Arrays.asList(), index.getProteinIds());
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import ca.qc.ircm.genefinder.xml.SaxParserPool;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.SAXException;
+
+public class XlsxColumnHandlerTest {
+  private static final String WORKSHEET_START =
+      "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+          + "<sheetData>";
+  private static final String WORKSHEET_END = "</sheetData></worksheet>";
+  private SaxParserPool saxParserPool = new SaxParserPool();
+  private List<String> sharedStrings = List.of("first", "second");
+
+  private List<String> values(int column, String rows) throws Exception {
+    List<String> values = new ArrayList<>();
+    XlsxColumnHandler handler = new XlsxColumnHandler(column, sharedStrings::get,
+        (value, row) -> values.add(value));
+    saxParserPool.parse(
+        new ByteArrayInputStream((WORKSHEET_START + rows + WORKSHEET_END).getBytes(UTF_8)),
+        handler);
+    return values;
+  }
+
+  @Test
+  public void values_SharedString() throws Throwable {
+    assertEquals(List.of("second"), values(0, "<row r=\"1\"><c r=\"A1\" t=\"s\"><v>1</v></c>"
+        + "<c r=\"B1\" t=\"s\"><v>0</v></c></row>"));
+  }
+
+  @Test
+  public void values_Numeric() throws Throwable {
+    assertEquals(List.of("119580583", "2"),
+        values(1, "<row r=\"1\"><c r=\"A1\"><v>1</v></c><c r=\"B1\"><v>119580583</v></c></row>"
+            + "<row r=\"2\"><c r=\"B2\" t=\"n\"><v>1.6</v></c></row>"));
+  }
+
+  @Test
+  public void values_InlineString() throws Throwable {
+    assertEquals(List.of("gi|100913206"),
+        values(0, "<row r=\"1\"><c r=\"A1\" t=\"inlineStr\"><is><r><t>gi|1009</t></r>"
+            + "<r><t>13206</t></r><rPh sb=\"0\" eb=\"1\"><t>phonetic</t></rPh></is></c></row>"));
+  }
+
+  @Test
+  public void values_Formula() throws Throwable {
+    assertEquals(List.of("gi|108250308", "269849686", ""),
+        values(0, "<row r=\"1\"><c r=\"A1\" t=\"str\"><f>\"gi|\"&amp;B1</f>"
+            + "<v>gi|108250308</v></c></row>"
+            + "<row r=\"2\"><c r=\"A2\"><f>B2*1</f><v>269849686</v></c></row>"
+            + "<row r=\"3\"><c r=\"A3\"><f>B3*1</f></c></row>"));
+  }
+
+  @Test
+  public void values_Boolean() throws Throwable {
+    assertEquals(List.of("true", "false"), values(0, "<row r=\"1\"><c r=\"A1\" t=\"b\"><v>1</v></c>"
+        + "</row><row r=\"2\"><c r=\"A2\" t=\"b\"><v>0</v></c></row>"));
+  }
+
+  @Test
+  public void values_Error() throws Throwable {
+    assertEquals(List.of(""), values(0, "<row r=\"1\"><c r=\"A1\" t=\"e\"><v>#N/A</v></c></row>"));
+  }
+
+  @Test
+  public void values_MissingCells() throws Throwable {
+    assertEquals(List.of("3"),
+        values(1, "<row r=\"1\"><c r=\"A1\"><v>1</v></c><c r=\"C1\"><v>2</v></c></row>"
+            + "<row r=\"2\"/><row r=\"3\"><c r=\"B3\"><v>3</v></c></row>"));
+  }
+
+  @Test
+  public void values_NoCellReference() throws Throwable {
+    assertEquals(List.of("2", "4"),
+        values(1, "<row><c><v>1</v></c><c><v>2</v></c></row><row><c><v>3</v></c><c><v>4</v></c>"
+            + "<c><v>5</v></c></row>"));
+  }
+
+  @Test
+  public void values_Prefix() throws Throwable {
+    List<String> values = new ArrayList<>();
+    XlsxColumnHandler handler = new XlsxColumnHandler(0, sharedStrings::get,
+        (value, row) -> values.add(value));
+    saxParserPool.parse(new ByteArrayInputStream(
+        ("<x:worksheet xmlns:x=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+            + "<x:sheetData><x:row r=\"1\"><x:c r=\"A1\" t=\"s\"><x:v>0</x:v></x:c></x:row>"
+            + "</x:sheetData></x:worksheet>").getBytes(UTF_8)),
+        handler);
+    assertEquals(List.of("first"), values);
+  }
+
+  @Test
+  public void values_Rows() throws Throwable {
+    List<Integer> rows = new ArrayList<>();
+    XlsxColumnHandler handler =
+        new XlsxColumnHandler(1, sharedStrings::get, (value, row) -> rows.add(row));
+    saxParserPool.parse(new ByteArrayInputStream((WORKSHEET_START
+        + "<row r=\"2\"><c r=\"B2\"><v>1</v></c></row><row><c><v>2</v></c><c><v>3</v></c></row>"
+        + "<row r=\"7\"><c r=\"A7\"><v>4</v></c></row><row r=\"9\"><c r=\"B9\"><v>5</v></c>"
+        + "</row>" + WORKSHEET_END).getBytes(UTF_8)), handler);
+    assertEquals(List.of(1, 2, 8), rows);
+  }
+
+  @Test
+  public void values_InvalidNumeric() throws Throwable {
+    assertThrows(SAXException.class,
+        () -> values(0, "<row r=\"1\"><c r=\"A1\"><v>abc</v></c></row>"));
+  }
+
+  @Test
+  public void columnIndex() {
+    assertEquals(0, XlsxColumnHandler.columnIndex("A1"));
+    assertEquals(1, XlsxColumnHandler.columnIndex("B12"));
+    assertEquals(25, XlsxColumnHandler.columnIndex("Z3"));
+    assertEquals(26, XlsxColumnHandler.columnIndex("AA3"));
+    assertEquals(27, XlsxColumnHandler.columnIndex("ab100"));
+    assertEquals(16383, XlsxColumnHandler.columnIndex("XFD1048576"));
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class XlsxColumnShiftTest {
+  private XlsxColumnShift shift = new XlsxColumnShift(1, 3);
+
+  @Test
+  public void column() {
+    assertEquals(0, shift.column(0));
+    assertEquals(1, shift.column(1));
+    assertEquals(5, shift.column(2));
+    assertEquals(29, shift.column(26));
+  }
+
+  @Test
+  public void reference() {
+    assertEquals("A1", shift.reference("A1"));
+    assertEquals("B12", shift.reference("B12"));
+    assertEquals("F3", shift.reference("C3"));
+    assertEquals("$F$3", shift.reference("$C$3"));
+    assertEquals("AD7", shift.reference("AA7"));
+    assertEquals("F", shift.reference("C"));
+    assertEquals("12", shift.reference("12"));
+    assertEquals("name", shift.reference("name"));
+  }
+
+  @Test
+  public void references() {
+    assertEquals("A1:F3", shift.references("A1:C3"));
+    assertEquals("F3 A1:B2 G4:H5", shift.references("C3 A1:B2 D4:E5"));
+    assertEquals("F:G", shift.references("C:D"));
+    assertEquals("1:3", shift.references("1:3"));
+  }
+
+  @Test
+  public void formula() {
+    assertEquals("F3*2", shift.formula("C3*2"));
+    assertEquals("SUM($A$1:F3)+G$4", shift.formula("SUM($A$1:C3)+D$4"));
+    assertEquals("LOG10(F3)", shift.formula("LOG10(C3)"));
+    assertEquals("COUNTIF(F:G,\"C3\")", shift.formula("COUNTIF(C:D,\"C3\")"));
+    assertEquals("Sheet2!C3+'My sheet'!C3:D4+F3", shift.formula("Sheet2!C3+'My sheet'!C3:D4+C3"));
+    assertEquals("Table1[Column C3]+F1", shift.formula("Table1[Column C3]+C1"));
+    assertEquals("1.5E+3+proteins+TRUE", shift.formula("1.5E+3+proteins+TRUE"));
+    assertEquals("_xlfn.CONCAT(A1,F1)", shift.formula("_xlfn.CONCAT(A1,C1)"));
+    assertEquals("SUM(2:3)", shift.formula("SUM(2:3)"));
+  }
+
+  @Test
+  public void formula_SheetName() {
+    XlsxColumnShift shift = new XlsxColumnShift(1, 3, "Sheet1");
+
+    assertEquals("Sheet1!F3+sheet1!A1:F4+Sheet2!C3",
+        shift.formula("Sheet1!C3+sheet1!A1:C4+Sheet2!C3"));
+    assertEquals("'Sheet1'!$F$3+F3", shift.formula("'Sheet1'!$C$3+C3"));
+    assertEquals("Sheet0:Sheet1!C3", shift.formula("Sheet0:Sheet1!C3"));
+  }
+
+  @Test
+  public void formula_QuotedSheetName() {
+    XlsxColumnShift shift = new XlsxColumnShift(1, 3, "John's data");
+
+    assertEquals("'John''s data'!F3:G4+'My sheet'!C3",
+        shift.formula("'John''s data'!C3:D4+'My sheet'!C3"));
+  }
+
+  @Test
+  public void columnName() {
+    assertEquals("A", XlsxColumnShift.columnName(0));
+    assertEquals("Z", XlsxColumnShift.columnName(25));
+    assertEquals("AA", XlsxColumnShift.columnName(26));
+    assertEquals("AZ", XlsxColumnShift.columnName(51));
+    assertEquals("XFD", XlsxColumnShift.columnName(XlsxColumnShift.MAX_COLUMN));
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ca.qc.ircm.genefinder.xml.SaxParserPool;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+public class XlsxPatcherTest {
+  @TempDir
+  File temporaryFolder;
+  private List<XlsxCell> proteinCells = new ArrayList<>();
+
+  private XlsxPatcher patcher() {
+    return new XlsxPatcher(0, 3, (row, cell) -> {
+      proteinCells.add(cell);
+      String value = cell != null ? cell.getValue() : "";
+      if (value.contains("gi|119627830")) {
+        return Arrays.asList("POLR2A", 1234L, 20.0);
+      } else if (value.contains("gi|108250308")) {
+        return Arrays.asList("RPB1", null, "");
+      } else {
+        return Arrays.asList("", null, null);
+      }
+    });
+  }
+
+  private byte[] part(File file, String name) throws IOException {
+    try (ZipFile zip = new ZipFile(file)) {
+      ZipEntry entry = zip.getEntry(name);
+      if (entry == null) {
+        return null;
+      }
+      try (InputStream input = zip.getInputStream(entry)) {
+        return input.readAllBytes();
+      }
+    }
+  }
+
+  private List<String> entries(File file) throws IOException {
+    try (ZipFile zip = new ZipFile(file)) {
+      List<String> entries = new ArrayList<>();
+      Collections.list(zip.entries()).forEach(entry -> entries.add(entry.getName()));
+      return entries;
+    }
+  }
+
+  private Document document(byte[] content) throws Exception {
+    return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+        .parse(new ByteArrayInputStream(content));
+  }
+
+  private String xpath(Document document, String expression) throws Exception {
+    return XPathFactory.newInstance().newXPath().evaluate(expression, document);
+  }
+
+  private List<String> cells(Document document, int row) throws Exception {
+    NodeList cells = (NodeList) XPathFactory.newInstance().newXPath()
+        .evaluate("//row[@r='" + row + "']/c/@r", document, XPathConstants.NODESET);
+    List<String> references = new ArrayList<>();
+    for (int i = 0; i < cells.getLength(); i++) {
+      references.add(cells.item(i).getNodeValue());
+    }
+    return references;
+  }
+
+  private File input(String sheetContent) throws Exception {
+    File input = new File(temporaryFolder, "input.xlsx");
+    File source = new File(getClass().getResource("/data/data_formatted.xlsx").toURI());
+    try (ZipFile zip = new ZipFile(source);
+        ZipOutputStream output = new ZipOutputStream(new FileOutputStream(input))) {
+      for (ZipEntry entry : Collections.list(zip.entries())) {
+        output.putNextEntry(new ZipEntry(entry.getName()));
+        if (entry.getName().equals("xl/worksheets/sheet1.xml")) {
+          output.write(("<worksheet xmlns=\"" + XlsxPatcher.MAIN_NAMESPACE + "\">"
+              + sheetContent + "</worksheet>").getBytes(UTF_8));
+        } else {
+          try (InputStream entryInput = zip.getInputStream(entry)) {
+            entryInput.transferTo(output);
+          }
+        }
+        output.closeEntry();
+      }
+    }
+    return input;
+  }
+
+  @Test
+  public void patch() throws Throwable {
+    File input = new File(getClass().getResource("/data/data_formatted.xlsx").toURI());
+    File output = new File(temporaryFolder, "data_formatted.xlsx");
+
+    assertTrue(patcher().patch(input, output));
+
+    assertEquals(entries(input), entries(output));
+    for (String name : entries(input)) {
+      if (!name.equals("xl/worksheets/sheet1.xml") && !name.equals("xl/styles.xml")
+          && !name.equals("xl/calcChain.xml")) {
+        assertArrayEquals(part(input, name), part(output, name), name);
+      }
+    }
+    Document sheet = document(part(output, "xl/worksheets/sheet1.xml"));
+    assertEquals("A1:G8", xpath(sheet, "/worksheet/dimension/@ref"));
+    assertEquals("E3", xpath(sheet, "//selection/@activeCell"));
+    assertEquals("E3 F4:G5", xpath(sheet, "//selection/@sqref"));
+    assertEquals("1", xpath(sheet, "//col[1]/@min"));
+    assertEquals("1", xpath(sheet, "//col[1]/@max"));
+    assertEquals("5", xpath(sheet, "//col[2]/@min"));
+    assertEquals("6", xpath(sheet, "//col[2]/@max"));
+    assertEquals("0", xpath(sheet, "count(//row[@spans])"));
+    assertEquals(Arrays.asList("A1", "E1"), cells(sheet, 1));
+    assertEquals("value", xpath(sheet, "//c[@r='E1']/is/t"));
+    assertEquals("1", xpath(sheet, "//c[@r='E1']/@s"));
+    assertEquals(Arrays.asList("A2"), cells(sheet, 2));
+    assertEquals(Arrays.asList("A3", "B3", "C3", "D3", "E3", "F3", "G3"), cells(sheet, 3));
+    assertEquals("inlineStr", xpath(sheet, "//c[@r='B3']/@t"));
+    assertEquals("POLR2A", xpath(sheet, "//c[@r='B3']/is/t"));
+    assertEquals("", xpath(sheet, "//c[@r='C3']/@t"));
+    assertEquals("1234", xpath(sheet, "//c[@r='C3']/v"));
+    assertEquals("2", xpath(sheet, "//c[@r='D3']/@s"));
+    assertEquals("20.0", xpath(sheet, "//c[@r='D3']/v"));
+    assertEquals("1", xpath(sheet, "//c[@r='E3']/@s"));
+    assertEquals("5", xpath(sheet, "//c[@r='E3']/v"));
+    assertEquals("E3*2", xpath(sheet, "//c[@r='F3']/f"));
+    assertEquals("SUM($A$1:E3)+F$3+other!B1+LOG10(E3)+COUNTIF(E:F,\"B3\")",
+        xpath(sheet, "//c[@r='G3']/f"));
+    assertEquals(Arrays.asList("A4", "E4"), cells(sheet, 4));
+    assertEquals(Arrays.asList("A5", "B5", "E5"), cells(sheet, 5));
+    assertEquals("\"gi|\"&\"108250308\"", xpath(sheet, "//c[@r='A5']/f"));
+    assertEquals("RPB1", xpath(sheet, "//c[@r='B5']/is/t"));
+    assertEquals("7", xpath(sheet, "//c[@r='E5']/v"));
+    assertEquals(Arrays.asList("A6"), cells(sheet, 6));
+    assertEquals(Arrays.asList("A8"), cells(sheet, 8));
+    assertEquals("E1:F1", xpath(sheet, "//mergeCell/@ref"));
+    assertEquals("E3:F4", xpath(sheet, "//conditionalFormatting/@sqref"));
+    assertEquals("E3>4", xpath(sheet, "//conditionalFormatting//formula"));
+    Document styles = document(part(output, "xl/styles.xml"));
+    assertEquals("3", xpath(styles, "//cellXfs/@count"));
+    assertEquals("3", xpath(styles, "count(//cellXfs/xf)"));
+    assertEquals("2", xpath(styles, "//cellXfs/xf[3]/@numFmtId"));
+    assertEquals("1", xpath(styles, "//cellXfs/xf[3]/@applyNumberFormat"));
+    Document calcChain = document(part(output, "xl/calcChain.xml"));
+    assertEquals("F3", xpath(calcChain, "//c[1]/@r"));
+    assertEquals("G3", xpath(calcChain, "//c[2]/@r"));
+    assertEquals("A5", xpath(calcChain, "//c[3]/@r"));
+    assertEquals("A1", xpath(calcChain, "//c[4]/@r"));
+    assertEquals(7, proteinCells.size());
+    assertEquals(XlsxCell.Type.STRING, proteinCells.get(0).getType());
+    assertEquals("human", proteinCells.get(0).getValue());
+    assertEquals("gi|108250308", proteinCells.get(4).getValue());
+  }
+
+  @Test
+  public void patch_ReadBack() throws Throwable {
+    File input = new File(getClass().getResource("/data/data_formatted.xlsx").toURI());
+    File output = new File(temporaryFolder, "data_formatted.xlsx");
+
+    patcher().patch(input, output);
+
+    List<String> sharedStrings = new ArrayList<>();
+    sharedStrings.add("human");
+    sharedStrings.add("accession number");
+    sharedStrings.add("gi|119627830;gi|189054652");
+    List<String> rows = new ArrayList<>();
+    new SaxParserPool().parse(
+        new ByteArrayInputStream(part(output, "xl/worksheets/sheet1.xml")),
+        new XlsxRowHandler(index -> index < sharedStrings.size() ? sharedStrings.get(index) : "",
+            (index, cells) -> {
+              if (index == 2) {
+                cells.forEach(cell -> rows.add(cell.getColumn() + "=" + cell.getValue()));
+              }
+            }));
+    assertEquals(Arrays.asList("0=gi|119627830;gi|189054652", "1=POLR2A", "2=1234", "3=20.0",
+        "4=5", "5=10", "6=16"), rows);
+  }
+
+  @Test
+  public void patch_NoCellReferences() throws Throwable {
+    File input = input("<sheetData>"
+        + "<row><c t=\"inlineStr\"><is><t>gi|119627830</t></is></c><c><v>1</v></c></row>"
+        + "<row><c><v>2</v></c></row></sheetData>");
+    File output = new File(temporaryFolder, "output.xlsx");
+
+    patcher().patch(input, output);
+
+    Document sheet = document(part(output, "xl/worksheets/sheet1.xml"));
+    assertEquals("5", xpath(sheet, "count(//row[1]/c)"));
+    assertEquals("", xpath(sheet, "//row[1]/c[1]/@r"));
+    assertEquals("B1", xpath(sheet, "//row[1]/c[2]/@r"));
+    assertEquals("POLR2A", xpath(sheet, "//row[1]/c[2]/is/t"));
+    assertEquals("C1", xpath(sheet, "//row[1]/c[3]/@r"));
+    assertEquals("1234", xpath(sheet, "//row[1]/c[3]/v"));
+    assertEquals("D1", xpath(sheet, "//row[1]/c[4]/@r"));
+    assertEquals("20.0", xpath(sheet, "//row[1]/c[4]/v"));
+    assertEquals("", xpath(sheet, "//row[1]/c[5]/@r"));
+    assertEquals("1", xpath(sheet, "//row[1]/c[5]/v"));
+    assertEquals("1", xpath(sheet, "count(//row[2]/c)"));
+    assertEquals("2", xpath(sheet, "//row[2]/c/v"));
+  }
+
+  @Test
+  public void patch_SheetReferences() throws Throwable {
+    File input = input("<dimension ref=\"A1:A2\"/><sheetData>"
+        + "<row r=\"1\"><c r=\"A1\" t=\"inlineStr\"><is><t>gi|119627830</t></is></c></row>"
+        + "<row r=\"2\"><c r=\"A2\"><f>data_formatted!B1+'data_formatted'!$B$1+other!B1</f>"
+        + "</c></row></sheetData>");
+    File output = new File(temporaryFolder, "output.xlsx");
+
+    assertTrue(patcher().patch(input, output));
+
+    Document sheet = document(part(output, "xl/worksheets/sheet1.xml"));
+    assertEquals("A1:D2", xpath(sheet, "//dimension/@ref"));
+    assertEquals("POLR2A", xpath(sheet, "//row[1]/c[2]/is/t"));
+    assertEquals("preserve", xpath(sheet, "//row[1]/c[2]/is/t/@*[name()='xml:space']"));
+    assertEquals("data_formatted!E1+'data_formatted'!$E$1+other!B1",
+        xpath(sheet, "//row[2]/c[1]/f"));
+  }
+
+  @Test
+  public void patch_Table() throws Throwable {
+    File input = new File(temporaryFolder, "input.xlsx");
+    File source = new File(getClass().getResource("/data/data_formatted.xlsx").toURI());
+    try (ZipFile zip = new ZipFile(source);
+        ZipOutputStream output = new ZipOutputStream(new FileOutputStream(input))) {
+      for (ZipEntry entry : Collections.list(zip.entries())) {
+        output.putNextEntry(new ZipEntry(entry.getName()));
+        try (InputStream entryInput = zip.getInputStream(entry)) {
+          entryInput.transferTo(output);
+        }
+        output.closeEntry();
+      }
+      output.putNextEntry(new ZipEntry("xl/worksheets/_rels/sheet1.xml.rels"));
+      output.write(("<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/"
+          + "relationships\"><Relationship Id=\"rId1\" Type=\""
+          + XlsxPatcher.RELATIONSHIPS_NAMESPACE + "/table\" Target=\"../tables/table1.xml\"/>"
+          + "</Relationships>").getBytes(UTF_8));
+      output.closeEntry();
+    }
+    File output = new File(temporaryFolder, "output.xlsx");
+
+    assertFalse(patcher().patch(input, output));
+
+    assertFalse(output.exists());
+  }
+}
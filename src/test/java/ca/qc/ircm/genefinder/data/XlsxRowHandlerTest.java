@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.data;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ca.qc.ircm.genefinder.xml.SaxParserPool;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class XlsxRowHandlerTest {
+  private static final String WORKSHEET_START =
+      "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+          + "<sheetData>";
+  private static final String WORKSHEET_END = "</sheetData></worksheet>";
+  private SaxParserPool saxParserPool = new SaxParserPool();
+  private List<String> sharedStrings = List.of("first", "second");
+
+  private List<String> rows(String rows) throws Exception {
+    List<String> values = new ArrayList<>();
+    XlsxRowHandler handler = new XlsxRowHandler(sharedStrings::get, (index, cells) -> {
+      StringBuilder builder = new StringBuilder().append(index).append(":");
+      for (XlsxCell cell : cells) {
+        builder.append(" ").append(cell.getColumn()).append("=").append(cell.getType())
+            .append("(").append(cell.getValue()).append(")");
+        if (cell.getStyle() > 0) {
+          builder.append("s").append(cell.getStyle());
+        }
+      }
+      values.add(builder.toString());
+    });
+    saxParserPool.parse(
+        new ByteArrayInputStream((WORKSHEET_START + rows + WORKSHEET_END).getBytes(UTF_8)),
+        handler);
+    return values;
+  }
+
+  @Test
+  public void rows() throws Throwable {
+    assertEquals(List.of("0: 0=STRING(second) 1=NUMERIC(1.5)s2", "3: 2=BOOLEAN(1) 3=ERROR(#N/A)"),
+        rows("<row r=\"1\"><c r=\"A1\" t=\"s\"><v>1</v></c><c r=\"B1\" s=\"2\"><v>1.5</v></c>"
+            + "</row><row r=\"4\"><c r=\"C4\" t=\"b\"><v>1</v></c>"
+            + "<c r=\"D4\" t=\"e\"><v>#N/A</v></c></row>"));
+  }
+
+  @Test
+  public void rows_Formula() throws Throwable {
+    assertEquals(List.of("0: 0=STRING(gi|1) 1=NUMERIC(2) 2=BLANK()"),
+        rows("<row r=\"1\"><c r=\"A1\" t=\"str\"><f>\"gi|\"&amp;B1</f><v>gi|1</v></c>"
+            + "<c r=\"B1\"><f>1+1</f><v>2</v></c><c r=\"C1\"><f>A2</f></c></row>"));
+  }
+
+  @Test
+  public void rows_InlineString() throws Throwable {
+    assertEquals(List.of("0: 1=STRING(gi|100913206)"),
+        rows("<row r=\"1\"><c r=\"B1\" t=\"inlineStr\"><is><r><t>gi|1009</t></r>"
+            + "<r><t>13206</t></r><rPh sb=\"0\" eb=\"1\"><t>phonetic</t></rPh></is></c></row>"));
+  }
+
+  @Test
+  public void rows_EmptyRow() throws Throwable {
+    assertEquals(List.of("0: 0=BLANK()s1", "1:"),
+        rows("<row r=\"1\"><c r=\"A1\" s=\"1\"/></row><row r=\"2\"/>"));
+  }
+
+  @Test
+  public void rows_NoReference() throws Throwable {
+    assertEquals(List.of("0: 0=NUMERIC(1) 1=NUMERIC(2)", "1: 0=NUMERIC(3)"),
+        rows("<row><c><v>1</v></c><c><v>2</v></c></row><row><c><v>3</v></c></row>"));
+  }
+}
@@ -59,4 +59,29 @@ public class ProteinServiceTest {
 
     assertEquals(0.0, weight, 0.01);
   }
+
+  @Test
+  public void weightAccumulator() {
+    WeightAccumulator accumulator = proteinServiceDefault.weightAccumulator();
+    "mpstyllq574".chars().forEach(accumulator::add);
+
+    assertEquals(proteinServiceDefault.weight("mpstyllq574"), accumulator.weight(), 0.000001);
+  }
+
+  @Test
+  public void weightAccumulator_Reset() {
+    WeightAccumulator accumulator = proteinServiceDefault.weightAccumulator();
+    "GAMPSTRV".chars().forEach(accumulator::add);
+    accumulator.reset();
+    "mpstyllq".chars().forEach(accumulator::add);
+
+    assertEquals(0.95, accumulator.weight(), 0.01);
+  }
+
+  @Test
+  public void weightAccumulator_Empty() {
+    WeightAccumulator accumulator = proteinServiceDefault.weightAccumulator();
+
+    assertEquals(0.0, accumulator.weight(), 0.01);
+  }
 }
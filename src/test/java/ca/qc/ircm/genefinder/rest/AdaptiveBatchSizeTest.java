@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.rest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.ServiceUnavailableException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveBatchSizeTest {
+  private void success(AdaptiveBatchSize batchSize, int ids, long nanosPerId) {
+    for (int i = 0; i < AdaptiveBatchSize.SAMPLES_PER_SIZE; i++) {
+      batchSize.success(ids, ids * nanosPerId);
+    }
+  }
+
+  @Test
+  public void size() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize("test", 100, 1000);
+
+    assertEquals("test", batchSize.name());
+    assertEquals(100, batchSize.size());
+    assertEquals(1000, batchSize.max());
+    assertNull(batchSize.latencyPerId());
+    assertEquals(0, batchSize.batches());
+    assertEquals(0, batchSize.failures());
+  }
+
+  @Test
+  public void size_InitialOverMax() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize("test", 2000, 1000);
+
+    assertEquals(1000, batchSize.size());
+  }
+
+  @Test
+  public void success_GrowWhileLatencyImproves() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize("test", 100, 1000);
+
+    success(batchSize, 100, 1000);
+    assertEquals(125, batchSize.size());
+    success(batchSize, 125, 800);
+    assertEquals(156, batchSize.size());
+    assertEquals(Duration.ofNanos(800), batchSize.latencyPerId());
+    assertEquals(4, batchSize.batches());
+  }
+
+  @Test
+  public void success_RevertWhenLatencyDoesNotImprove() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize("test", 100, 1000);
+    success(batchSize, 100, 1000);
+    success(batchSize, 125, 800);
+
+    success(batchSize, 156, 790);
+    assertEquals(125, batchSize.size());
+    success(batchSize, 125, 800);
+    assertEquals(125, batchSize.size());
+  }
+
+  @Test
+  public void success_Max() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize("test", 100, 110);
+
+    success(batchSize, 100, 1000);
+
+    assertEquals(110, batchSize.size());
+  }
+
+  @Test
+  public void success_IgnoreSmallBatches() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize("test", 100, 1000);
+
+    success(batchSize, 10, 1000);
+
+    assertEquals(100, batchSize.size());
+    assertNull(batchSize.latencyPerId());
+    assertEquals(2, batchSize.batches());
+  }
+
+  @Test
+  public void success_ProbeAgain() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize("test", 100, 1000);
+    success(batchSize, 100, 1000);
+    success(batchSize, 125, 800);
+    success(batchSize, 156, 800);
+    assertEquals(125, batchSize.size());
+
+    for (int i = 0; i < AdaptiveBatchSize.SAMPLES_PER_SIZE - 1 + AdaptiveBatchSize.PROBE_INTERVAL;
+        i++) {
+      batchSize.success(125, 125 * 800);
+    }
+    assertEquals(125, batchSize.size());
+    batchSize.success(125, 125 * 800);
+    assertEquals(156, batchSize.size());
+  }
+
+  @Test
+  public void failure() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize("test", 100, 1000);
+
+    batchSize.failure();
+    assertEquals(50, batchSize.size());
+    batchSize.failure();
+    assertEquals(25, batchSize.size());
+    assertEquals(2, batchSize.batches());
+    assertEquals(2, batchSize.failures());
+  }
+
+  @Test
+  public void failure_Min() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize("test", 1, 1000);
+
+    batchSize.failure();
+
+    assertEquals(1, batchSize.size());
+  }
+
+  @Test
+  public void measure() throws Throwable {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize("test", 100, 1000);
+    Object result = new Object();
+
+    assertSame(result, batchSize.measure(100, () -> result));
+
+    assertEquals(1, batchSize.batches());
+    assertEquals(0, batchSize.failures());
+  }
+
+  @Test
+  public void measure_ServerError() throws Throwable {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize("test", 100, 1000);
+
+    assertThrows(ServiceUnavailableException.class, () -> batchSize.measure(100, () -> {
+      throw new ServiceUnavailableException();
+    }));
+
+    assertEquals(50, batchSize.size());
+    assertEquals(1, batchSize.failures());
+  }
+
+  @Test
+  public void measure_Timeout() throws Throwable {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize("test", 100, 1000);
+
+    assertThrows(ProcessingException.class, () -> batchSize.measure(100, () -> {
+      throw new ProcessingException(new SocketTimeoutException("Read timed out"));
+    }));
+
+    assertEquals(50, batchSize.size());
+    assertEquals(1, batchSize.failures());
+  }
+
+  @Test
+  public void measure_ClientError() throws Throwable {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize("test", 100, 1000);
+
+    assertThrows(BadRequestException.class, () -> batchSize.measure(100, () -> {
+      throw new BadRequestException();
+    }));
+
+    assertEquals(100, batchSize.size());
+    assertEquals(0, batchSize.failures());
+  }
+
+  @Test
+  public void boundaries() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize("test", 100, 1000);
+
+    assertArrayEquals(new int[] { 0, 100, 200, 250 }, batchSize.boundaries(250));
+    assertArrayEquals(new int[] { 0, 100 }, batchSize.boundaries(100));
+    assertArrayEquals(new int[] { 0 }, batchSize.boundaries(0));
+  }
+}
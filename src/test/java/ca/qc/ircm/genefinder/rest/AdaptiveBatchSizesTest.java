@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveBatchSizesTest {
+  @Test
+  public void get() {
+    AdaptiveBatchSizes adaptiveBatchSizes = new AdaptiveBatchSizes();
+
+    AdaptiveBatchSize batchSize = adaptiveBatchSizes.get("test", 100, 1000);
+
+    assertEquals("test", batchSize.name());
+    assertEquals(100, batchSize.size());
+    assertEquals(1000, batchSize.max());
+    assertSame(batchSize, adaptiveBatchSizes.get("test", 200, 2000));
+    assertNotSame(batchSize, adaptiveBatchSizes.get("other", 100, 1000));
+  }
+
+  @Test
+  public void all() {
+    AdaptiveBatchSizes adaptiveBatchSizes = new AdaptiveBatchSizes();
+    assertTrue(adaptiveBatchSizes.all().isEmpty());
+    AdaptiveBatchSize batchSize1 = adaptiveBatchSizes.get("test", 100, 1000);
+    AdaptiveBatchSize batchSize2 = adaptiveBatchSizes.get("other", 100, 1000);
+
+    assertEquals(2, adaptiveBatchSizes.all().size());
+    assertTrue(adaptiveBatchSizes.all().contains(batchSize1));
+    assertTrue(adaptiveBatchSizes.all().contains(batchSize2));
+  }
+}
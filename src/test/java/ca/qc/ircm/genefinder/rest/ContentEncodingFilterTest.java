@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.rest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
+import jakarta.ws.rs.client.ClientRequestContext;
+import jakarta.ws.rs.client.ClientResponseContext;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import jakarta.ws.rs.core.MultivaluedMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+
+@ServiceTestAnnotations
+public class ContentEncodingFilterTest {
+  private ContentEncodingFilter contentEncodingFilter;
+  @Mock
+  private TransferStatistics transferStatistics;
+  @Mock
+  private ClientRequestContext request;
+  @Mock
+  private ClientResponseContext response;
+  @Captor
+  private ArgumentCaptor<InputStream> inputCaptor;
+  private MultivaluedMap<String, Object> requestHeaders = new MultivaluedHashMap<>();
+  private MultivaluedMap<String, String> responseHeaders = new MultivaluedHashMap<>();
+  private byte[] content;
+
+  /**
+   * Before test.
+   */
+  @BeforeEach
+  public void beforeTest() {
+    contentEncodingFilter = new ContentEncodingFilter(transferStatistics);
+    when(request.getHeaders()).thenReturn(requestHeaders);
+    when(response.getHeaders()).thenReturn(responseHeaders);
+    when(response.hasEntity()).thenReturn(true);
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      builder.append(">NP_001317102.1 alpha-1-B glycoprotein [Homo sapiens]\n");
+    }
+    content = builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private byte[] compress(byte[] content, boolean gzip) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (OutputStream output =
+        gzip ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes)) {
+      output.write(content);
+    }
+    return bytes.toByteArray();
+  }
+
+  private byte[] readDecoded() throws IOException {
+    verify(response).setEntityStream(inputCaptor.capture());
+    try (InputStream input = inputCaptor.getValue()) {
+      return input.readAllBytes();
+    }
+  }
+
+  private void setResponse(String encoding, byte[] body) {
+    if (encoding != null) {
+      responseHeaders.putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+      responseHeaders.putSingle(HttpHeaders.CONTENT_LENGTH, String.valueOf(body.length));
+    }
+    when(response.getHeaderString(HttpHeaders.CONTENT_ENCODING)).thenReturn(encoding);
+    when(response.getEntityStream()).thenReturn(new ByteArrayInputStream(body));
+  }
+
+  @Test
+  public void filter_Request() throws Throwable {
+    contentEncodingFilter.filter(request);
+
+    assertEquals(ContentEncodingFilter.ACCEPT_ENCODING,
+        requestHeaders.getFirst(HttpHeaders.ACCEPT_ENCODING));
+  }
+
+  @Test
+  public void filter_RequestAcceptEncoding() throws Throwable {
+    requestHeaders.putSingle(HttpHeaders.ACCEPT_ENCODING, "identity");
+
+    contentEncodingFilter.filter(request);
+
+    assertEquals("identity", requestHeaders.getFirst(HttpHeaders.ACCEPT_ENCODING));
+  }
+
+  @Test
+  public void filter_ResponseGzip() throws Throwable {
+    byte[] compressed = compress(content, true);
+    setResponse("gzip", compressed);
+
+    contentEncodingFilter.filter(request, response);
+
+    assertArrayEquals(content, readDecoded());
+    assertFalse(responseHeaders.containsKey(HttpHeaders.CONTENT_ENCODING));
+    assertFalse(responseHeaders.containsKey(HttpHeaders.CONTENT_LENGTH));
+    verify(transferStatistics).record(compressed.length, content.length);
+  }
+
+  @Test
+  public void filter_ResponseDeflate() throws Throwable {
+    byte[] compressed = compress(content, false);
+    setResponse("deflate", compressed);
+
+    contentEncodingFilter.filter(request, response);
+
+    assertArrayEquals(content, readDecoded());
+    assertFalse(responseHeaders.containsKey(HttpHeaders.CONTENT_ENCODING));
+    verify(transferStatistics).record(compressed.length, content.length);
+  }
+
+  @Test
+  public void filter_ResponseIdentity() throws Throwable {
+    setResponse(null, content);
+
+    contentEncodingFilter.filter(request, response);
+
+    assertArrayEquals(content, readDecoded());
+    verify(transferStatistics).record(content.length, content.length);
+  }
+
+  @Test
+  public void filter_ResponseUnknownEncoding() throws Throwable {
+    setResponse("br", content);
+
+    contentEncodingFilter.filter(request, response);
+
+    verify(response, never()).setEntityStream(any());
+    assertEquals("br", responseHeaders.getFirst(HttpHeaders.CONTENT_ENCODING));
+    verify(transferStatistics, never()).record(anyLong(), anyLong());
+  }
+
+  @Test
+  public void filter_ResponseNoEntity() throws Throwable {
+    when(response.hasEntity()).thenReturn(false);
+
+    contentEncodingFilter.filter(request, response);
+
+    verify(response, never()).setEntityStream(any());
+  }
+}
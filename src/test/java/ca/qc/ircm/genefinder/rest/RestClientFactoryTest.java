@@ -18,12 +18,19 @@
 package ca.qc.ircm.genefinder.rest;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.when;
 
 import ca.qc.ircm.genefinder.test.config.ServiceTestAnnotations;
 import jakarta.ws.rs.client.Client;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.client.ClientProperties;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
@@ -33,21 +40,68 @@ public class RestClientFactoryTest {
   private RestClientFactory restClientFactory;
   @Mock
   private RestConfiguration restConfiguration;
+  @Mock
+  private TransferStatistics transferStatistics;
 
   @BeforeEach
   public void beforeTest() {
-    restClientFactory = new RestClientFactory(restConfiguration);
+    restClientFactory = new RestClientFactory(restConfiguration, transferStatistics);
+    when(restConfiguration.maxConnections()).thenReturn(20);
+    when(restConfiguration.maxConnectionsPerRoute()).thenReturn(10);
+    when(restConfiguration.keepAlive()).thenReturn(60000);
+  }
+
+  @AfterEach
+  public void afterTest() {
+    restClientFactory.close();
   }
 
   @Test
-  public void createClient() {
+  public void client() {
     int timeout = 2000;
     when(restConfiguration.timeout()).thenReturn(timeout);
 
-    Client client = restClientFactory.createClient();
+    Client client = restClientFactory.client();
 
     assertTrue(client instanceof Client);
     assertEquals(timeout, client.getConfiguration().getProperty(ClientProperties.CONNECT_TIMEOUT));
     assertEquals(timeout, client.getConfiguration().getProperty(ClientProperties.READ_TIMEOUT));
   }
+
+  @Test
+  public void client_ConnectionPool() {
+    Client client = restClientFactory.client();
+
+    ClientConfig configuration = (ClientConfig) client.getConfiguration();
+    assertTrue(configuration.getConnectorProvider() instanceof ApacheConnectorProvider);
+    PoolingHttpClientConnectionManager connectionManager =
+        (PoolingHttpClientConnectionManager) configuration
+            .getProperty(ApacheClientProperties.CONNECTION_MANAGER);
+    assertEquals(20, connectionManager.getMaxTotal());
+    assertEquals(10, connectionManager.getDefaultMaxPerRoute());
+  }
+
+  @Test
+  public void client_ContentEncoding() {
+    Client client = restClientFactory.client();
+
+    assertTrue(client.getConfiguration().getInstances().stream()
+        .anyMatch(instance -> instance instanceof ContentEncodingFilter));
+  }
+
+  @Test
+  public void client_Shared() {
+    Client client = restClientFactory.client();
+
+    assertSame(client, restClientFactory.client());
+  }
+
+  @Test
+  public void close() {
+    Client client = restClientFactory.client();
+
+    restClientFactory.close();
+
+    assertNotSame(client, restClientFactory.client());
+  }
 }
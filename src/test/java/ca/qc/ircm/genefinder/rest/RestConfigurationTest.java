@@ -31,5 +31,12 @@ public class RestConfigurationTest {
   @Test
   public void defaultProperties() throws Throwable {
     assertEquals(120000, restConfiguration.timeout());
+    assertEquals(20, restConfiguration.maxConnections());
+    assertEquals(10, restConfiguration.maxConnectionsPerRoute());
+    assertEquals(60000, restConfiguration.keepAlive());
+    assertEquals(3, restConfiguration.connectRetries());
+    assertEquals(8, restConfiguration.readRetries());
+    assertEquals(1000, restConfiguration.retryDelay());
+    assertEquals(60000, restConfiguration.maxRetryDelay());
   }
 }
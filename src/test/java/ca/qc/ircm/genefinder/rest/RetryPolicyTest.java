@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.client.ResponseProcessingException;
+import jakarta.ws.rs.core.Response;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class RetryPolicyTest {
+  private RetryPolicy policy(int connectRetries, int readRetries) {
+    return new RetryPolicy(connectRetries, readRetries, Duration.ZERO, Duration.ZERO);
+  }
+
+  private RetryPolicy policy(double random) {
+    return new RetryPolicy(3, 3, Duration.ofMillis(1000), Duration.ofMillis(10000),
+        new Random() {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          public double nextDouble() {
+            return random;
+          }
+        });
+  }
+
+  private Exception throttled(int status, String retryAfter) {
+    return new WebApplicationException(
+        Response.status(status).header("Retry-After", retryAfter).build());
+  }
+
+  @Test
+  public void call() throws Throwable {
+    RetryPolicy policy = policy(3, 3);
+
+    assertEquals("result", policy.call(() -> "result"));
+  }
+
+  @Test
+  public void call_Retry() throws Throwable {
+    RetryPolicy policy = policy(3, 3);
+    AtomicInteger tries = new AtomicInteger();
+
+    String result = policy.call(() -> {
+      if (tries.incrementAndGet() < 3) {
+        throw new SocketTimeoutException();
+      }
+      return "result";
+    });
+
+    assertEquals("result", result);
+    assertEquals(3, tries.get());
+  }
+
+  @Test
+  public void call_ReadRetriesExhausted() throws Throwable {
+    RetryPolicy policy = policy(1, 3);
+    AtomicInteger tries = new AtomicInteger();
+    IOException first = new IOException("first");
+
+    IOException exception = assertThrows(IOException.class, () -> policy.call(() -> {
+      throw tries.incrementAndGet() == 1 ? first : new IOException("other");
+    }));
+
+    assertSame(first, exception);
+    assertEquals(4, tries.get());
+  }
+
+  @Test
+  public void call_ConnectRetriesExhausted() throws Throwable {
+    RetryPolicy policy = policy(1, 3);
+    AtomicInteger tries = new AtomicInteger();
+
+    assertThrows(ProcessingException.class, () -> policy.call(() -> {
+      tries.incrementAndGet();
+      throw new ProcessingException(new ConnectException());
+    }));
+
+    assertEquals(2, tries.get());
+  }
+
+  @Test
+  public void call_SeparateBudgets() throws Throwable {
+    RetryPolicy policy = policy(1, 1);
+    AtomicInteger tries = new AtomicInteger();
+
+    String result = policy.call(() -> {
+      int tryNumber = tries.incrementAndGet();
+      if (tryNumber == 1) {
+        throw new ProcessingException(new ConnectException());
+      } else if (tryNumber == 2) {
+        throw new ProcessingException(new SocketTimeoutException());
+      }
+      return "result";
+    });
+
+    assertEquals("result", result);
+    assertEquals(3, tries.get());
+  }
+
+  @Test
+  public void call_ClientError() throws Throwable {
+    RetryPolicy policy = policy(3, 3);
+    AtomicInteger tries = new AtomicInteger();
+    ResponseProcessingException error =
+        new ResponseProcessingException(Response.status(404).build(), "Test");
+
+    ResponseProcessingException exception =
+        assertThrows(ResponseProcessingException.class, () -> policy.call(() -> {
+          tries.incrementAndGet();
+          throw error;
+        }));
+
+    assertSame(error, exception);
+    assertEquals(1, tries.get());
+  }
+
+  @Test
+  public void call_RetryableStatus() throws Throwable {
+    for (int status : new int[] { 408, 429, 500, 503 }) {
+      RetryPolicy policy = policy(3, 3);
+      AtomicInteger tries = new AtomicInteger();
+
+      String result = policy.call(() -> {
+        if (tries.incrementAndGet() < 2) {
+          throw new ResponseProcessingException(Response.status(status).build(), "Test");
+        }
+        return "result";
+      });
+
+      assertEquals("result", result, "status " + status);
+      assertEquals(2, tries.get(), "status " + status);
+    }
+  }
+
+  @Test
+  public void call_NotIoError() throws Throwable {
+    RetryPolicy policy = policy(3, 3);
+    AtomicInteger tries = new AtomicInteger();
+
+    assertThrows(IllegalStateException.class, () -> policy.call(() -> {
+      tries.incrementAndGet();
+      throw new IllegalStateException();
+    }));
+
+    assertEquals(1, tries.get());
+  }
+
+  @Test
+  public void call_Interrupted() throws Throwable {
+    RetryPolicy policy = policy(3, 3);
+    AtomicInteger tries = new AtomicInteger();
+
+    assertThrows(InterruptedException.class, () -> policy.call(() -> {
+      tries.incrementAndGet();
+      throw new InterruptedException();
+    }));
+
+    assertEquals(1, tries.get());
+  }
+
+  @Test
+  public void delay_Exponential() {
+    RetryPolicy policy = policy(0.0);
+    IOException exception = new IOException();
+
+    assertEquals(Duration.ofMillis(500), policy.delay(0, exception));
+    assertEquals(Duration.ofMillis(1000), policy.delay(1, exception));
+    assertEquals(Duration.ofMillis(2000), policy.delay(2, exception));
+  }
+
+  @Test
+  public void delay_Jitter() {
+    RetryPolicy policy = policy(0.5);
+    IOException exception = new IOException();
+
+    assertEquals(Duration.ofMillis(750), policy.delay(0, exception));
+    assertEquals(Duration.ofMillis(1500), policy.delay(1, exception));
+  }
+
+  @Test
+  public void delay_MaxDelay() {
+    RetryPolicy policy = policy(0.0);
+    IOException exception = new IOException();
+
+    assertEquals(Duration.ofMillis(5000), policy.delay(5, exception));
+    assertEquals(Duration.ofMillis(5000), policy.delay(100, exception));
+  }
+
+  @Test
+  public void delay_RetryAfter() {
+    RetryPolicy policy = policy(0.0);
+
+    assertEquals(Duration.ofSeconds(30), policy.delay(0, throttled(429, "30")));
+  }
+
+  @Test
+  public void delay_RetryAfterShorterThanBackoff() {
+    RetryPolicy policy = policy(0.0);
+
+    assertEquals(Duration.ofMillis(2000), policy.delay(2, throttled(503, "1")));
+  }
+
+  @Test
+  public void retryAfter_Seconds() {
+    assertEquals(Duration.ofSeconds(120),
+        RetryPolicy.retryAfter(throttled(429, "120"), Instant.now()));
+    assertEquals(Duration.ofSeconds(5),
+        RetryPolicy.retryAfter(throttled(503, " 5 "), Instant.now()));
+  }
+
+  @Test
+  public void retryAfter_Date() {
+    Instant now = Instant.parse("2020-01-01T12:00:00Z");
+    String date = DateTimeFormatter.RFC_1123_DATE_TIME
+        .format(now.plusSeconds(90).atOffset(ZoneOffset.UTC));
+
+    assertEquals(Duration.ofSeconds(90), RetryPolicy.retryAfter(throttled(503, date), now));
+  }
+
+  @Test
+  public void retryAfter_DatePassed() {
+    Instant now = Instant.parse("2020-01-01T12:00:00Z");
+    String date = DateTimeFormatter.RFC_1123_DATE_TIME
+        .format(now.minusSeconds(90).atOffset(ZoneOffset.UTC));
+
+    assertEquals(Duration.ZERO, RetryPolicy.retryAfter(throttled(503, date), now));
+  }
+
+  @Test
+  public void retryAfter_Max() {
+    assertEquals(RetryPolicy.MAX_RETRY_AFTER,
+        RetryPolicy.retryAfter(throttled(429, "86400"), Instant.now()));
+  }
+
+  @Test
+  public void retryAfter_ResponseProcessingException() {
+    Exception exception = new ProcessingException(new ResponseProcessingException(
+        Response.status(429).header("Retry-After", "10").build(), "Test"));
+
+    assertEquals(Duration.ofSeconds(10), RetryPolicy.retryAfter(exception, Instant.now()));
+  }
+
+  @Test
+  public void retryAfter_Invalid() {
+    assertNull(RetryPolicy.retryAfter(throttled(429, "soon"), Instant.now()));
+  }
+
+  @Test
+  public void retryAfter_NoHeader() {
+    assertNull(RetryPolicy.retryAfter(new WebApplicationException(Response.status(429).build()),
+        Instant.now()));
+  }
+
+  @Test
+  public void retryAfter_OtherStatus() {
+    assertNull(RetryPolicy.retryAfter(throttled(500, "10"), Instant.now()));
+  }
+
+  @Test
+  public void retryAfter_NoResponse() {
+    assertNull(RetryPolicy.retryAfter(new IOException(), Instant.now()));
+  }
+
+  @Test
+  public void retryable() {
+    assertTrue(RetryPolicy.retryable(new IOException()));
+    assertTrue(RetryPolicy.retryable(new ProcessingException(new SocketTimeoutException())));
+    assertTrue(RetryPolicy.retryable(new ProcessingException(new ConnectException())));
+    assertTrue(RetryPolicy.retryable(throttled(408, "10")));
+    assertTrue(RetryPolicy.retryable(throttled(429, "10")));
+    assertTrue(RetryPolicy.retryable(throttled(500, "10")));
+    assertTrue(RetryPolicy.retryable(new ProcessingException(
+        new ResponseProcessingException(Response.status(502).build(), "Test"))));
+    assertFalse(RetryPolicy.retryable(throttled(400, "10")));
+    assertFalse(RetryPolicy.retryable(throttled(404, "10")));
+    assertFalse(RetryPolicy.retryable(new ProcessingException("Test")));
+    assertFalse(RetryPolicy.retryable(new IllegalArgumentException()));
+  }
+
+  @Test
+  public void connectFailure() {
+    assertTrue(RetryPolicy.connectFailure(new ProcessingException(new ConnectException())));
+    assertTrue(RetryPolicy.connectFailure(new ProcessingException(new UnknownHostException())));
+    assertFalse(
+        RetryPolicy.connectFailure(new ProcessingException(new SocketTimeoutException())));
+    assertFalse(RetryPolicy.connectFailure(throttled(503, "10")));
+  }
+}
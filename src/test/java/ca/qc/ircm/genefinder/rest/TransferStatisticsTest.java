@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class TransferStatisticsTest {
+  @Test
+  public void record() {
+    TransferStatistics transferStatistics = new TransferStatistics();
+
+    transferStatistics.record(100, 400);
+    transferStatistics.record(50, 50);
+
+    assertEquals(150, transferStatistics.receivedBytes());
+    assertEquals(450, transferStatistics.decodedBytes());
+    assertEquals(300, transferStatistics.savedBytes());
+  }
+
+  @Test
+  public void record_Empty() {
+    TransferStatistics transferStatistics = new TransferStatistics();
+
+    assertEquals(0, transferStatistics.receivedBytes());
+    assertEquals(0, transferStatistics.decodedBytes());
+    assertEquals(0, transferStatistics.savedBytes());
+  }
+}
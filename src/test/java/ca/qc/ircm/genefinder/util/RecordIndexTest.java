@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RecordIndexTest {
+  @TempDir
+  Path temporaryFolder;
+
+  private byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private List<String> strings(List<byte[]> records) {
+    return records.stream().map(record -> new String(record, StandardCharsets.UTF_8))
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void records() throws Throwable {
+    Path file = temporaryFolder.resolve("test.index");
+    try (RecordIndexWriter writer = new RecordIndexWriter(file, "test metadata")) {
+      writer.add(30, bytes("thirty"));
+      writer.add(-5, bytes("minus five"));
+      writer.add(10, bytes("ten"));
+      writer.add(30, bytes("thirty again"));
+      writer.add(20, bytes(""));
+    }
+
+    try (RecordIndex index = RecordIndex.open(file)) {
+      assertEquals("test metadata", index.metadata());
+      assertEquals(5, index.size());
+      assertEquals(List.of("minus five"), strings(index.records(-5)));
+      assertEquals(List.of("ten"), strings(index.records(10)));
+      assertEquals(List.of(""), strings(index.records(20)));
+      assertEquals(List.of("thirty", "thirty again"), strings(index.records(30)));
+      assertTrue(index.records(0).isEmpty());
+      assertTrue(index.records(40).isEmpty());
+    }
+  }
+
+  @Test
+  public void records_Many() throws Throwable {
+    Path file = temporaryFolder.resolve("test.index");
+    try (RecordIndexWriter writer = new RecordIndexWriter(file, "")) {
+      for (int i = 99999; i >= 0; i--) {
+        writer.add(i * 2, bytes("record " + i));
+      }
+    }
+
+    try (RecordIndex index = RecordIndex.open(file)) {
+      assertEquals(100000, index.size());
+      for (int i = 0; i < 100000; i++) {
+        assertEquals(List.of("record " + i), strings(index.records(i * 2)));
+        assertTrue(index.records(i * 2 + 1).isEmpty());
+      }
+    }
+  }
+
+  @Test
+  public void records_ExternalSort() throws Throwable {
+    Path file = temporaryFolder.resolve("test.index");
+    try (RecordIndexWriter writer = new RecordIndexWriter(file, "", 1000)) {
+      for (int i = 9999; i >= 0; i--) {
+        writer.add(i % 2500, bytes("record " + i));
+      }
+    }
+
+    try (RecordIndex index = RecordIndex.open(file)) {
+      assertEquals(10000, index.size());
+      for (int i = 0; i < 2500; i++) {
+        assertEquals(List.of("record " + (i + 7500), "record " + (i + 5000),
+            "record " + (i + 2500), "record " + i), strings(index.records(i)));
+      }
+    }
+    try (Stream<Path> files = Files.list(temporaryFolder)) {
+      assertEquals(List.of(file), files.collect(Collectors.toList()));
+    }
+  }
+
+  @Test
+  public void records_Empty() throws Throwable {
+    Path file = temporaryFolder.resolve("test.index");
+    new RecordIndexWriter(file, "").close();
+
+    try (RecordIndex index = RecordIndex.open(file)) {
+      assertEquals(0, index.size());
+      assertTrue(index.records(1).isEmpty());
+    }
+  }
+
+  @Test
+  public void abort() throws Throwable {
+    Path file = temporaryFolder.resolve("test.index");
+    RecordIndexWriter writer = new RecordIndexWriter(file, "");
+    writer.add(1, bytes("one"));
+
+    writer.abort();
+
+    assertFalse(Files.exists(file));
+    assertFalse(Files.exists(temporaryFolder.resolve("test.index.tmp")));
+  }
+
+  @Test
+  public void key() {
+    assertEquals(0xcbf29ce484222325L, RecordIndex.key(""));
+    assertEquals(0xaf63dc4c8601ec8cL, RecordIndex.key("a"));
+    assertEquals(RecordIndex.key("P31946"), RecordIndex.key(new StringBuilder("P31946")));
+  }
+
+  @Test
+  public void open_NotIndex() throws Throwable {
+    Path file = temporaryFolder.resolve("test.index");
+    Files.write(file, bytes("not an index file"));
+
+    assertThrows(IOException.class, () -> RecordIndex.open(file));
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.xml;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Compares {@link PathSaxHandler} with {@link StackSaxHandler} on a large elink response.
+ * <p>
+ * Run with <code>mvn test -Dtest=PathSaxHandlerBenchmarkTest -Dbenchmark=true</code>.
+ * </p>
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class PathSaxHandlerBenchmarkTest {
+  private static final Logger logger = LoggerFactory.getLogger(PathSaxHandlerBenchmarkTest.class);
+  private static final int LINK_SETS = 20000;
+  private static final int LINKS = 5;
+  private static final int ROUNDS = 5;
+  private static final ElementPath LINK_ID = ElementPath.compile("LinkSet/LinkSetDb/Link/Id");
+  private SaxParserPool pool = new SaxParserPool();
+
+  private byte[] elink() {
+    StringBuilder builder = new StringBuilder("<eLinkResult>");
+    for (int i = 0; i < LINK_SETS; i++) {
+      builder.append("<LinkSet><DbFrom>protein</DbFrom><IdList><Id>").append(i)
+          .append("</Id></IdList><LinkSetDb><DbTo>gene</DbTo><LinkName>protein_gene</LinkName>");
+      for (int j = 0; j < LINKS; j++) {
+        builder.append("<Link><Id>").append(j).append("</Id></Link>");
+      }
+      builder.append("</LinkSetDb></LinkSet>");
+    }
+    builder.append("</eLinkResult>");
+    return builder.toString().getBytes(UTF_8);
+  }
+
+  private List<String> parse(byte[] xml, DefaultHandler handler, List<String> ids)
+      throws Exception {
+    pool.parse(new ByteArrayInputStream(xml), handler);
+    return ids;
+  }
+
+  private List<String> stackIds(byte[] xml) throws Exception {
+    List<String> ids = new ArrayList<>();
+    return parse(xml, new StackSaxHandler() {
+      private boolean saveCharacter;
+      private StringBuilder builder = new StringBuilder();
+
+      @Override
+      protected void startElement(String elementName, Attributes attributes) {
+        if (current("Id") && parent("Link")) {
+          builder.delete(0, builder.length());
+          saveCharacter = true;
+        }
+      }
+
+      @Override
+      protected void endElement(String elementName) {
+        if (current("Id") && parent("Link")) {
+          ids.add(builder.toString());
+          saveCharacter = false;
+        }
+      }
+
+      @Override
+      public void characters(char[] ch, int start, int length) {
+        if (saveCharacter) {
+          builder.append(ch, start, length);
+        }
+      }
+    }, ids);
+  }
+
+  private List<String> pathIds(byte[] xml) throws Exception {
+    List<String> ids = new ArrayList<>();
+    return parse(xml, new PathSaxHandler() {
+      @Override
+      protected void startElement(String elementName, Attributes attributes) {
+        if (current(LINK_ID)) {
+          collectText();
+        }
+      }
+
+      @Override
+      protected void endElement(String elementName) {
+        if (current(LINK_ID)) {
+          ids.add(text());
+        }
+      }
+    }, ids);
+  }
+
+  @Test
+  public void parse() throws Throwable {
+    byte[] xml = elink();
+    long stackNanos = Long.MAX_VALUE;
+    long pathNanos = Long.MAX_VALUE;
+    List<String> stackIds = null;
+    List<String> pathIds = null;
+    for (int i = 0; i < ROUNDS; i++) {
+      long start = System.nanoTime();
+      stackIds = stackIds(xml);
+      stackNanos = Math.min(stackNanos, System.nanoTime() - start);
+      start = System.nanoTime();
+      pathIds = pathIds(xml);
+      pathNanos = Math.min(pathNanos, System.nanoTime() - start);
+    }
+
+    assertEquals(LINK_SETS * LINKS, pathIds.size());
+    assertEquals(stackIds, pathIds);
+    logger.info("{} elements: stack handler {} ms, path handler {} ms, speedup {}x",
+        LINK_SETS * (9 + LINKS * 2), stackNanos / 1000000.0, pathNanos / 1000000.0,
+        Math.round((double) stackNanos / pathNanos * 10) / 10.0);
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.xml;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.Attributes;
+
+public class PathSaxHandlerTest {
+  private static final String XML = "<eLinkResult>"
+      + "<LinkSet><IdList><Id>10</Id></IdList>"
+      + "<LinkSetDb><Link><Id>1</Id></Link><Link><Id>2</Id></Link></LinkSetDb></LinkSet>"
+      + "<LinkSet><IdList><Id>20</Id></IdList>"
+      + "<LinkSetDb><Link><Id>3</Id></Link></LinkSetDb></LinkSet>" + "</eLinkResult>";
+  private SaxParserPool pool = new SaxParserPool();
+
+  private void parse(String xml, PathSaxHandler handler) throws Exception {
+    pool.parse(new ByteArrayInputStream(xml.getBytes(UTF_8)), handler);
+  }
+
+  private List<String> texts(String xml, ElementPath path) throws Exception {
+    List<String> texts = new ArrayList<>();
+    parse(xml, new PathSaxHandler() {
+      @Override
+      protected void startElement(String elementName, Attributes attributes) {
+        if (current(path)) {
+          collectText();
+        }
+      }
+
+      @Override
+      protected void endElement(String elementName) {
+        if (current(path)) {
+          texts.add(text());
+        }
+      }
+    });
+    return texts;
+  }
+
+  @Test
+  public void current_Path() throws Throwable {
+    assertEquals(List.of("1", "2", "3"),
+        texts(XML, ElementPath.compile("LinkSet/LinkSetDb/Link/Id")));
+    assertEquals(List.of("10", "20"), texts(XML, ElementPath.compile("IdList/Id")));
+    assertEquals(List.of("10", "1", "2", "20", "3"), texts(XML, ElementPath.compile("Id")));
+  }
+
+  @Test
+  public void current_AbsolutePath() throws Throwable {
+    assertEquals(List.of("10", "20"),
+        texts(XML, ElementPath.compile("/eLinkResult/LinkSet/IdList/Id")));
+    assertEquals(List.of(), texts(XML, ElementPath.compile("/LinkSet/IdList/Id")));
+  }
+
+  @Test
+  public void current_Name() throws Throwable {
+    List<String> names = new ArrayList<>();
+    parse(XML, new PathSaxHandler() {
+      @Override
+      protected void startElement(String elementName, Attributes attributes) {
+        if (current("Link")) {
+          names.add(elementName + depth());
+        }
+      }
+    });
+
+    assertEquals(List.of("Link4", "Link4", "Link4"), names);
+  }
+
+  @Test
+  public void current_DeepDocument() throws Throwable {
+    StringBuilder xml = new StringBuilder();
+    for (int i = 0; i < 50; i++) {
+      xml.append("<a>");
+    }
+    xml.append("<b>text</b>");
+    for (int i = 0; i < 50; i++) {
+      xml.append("</a>");
+    }
+
+    assertEquals(List.of("text"), texts(xml.toString(), ElementPath.compile("a/a/b")));
+    assertEquals(List.of(), texts(xml.toString(), ElementPath.compile("/a/b")));
+  }
+
+  @Test
+  public void text_Split() throws Throwable {
+    assertEquals(List.of("a & b"),
+        texts("<Summary><Name>a &amp; b</Name></Summary>", ElementPath.compile("Name")));
+  }
+
+  @Test
+  public void copy() throws Throwable {
+    List<Attributes> attributes = new ArrayList<>();
+    parse("<List><Item Name=\"TaxId\"/><Item Name=\"Length\"/></List>", new PathSaxHandler() {
+      @Override
+      protected void startElement(String elementName, Attributes elementAttributes) {
+        if (current("Item")) {
+          attributes.add(copy(elementAttributes));
+        }
+      }
+    });
+
+    assertEquals(2, attributes.size());
+    assertEquals("TaxId", attributes.get(0).getValue("Name"));
+    assertEquals("Length", attributes.get(1).getValue("Name"));
+  }
+
+  @Test
+  public void compile_Invalid() {
+    assertThrows(IllegalArgumentException.class, () -> ElementPath.compile(""));
+    assertThrows(IllegalArgumentException.class, () -> ElementPath.compile("/"));
+    assertThrows(IllegalArgumentException.class, () -> ElementPath.compile("Link//Id"));
+  }
+
+  @Test
+  public void compile_Name() {
+    ElementPath path = ElementPath.compile("/LinkSet/LinkSetDb/Link/Id");
+
+    assertEquals("Id", path.name());
+    assertEquals("/LinkSet/LinkSetDb/Link/Id", path.toString());
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014 Institut de recherches cliniques de Montreal (IRCM)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.qc.ircm.genefinder.xml;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+public class SaxParserPoolTest {
+  private SaxParserPool pool = new SaxParserPool();
+
+  private InputStream input(String xml) {
+    return new ByteArrayInputStream(xml.getBytes(UTF_8));
+  }
+
+  private List<String> ids(String xml) throws Exception {
+    List<String> ids = new ArrayList<>();
+    pool.parse(input(xml), new StackSaxHandler() {
+      @Override
+      protected void startElement(String elementName, Attributes attributes) {
+        if (current("Id")) {
+          ids.add(attribute("value"));
+        }
+      }
+    });
+    return ids;
+  }
+
+  @Test
+  public void parse() throws Throwable {
+    assertEquals(List.of("1", "2"), ids("<IdList><Id value=\"1\"/><Id value=\"2\"/></IdList>"));
+    assertEquals(1, pool.idle());
+  }
+
+  @Test
+  public void parse_ReuseParser() throws Throwable {
+    assertEquals(List.of("1"), ids("<IdList><Id value=\"1\"/></IdList>"));
+    assertEquals(List.of("2"), ids("<IdList><Id value=\"2\"/></IdList>"));
+    assertEquals(1, pool.idle());
+  }
+
+  @Test
+  public void parse_ExternalDtdNotLoaded() throws Throwable {
+    String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"
+        + "<!DOCTYPE IdList PUBLIC \"-//NLM//DTD test//EN\" \"http://localhost:1/test.dtd\">\n"
+        + "<IdList><Id value=\"1\"/></IdList>";
+
+    assertEquals(List.of("1"), ids(xml));
+  }
+
+  @Test
+  public void parse_Invalid() throws Throwable {
+    assertThrows(SAXException.class, () -> ids("<IdList><Id value=\"1\"></IdList>"));
+    assertEquals(0, pool.idle());
+    assertEquals(List.of("2"), ids("<IdList><Id value=\"2\"/></IdList>"));
+  }
+
+  @Test
+  public void parse_Concurrent() throws Throwable {
+    ExecutorService executor = Executors.newFixedThreadPool(SaxParserPool.MAX_IDLE * 2);
+    try {
+      List<Future<List<String>>> results = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        String id = String.valueOf(i);
+        Callable<List<String>> task = () -> ids("<IdList><Id value=\"" + id + "\"/></IdList>");
+        results.add(executor.submit(task));
+      }
+      for (int i = 0; i < results.size(); i++) {
+        assertEquals(List.of(String.valueOf(i)), results.get(i).get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertTrue(pool.idle() <= SaxParserPool.MAX_IDLE);
+  }
+}